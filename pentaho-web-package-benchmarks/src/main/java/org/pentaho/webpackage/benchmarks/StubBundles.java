@@ -0,0 +1,178 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.benchmarks;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleWiring;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of started OSGi bundles for the extender to work with, without a framework.
+ * <p>
+ * The bundle entries are the files under a folder, the capabilities are given, and services are "registered" without
+ * going anywhere. Every other method returns the default value of its type.
+ */
+public final class StubBundles {
+  private StubBundles() {
+  }
+
+  /**
+   * A started bundle providing the given capabilities, with its entries under {@code directory}.
+   */
+  public static Bundle createBundle( long bundleId, File directory, Dictionary<String, String> headers,
+                                     String namespace, List<Map<String, Object>> capabilityAttributes ) {
+    Bundle[] bundle = new Bundle[ 1 ];
+
+    BundleContext bundleContext = proxy( BundleContext.class, ( proxy, method, args ) -> {
+      switch ( method.getName() ) {
+        case "getBundle":
+          return bundle[ 0 ];
+        case "registerService":
+          return proxy( ServiceRegistration.class, ( registration, registrationMethod, registrationArgs ) ->
+              defaultValue( registrationMethod.getReturnType() ) );
+        default:
+          return identity( proxy, method.getName(), args, method.getReturnType() );
+      }
+    } );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    BundleWiring wiring = proxy( BundleWiring.class, ( proxy, method, args ) -> {
+      switch ( method.getName() ) {
+        case "getCapabilities":
+          return args[ 0 ] == null || namespace.equals( args[ 0 ] ) ? capabilities : new ArrayList<>();
+        case "getBundle":
+          return bundle[ 0 ];
+        default:
+          return identity( proxy, method.getName(), args, method.getReturnType() );
+      }
+    } );
+
+    for ( Map<String, Object> attributes : capabilityAttributes ) {
+      capabilities.add( proxy( BundleCapability.class, ( proxy, method, args ) -> {
+        switch ( method.getName() ) {
+          case "getNamespace":
+            return namespace;
+          case "getAttributes":
+            return attributes;
+          case "getRevision":
+            return null;
+          default:
+            return identity( proxy, method.getName(), args, method.getReturnType() );
+        }
+      } ) );
+    }
+
+    bundle[ 0 ] = proxy( Bundle.class, ( proxy, method, args ) -> {
+      switch ( method.getName() ) {
+        case "getBundleId":
+          return bundleId;
+        case "getSymbolicName":
+          return "benchmark-bundle-" + bundleId;
+        case "getState":
+          return Bundle.ACTIVE;
+        case "getHeaders":
+          return headers != null ? headers : new Hashtable<String, String>();
+        case "getBundleContext":
+          return bundleContext;
+        case "adapt":
+          return args[ 0 ] == BundleWiring.class ? wiring : null;
+        case "getEntry":
+        case "getResource":
+          return getEntry( directory, (String) args[ 0 ] );
+        default:
+          return identity( proxy, method.getName(), args, method.getReturnType() );
+      }
+    } );
+
+    return bundle[ 0 ];
+  }
+
+  private static URL getEntry( File directory, String name ) throws MalformedURLException {
+    File file = new File( directory, name );
+
+    return file.isFile() ? file.toURI().toURL() : null;
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static <T> T proxy( Class<T> type, InvocationHandler handler ) {
+    return (T) Proxy.newProxyInstance( StubBundles.class.getClassLoader(), new Class<?>[] { type }, handler );
+  }
+
+  private static Object identity( Object proxy, String methodName, Object[] args, Class<?> returnType ) {
+    switch ( methodName ) {
+      case "equals":
+        return proxy == args[ 0 ];
+      case "hashCode":
+        return System.identityHashCode( proxy );
+      case "toString":
+        return proxy.getClass().getInterfaces()[ 0 ].getSimpleName() + "@" + System.identityHashCode( proxy );
+      default:
+        return defaultValue( returnType );
+    }
+  }
+
+  private static Object defaultValue( Class<?> type ) {
+    if ( !type.isPrimitive() || type == void.class ) {
+      return null;
+    }
+
+    if ( type == boolean.class ) {
+      return false;
+    }
+
+    if ( type == char.class ) {
+      return '\0';
+    }
+
+    if ( type == long.class ) {
+      return 0L;
+    }
+
+    if ( type == float.class ) {
+      return 0f;
+    }
+
+    if ( type == double.class ) {
+      return 0d;
+    }
+
+    if ( type == byte.class ) {
+      return (byte) 0;
+    }
+
+    if ( type == short.class ) {
+      return (short) 0;
+    }
+
+    return 0;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.benchmarks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Synthetic web packages, generated the same way on every run so results can be compared between runs.
+ * <p>
+ * Script files are made of code-like lines, so they compress about as well as real scripts do, and every tenth file
+ * is an image of random bytes that doesn't compress at all.
+ */
+public final class WebPackageFixtures {
+  public enum Size {
+    SMALL( 10, 2 * 1024 ),
+    MEDIUM( 500, 8 * 1024 ),
+    HUGE( 10000, 4 * 1024 );
+
+    private final int fileCount;
+    private final int fileSize;
+
+    Size( int fileCount, int fileSize ) {
+      this.fileCount = fileCount;
+      this.fileSize = fileSize;
+    }
+
+    public int getFileCount() {
+      return this.fileCount;
+    }
+
+    public int getFileSize() {
+      return this.fileSize;
+    }
+  }
+
+  public static final String NAME = "benchmark-package";
+  public static final String VERSION = "1.0.0";
+
+  private static final long SEED = 42;
+
+  private static final String[] WORDS = { "define", "require", "function", "return", "var", "this", "prototype",
+      "module", "exports", "value", "length", "options", "callback", "undefined", "null", "true", "false" };
+
+  private WebPackageFixtures() {
+  }
+
+  public static File createTgz( File directory, Size size ) throws IOException {
+    return createTgz( directory, size, 0 );
+  }
+
+  /**
+   * Writes an npm-like tarball, with everything under {@code package/} and the package.json first.
+   *
+   * @param revision makes the first script different from the one of other revisions, and nothing else
+   */
+  public static File createTgz( File directory, Size size, int revision ) throws IOException {
+    File file = new File( directory, NAME + "-" + VERSION + "-" + size.name().toLowerCase() + ".tgz" );
+
+    Random random = new Random( SEED );
+
+    try ( TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream( new GzipCompressorOutputStream(
+        new BufferedOutputStream( new FileOutputStream( file ) ) ) ) ) {
+      tarOutputStream.setLongFileMode( TarArchiveOutputStream.LONGFILE_POSIX );
+
+      putTarEntry( tarOutputStream, "package/package.json", packageJson( 10, 0, true ) );
+
+      for ( int i = 0; i < size.getFileCount(); i++ ) {
+        byte[] content = getFileContent( random, i, size.getFileSize(), revision );
+
+        putTarEntry( tarOutputStream, "package/" + getFileName( i ), content );
+      }
+    }
+
+    return file;
+  }
+
+  /**
+   * Writes a zip with the package.json at its root and no manifest, as the deployer expects them.
+   */
+  public static File createZip( File directory, Size size ) throws IOException {
+    File file = new File( directory, NAME + "-" + VERSION + "-" + size.name().toLowerCase() + ".zip" );
+
+    Random random = new Random( SEED );
+
+    try ( ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( file ) ) {
+      putZipEntry( zipOutputStream, "package.json", packageJson( 10, 0, true ) );
+
+      for ( int i = 0; i < size.getFileCount(); i++ ) {
+        putZipEntry( zipOutputStream, getFileName( i ), getFileContent( random, i, size.getFileSize(), 0 ) );
+      }
+    }
+
+    return file;
+  }
+
+  /**
+   * Writes the files of a package to a folder, as a bundle would have them under its root.
+   */
+  public static void createFiles( File directory, Size size ) throws IOException {
+    Random random = new Random( SEED );
+
+    write( new File( directory, "package.json" ), packageJson( 10, 0, true ) );
+
+    for ( int i = 0; i < size.getFileCount(); i++ ) {
+      write( new File( directory, getFileName( i ) ), getFileContent( random, i, size.getFileSize(), 0 ) );
+    }
+  }
+
+  /**
+   * The content of a script of the given size.
+   */
+  public static byte[] script( int size ) {
+    return getFileContent( new Random( SEED ), 0, size, 0 );
+  }
+
+  /**
+   * A package.json with the given number of dependencies and a readme of about the given size.
+   *
+   * @param nameFirst whether the name and version come before everything else, as npm writes them, or last
+   */
+  public static byte[] packageJson( int dependencyCount, int readmeSize, boolean nameFirst ) {
+    StringBuilder json = new StringBuilder( "{\n" );
+
+    if ( nameFirst ) {
+      json.append( "  \"name\": \"" ).append( NAME ).append( "\",\n" );
+      json.append( "  \"version\": \"" ).append( VERSION ).append( "\",\n" );
+    }
+
+    json.append( "  \"description\": \"A package made up for benchmarking \\\"web packages\\\" \\u00e9\",\n" );
+    json.append( "  \"main\": \"lib/module-0.js\",\n" );
+    json.append( "  \"keywords\": [ \"amd\", \"requirejs\", \"benchmark\" ],\n" );
+    json.append( "  \"scripts\": { \"test\": \"karma start\", \"build\": \"r.js -o build.js\" },\n" );
+    json.append( "  \"private\": false,\n" );
+    json.append( "  \"engines\": { \"node\": \">=4.0.0\" },\n" );
+
+    json.append( "  \"dependencies\": {" );
+    for ( int i = 0; i < dependencyCount; i++ ) {
+      json.append( i == 0 ? "\n" : ",\n" ).append( "    \"dependency-" ).append( i ).append( "\": \"^" )
+          .append( i % 7 ).append( '.' ).append( i % 13 ).append( ".0\"" );
+    }
+    json.append( "\n  },\n" );
+
+    json.append( "  \"readme\": \"" );
+    Random random = new Random( SEED );
+    while ( json.length() < readmeSize ) {
+      json.append( WORDS[ random.nextInt( WORDS.length ) ] ).append( random.nextInt( 10 ) == 0 ? "\\n" : " " );
+    }
+    json.append( "\"" );
+
+    if ( !nameFirst ) {
+      json.append( ",\n  \"version\": \"" ).append( VERSION ).append( "\"" );
+      json.append( ",\n  \"name\": \"" ).append( NAME ).append( "\"" );
+    }
+
+    json.append( "\n}\n" );
+
+    return json.toString().getBytes( StandardCharsets.UTF_8 );
+  }
+
+  private static String getFileName( int index ) {
+    return ( isImage( index ) ? "images/image-" + index + ".png" : "lib/module-" + index + ".js" );
+  }
+
+  private static boolean isImage( int index ) {
+    return index % 10 == 9;
+  }
+
+  private static byte[] getFileContent( Random random, int index, int size, int revision ) {
+    if ( isImage( index ) ) {
+      byte[] content = new byte[ size ];
+      random.nextBytes( content );
+
+      return content;
+    }
+
+    StringBuilder script = new StringBuilder( size + 64 );
+    script.append( "define( \"module-" ).append( index ).append( "\", [], function() {\n" );
+    while ( script.length() < size - 3 ) {
+      script.append( "  " ).append( WORDS[ random.nextInt( WORDS.length ) ] )
+          .append( '.' ).append( WORDS[ random.nextInt( WORDS.length ) ] )
+          .append( "( " ).append( random.nextInt( 1000 ) ).append( " );\n" );
+    }
+    script.setLength( size - 3 );
+    script.append( "});" );
+
+    if ( index == 0 && revision != 0 ) {
+      script.append( "\n// revision " ).append( revision );
+    }
+
+    return script.toString().getBytes( StandardCharsets.UTF_8 );
+  }
+
+  private static void putTarEntry( TarArchiveOutputStream tarOutputStream, String name, byte[] content )
+      throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry( name );
+    entry.setSize( content.length );
+
+    tarOutputStream.putArchiveEntry( entry );
+    tarOutputStream.write( content );
+    tarOutputStream.closeArchiveEntry();
+  }
+
+  private static void putZipEntry( ZipArchiveOutputStream zipOutputStream, String name, byte[] content )
+      throws IOException {
+    zipOutputStream.putArchiveEntry( new ZipArchiveEntry( name ) );
+    zipOutputStream.write( content );
+    zipOutputStream.closeArchiveEntry();
+  }
+
+  private static void write( File file, byte[] content ) throws IOException {
+    File parent = file.getParentFile();
+    if ( parent != null && !parent.isDirectory() && !parent.mkdirs() ) {
+      throw new IOException( "Unable to create " + parent );
+    }
+
+    try ( OutputStream outputStream = new FileOutputStream( file ) ) {
+      outputStream.write( content );
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The name and version of a package read from its package.json, by {@link PackageJsonReader} and by json-simple, which
+ * was used before.
+ * <p>
+ * The small package.json is a typical one; the large one has a long readme and many dependencies, as those published
+ * to the npm registry do, with its name and version last or (as npm writes them) first. The others are real ones, as
+ * published: util-deprecate (a small module), corepack and npm (many fields and dependencies, its version first).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class PackageJsonReaderBenchmark {
+  private static final PackageJsonReader packageJsonReader = new PackageJsonReader( "name", "version" );
+
+  @Param( { "small", "largeNameFirst", "largeNameLast", "util-deprecate", "corepack", "npm" } )
+  public String packageJson;
+
+  private byte[] content;
+
+  @Setup
+  public void setUp() throws IOException {
+    switch ( this.packageJson ) {
+      case "small":
+        this.content = WebPackageFixtures.packageJson( 10, 0, true );
+        break;
+      case "largeNameFirst":
+        this.content = WebPackageFixtures.packageJson( 500, 256 * 1024, true );
+        break;
+      case "largeNameLast":
+        this.content = WebPackageFixtures.packageJson( 500, 256 * 1024, false );
+        break;
+      default:
+        this.content = readSample( this.packageJson );
+    }
+  }
+
+  private static byte[] readSample( String name ) throws IOException {
+    try ( InputStream inputStream = PackageJsonReaderBenchmark.class.getResourceAsStream( name + "-package.json" ) ) {
+      if ( inputStream == null ) {
+        throw new IllegalArgumentException( name );
+      }
+
+      return IOUtils.toByteArray( inputStream );
+    }
+  }
+
+  @Benchmark
+  public Map<String, Object> packageJsonReader() throws IOException {
+    return packageJsonReader.read( new ByteArrayInputStream( this.content ) );
+  }
+
+  @Benchmark
+  public Object jsonSimple() throws IOException, ParseException {
+    // the parser isn't thread safe, so it can't be shared
+    return new JSONParser().parse( new InputStreamReader( new ByteArrayInputStream( this.content ), StandardCharsets.UTF_8 ) );
+  }
+}
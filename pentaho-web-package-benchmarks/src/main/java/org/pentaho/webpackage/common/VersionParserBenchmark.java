@@ -0,0 +1,155 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Version;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Versions parsed once (each one is new, so it misses the cache, and every so often the cache is emptied) and again
+ * (it is found in the cache), and by the regular expressions used before ({@code regex}), which cached nothing.
+ * <p>
+ * The shapes are what packages usually have and what they shouldn't: {@code {}} is replaced by a number that makes
+ * each version different from the others.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class VersionParserBenchmark {
+  // several times the cache size, so the uncached versions are never found there
+  private static final int DISTINCT_VERSIONS = 4 * VersionParser.MAX_CACHE_SIZE;
+
+  private static final String LONG_QUALIFIER = new String( new char[ 1000 ] ).replace( '\0', 'a' );
+
+  // the patterns of the regular expression parser VersionParser replaced
+  private static final Pattern VERSION_PATTERN = Pattern.compile( "([0-9]+)?(?:\\.([0-9]*)(?:\\.([0-9]*))?)?[\\.-]?(.*)" );
+  private static final Pattern CLASSIFIER_PATTERN = Pattern.compile( "[a-zA-Z0-9_\\-]+" );
+
+  @Param( { "typical", "prerelease", "longQualifier", "overflow", "invalid" } )
+  public String shape;
+
+  private String[] versions;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    String template = getTemplate( this.shape );
+
+    this.versions = new String[ DISTINCT_VERSIONS ];
+    for ( int i = 0; i < DISTINCT_VERSIONS; i++ ) {
+      this.versions[ i ] = template.replace( "{}", Integer.toString( i ) );
+    }
+  }
+
+  private static String getTemplate( String shape ) {
+    switch ( shape ) {
+      case "typical":
+        return "1.{}.3";
+      case "prerelease":
+        return "v2.{}.3-beta.1+build.5";
+      case "longQualifier":
+        return "1.{}.3-" + LONG_QUALIFIER;
+      case "overflow":
+        return "99999999999.{}.1";
+      case "invalid":
+        return "not a version {}";
+      default:
+        throw new IllegalArgumentException( shape );
+    }
+  }
+
+  @Benchmark
+  public Version uncached() {
+    String version = this.versions[ this.next ];
+    this.next = ( this.next + 1 ) % DISTINCT_VERSIONS;
+
+    return VersionParser.parseVersion( version );
+  }
+
+  @Benchmark
+  public Version cached() {
+    return VersionParser.parseVersion( this.versions[ 0 ] );
+  }
+
+  @Benchmark
+  public Version regex() {
+    String version = this.versions[ this.next ];
+    this.next = ( this.next + 1 ) % DISTINCT_VERSIONS;
+
+    return parseVersionWithRegex( version );
+  }
+
+  // as it was, but for the warnings it logged
+  private static Version parseVersionWithRegex( String incomingVersion ) {
+    if ( incomingVersion == null || incomingVersion.isEmpty() ) {
+      return VersionParser.DEFAULT;
+    }
+
+    Matcher m = VERSION_PATTERN.matcher( incomingVersion );
+    if ( !m.matches() ) {
+      return VersionParser.DEFAULT;
+    }
+
+    int major = parseVersionPart( m.group( 1 ) );
+    int minor = parseVersionPart( m.group( 2 ) );
+    int patch = parseVersionPart( m.group( 3 ) );
+    String classifier = m.group( 4 );
+
+    if ( classifier != null ) {
+      // classifiers cannot have a '.'
+      classifier = classifier.replaceAll( "\\.", "_" );
+
+      // Classifier characters must be in the following ranges a-zA-Z0-9_\-
+      if ( !CLASSIFIER_PATTERN.matcher( classifier ).matches() ) {
+        classifier = null;
+      }
+    }
+
+    return classifier != null ? new Version( major, minor, patch, classifier ) : new Version( major, minor, patch );
+  }
+
+  private static int parseVersionPart( String part ) {
+    if ( part == null || part.isEmpty() ) {
+      return 0;
+    }
+
+    try {
+      return Integer.parseInt( part );
+    } catch ( NumberFormatException e ) {
+      return 0;
+    }
+  }
+}
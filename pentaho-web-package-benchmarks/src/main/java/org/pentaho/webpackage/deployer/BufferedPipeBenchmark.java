@@ -0,0 +1,121 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 100 MB handed from a writer thread to the reader, through {@link BufferedPipe} and through the JDK pipe it
+ * replaced, in the chunk sizes the transformer writes and FileInstall reads.
+ * <p>
+ * Each operation is one of those megabytes, so the scores are in MB/s.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class BufferedPipeBenchmark {
+  private static final int TOTAL_MEGABYTES = 100;
+  private static final long TOTAL_SIZE = TOTAL_MEGABYTES * 1024L * 1024;
+
+  @Param( { "512", "8192" } )
+  public int chunkSize;
+
+  private byte[] chunk;
+
+  private ExecutorService writerExecutor;
+
+  @Setup
+  public void setUp() {
+    this.chunk = new byte[ this.chunkSize ];
+    this.writerExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.writerExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( TOTAL_MEGABYTES )
+  public long bufferedPipe() throws Exception {
+    BufferedPipe pipe = new BufferedPipe();
+
+    return transfer( pipe.getInputStream(), pipe.getOutputStream() );
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( TOTAL_MEGABYTES )
+  public long jdkPipe() throws Exception {
+    PipedInputStream inputStream = new PipedInputStream();
+
+    return transfer( inputStream, new PipedOutputStream( inputStream ) );
+  }
+
+  private long transfer( InputStream inputStream, OutputStream outputStream )
+      throws IOException, InterruptedException, ExecutionException {
+    Future<?> writer = this.writerExecutor.submit( () -> {
+      try ( OutputStream pipeOutputStream = outputStream ) {
+        for ( long written = 0; written < TOTAL_SIZE; written += this.chunk.length ) {
+          pipeOutputStream.write( this.chunk );
+        }
+      }
+
+      return null;
+    } );
+
+    long size = 0;
+    try ( InputStream pipeInputStream = inputStream ) {
+      byte[] buffer = new byte[ this.chunkSize ];
+      int read;
+      while ( ( read = pipeInputStream.read( buffer ) ) != -1 ) {
+        size += read;
+      }
+    }
+
+    writer.get();
+
+    return size;
+  }
+}
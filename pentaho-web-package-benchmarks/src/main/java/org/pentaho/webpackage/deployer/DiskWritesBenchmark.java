@@ -0,0 +1,208 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * The bytes a transformation writes to disk, with the bundle going to the consumer as FileInstall reads it: by the
+ * streaming transformer, and by the way it was done before, unpacking the archive to a temporary folder and walking it
+ * again to write the jar.
+ * <p>
+ * The {@code diskBytesWritten} counter is the total the process handed to write(2) during the measurement iterations,
+ * taken from the {@code wchar} line of /proc/self/io, so it is only there on Linux. Each iteration is a single
+ * transformation: divide it by the count to get the bytes per transformation. The bundle itself never reaches the disk here, in both cases it
+ * is read back from memory.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 10 )
+public class DiskWritesBenchmark {
+  private static final File PROC_SELF_IO = new File( "/proc/self/io" );
+
+  @Param( { "tgz", "zip" } )
+  public String format;
+
+  @Param( { "MEDIUM", "HUGE" } )
+  public WebPackageFixtures.Size size;
+
+  @Param( { "streaming", "tempDirectory" } )
+  public String transform;
+
+  private File directory;
+  private File file;
+
+  private TransformExecutor executor;
+  private EntryCompressor compressor;
+
+  @State( Scope.Thread )
+  @AuxCounters( AuxCounters.Type.EVENTS )
+  public static class DiskWrites {
+    public long diskBytesWritten;
+
+    private long before;
+
+    @Setup( Level.Invocation )
+    public void setUp() throws IOException {
+      this.before = getWrittenBytes();
+    }
+
+    @TearDown( Level.Invocation )
+    public void tearDown() throws IOException {
+      this.diskBytesWritten += getWrittenBytes() - this.before;
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory( "disk-writes-benchmark" ).toFile();
+
+    this.file = "zip".equals( this.format )
+        ? WebPackageFixtures.createZip( this.directory, this.size )
+        : WebPackageFixtures.createTgz( this.directory, this.size );
+
+    this.executor = new TransformExecutor();
+    this.compressor = new EntryCompressor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.compressor.shutdown();
+    this.executor.shutdown();
+
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  public long transform( DiskWrites diskWrites ) throws IOException {
+    if ( "tempDirectory".equals( this.transform ) ) {
+      return transformThroughTempDirectory();
+    }
+
+    return TransformBenchmark.readFully(
+        new WebPackageURLConnection( this.file.toURI().toURL(), this.executor, this.compressor, null ) );
+  }
+
+  // the transformation as it was, only what touches the disk: the manifest and the entry order don't matter here
+  private long transformThroughTempDirectory() throws IOException {
+    Path tempPath = Files.createTempDirectory( "PentahoWebPackageDeployer" );
+
+    try {
+      Path resourcesPath = Files.createDirectory( tempPath.resolve( "pwp-resources" ) );
+
+      try ( ArchiveInputStream archiveInputStream = openArchive() ) {
+        ArchiveEntry entry;
+        while ( ( entry = archiveInputStream.getNextEntry() ) != null ) {
+          if ( !entry.isDirectory() ) {
+            File entryFile = resourcesPath.resolve( entry.getName() ).toFile();
+            entryFile.getParentFile().mkdirs();
+
+            // the archive stream is still needed for the next entries
+            FileUtils.copyInputStreamToFile( new CloseShieldInputStream( archiveInputStream ), entryFile );
+          }
+        }
+      }
+
+      CountingOutputStream countingOutputStream = new CountingOutputStream( NullOutputStream.NULL_OUTPUT_STREAM );
+      try ( JarOutputStream jarOutputStream = new JarOutputStream( countingOutputStream, new Manifest() ) ) {
+        for ( File srcFile : FileUtils.listFiles( tempPath.toFile(), TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE ) ) {
+          jarOutputStream.putNextEntry( new ZipEntry(
+              FilenameUtils.separatorsToUnix( tempPath.relativize( srcFile.toPath() ).toString() ) ) );
+
+          try ( InputStream inputStream = new FileInputStream( srcFile ) ) {
+            IOUtils.copy( inputStream, jarOutputStream );
+          }
+        }
+      }
+
+      return countingOutputStream.getByteCount();
+    } finally {
+      FileUtils.deleteDirectory( tempPath.toFile() );
+    }
+  }
+
+  private ArchiveInputStream openArchive() throws IOException {
+    InputStream inputStream = new BufferedInputStream( new FileInputStream( this.file ) );
+
+    return "zip".equals( this.format )
+        ? new ZipArchiveInputStream( inputStream )
+        : new TarArchiveInputStream( new GzipCompressorInputStream( inputStream ) );
+  }
+
+  /**
+   * The bytes the process handed to write(2) so far, or 0 where /proc/self/io isn't there.
+   */
+  static long getWrittenBytes() throws IOException {
+    if ( !PROC_SELF_IO.canRead() ) {
+      return 0;
+    }
+
+    List<String> lines = Files.readAllLines( PROC_SELF_IO.toPath(), StandardCharsets.US_ASCII );
+    for ( String line : lines ) {
+      if ( line.startsWith( "wchar:" ) ) {
+        return Long.parseLong( line.substring( "wchar:".length() ).trim() );
+      }
+    }
+
+    return 0;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The entries of the synthetic 10,000 file package written to a bundle by {@link EntryCompressor}, one at a time by
+ * the writing thread and deflated concurrently by pools of several sizes.
+ * <p>
+ * The entries are already in memory and the bundle goes nowhere, so only the compression is measured: see
+ * {@link TransformBenchmark} for a whole transformation. The speedup is bounded by the available processors.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class ParallelCompressionBenchmark {
+  @Param( { "1", "2", "4", "8" } )
+  public int parallelism;
+
+  @Param( { "DEFLATE", "ADAPTIVE" } )
+  public EntryCompressor.Policy policy;
+
+  private List<String> names;
+  private List<byte[]> contents;
+
+  private EntryCompressor compressor;
+
+  @Setup
+  public void setUp() throws IOException {
+    File directory = Files.createTempDirectory( "parallel-compression-benchmark" ).toFile();
+
+    try {
+      WebPackageFixtures.createFiles( directory, WebPackageFixtures.Size.HUGE );
+
+      Collection<File> files = FileUtils.listFiles( directory, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE );
+
+      this.names = new ArrayList<>( files.size() );
+      this.contents = new ArrayList<>( files.size() );
+      for ( File file : files ) {
+        this.names.add( directory.toPath().relativize( file.toPath() ).toString().replace( File.separatorChar, '/' ) );
+        this.contents.add( Files.readAllBytes( file.toPath() ) );
+      }
+    } finally {
+      FileUtils.deleteQuietly( directory );
+    }
+
+    this.compressor = new EntryCompressor();
+    this.compressor.configure( this.parallelism, this.policy, false );
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.compressor.shutdown();
+  }
+
+  @Benchmark
+  public long write() throws IOException {
+    CountingOutputStream countingOutputStream = new CountingOutputStream( NullOutputStream.NULL_OUTPUT_STREAM );
+
+    try ( ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( countingOutputStream ) ) {
+      EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, this.compressor.getSettings() );
+
+      for ( int i = 0; i < this.names.size(); i++ ) {
+        writer.write( new ZipArchiveEntry( this.names.get( i ) ), new ByteArrayInputStream( this.contents.get( i ) ) );
+      }
+
+      writer.flush();
+    }
+
+    return countingOutputStream.getByteCount();
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A new version of a package, with a single file changed, dropped over the previous one: what didn't change is taken
+ * from the previous bundle in the cache.
+ * <p>
+ * Writing the new version is left out of the measurement, but each one is transformed (and cached) for real.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class RedeployBenchmark {
+  @Param( { "MEDIUM" } )
+  public WebPackageFixtures.Size size;
+
+  @Param( { "false", "true" } )
+  public boolean precompress;
+
+  private File directory;
+  private URL url;
+
+  private int revision;
+
+  private TransformExecutor executor;
+  private EntryCompressor compressor;
+  private WebPackageCache cache;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory( "redeploy-benchmark" ).toFile();
+
+    this.url = WebPackageFixtures.createTgz( this.directory, this.size ).toURI().toURL();
+
+    this.executor = new TransformExecutor();
+
+    this.compressor = new EntryCompressor();
+    this.compressor.configure( EntryCompressor.DEFAULT_PARALLELISM, EntryCompressor.Policy.ADAPTIVE, this.precompress );
+
+    this.cache = new WebPackageCache( new File( this.directory, "cache" ) );
+    // only the last version matters, the others would just fill the disk
+    this.cache.setMaxSize( 64L * 1024 * 1024 );
+
+    TransformBenchmark.readFully( new WebPackageURLConnection( this.url, this.executor, this.compressor, this.cache ) );
+  }
+
+  @Setup( Level.Invocation )
+  public void changePackage() throws IOException {
+    WebPackageFixtures.createTgz( this.directory, this.size, ++this.revision );
+  }
+
+  @TearDown( Level.Iteration )
+  public void evict() {
+    this.cache.evict();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.compressor.shutdown();
+    this.executor.shutdown();
+
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  public long transform() throws IOException {
+    return TransformBenchmark.readFully( new WebPackageURLConnection( this.url, this.executor, this.compressor, this.cache ) );
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A package turned into a bundle end to end, from opening the connection to reading the last byte of the bundle, as
+ * FileInstall does when installing it. The result is the size of the bundle.
+ * <p>
+ * Each transformation is done from scratch, without the cache: see {@link CachedTransformBenchmark} and
+ * {@link RedeployBenchmark} for what the cache saves. Other compression settings can be given with {@code -p}, e.g.
+ * {@code -p policy=DEFLATE,STORED -p precompress=true}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class TransformBenchmark {
+  @Param( { "tgz", "zip" } )
+  public String format;
+
+  @Param( { "SMALL", "MEDIUM", "HUGE" } )
+  public WebPackageFixtures.Size size;
+
+  @Param( { "ADAPTIVE" } )
+  public EntryCompressor.Policy policy;
+
+  @Param( { "1", "4" } )
+  public int parallelism;
+
+  @Param( { "false" } )
+  public boolean precompress;
+
+  private File directory;
+  private URL url;
+
+  private TransformExecutor executor;
+  private EntryCompressor compressor;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory( "transform-benchmark" ).toFile();
+
+    File file = "zip".equals( this.format )
+        ? WebPackageFixtures.createZip( this.directory, this.size )
+        : WebPackageFixtures.createTgz( this.directory, this.size );
+    this.url = file.toURI().toURL();
+
+    this.executor = new TransformExecutor();
+
+    this.compressor = new EntryCompressor();
+    this.compressor.configure( this.parallelism, this.policy, this.precompress );
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.compressor.shutdown();
+    this.executor.shutdown();
+
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  public long transform() throws IOException {
+    return readFully( new WebPackageURLConnection( this.url, this.executor, this.compressor, null ) );
+  }
+
+  static long readFully( WebPackageURLConnection connection ) throws IOException {
+    long size = 0;
+
+    try ( InputStream inputStream = connection.getInputStream() ) {
+      byte[] buffer = new byte[ 8192 ];
+      int read;
+      while ( ( read = inputStream.read( buffer ) ) != -1 ) {
+        size += read;
+      }
+    }
+
+    return size;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What FileInstall pays on each poll of the deploy folder, for a package seen for the first time (the archive is
+ * opened) and for one already seen (the verdict is remembered).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class UrlTransformerBenchmark {
+  @Param( { "tgz", "zip" } )
+  public String format;
+
+  @Param( { "SMALL", "HUGE" } )
+  public WebPackageFixtures.Size size;
+
+  private File directory;
+  private File file;
+
+  private UrlTransformer urlTransformer;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory( "url-transformer-benchmark" ).toFile();
+
+    this.file = "zip".equals( this.format )
+        ? WebPackageFixtures.createZip( this.directory, this.size )
+        : WebPackageFixtures.createTgz( this.directory, this.size );
+
+    this.urlTransformer = new UrlTransformer();
+    this.urlTransformer.canHandle( this.file );
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  public boolean firstPoll() {
+    return new UrlTransformer().canHandle( this.file );
+  }
+
+  @Benchmark
+  public boolean nextPoll() {
+    return this.urlTransformer.canHandle( this.file );
+  }
+}
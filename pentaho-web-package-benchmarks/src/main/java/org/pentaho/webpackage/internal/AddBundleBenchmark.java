@@ -0,0 +1,139 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.pentaho.webpackage.PentahoWebPackageService;
+import org.pentaho.webpackage.common.VersionParser;
+import org.pentaho.webpackage.benchmarks.StubBundles;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Web package bundles extended and then removed, one at a time as they are started, and all at once as when the
+ * extender starts after them.
+ * <p>
+ * The bundles are stubs with a single web package each, whose name and version come from the package.json
+ * ({@code packageJson}, the default) or from the capability, as the deployer writes it. With
+ * {@code capabilityWithConfig} the capability says the package has module configuration, so the package.json is read
+ * for it anyway. The time reported is per bundle.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class AddBundleBenchmark {
+  private static final int BUNDLE_COUNT = 100;
+
+  @Param( { "packageJson", "capability", "capabilityWithConfig" } )
+  public String metadata;
+
+  private File directory;
+  private Bundle[] bundles;
+
+  private PentahoWebPackageServiceImpl service;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory( "add-bundle-benchmark" ).toFile();
+
+    try ( OutputStream outputStream = new FileOutputStream( new File( this.directory, "package.json" ) ) ) {
+      outputStream.write( WebPackageFixtures.packageJson( 10, 0, true ) );
+    }
+
+    Dictionary<String, String> headers = new Hashtable<>();
+    headers.put( "Provide-Capability", PentahoWebPackageService.CAPABILITY_NAMESPACE + ";root=\"\"" );
+
+    this.bundles = new Bundle[ BUNDLE_COUNT ];
+    for ( int i = 0; i < BUNDLE_COUNT; i++ ) {
+      Map<String, Object> attributes = new HashMap<>();
+      attributes.put( "root", "" );
+      attributes.put( "name", WebPackageFixtures.NAME + "-" + i );
+      attributes.put( "version", VersionParser.parseVersion( WebPackageFixtures.VERSION ) );
+      attributes.put( "npmVersion", WebPackageFixtures.VERSION );
+      attributes.put( "hasConfig", String.valueOf( this.metadata.equals( "capabilityWithConfig" ) ) );
+
+      this.bundles[ i ] = StubBundles.createBundle( i + 1, this.directory, headers,
+          PentahoWebPackageService.CAPABILITY_NAMESPACE, Collections.singletonList( attributes ) );
+    }
+
+    this.service = new PentahoWebPackageServiceImpl( new ResourceCache(), new ExtensionExecutor() );
+    this.service.setCapabilityMetadata( !this.metadata.equals( "packageJson" ) );
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( BUNDLE_COUNT )
+  public int addBundle() {
+    for ( Bundle bundle : this.bundles ) {
+      this.service.addBundle( bundle );
+    }
+
+    return removeBundles();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( BUNDLE_COUNT )
+  public int addStartedBundles() {
+    this.service.addStartedBundles( this.bundles );
+
+    return removeBundles();
+  }
+
+  private int removeBundles() {
+    int extendedCount = this.service.getExtendedBundleCount();
+
+    for ( Bundle bundle : this.bundles ) {
+      this.service.removeBundle( bundle );
+    }
+
+    return extendedCount;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.pentaho.webpackage.PentahoWebPackage;
+import org.pentaho.webpackage.benchmarks.StubBundles;
+import org.pentaho.webpackage.common.NpmVersionRange;
+import org.pentaho.webpackage.common.VersionParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Web packages looked up by name and version range among {@value #VERSION_COUNT} registered versions, spread over
+ * {@code names} packages, against walking them all as there was no other way to before.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class RegistryLookupBenchmark {
+  private static final int VERSION_COUNT = 10000;
+
+  private static final String[] RANGES = { "^3.0.0", "~5.2", ">=1.0.0 <2", "*", "7.4.x || ^8.1.3", ">99" };
+
+  @Param( { "1", "100" } )
+  public int names;
+
+  private File directory;
+
+  private String[] packageNames;
+
+  private PentahoWebPackageServiceImpl service;
+  private List<PentahoWebPackage> webPackages;
+
+  private int lookup;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory( "registry-lookup-benchmark" ).toFile();
+
+    Bundle bundle = StubBundles.createBundle( 1, this.directory, new Hashtable<>(), "none", Collections.emptyList() );
+
+    this.packageNames = new String[ this.names ];
+    for ( int i = 0; i < this.names; i++ ) {
+      this.packageNames[ i ] = "package-" + i;
+    }
+
+    WebPackageRegistry registry = new WebPackageRegistry();
+    for ( int i = 0; i < VERSION_COUNT; i++ ) {
+      int n = i / this.names;
+      String version = ( n / 100 ) + "." + ( n / 10 % 10 ) + "." + ( n % 10 );
+
+      registry.add( new PentahoWebPackageImpl( bundle, this.packageNames[ i % this.names ], version, "", null, null,
+          null, null, null, null, null ) );
+    }
+
+    this.service = new PentahoWebPackageServiceImpl( null, new ExtensionExecutor(), registry );
+    this.webPackages = new ArrayList<>( registry.getWebPackages() );
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  public PentahoWebPackage getWebPackage() {
+    int lookup = this.lookup++;
+
+    return this.service.getWebPackage( this.packageNames[ lookup % this.names ], RANGES[ lookup % RANGES.length ] );
+  }
+
+  @Benchmark
+  public List<PentahoWebPackage> getWebPackages() {
+    return this.service.getWebPackages( this.packageNames[ this.lookup++ % this.names ] );
+  }
+
+  /**
+   * What {@link #getWebPackage()} does, by checking every registered version.
+   */
+  @Benchmark
+  public PentahoWebPackage getWebPackageByScan() {
+    int lookup = this.lookup++;
+
+    String name = this.packageNames[ lookup % this.names ];
+    NpmVersionRange range = NpmVersionRange.parse( RANGES[ lookup % RANGES.length ] );
+
+    PentahoWebPackage highest = null;
+    Version highestVersion = null;
+    for ( PentahoWebPackage webPackage : this.webPackages ) {
+      if ( webPackage.getName().equals( name ) ) {
+        Version version = VersionParser.parseVersion( webPackage.getVersion() );
+        if ( range.includes( version )
+            && ( highestVersion == null || NpmVersionRange.ORDER.compare( version, highestVersion ) > 0 ) ) {
+          highest = webPackage;
+          highestVersion = version;
+        }
+      }
+    }
+
+    return highest;
+  }
+}
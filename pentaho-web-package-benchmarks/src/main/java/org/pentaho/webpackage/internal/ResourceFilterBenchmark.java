@@ -0,0 +1,183 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.pentaho.webpackage.PentahoWebPackageService;
+import org.pentaho.webpackage.benchmarks.StubBundles;
+import org.pentaho.webpackage.benchmarks.WebPackageFixtures;
+import org.pentaho.webpackage.common.WebPackageDigests;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A web package resource requested again and again, as browsers without it in their cache do.
+ * <p>
+ * The modes are how the filter gets the resource: read from the bundle each time ({@code uncached}), from the memory
+ * cache ({@code cached}), from the memory cache by the digest the deployer indexed it with ({@code digest}), or not
+ * at all because the browser has it already ({@code notModified}).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class ResourceFilterBenchmark {
+  private static final String ALIAS = "/" + WebPackageFixtures.NAME + "/" + WebPackageFixtures.VERSION;
+  private static final String RESOURCE = "script.js";
+
+  private static final FilterChain CHAIN = ( request, response ) -> {
+    throw new IllegalStateException( "The resource should have been served by the filter" );
+  };
+
+  @Param( { "uncached", "cached", "digest", "notModified" } )
+  public String mode;
+
+  @Param( { "8192", "524288" } )
+  public int resourceSize;
+
+  private File directory;
+
+  private WebPackageResourceFilter filter;
+
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+
+  private long written;
+
+  @Setup
+  public void setUp() throws IOException, ServletException {
+    this.directory = Files.createTempDirectory( "resource-filter-benchmark" ).toFile();
+
+    byte[] content = WebPackageFixtures.script( this.resourceSize );
+    try ( OutputStream outputStream = new FileOutputStream( new File( this.directory, RESOURCE ) ) ) {
+      outputStream.write( content );
+    }
+
+    Bundle bundle = StubBundles.createBundle( 1, this.directory, null, PentahoWebPackageService.CAPABILITY_NAMESPACE,
+        Collections.emptyList() );
+
+    ResourceCache resourceCache = "uncached".equals( this.mode ) ? null : new ResourceCache();
+    Map<String, String> digests = "digest".equals( this.mode )
+        ? Collections.singletonMap( RESOURCE, WebPackageDigests.digest( content, 0, content.length ) )
+        : null;
+
+    this.filter = new WebPackageResourceFilter( bundle, ALIAS, "", resourceCache, digests, null );
+
+    Map<String, String> headers = new HashMap<>();
+    headers.put( "Accept-Encoding", "gzip, deflate, br" );
+    this.request = createRequest( headers );
+    this.response = createResponse();
+
+    // the ETag the browser would have gotten with the first response
+    if ( "notModified".equals( this.mode ) ) {
+      headers.put( "If-None-Match", WebPackageResourceFilter.computeETag( new File( this.directory, RESOURCE ).toURI().toURL() ) );
+    }
+
+    this.filter.doFilter( this.request, this.response, CHAIN );
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.filter.destroy();
+
+    FileUtils.deleteQuietly( this.directory );
+  }
+
+  @Benchmark
+  public long doFilter() throws IOException, ServletException {
+    this.filter.doFilter( this.request, this.response, CHAIN );
+
+    return this.written;
+  }
+
+  private HttpServletRequest createRequest( Map<String, String> headers ) {
+    return (HttpServletRequest) Proxy.newProxyInstance( getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+        ( proxy, method, args ) -> {
+          switch ( method.getName() ) {
+            case "getMethod":
+              return "GET";
+            case "getServletPath":
+              return ALIAS;
+            case "getPathInfo":
+              return "/" + RESOURCE;
+            case "getHeader":
+              return headers.get( args[ 0 ] );
+            default:
+              return method.getReturnType() == boolean.class ? Boolean.FALSE
+                  : method.getReturnType() == int.class ? Integer.valueOf( 0 )
+                  : null;
+          }
+        } );
+  }
+
+  private HttpServletResponse createResponse() {
+    ServletOutputStream outputStream = new ServletOutputStream() {
+      @Override
+      public void write( int b ) {
+        ResourceFilterBenchmark.this.written++;
+      }
+
+      @Override
+      public void write( byte[] bytes, int offset, int length ) {
+        ResourceFilterBenchmark.this.written += length;
+      }
+    };
+
+    return (HttpServletResponse) Proxy.newProxyInstance( getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+        ( proxy, method, args ) -> {
+          switch ( method.getName() ) {
+            case "getOutputStream":
+              return outputStream;
+            default:
+              return method.getReturnType() == boolean.class ? Boolean.FALSE
+                  : method.getReturnType() == int.class ? Integer.valueOf( 0 )
+                  : null;
+          }
+        } );
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes the values read by {@link PackageJsonReader} ({@link String}, {@link Number}, {@link Boolean}, {@link Map},
+ * {@link Iterable} and {@code null}) back as JSON. Anything else is written as the string of its {@code toString()}.
+ * <p>
+ * The output is also safe to embed in a script: {@code </} and the line separators JavaScript doesn't allow in
+ * strings are escaped.
+ */
+public final class JsonWriter {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // valid in JSON strings, but not in JavaScript ones
+  private static final char LINE_SEPARATOR = 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+  private JsonWriter() {
+  }
+
+  public static String toJson( Object value ) {
+    StringBuilder json = new StringBuilder();
+    write( value, json );
+
+    return json.toString();
+  }
+
+  public static void write( Object value, StringBuilder json ) {
+    if ( value == null ) {
+      json.append( "null" );
+    } else if ( value instanceof Map ) {
+      writeObject( (Map<?, ?>) value, json );
+    } else if ( value instanceof Iterable ) {
+      writeArray( (Iterable<?>) value, json );
+    } else if ( value instanceof Boolean ) {
+      json.append( value.toString() );
+    } else if ( value instanceof Number ) {
+      writeNumber( (Number) value, json );
+    } else {
+      writeString( value.toString(), json );
+    }
+  }
+
+  private static void writeObject( Map<?, ?> object, StringBuilder json ) {
+    json.append( '{' );
+
+    Iterator<? extends Map.Entry<?, ?>> entries = object.entrySet().iterator();
+    while ( entries.hasNext() ) {
+      Map.Entry<?, ?> entry = entries.next();
+
+      writeString( String.valueOf( entry.getKey() ), json );
+      json.append( ':' );
+      write( entry.getValue(), json );
+
+      if ( entries.hasNext() ) {
+        json.append( ',' );
+      }
+    }
+
+    json.append( '}' );
+  }
+
+  private static void writeArray( Iterable<?> array, StringBuilder json ) {
+    json.append( '[' );
+
+    Iterator<?> values = array.iterator();
+    while ( values.hasNext() ) {
+      write( values.next(), json );
+
+      if ( values.hasNext() ) {
+        json.append( ',' );
+      }
+    }
+
+    json.append( ']' );
+  }
+
+  private static void writeNumber( Number number, StringBuilder json ) {
+    if ( number instanceof Double || number instanceof Float ) {
+      double value = number.doubleValue();
+
+      // JSON has no NaN nor infinities
+      if ( Double.isNaN( value ) || Double.isInfinite( value ) ) {
+        json.append( "null" );
+        return;
+      }
+    }
+
+    json.append( number.toString() );
+  }
+
+  private static void writeString( String value, StringBuilder json ) {
+    json.append( '"' );
+
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+
+      switch ( c ) {
+        case '"':
+          json.append( "\\\"" );
+          break;
+        case '\\':
+          json.append( "\\\\" );
+          break;
+        case '\n':
+          json.append( "\\n" );
+          break;
+        case '\r':
+          json.append( "\\r" );
+          break;
+        case '\t':
+          json.append( "\\t" );
+          break;
+        case '\b':
+          json.append( "\\b" );
+          break;
+        case '\f':
+          json.append( "\\f" );
+          break;
+        case '/':
+          // so a </script> in a value doesn't end the script the JSON is embedded in
+          json.append( i > 0 && value.charAt( i - 1 ) == '<' ? "\\/" : "/" );
+          break;
+        default:
+          if ( c < 0x20 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR ) {
+            json.append( "\\u" )
+                .append( HEX_DIGITS[ ( c >> 12 ) & 0xF ] )
+                .append( HEX_DIGITS[ ( c >> 8 ) & 0xF ] )
+                .append( HEX_DIGITS[ ( c >> 4 ) & 0xF ] )
+                .append( HEX_DIGITS[ c & 0xF ] );
+          } else {
+            json.append( c );
+          }
+      }
+    }
+
+    json.append( '"' );
+  }
+}
@@ -0,0 +1,480 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import org.osgi.framework.Version;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An npm version range ({@code ^1.2.3}, {@code ~1.2 || >=2.0.0 <3}, {@code 1.x}, {@code 1.2.3 - 2.3}, ...), matched
+ * against the OSGi versions {@link VersionParser} turns npm ones into.
+ * <p>
+ * Each {@code ||} alternative comes down to a single interval. As in npm, a pre-release only satisfies an alternative
+ * that names a pre-release of the same {@code major.minor.patch}, and comes before its release in {@link #ORDER},
+ * unlike in OSGi. Given the versions sorted by {@link #ORDER}, the highest one in the range is found with a few
+ * O(log n) lookups per alternative.
+ * <p>
+ * As with versions, the same few ranges are parsed over and over, so results are kept in a small cache.
+ */
+public final class NpmVersionRange {
+  /**
+   * The npm precedence of versions: as OSGi, except that a qualifier (the npm pre-release) makes a version lower.
+   */
+  public static final Comparator<Version> ORDER = NpmVersionRange::compare;
+
+  static final int MAX_CACHE_SIZE = 1024;
+
+  private static final String[] OPERATORS = { ">=", "<=", "~>", ">", "<", "=", "~", "^" };
+
+  private static final Map<String, NpmVersionRange> cache = new ConcurrentHashMap<>();
+
+  private final String range;
+  private final List<Interval> intervals;
+
+  private NpmVersionRange( String range, List<Interval> intervals ) {
+    this.range = range;
+    this.intervals = intervals;
+  }
+
+  /**
+   * @throws IllegalArgumentException if it isn't a valid range; tags, urls and git references aren't.
+   */
+  public static NpmVersionRange parse( String range ) {
+    if ( range == null ) {
+      throw new IllegalArgumentException( "No version range" );
+    }
+
+    NpmVersionRange versionRange = cache.get( range );
+    if ( versionRange == null ) {
+      List<Interval> intervals = new ArrayList<>();
+      for ( String alternative : range.split( "\\|\\|", -1 ) ) {
+        intervals.add( parseAlternative( range, alternative.trim() ) );
+      }
+
+      versionRange = new NpmVersionRange( range, Collections.unmodifiableList( intervals ) );
+
+      if ( cache.size() >= MAX_CACHE_SIZE ) {
+        cache.clear();
+      }
+
+      cache.put( range, versionRange );
+    }
+
+    return versionRange;
+  }
+
+  static int getCacheSize() {
+    return cache.size();
+  }
+
+  public boolean includes( Version version ) {
+    for ( Interval interval : this.intervals ) {
+      if ( interval.includes( version ) ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * The highest of the given versions in the range, or {@code null} if there is none.
+   *
+   * @param versions sorted by {@link #ORDER}
+   */
+  public <T> Map.Entry<Version, T> getHighest( NavigableMap<Version, T> versions ) {
+    if ( versions.comparator() != ORDER ) {
+      throw new IllegalArgumentException( "Versions not sorted by NpmVersionRange.ORDER" );
+    }
+
+    Map.Entry<Version, T> highest = null;
+
+    for ( Interval interval : this.intervals ) {
+      Map.Entry<Version, T> entry = interval.max == null ? versions.lastEntry()
+          : interval.maxInclusive ? versions.floorEntry( interval.max )
+          : versions.lowerEntry( interval.max );
+
+      // only pre-releases the range doesn't allow are skipped
+      while ( entry != null && interval.isAboveMin( entry.getKey() ) ) {
+        if ( interval.allowsQualifier( entry.getKey() ) ) {
+          if ( highest == null || compare( entry.getKey(), highest.getKey() ) > 0 ) {
+            highest = entry;
+          }
+
+          break;
+        }
+
+        entry = versions.lowerEntry( entry.getKey() );
+      }
+    }
+
+    return highest;
+  }
+
+  @Override
+  public String toString() {
+    return this.range;
+  }
+
+  private static Interval parseAlternative( String range, String alternative ) {
+    Interval interval = new Interval();
+    if ( alternative.isEmpty() ) {
+      return interval;
+    }
+
+    String[] tokens = alternative.split( "\\s+" );
+    for ( int i = 0; i < tokens.length; i++ ) {
+      String token = tokens[ i ];
+
+      if ( i + 2 < tokens.length && tokens[ i + 1 ].equals( "-" ) ) {
+        // 1.2.3 - 2.3.4
+        Partial from = Partial.parse( range, token );
+        Partial to = Partial.parse( range, tokens[ i + 2 ] );
+
+        interval.intersect( from.parts > 0 ? from.getVersion() : null, true, to.getUpper(), to.parts == 3 );
+        interval.allowQualifier( from );
+        interval.allowQualifier( to );
+
+        i += 2;
+        continue;
+      }
+
+      // an operator apart from its version: >= 1.2.3
+      if ( isOperator( token ) && i + 1 < tokens.length ) {
+        token += tokens[ ++i ];
+      }
+
+      addComparator( range, interval, token );
+    }
+
+    return interval;
+  }
+
+  private static boolean isOperator( String token ) {
+    for ( String operator : OPERATORS ) {
+      if ( token.equals( operator ) ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static void addComparator( String range, Interval interval, String comparator ) {
+    String operator = "";
+    for ( String candidate : OPERATORS ) {
+      if ( comparator.startsWith( candidate ) ) {
+        operator = candidate;
+        break;
+      }
+    }
+
+    Partial partial = Partial.parse( range, comparator.substring( operator.length() ) );
+    interval.allowQualifier( partial );
+
+    if ( partial.parts == 0 ) {
+      if ( operator.equals( ">" ) || operator.equals( "<" ) ) {
+        // nothing is greater or lower than every version
+        interval.intersect( VersionParser.DEFAULT, false, VersionParser.DEFAULT, false );
+      }
+
+      return;
+    }
+
+    Version version = partial.getVersion();
+    switch ( operator ) {
+      case "":
+      case "=":
+        interval.intersect( version, true, partial.getUpper(), partial.parts == 3 );
+        break;
+      case ">":
+        if ( partial.parts == 3 ) {
+          interval.intersect( version, false, null, false );
+        } else {
+          interval.intersect( partial.getUpper(), true, null, false );
+        }
+        break;
+      case ">=":
+        interval.intersect( version, true, null, false );
+        break;
+      case "<":
+        interval.intersect( null, false, version, false );
+        break;
+      case "<=":
+        interval.intersect( null, false, partial.getUpper(), partial.parts == 3 );
+        break;
+      case "~":
+      case "~>":
+        interval.intersect( version, true, partial.parts == 1
+            ? new Version( partial.major + 1, 0, 0 )
+            : new Version( partial.major, partial.minor + 1, 0 ), false );
+        break;
+      default:
+        // ^: the left-most non-zero part can't change
+        Version upper;
+        if ( partial.major > 0 || partial.parts == 1 ) {
+          upper = new Version( partial.major + 1, 0, 0 );
+        } else if ( partial.minor > 0 || partial.parts == 2 ) {
+          upper = new Version( 0, partial.minor + 1, 0 );
+        } else {
+          upper = new Version( 0, 0, partial.patch + 1 );
+        }
+
+        interval.intersect( version, true, upper, false );
+        break;
+    }
+  }
+
+  static int compare( Version a, Version b ) {
+    int result = Integer.compare( a.getMajor(), b.getMajor() );
+    if ( result == 0 ) {
+      result = Integer.compare( a.getMinor(), b.getMinor() );
+    }
+    if ( result == 0 ) {
+      result = Integer.compare( a.getMicro(), b.getMicro() );
+    }
+    if ( result != 0 ) {
+      return result;
+    }
+
+    String qualifierA = a.getQualifier();
+    String qualifierB = b.getQualifier();
+    if ( qualifierA.isEmpty() || qualifierB.isEmpty() ) {
+      return Boolean.compare( qualifierA.isEmpty(), qualifierB.isEmpty() );
+    }
+
+    // the pre-release identifiers, whose dots VersionParser turned into underscores
+    String[] identifiersA = qualifierA.split( "_" );
+    String[] identifiersB = qualifierB.split( "_" );
+    for ( int i = 0; i < identifiersA.length && i < identifiersB.length; i++ ) {
+      result = compareIdentifiers( identifiersA[ i ], identifiersB[ i ] );
+      if ( result != 0 ) {
+        return result;
+      }
+    }
+
+    return Integer.compare( identifiersA.length, identifiersB.length );
+  }
+
+  private static int compareIdentifiers( String a, String b ) {
+    boolean numericA = isNumeric( a );
+    boolean numericB = isNumeric( b );
+
+    if ( numericA && numericB ) {
+      // no overflow, whatever the size
+      int result = Integer.compare( a.length(), b.length() );
+      return result != 0 ? result : a.compareTo( b );
+    } else if ( numericA || numericB ) {
+      return numericA ? -1 : 1;
+    }
+
+    return a.compareTo( b );
+  }
+
+  private static boolean isNumeric( String identifier ) {
+    if ( identifier.isEmpty() || ( identifier.length() > 1 && identifier.charAt( 0 ) == '0' ) ) {
+      return false;
+    }
+
+    for ( int i = 0; i < identifier.length(); i++ ) {
+      if ( identifier.charAt( i ) < '0' || identifier.charAt( i ) > '9' ) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * The versions between two bounds, {@code null} when unbounded.
+   */
+  private static final class Interval {
+    private Version min;
+    private boolean minInclusive;
+    private Version max;
+    private boolean maxInclusive;
+
+    // major.minor.patch of the pre-releases named by the comparators
+    private final Set<Version> qualifiedReleases = new HashSet<>();
+
+    void intersect( Version min, boolean minInclusive, Version max, boolean maxInclusive ) {
+      if ( min != null ) {
+        int result = this.min != null ? compare( min, this.min ) : 1;
+        if ( result > 0 || ( result == 0 && !minInclusive ) ) {
+          this.min = min;
+          this.minInclusive = minInclusive;
+        }
+      }
+
+      if ( max != null ) {
+        int result = this.max != null ? compare( max, this.max ) : -1;
+        if ( result < 0 || ( result == 0 && !maxInclusive ) ) {
+          this.max = max;
+          this.maxInclusive = maxInclusive;
+        }
+      }
+    }
+
+    void allowQualifier( Partial partial ) {
+      if ( partial.prerelease != null ) {
+        this.qualifiedReleases.add( new Version( partial.major, partial.minor, partial.patch ) );
+      }
+    }
+
+    boolean isAboveMin( Version version ) {
+      if ( this.min == null ) {
+        return true;
+      }
+
+      int result = compare( version, this.min );
+      return result > 0 || ( result == 0 && this.minInclusive );
+    }
+
+    boolean allowsQualifier( Version version ) {
+      return version.getQualifier().isEmpty()
+          || this.qualifiedReleases.contains( new Version( version.getMajor(), version.getMinor(), version.getMicro() ) );
+    }
+
+    boolean includes( Version version ) {
+      if ( !isAboveMin( version ) || !allowsQualifier( version ) ) {
+        return false;
+      }
+
+      if ( this.max == null ) {
+        return true;
+      }
+
+      int result = compare( version, this.max );
+      return result < 0 || ( result == 0 && this.maxInclusive );
+    }
+  }
+
+  /**
+   * A version with parts possibly missing or wildcards: {@code 1}, {@code 1.2}, {@code 1.x}, {@code *}.
+   */
+  private static final class Partial {
+    private int major;
+    private int minor;
+    private int patch;
+
+    // how many of them are given
+    private int parts;
+
+    private String prerelease;
+    private String value;
+
+    static Partial parse( String range, String value ) {
+      Partial partial = new Partial();
+
+      String version = value;
+      if ( !version.isEmpty() && ( version.charAt( 0 ) == 'v' || version.charAt( 0 ) == 'V'
+          || version.charAt( 0 ) == '=' ) ) {
+        version = version.substring( 1 );
+      }
+
+      int build = version.indexOf( '+' );
+      if ( build != -1 ) {
+        version = version.substring( 0, build );
+      }
+
+      int prerelease = version.indexOf( '-' );
+      if ( prerelease != -1 ) {
+        partial.prerelease = version.substring( prerelease + 1 );
+        version = version.substring( 0, prerelease );
+
+        if ( partial.prerelease.isEmpty() ) {
+          throw new IllegalArgumentException( "Invalid version range: " + range );
+        }
+      }
+
+      String[] parts = version.isEmpty() ? new String[ 0 ] : version.split( "\\.", -1 );
+      if ( parts.length > 3 ) {
+        throw new IllegalArgumentException( "Invalid version range: " + range );
+      }
+
+      boolean wildcard = false;
+      for ( String part : parts ) {
+        if ( part.equals( "x" ) || part.equals( "X" ) || part.equals( "*" ) ) {
+          wildcard = true;
+        } else if ( !isNumeric( part ) ) {
+          throw new IllegalArgumentException( "Invalid version range: " + range );
+        } else if ( !wildcard ) {
+          try {
+            partial.setPart( partial.parts++, Integer.parseInt( part ) );
+          } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( "Invalid version range: " + range, e );
+          }
+        }
+      }
+
+      if ( partial.parts < 3 ) {
+        // only full versions have pre-releases
+        partial.prerelease = null;
+      }
+
+      partial.value = partial.prerelease != null ? version + "-" + partial.prerelease : version;
+
+      return partial;
+    }
+
+    private void setPart( int index, int value ) {
+      if ( index == 0 ) {
+        this.major = value;
+      } else if ( index == 1 ) {
+        this.minor = value;
+      } else {
+        this.patch = value;
+      }
+    }
+
+    /**
+     * The lowest version matching it.
+     */
+    Version getVersion() {
+      return this.prerelease != null ? VersionParser.parseVersion( this.value )
+          : new Version( this.major, this.minor, this.patch );
+    }
+
+    /**
+     * The version right after the last one matching it, or the version itself when it is a full one; {@code null}
+     * for {@code *}.
+     */
+    Version getUpper() {
+      switch ( this.parts ) {
+        case 0:
+          return null;
+        case 1:
+          return new Version( this.major + 1, 0, 0 );
+        case 2:
+          return new Version( this.major, this.minor + 1, 0 );
+        default:
+          return getVersion();
+      }
+    }
+  }
+}
@@ -0,0 +1,458 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the top-level fields of a package.json that are actually needed, e.g. {@code name} and {@code version}.
+ * <p>
+ * Only the requested fields are turned into objects (json-simple style: {@link String}, {@link Long},
+ * {@link Double}, {@link Boolean}, {@link Map} and {@link List}); everything else - embedded readmes, long
+ * dependency lists - is skipped character by character, and reading stops as soon as all the requested fields were
+ * found. Instances hold no parsing state, so a single one can be shared by any number of threads.
+ */
+public final class PackageJsonReader {
+  private static final int BUFFER_SIZE = 8192;
+
+  // deep enough for any sensible package.json, shallow enough to never overflow the stack
+  private static final int MAX_DEPTH = 256;
+
+  private final String[] fields;
+
+  /**
+   * A reader of the given top-level fields, or of all of them if none is given.
+   */
+  public PackageJsonReader( String... fields ) {
+    this.fields = Arrays.copyOf( fields, fields.length );
+  }
+
+  /**
+   * Reads the fields from an UTF-8 encoded package.json. The stream is not closed, and may not be read to the end.
+   */
+  public Map<String, Object> read( InputStream inputStream ) throws IOException {
+    return read( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * Reads the fields from a package.json. The reader is not closed, and may not be read to the end.
+   */
+  public Map<String, Object> read( Reader reader ) throws IOException {
+    return new Parser( reader ).readTopLevel();
+  }
+
+  /**
+   * The state of a single read.
+   */
+  private final class Parser {
+    private final Reader reader;
+
+    private final char[] buffer = new char[ BUFFER_SIZE ];
+    private int position;
+    private int limit;
+    private long offset;
+
+    // reused for the keys, which are only turned into strings when needed
+    private final StringBuilder key = new StringBuilder();
+
+    private Parser( Reader reader ) {
+      this.reader = reader;
+    }
+
+    Map<String, Object> readTopLevel() throws IOException {
+      Map<String, Object> values = new LinkedHashMap<>();
+
+      int c = nextNonWhitespace();
+      if ( c == '\uFEFF' ) {
+        c = nextNonWhitespace();
+      }
+
+      expect( c, '{' );
+
+      c = nextNonWhitespace();
+      if ( c == '}' ) {
+        return values;
+      }
+
+      while ( true ) {
+        expect( c, '"' );
+        readString( this.key );
+
+        expect( nextNonWhitespace(), ':' );
+
+        String field = getRequestedField( this.key );
+        if ( field != null && !values.containsKey( field ) ) {
+          values.put( field, readValue( nextNonWhitespace(), 1 ) );
+
+          if ( values.size() == PackageJsonReader.this.fields.length ) {
+            // everything needed is there, no point in reading the rest
+            return values;
+          }
+        } else {
+          skipValue( nextNonWhitespace() );
+        }
+
+        c = nextNonWhitespace();
+        if ( c == '}' ) {
+          return values;
+        }
+
+        expect( c, ',' );
+        c = nextNonWhitespace();
+      }
+    }
+
+    private String getRequestedField( StringBuilder name ) {
+      if ( PackageJsonReader.this.fields.length == 0 ) {
+        return name.toString();
+      }
+
+      for ( String field : PackageJsonReader.this.fields ) {
+        if ( contentEquals( field, name ) ) {
+          return field;
+        }
+      }
+
+      return null;
+    }
+
+    private Object readValue( int c, int depth ) throws IOException {
+      if ( depth > MAX_DEPTH ) {
+        throw error( "too deeply nested" );
+      }
+
+      switch ( c ) {
+        case '"':
+          StringBuilder value = new StringBuilder();
+          readString( value );
+          return value.toString();
+
+        case '{':
+          return readObject( depth );
+
+        case '[':
+          return readArray( depth );
+
+        case 't':
+          expectLiteral( "rue" );
+          return Boolean.TRUE;
+
+        case 'f':
+          expectLiteral( "alse" );
+          return Boolean.FALSE;
+
+        case 'n':
+          expectLiteral( "ull" );
+          return null;
+
+        default:
+          if ( c == '-' || ( c >= '0' && c <= '9' ) ) {
+            return readNumber( c );
+          }
+
+          throw error( "unexpected " + describe( c ) );
+      }
+    }
+
+    private Map<String, Object> readObject( int depth ) throws IOException {
+      Map<String, Object> object = new LinkedHashMap<>();
+
+      int c = nextNonWhitespace();
+      if ( c == '}' ) {
+        return object;
+      }
+
+      while ( true ) {
+        expect( c, '"' );
+
+        StringBuilder name = new StringBuilder();
+        readString( name );
+
+        expect( nextNonWhitespace(), ':' );
+
+        object.put( name.toString(), readValue( nextNonWhitespace(), depth + 1 ) );
+
+        c = nextNonWhitespace();
+        if ( c == '}' ) {
+          return object;
+        }
+
+        expect( c, ',' );
+        c = nextNonWhitespace();
+      }
+    }
+
+    private List<Object> readArray( int depth ) throws IOException {
+      List<Object> array = new ArrayList<>();
+
+      int c = nextNonWhitespace();
+      if ( c == ']' ) {
+        return array;
+      }
+
+      while ( true ) {
+        array.add( readValue( c, depth + 1 ) );
+
+        c = nextNonWhitespace();
+        if ( c == ']' ) {
+          return array;
+        }
+
+        expect( c, ',' );
+        c = nextNonWhitespace();
+      }
+    }
+
+    private Object readNumber( int first ) throws IOException {
+      StringBuilder number = new StringBuilder();
+      number.append( (char) first );
+
+      boolean integral = true;
+      while ( true ) {
+        int c = peek();
+        if ( ( c >= '0' && c <= '9' ) || c == '-' || c == '+' ) {
+          number.append( (char) next() );
+        } else if ( c == '.' || c == 'e' || c == 'E' ) {
+          integral = false;
+          number.append( (char) next() );
+        } else {
+          break;
+        }
+      }
+
+      try {
+        if ( integral ) {
+          try {
+            return Long.valueOf( number.toString() );
+          } catch ( NumberFormatException tooBig ) {
+            // falls back to a double, as json-simple does
+          }
+        }
+
+        return Double.valueOf( number.toString() );
+      } catch ( NumberFormatException e ) {
+        throw error( "invalid number " + number );
+      }
+    }
+
+    /**
+     * Reads the rest of a string, the opening quote already consumed.
+     */
+    private void readString( StringBuilder value ) throws IOException {
+      value.setLength( 0 );
+
+      while ( true ) {
+        int c = next();
+        if ( c == '"' ) {
+          return;
+        }
+
+        if ( c == '\\' ) {
+          value.append( readEscape() );
+        } else if ( c == -1 ) {
+          throw error( "unterminated string" );
+        } else {
+          value.append( (char) c );
+        }
+      }
+    }
+
+    private char readEscape() throws IOException {
+      int c = next();
+      switch ( c ) {
+        case '"':
+        case '\\':
+        case '/':
+          return (char) c;
+        case 'b':
+          return '\b';
+        case 'f':
+          return '\f';
+        case 'n':
+          return '\n';
+        case 'r':
+          return '\r';
+        case 't':
+          return '\t';
+        case 'u':
+          int code = 0;
+          for ( int i = 0; i < 4; i++ ) {
+            int digit = Character.digit( next(), 16 );
+            if ( digit == -1 ) {
+              throw error( "invalid unicode escape" );
+            }
+
+            code = ( code << 4 ) | digit;
+          }
+
+          return (char) code;
+        default:
+          throw error( "invalid escape " + describe( c ) );
+      }
+    }
+
+    private void skipValue( int c ) throws IOException {
+      if ( c == '"' ) {
+        skipString();
+      } else if ( c == '{' || c == '[' ) {
+        skipStructure();
+      } else if ( c == 't' ) {
+        expectLiteral( "rue" );
+      } else if ( c == 'f' ) {
+        expectLiteral( "alse" );
+      } else if ( c == 'n' ) {
+        expectLiteral( "ull" );
+      } else if ( c == '-' || ( c >= '0' && c <= '9' ) ) {
+        while ( isNumberPart( peek() ) ) {
+          next();
+        }
+      } else {
+        throw error( "unexpected " + describe( c ) );
+      }
+    }
+
+    private void skipString() throws IOException {
+      while ( true ) {
+        int c = next();
+        if ( c == '"' ) {
+          return;
+        }
+
+        if ( c == '\\' ) {
+          next();
+        } else if ( c == -1 ) {
+          throw error( "unterminated string" );
+        }
+      }
+    }
+
+    /**
+     * Skips the rest of an object or array, the opening bracket already consumed. Only the nesting is followed, the
+     * content isn't validated.
+     */
+    private void skipStructure() throws IOException {
+      int depth = 1;
+      while ( depth > 0 ) {
+        int c = next();
+        if ( c == '"' ) {
+          skipString();
+        } else if ( c == '{' || c == '[' ) {
+          depth++;
+        } else if ( c == '}' || c == ']' ) {
+          depth--;
+        } else if ( c == -1 ) {
+          throw error( "unexpected end of input" );
+        }
+      }
+    }
+
+    private void expectLiteral( String rest ) throws IOException {
+      for ( int i = 0; i < rest.length(); i++ ) {
+        if ( next() != rest.charAt( i ) ) {
+          throw error( "invalid literal" );
+        }
+      }
+    }
+
+    private void expect( int c, char expected ) throws IOException {
+      if ( c != expected ) {
+        throw error( "expected '" + expected + "' but found " + describe( c ) );
+      }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+      int c;
+      do {
+        c = next();
+      } while ( c == ' ' || c == '\n' || c == '\r' || c == '\t' );
+
+      return c;
+    }
+
+    private int next() throws IOException {
+      if ( this.position == this.limit && !fill() ) {
+        return -1;
+      }
+
+      return this.buffer[ this.position++ ];
+    }
+
+    private int peek() throws IOException {
+      if ( this.position == this.limit && !fill() ) {
+        return -1;
+      }
+
+      return this.buffer[ this.position ];
+    }
+
+    private boolean fill() throws IOException {
+      this.offset += this.limit;
+      this.position = 0;
+      this.limit = 0;
+
+      int read;
+      do {
+        read = this.reader.read( this.buffer, 0, this.buffer.length );
+      } while ( read == 0 );
+
+      if ( read == -1 ) {
+        return false;
+      }
+
+      this.limit = read;
+
+      return true;
+    }
+
+    private IOException error( String message ) {
+      return new IOException( "Invalid package.json at character " + ( this.offset + this.position ) + ": " + message );
+    }
+  }
+
+  private static boolean isNumberPart( int c ) {
+    return ( c >= '0' && c <= '9' ) || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+  }
+
+  private static boolean contentEquals( String string, StringBuilder builder ) {
+    if ( string.length() != builder.length() ) {
+      return false;
+    }
+
+    for ( int i = 0; i < string.length(); i++ ) {
+      if ( string.charAt( i ) != builder.charAt( i ) ) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static String describe( int c ) {
+    return c == -1 ? "end of input" : "'" + (char) c + "'";
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import org.osgi.framework.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns npm style versions ({@code 1.2.3}, {@code 1.2.3-beta.1}, {@code 1.2.3-rc.1+build.5}, ...) into OSGi ones.
+ * <p>
+ * Missing or non-numeric parts become 0 and the pre-release becomes the qualifier, with its dots replaced by
+ * underscores ({@code 1.2.3-beta.1} is {@code 1.2.3.beta_1}); a qualifier OSGi doesn't allow is dropped. As in npm,
+ * a {@code v} or {@code =} before the major version is ignored, and so is the build metadata.
+ * <p>
+ * The same few versions are parsed over and over, so results are kept in a small cache.
+ */
+public final class VersionParser {
+  public static final Version DEFAULT = new Version( 0, 0, 0 );
+
+  static final int MAX_CACHE_SIZE = 1024;
+
+  private static final Logger logger = LoggerFactory.getLogger( VersionParser.class );
+
+  private static final Map<String, Version> cache = new ConcurrentHashMap<>();
+
+  private VersionParser() {
+  }
+
+  public static Version parseVersion( String incomingVersion ) {
+    if ( incomingVersion == null || incomingVersion.isEmpty() ) {
+      return DEFAULT;
+    }
+
+    Version version = cache.get( incomingVersion );
+    if ( version == null ) {
+      version = parse( incomingVersion );
+
+      // simpler than an LRU, and the cache only fills up if someone is feeding it garbage
+      if ( cache.size() >= MAX_CACHE_SIZE ) {
+        cache.clear();
+      }
+
+      cache.put( incomingVersion, version );
+    }
+
+    return version;
+  }
+
+  static int getCacheSize() {
+    return cache.size();
+  }
+
+  private static Version parse( String incomingVersion ) {
+    String value = incomingVersion.trim();
+    int length = value.length();
+
+    int position = 0;
+    if ( length > 1 && isPrefix( value.charAt( 0 ) ) && isDigit( value.charAt( 1 ) ) ) {
+      position++;
+    }
+
+    int majorStart = position;
+    position = skipDigits( value, position );
+    int major = parsePart( value, majorStart, position, "Major" );
+
+    int minor = 0;
+    int patch = 0;
+    if ( position < length && value.charAt( position ) == '.' ) {
+      int minorStart = ++position;
+      position = skipDigits( value, position );
+      minor = parsePart( value, minorStart, position, "Minor" );
+
+      if ( position < length && value.charAt( position ) == '.' ) {
+        int patchStart = ++position;
+        position = skipDigits( value, position );
+        patch = parsePart( value, patchStart, position, "Patch" );
+      }
+    }
+
+    if ( position < length && ( value.charAt( position ) == '.' || value.charAt( position ) == '-' ) ) {
+      position++;
+    }
+
+    String qualifier = parseQualifier( value, position );
+
+    return qualifier != null ? new Version( major, minor, patch, qualifier ) : new Version( major, minor, patch );
+  }
+
+  private static int skipDigits( String value, int position ) {
+    while ( position < value.length() && isDigit( value.charAt( position ) ) ) {
+      position++;
+    }
+
+    return position;
+  }
+
+  private static int parsePart( String value, int start, int end, String partName ) {
+    long part = 0;
+    for ( int i = start; i < end; i++ ) {
+      part = part * 10 + ( value.charAt( i ) - '0' );
+
+      if ( part > Integer.MAX_VALUE ) {
+        logger.warn( partName + " version part not an integer: " + value.substring( start, end ) );
+        return 0;
+      }
+    }
+
+    return (int) part;
+  }
+
+  private static String parseQualifier( String value, int start ) {
+    // build metadata has no meaning in OSGi (nor in npm precedence)
+    int end = value.indexOf( '+', start );
+    if ( end == -1 ) {
+      end = value.length();
+    }
+
+    if ( start == end ) {
+      return null;
+    }
+
+    char[] qualifier = new char[ end - start ];
+    for ( int i = start; i < end; i++ ) {
+      char c = value.charAt( i );
+
+      if ( c == '.' ) {
+        // qualifiers cannot have a '.'
+        c = '_';
+      } else if ( !isDigit( c ) && !( c >= 'a' && c <= 'z' ) && !( c >= 'A' && c <= 'Z' ) && c != '_' && c != '-' ) {
+        logger.warn( "Provided Classifier not valid for OSGI, ignoring: " + value.substring( start, end ) );
+        return null;
+      }
+
+      qualifier[ i - start ] = c;
+    }
+
+    return new String( qualifier );
+  }
+
+  private static boolean isPrefix( char c ) {
+    return c == 'v' || c == 'V' || c == '=';
+  }
+
+  private static boolean isDigit( char c ) {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The index of the SHA-256 digests of the resources of a web package bundle, written by the deployer as the
+ * {@link #ENTRY_NAME} entry of the bundles it generates.
+ * <p>
+ * It lets a new version of a bundle reuse whatever didn't change from the previous one, and gives the extender
+ * identifiers of the resources content that survive redeploys. The format is the one of {@code sha256sum}: one
+ * {@code <hex digest>  <entry name>} line per entry.
+ */
+public final class WebPackageDigests {
+  public static final String ENTRY_NAME = "META-INF/pentaho-web-package/digests";
+
+  private static final int HEX_DIGEST_LENGTH = 64;
+  private static final String SEPARATOR = "  ";
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private WebPackageDigests() {
+  }
+
+  public static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      // every Java platform is required to support it
+      throw new IllegalStateException( "SHA-256 is not available", e );
+    }
+  }
+
+  /**
+   * The hex digest of the given content.
+   */
+  public static String digest( byte[] data, int offset, int length ) {
+    MessageDigest messageDigest = newMessageDigest();
+    messageDigest.update( data, offset, length );
+
+    return toHex( messageDigest.digest() );
+  }
+
+  public static String toHex( byte[] hash ) {
+    char[] hex = new char[ hash.length * 2 ];
+    for ( int i = 0; i < hash.length; i++ ) {
+      hex[ 2 * i ] = HEX_DIGITS[ ( hash[ i ] >> 4 ) & 0xF ];
+      hex[ 2 * i + 1 ] = HEX_DIGITS[ hash[ i ] & 0xF ];
+    }
+
+    return new String( hex );
+  }
+
+  /**
+   * Writes the entry name to hex digest map. The stream is not closed.
+   */
+  public static void write( Map<String, String> digests, OutputStream outputStream ) throws IOException {
+    Writer writer = new OutputStreamWriter( outputStream, StandardCharsets.UTF_8 );
+
+    for ( Map.Entry<String, String> digest : digests.entrySet() ) {
+      writer.write( digest.getValue() );
+      writer.write( SEPARATOR );
+      writer.write( digest.getKey() );
+      writer.write( '\n' );
+    }
+
+    writer.flush();
+  }
+
+  /**
+   * Reads an entry name to hex digest map, skipping the lines that don't look like digests. The stream is not
+   * closed.
+   */
+  public static Map<String, String> read( InputStream inputStream ) throws IOException {
+    Map<String, String> digests = new HashMap<>();
+
+    BufferedReader reader = new BufferedReader( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) );
+
+    String line;
+    while ( ( line = reader.readLine() ) != null ) {
+      if ( line.length() > HEX_DIGEST_LENGTH + SEPARATOR.length()
+          && line.startsWith( SEPARATOR, HEX_DIGEST_LENGTH ) && isHex( line, HEX_DIGEST_LENGTH ) ) {
+        digests.put( line.substring( HEX_DIGEST_LENGTH + SEPARATOR.length() ), line.substring( 0, HEX_DIGEST_LENGTH ) );
+      }
+    }
+
+    return digests;
+  }
+
+  private static boolean isHex( String value, int length ) {
+    for ( int i = 0; i < length; i++ ) {
+      char c = value.charAt( i );
+      if ( !( c >= '0' && c <= '9' ) && !( c >= 'a' && c <= 'f' ) ) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
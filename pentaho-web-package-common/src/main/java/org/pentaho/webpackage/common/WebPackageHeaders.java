@@ -0,0 +1,40 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+/**
+ * Manifest headers the deployer adds to the bundles it generates, for the extender, and what the extender needs to
+ * trust them.
+ */
+public final class WebPackageHeaders {
+  /**
+   * Absolute path of a folder where the bundle resources are also laid out as plain files, with the same names as in
+   * the bundle. The folder may not exist yet, or be gone already, so the bundle remains the reference.
+   */
+  public static final String EXPLODED_DIRECTORY = "Pentaho-Web-Package-Exploded-Directory";
+
+  /**
+   * Property of the url handler service the deployer registers, with the absolute path of the folder where it lays
+   * out the exploded bundles. The extender ignores any {@link #EXPLODED_DIRECTORY} outside of it.
+   */
+  public static final String EXPLODED_ROOT = "pentaho.webpackage.explodedRoot";
+
+  private WebPackageHeaders() {
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The preload manifest of a web package bundle, written by the deployer as the {@link #ENTRY_NAME} entry of the
+ * bundles it generates.
+ * <p>
+ * It maps the entry module of each package in the bundle to the modules it depends on, directly or not, so they can
+ * all be requested at once instead of one round trip at a time. Both are given by entry name, as in
+ * {@link WebPackageDigests}: {@code {"pwp-1234/package/main.js": ["pwp-1234/package/a.js", ...]}}.
+ */
+public final class WebPackagePreloads {
+  public static final String ENTRY_NAME = "META-INF/pentaho-web-package/preload.json";
+
+  private static final PackageJsonReader reader = new PackageJsonReader();
+
+  private WebPackagePreloads() {
+  }
+
+  /**
+   * Writes the entry name to preloaded entry names map. The stream is not closed.
+   */
+  public static void write( Map<String, List<String>> preloads, OutputStream outputStream ) throws IOException {
+    outputStream.write( JsonWriter.toJson( preloads ).getBytes( StandardCharsets.UTF_8 ) );
+    outputStream.flush();
+  }
+
+  /**
+   * Reads an entry name to preloaded entry names map, skipping anything that isn't a list of names. The stream is
+   * not closed.
+   */
+  public static Map<String, List<String>> read( InputStream inputStream ) throws IOException {
+    Map<String, List<String>> preloads = new HashMap<>();
+
+    for ( Map.Entry<String, Object> entry : reader.read( inputStream ).entrySet() ) {
+      if ( !( entry.getValue() instanceof List ) ) {
+        continue;
+      }
+
+      List<String> entryNames = new ArrayList<>();
+      for ( Object entryName : (List<?>) entry.getValue() ) {
+        if ( entryName instanceof String ) {
+          entryNames.add( (String) entryName );
+        }
+      }
+
+      preloads.put( entry.getKey(), entryNames );
+    }
+
+    return preloads;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.common;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+  @Test
+  public void writesValues() {
+    Map<String, Object> object = new LinkedHashMap<>();
+    object.put( "string", "text" );
+    object.put( "long", 42L );
+    object.put( "double", 1.5 );
+    object.put( "boolean", true );
+    object.put( "null", null );
+    object.put( "array", Arrays.asList( 1L, "two", Arrays.asList() ) );
+    object.put( "object", new LinkedHashMap<>() );
+
+    assertEquals( "{\"string\":\"text\",\"long\":42,\"double\":1.5,\"boolean\":true,\"null\":null,"
+        + "\"array\":[1,\"two\",[]],\"object\":{}}", JsonWriter.toJson( object ) );
+  }
+
+  @Test
+  public void escapesStrings() {
+    String value = "quote \" backslash \\ slash / newline \n tab \t control \u0001 line "
+        + (char) 0x2028 + " end </script>";
+
+    assertEquals( "\"quote \\\" backslash \\\\ slash / newline \\n tab \\t control \\u0001 line \\u2028 end <\\/script>\"",
+        JsonWriter.toJson( value ) );
+  }
+
+  @Test
+  public void writesWhatIsRead() throws Exception {
+    String json = "{\"name\":\"a \\\"package\\\"\",\"config\":{\"pentaho/service\":{\"x\":[1,2.5,true,null]}},"
+        + "\"unicode\":\"\\u00e9\\u2029\"}";
+
+    Map<String, Object> packageJson = new PackageJsonReader().read( new StringReader( json ) );
+
+    assertEquals( packageJson, new PackageJsonReader().read( new StringReader( JsonWriter.toJson( packageJson ) ) ) );
+  }
+
+  @Test
+  public void writesNonFiniteNumbersAsNull() {
+    assertEquals( "[null,null]", JsonWriter.toJson( Arrays.asList( Double.NaN, Double.POSITIVE_INFINITY ) ) );
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.common;
+
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NpmVersionRangeTest {
+  @Test
+  public void includesLikeNpm() {
+    // from the node-semver range tests
+    String[][] included = {
+        { "1.0.0 - 2.0.0", "1.2.3" },
+        { "1.2.3 - 2.3", "2.3.9" },
+        { "1.2 - 2.3.4", "1.2.0" },
+        { "^1.2.3+build", "1.3.0" },
+        { "1.0.0", "1.0.0" },
+        { ">=*", "0.2.4" },
+        { "", "1.0.0" },
+        { "*", "1.2.3" },
+        { ">=1.0.0", "1.1.0" },
+        { ">1.0.0", "1.0.1" },
+        { "<=2.0.0", "2.0.0" },
+        { "<2.0.0", "1.9999.9999" },
+        { ">= 1.0.0", "1.0.0" },
+        { ">=0.1.97", "0.1.97" },
+        { "0.1.20 || 1.2.4", "1.2.4" },
+        { ">=0.2.3 || <0.0.1", "0.0.0" },
+        { "||", "1.3.4" },
+        { "2.x.x", "2.1.3" },
+        { "1.2.x", "1.2.3" },
+        { "1.2.x || 2.x", "2.1.3" },
+        { "x", "1.2.3" },
+        { "2.*.*", "2.1.3" },
+        { "2", "2.1.2" },
+        { "2.3", "2.3.1" },
+        { "~2.4", "2.4.5" },
+        { "~>3.2.1", "3.2.2" },
+        { "~1", "1.2.3" },
+        { "~> 1", "1.2.3" },
+        { "~1.0", "1.0.2" },
+        { ">=1", "1.0.0" },
+        { "<1.2", "1.1.1" },
+        { "=0.7.x", "0.7.2" },
+        { "<=0.7.x", "0.7.2" },
+        { "~1.2.1 >=1.2.3", "1.2.3" },
+        { ">=1.2.1 1.2.3", "1.2.3" },
+        { "^1.2.3", "1.8.1" },
+        { "^0.1.2", "0.1.2" },
+        { "^0.1", "0.1.2" },
+        { "^0.0.1", "0.0.1" },
+        { "^1.2", "1.4.2" },
+        { "^1.2.3-beta", "1.2.3-pr.2" },
+        { "^1.2.0-alpha", "1.2.0-pre" },
+        { "^0.0.1-alpha", "0.0.1-beta" },
+        { "^x", "1.2.3" },
+        { "x - 1.0.0", "0.9.7" },
+        { "1.0.0 - x", "1.9.7" },
+        { "<=7.x", "7.9.9" },
+        { "v1.2.3", "1.2.3" }
+    };
+
+    for ( String[] pair : included ) {
+      assertTrue( pair[ 0 ] + " " + pair[ 1 ], includes( pair[ 0 ], pair[ 1 ] ) );
+    }
+
+    String[][] excluded = {
+        { "1.0.0 - 2.0.0", "2.2.3" },
+        { "1.2.3+asdf - 2.4.3+asdf", "1.2.3-pre.2" },
+        { "^1.2.3+build", "2.0.0" },
+        { "^1.2.3", "1.2.3-pre" },
+        { "^1.2", "1.2.0-pre" },
+        { ">1.2", "1.3.0-beta" },
+        { "<=1.2.3", "1.2.3-beta" },
+        { "<1", "1.0.0-beta" },
+        { "1.0.0", "1.0.1" },
+        { ">=1.0.0", "0.0.1" },
+        { ">1.0.0", "1.0.0" },
+        { "<=2.0.0", "3.0.0" },
+        { "<2.0.0", "2.0.0" },
+        { ">=0.1.97", "0.1.93" },
+        { "0.1.20 || 1.2.4", "1.2.3" },
+        { ">=0.2.3 || <0.0.1", "0.2.2" },
+        { "2.x.x", "3.1.3" },
+        { "1.2.x || 2.x", "1.1.3" },
+        { "2", "3.1.2" },
+        { "2.3", "2.4.1" },
+        { "~2.4", "2.5.0" },
+        { "~>3.2.1", "3.3.2" },
+        { "~1", "2.2.3" },
+        { "~1.0", "1.1.0" },
+        { "<1", "1.0.0" },
+        { ">=1.2", "1.1.1" },
+        { "=0.7.x", "0.8.2" },
+        { "<0.7.x", "0.7.2" },
+        { "~1.2.2", "1.3.0" },
+        { "^0.1.2", "0.2.0" },
+        { "^0.0.1", "0.0.2" },
+        { "^0.0", "0.1.0" },
+        { "^1.2.3-beta", "1.2.4-beta" },
+        { "^1.2.3", "2.0.0-alpha" },
+        { ">*", "1.2.3" },
+        { "<*", "1.2.3" },
+        { ">1.2.3 <1.2.3", "1.2.3" }
+    };
+
+    for ( String[] pair : excluded ) {
+      assertFalse( pair[ 0 ] + " " + pair[ 1 ], includes( pair[ 0 ], pair[ 1 ] ) );
+    }
+  }
+
+  @Test
+  public void invalidRanges() {
+    String[] ranges = { "latest", "1.2.3.4", "git+https://example.com/a.git", "1.2.3 - ", ">=a", "1.01", "1.2.3-" };
+
+    for ( String range : ranges ) {
+      try {
+        NpmVersionRange.parse( range );
+        fail( range );
+      } catch ( IllegalArgumentException e ) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void ordersLikeNpm() {
+    List<String> versions = Arrays.asList( "0.9.9", "1.0.0-2", "1.0.0-10", "1.0.0-alpha", "1.0.0-alpha.1",
+        "1.0.0-alpha.beta", "1.0.0-beta", "1.0.0-beta.2", "1.0.0-beta.11", "1.0.0-rc.1", "1.0.0", "1.0.1", "1.10.0" );
+
+    for ( int i = 1; i < versions.size(); i++ ) {
+      Version lower = VersionParser.parseVersion( versions.get( i - 1 ) );
+      Version higher = VersionParser.parseVersion( versions.get( i ) );
+
+      assertTrue( versions.get( i ), NpmVersionRange.ORDER.compare( lower, higher ) < 0 );
+      assertTrue( versions.get( i ), NpmVersionRange.ORDER.compare( higher, lower ) > 0 );
+    }
+  }
+
+  @Test
+  public void getHighestVersionInRange() {
+    NavigableMap<Version, String> versions = new TreeMap<>( NpmVersionRange.ORDER );
+    for ( String version : new String[] { "1.0.0", "1.2.0", "1.3.0-beta", "1.9.9", "2.0.0-rc.1", "2.0.0", "2.1.0" } ) {
+      versions.put( VersionParser.parseVersion( version ), version );
+    }
+
+    assertEquals( "2.1.0", getHighest( "*", versions ) );
+    assertEquals( "1.9.9", getHighest( "^1.0.0", versions ) );
+    assertEquals( "1.2.0", getHighest( "~1.2 || <1.1", versions ) );
+    assertEquals( "2.0.0", getHighest( "<2.1.0", versions ) );
+    assertEquals( "2.1.0", getHighest( "1.0.0 || >=2", versions ) );
+    assertEquals( "1.2.0", getHighest( "<1.3.0", versions ) );
+    assertEquals( "1.3.0-beta", getHighest( ">=1.3.0-alpha <1.5", versions ) );
+    assertNull( getHighest( ">2.1.0", versions ) );
+    assertNull( getHighest( "1.1.x", versions ) );
+    assertNull( getHighest( "^1.0.0", new TreeMap<Version, String>( NpmVersionRange.ORDER ) ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void versionsMustBeInNpmOrder() {
+    NpmVersionRange.parse( "*" ).getHighest( new TreeMap<Version, String>() );
+  }
+
+  @Test
+  public void reusesParsedRanges() {
+    NpmVersionRange range = NpmVersionRange.parse( "^1.2.3" );
+
+    assertSame( range, NpmVersionRange.parse( "^1.2.3" ) );
+    assertEquals( "^1.2.3", range.toString() );
+  }
+
+  @Test
+  public void cacheIsBounded() {
+    for ( int i = 0; i < NpmVersionRange.MAX_CACHE_SIZE * 2; i++ ) {
+      NpmVersionRange.parse( "^1.2." + i );
+    }
+
+    assertTrue( NpmVersionRange.getCacheSize() <= NpmVersionRange.MAX_CACHE_SIZE );
+  }
+
+  private static boolean includes( String range, String version ) {
+    return NpmVersionRange.parse( range ).includes( VersionParser.parseVersion( version ) );
+  }
+
+  private static String getHighest( String range, NavigableMap<Version, String> versions ) {
+    Map.Entry<Version, String> highest = NpmVersionRange.parse( range ).getHighest( versions );
+
+    return highest != null ? highest.getValue() : null;
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PackageJsonReaderTest {
+  private static final String PACKAGE_JSON = "{\n"
+      + "  \"description\": \"A \\\"quoted\\\" {description} with [brackets]\",\n"
+      + "  \"readme\": \"# Title\\n\\nLots of text \\u00e9\",\n"
+      + "  \"keywords\": [ \"a\", \"b\", { \"c\": [ 1, 2.5e3, -3 ] } ],\n"
+      + "  \"private\": false,\n"
+      + "  \"license\": null,\n"
+      + "  \"name\": \"my-module\",\n"
+      + "  \"version\": \"1.0.0-beta.1\",\n"
+      + "  \"config\": { \"paths\": { \"a\": \"b\" }, \"shim\": [ true, null, 12 ] },\n"
+      + "  \"dependencies\": { \"x\": \"^1.0.0\" }\n"
+      + "}";
+
+  @Test
+  public void readsRequestedFields() throws Exception {
+    Map<String, Object> packageJson = new PackageJsonReader( "name", "version", "config" ).read( new StringReader( PACKAGE_JSON ) );
+
+    assertEquals( Arrays.asList( "name", "version", "config" ), new ArrayList<>( packageJson.keySet() ) );
+    assertEquals( "my-module", packageJson.get( "name" ) );
+    assertEquals( "1.0.0-beta.1", packageJson.get( "version" ) );
+
+    Map<?, ?> config = (Map<?, ?>) packageJson.get( "config" );
+    assertEquals( Collections.singletonMap( "a", "b" ), config.get( "paths" ) );
+    assertEquals( Arrays.asList( true, null, 12L ), config.get( "shim" ) );
+  }
+
+  @Test
+  public void readsAllFields() throws Exception {
+    Map<String, Object> packageJson = new PackageJsonReader().read( new StringReader( PACKAGE_JSON ) );
+
+    assertEquals( 9, packageJson.size() );
+    assertEquals( "A \"quoted\" {description} with [brackets]", packageJson.get( "description" ) );
+    assertEquals( "# Title\n\nLots of text \u00e9", packageJson.get( "readme" ) );
+    assertEquals( Boolean.FALSE, packageJson.get( "private" ) );
+    assertTrue( packageJson.containsKey( "license" ) );
+    assertNull( packageJson.get( "license" ) );
+
+    List<?> keywords = (List<?>) packageJson.get( "keywords" );
+    assertEquals( Arrays.asList( 1L, 2500.0, -3L ), ( (Map<?, ?>) keywords.get( 2 ) ).get( "c" ) );
+  }
+
+  @Test
+  public void missingFields() throws Exception {
+    Map<String, Object> packageJson = new PackageJsonReader( "name", "main" ).read( new StringReader( PACKAGE_JSON ) );
+
+    assertEquals( "my-module", packageJson.get( "name" ) );
+    assertFalse( packageJson.containsKey( "main" ) );
+  }
+
+  @Test
+  public void stopsOnceEverythingIsFound() throws Exception {
+    String packageJson = "{ \"name\": \"my-module\", \"version\": \"1.0.0\", \"readme\": \"" + repeat( 'x', 100000 ) + "\" }";
+
+    CountingReader reader = new CountingReader( packageJson );
+    new PackageJsonReader( "name", "version" ).read( reader );
+
+    assertTrue( reader.count < packageJson.length() );
+  }
+
+  @Test
+  public void readsUtf8Streams() throws Exception {
+    byte[] bytes = "\uFEFF{ \"name\": \"m\u00f3dulo\" }".getBytes( StandardCharsets.UTF_8 );
+
+    Map<String, Object> packageJson = new PackageJsonReader( "name" ).read( new ByteArrayInputStream( bytes ) );
+
+    assertEquals( "m\u00f3dulo", packageJson.get( "name" ) );
+  }
+
+  @Test
+  public void rejectsInvalidJson() throws Exception {
+    for ( String invalid : new String[] { "", "[]", "{ \"name\" \"x\" }", "{ \"name\": \"x }", "{ \"a\": tru }",
+        "{ \"a\": 1 \"b\": 2 }", "{ \"name\": \"\\q\" }", "{ \"a\": { \"b\": 1 }" } ) {
+      try {
+        new PackageJsonReader( "name" ).read( new StringReader( invalid ) );
+        fail( invalid );
+      } catch ( IOException expected ) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void rejectsDeepNesting() throws Exception {
+    String deep = "{ \"name\": " + repeat( '[', 10000 ) + repeat( ']', 10000 ) + " }";
+
+    try {
+      new PackageJsonReader( "name" ).read( new StringReader( deep ) );
+      fail();
+    } catch ( IOException expected ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void sharedBetweenThreads() throws Exception {
+    PackageJsonReader packageJsonReader = new PackageJsonReader( "name", "version" );
+
+    ExecutorService executorService = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<Map<String, Object>>> futures = new ArrayList<>();
+      for ( int i = 0; i < 100; i++ ) {
+        futures.add( executorService.submit( () -> packageJsonReader.read( new StringReader( PACKAGE_JSON ) ) ) );
+      }
+
+      for ( Future<Map<String, Object>> future : futures ) {
+        assertEquals( "my-module", future.get().get( "name" ) );
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static String repeat( char c, int count ) {
+    char[] chars = new char[ count ];
+    Arrays.fill( chars, c );
+
+    return new String( chars );
+  }
+
+  private static class CountingReader extends Reader {
+    private final StringReader reader;
+    private int count;
+
+    CountingReader( String string ) {
+      this.reader = new StringReader( string );
+    }
+
+    @Override
+    public int read( char[] buffer, int offset, int length ) throws IOException {
+      int read = this.reader.read( buffer, offset, length );
+      if ( read > 0 ) {
+        this.count += read;
+      }
+
+      return read;
+    }
+
+    @Override
+    public void close() {
+      this.reader.close();
+    }
+  }
+}
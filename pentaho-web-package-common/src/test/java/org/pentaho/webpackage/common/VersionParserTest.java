@@ -0,0 +1,93 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.common;
+
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VersionParserTest {
+  @Test
+  public void parsesLikeThePreviousParser() {
+    // outputs of the regular expression based parser this one replaced
+    String[][] versions = {
+        { "1", "1.0.0" },
+        { "1.2", "1.2.0" },
+        { "1.2.3", "1.2.3" },
+        { "01.02.03", "1.2.3" },
+        { "1.2.3.4", "1.2.3.4" },
+        { "1.2.3-beta", "1.2.3.beta" },
+        { "1.2.3.beta", "1.2.3.beta" },
+        { "1.2.3-beta.1", "1.2.3.beta_1" },
+        { "1.2.3-rc.1-2", "1.2.3.rc_1-2" },
+        { "1.2.3-alpha_beta-x", "1.2.3.alpha_beta-x" },
+        { "1.2.3-0.3.7", "1.2.3.0_3_7" },
+        { "1.0.0-x.7.z.92", "1.0.0.x_7_z_92" },
+        { "1.2.3+build.5", "1.2.3" },
+        { "1.2.3-", "1.2.3" },
+        { "1.2.3.", "1.2.3" },
+        { "1.2.3 ", "1.2.3" },
+        { "1.2.3-beta$", "1.2.3" },
+        { "1..3", "1.0.3" },
+        { "1.x", "1.0.0.x" },
+        { "1.2.x", "1.2.0.x" },
+        { "-1", "0.0.0.1" },
+        { "abc", "0.0.0.abc" },
+        { "vendor", "0.0.0.vendor" },
+        { "99999999999", "0.0.0" },
+        { "1.99999999999.3", "1.0.3" },
+        { "", "0.0.0" }
+    };
+
+    for ( String[] version : versions ) {
+      assertEquals( version[ 0 ], Version.parseVersion( version[ 1 ] ), VersionParser.parseVersion( version[ 0 ] ) );
+    }
+  }
+
+  @Test
+  public void parsesNpmVersions() {
+    // the previous parser dropped the whole qualifier when there was build metadata, and didn't know about prefixes
+    assertEquals( new Version( 1, 2, 3, "beta_1" ), VersionParser.parseVersion( "1.2.3-beta.1+build.5" ) );
+    assertEquals( new Version( 1, 2, 3 ), VersionParser.parseVersion( "v1.2.3" ) );
+    assertEquals( new Version( 1, 2, 3, "rc" ), VersionParser.parseVersion( "=1.2.3-rc" ) );
+    assertEquals( new Version( 1, 2, 3 ), VersionParser.parseVersion( " 1.2.3" ) );
+  }
+
+  @Test
+  public void nullIsTheDefaultVersion() {
+    assertSame( VersionParser.DEFAULT, VersionParser.parseVersion( null ) );
+    assertSame( VersionParser.DEFAULT, VersionParser.parseVersion( "" ) );
+  }
+
+  @Test
+  public void cachesVersions() {
+    assertSame( VersionParser.parseVersion( "4.5.6-cached" ), VersionParser.parseVersion( new String( "4.5.6-cached" ) ) );
+  }
+
+  @Test
+  public void cacheIsBounded() {
+    for ( int i = 0; i < VersionParser.MAX_CACHE_SIZE * 3; i++ ) {
+      assertEquals( new Version( 1, 0, i ), VersionParser.parseVersion( "1.0." + i ) );
+    }
+
+    assertTrue( VersionParser.getCacheSize() <= VersionParser.MAX_CACHE_SIZE );
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class WebPackageDigestsTest {
+  @Test
+  public void digest() {
+    byte[] abc = "abc".getBytes( StandardCharsets.US_ASCII );
+
+    assertEquals( "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", WebPackageDigests.digest( abc, 0, abc.length ) );
+  }
+
+  @Test
+  public void writesAndReads() throws Exception {
+    Map<String, String> digests = new LinkedHashMap<>();
+    digests.put( "pwp-1234/package/script.js", WebPackageDigests.digest( new byte[] { 1 }, 0, 1 ) );
+    digests.put( "pwp-1234/package/file with spaces.css", WebPackageDigests.digest( new byte[] { 2 }, 0, 1 ) );
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    WebPackageDigests.write( digests, outputStream );
+
+    assertEquals( digests, WebPackageDigests.read( new ByteArrayInputStream( outputStream.toByteArray() ) ) );
+  }
+
+  @Test
+  public void skipsMalformedLines() throws Exception {
+    String digest = WebPackageDigests.digest( new byte[] { 1 }, 0, 1 );
+    String index = "not a digest  script.js\n"
+        + digest.toUpperCase() + "  upper.js\n"
+        + digest + "\n"
+        + digest + "  valid.js\n";
+
+    Map<String, String> digests = WebPackageDigests.read( new ByteArrayInputStream( index.getBytes( StandardCharsets.UTF_8 ) ) );
+
+    assertEquals( 1, digests.size() );
+    assertEquals( digest, digests.get( "valid.js" ) );
+  }
+}
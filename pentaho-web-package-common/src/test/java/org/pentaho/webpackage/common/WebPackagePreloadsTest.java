@@ -0,0 +1,54 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class WebPackagePreloadsTest {
+  @Test
+  public void writesAndReads() throws Exception {
+    Map<String, List<String>> preloads = new LinkedHashMap<>();
+    preloads.put( "pwp-1234/package/main.js", Arrays.asList( "pwp-1234/package/a.js", "pwp-1234/package/lib/b \"c\".js" ) );
+    preloads.put( "pwp-1234/package/node_modules/other/index.js", Collections.singletonList( "pwp-1234/package/node_modules/other/x.js" ) );
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    WebPackagePreloads.write( preloads, outputStream );
+
+    assertEquals( preloads, WebPackagePreloads.read( new ByteArrayInputStream( outputStream.toByteArray() ) ) );
+  }
+
+  @Test
+  public void skipsMalformedValues() throws Exception {
+    String manifest = "{\"a.js\": \"b.js\", \"c.js\": [\"d.js\", 1, null], \"e.js\": {}}";
+
+    Map<String, List<String>> preloads = WebPackagePreloads.read( new ByteArrayInputStream( manifest.getBytes( StandardCharsets.UTF_8 ) ) );
+
+    assertEquals( Collections.singletonMap( "c.js", Collections.singletonList( "d.js" ) ), preloads );
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands the transformed bundle from the transformer thread to whoever reads the connection.
+ * <p>
+ * Unlike {@link java.io.PipedInputStream}, which has a 1 KB buffer and polls every second for the other side, this
+ * is a large ring buffer where each side is woken up as soon as there's data (or room) for it. Closing the input
+ * stream makes further writes fail, so the transformer stops as soon as nobody wants the bundle anymore, and a
+ * transformer that gives up can {@link #fail(IOException)} the pipe so the reader doesn't take a truncated bundle for
+ * a complete one.
+ */
+class BufferedPipe {
+  static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  private final byte[] buffer;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = this.lock.newCondition();
+  private final Condition notFull = this.lock.newCondition();
+
+  // guarded by lock
+  private int readPosition;
+  private int count;
+  private boolean writerClosed;
+  private boolean readerClosed;
+  private IOException failure;
+  private long writeWaitTime;
+
+  private final InputStream inputStream = new PipeInputStream();
+  private final OutputStream outputStream = new PipeOutputStream();
+
+  BufferedPipe() {
+    this( DEFAULT_BUFFER_SIZE );
+  }
+
+  BufferedPipe( int bufferSize ) {
+    if ( bufferSize < 1 ) {
+      throw new IllegalArgumentException( "Buffer size must be positive: " + bufferSize );
+    }
+
+    this.buffer = new byte[ bufferSize ];
+  }
+
+  InputStream getInputStream() {
+    return this.inputStream;
+  }
+
+  OutputStream getOutputStream() {
+    return this.outputStream;
+  }
+
+  private int read( byte[] bytes, int offset, int length ) throws IOException {
+    if ( length == 0 ) {
+      return 0;
+    }
+
+    this.lock.lock();
+    try {
+      while ( this.count == 0 || this.failure != null ) {
+        if ( this.readerClosed ) {
+          throw new IOException( "Pipe closed" );
+        }
+
+        if ( this.failure != null ) {
+          throw new IOException( this.failure.getMessage(), this.failure );
+        }
+
+        if ( this.writerClosed ) {
+          return -1;
+        }
+
+        await( this.notEmpty );
+      }
+
+      int read = Math.min( length, this.count );
+
+      // at most two copies, when the data wraps around the end of the buffer
+      int firstChunk = Math.min( read, this.buffer.length - this.readPosition );
+      System.arraycopy( this.buffer, this.readPosition, bytes, offset, firstChunk );
+      System.arraycopy( this.buffer, 0, bytes, offset + firstChunk, read - firstChunk );
+
+      this.readPosition = ( this.readPosition + read ) % this.buffer.length;
+      this.count -= read;
+
+      this.notFull.signal();
+
+      return read;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void write( byte[] bytes, int offset, int length ) throws IOException {
+    while ( length > 0 ) {
+      this.lock.lock();
+      try {
+        while ( this.count == this.buffer.length && !this.readerClosed && !this.writerClosed ) {
+          long start = System.nanoTime();
+          try {
+            await( this.notFull );
+          } finally {
+            this.writeWaitTime += System.nanoTime() - start;
+          }
+        }
+
+        if ( this.readerClosed ) {
+          throw new IOException( "Pipe closed" );
+        }
+
+        if ( this.writerClosed ) {
+          throw new IOException( "Write end closed" );
+        }
+
+        int writePosition = ( this.readPosition + this.count ) % this.buffer.length;
+        int written = Math.min( length, this.buffer.length - this.count );
+
+        int firstChunk = Math.min( written, this.buffer.length - writePosition );
+        System.arraycopy( bytes, offset, this.buffer, writePosition, firstChunk );
+        System.arraycopy( bytes, offset + firstChunk, this.buffer, 0, written - firstChunk );
+
+        this.count += written;
+        offset += written;
+        length -= written;
+
+        this.notEmpty.signal();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * How long the writer was blocked waiting for the reader to make room, in nanoseconds.
+   */
+  long getWriteWaitTime() {
+    this.lock.lock();
+    try {
+      return this.writeWaitTime;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private int available() {
+    this.lock.lock();
+    try {
+      return this.count;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void closeWriter() {
+    this.lock.lock();
+    try {
+      this.writerClosed = true;
+
+      this.notEmpty.signalAll();
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the write end of the pipe without a proper end of stream: the reader gets an {@link IOException} with the
+   * given cause instead of the data not yet read.
+   */
+  void fail( IOException cause ) {
+    this.lock.lock();
+    try {
+      if ( this.failure == null && !this.writerClosed ) {
+        this.failure = cause;
+      }
+
+      this.writerClosed = true;
+      this.count = 0;
+
+      this.notEmpty.signalAll();
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void closeReader() {
+    this.lock.lock();
+    try {
+      this.readerClosed = true;
+      this.count = 0;
+
+      this.notEmpty.signalAll();
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Waits on the condition; an interrupt ends the wait with an {@link InterruptedIOException}, keeping the thread
+   * interrupted.
+   */
+  private static void await( Condition condition ) throws InterruptedIOException {
+    try {
+      condition.await();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException( "Interrupted while waiting on the pipe" );
+    }
+  }
+
+  private class PipeInputStream extends InputStream {
+    // for the single byte reads, as streams aren't shared between threads
+    private final byte[] single = new byte[ 1 ];
+
+    @Override
+    public int read() throws IOException {
+      return BufferedPipe.this.read( this.single, 0, 1 ) == -1 ? -1 : this.single[ 0 ] & 0xFF;
+    }
+
+    @Override
+    public int read( byte[] bytes, int offset, int length ) throws IOException {
+      if ( offset < 0 || length < 0 || length > bytes.length - offset ) {
+        throw new IndexOutOfBoundsException();
+      }
+
+      return BufferedPipe.this.read( bytes, offset, length );
+    }
+
+    @Override
+    public int available() {
+      return BufferedPipe.this.available();
+    }
+
+    @Override
+    public void close() {
+      closeReader();
+    }
+  }
+
+  private class PipeOutputStream extends OutputStream {
+    private final byte[] single = new byte[ 1 ];
+
+    @Override
+    public void write( int b ) throws IOException {
+      this.single[ 0 ] = (byte) b;
+
+      BufferedPipe.this.write( this.single, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] bytes, int offset, int length ) throws IOException {
+      if ( offset < 0 || length < 0 || length > bytes.length - offset ) {
+        throw new IndexOutOfBoundsException();
+      }
+
+      BufferedPipe.this.write( bytes, offset, length );
+    }
+
+    @Override
+    public void close() {
+      closeWriter();
+    }
+  }
+}
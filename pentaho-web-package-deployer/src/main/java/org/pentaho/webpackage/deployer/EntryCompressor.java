@@ -0,0 +1,617 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.pentaho.webpackage.common.WebPackageDigests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compresses the entries of the generated bundles.
+ * <p>
+ * The bundles are only read locally, by the framework and the http service, so the {@link Policy} can trade size
+ * for speed: entries can be stored instead of deflated, sparing both the transformation and every resource read from
+ * the bundle the deflate/inflate cost. Stored entries must be held in memory to compute their CRC, so those too big
+ * to be buffered are deflated anyway.
+ * <p>
+ * Text assets can also be precompressed: a gzipped copy of each one is added next to it ({@code name.js.gz}), for
+ * the extender to serve to clients that accept it, instead of compressing the same content on every request.
+ * <p>
+ * With a parallelism of 1 (the default) each entry is deflated by the transformer thread while it is written. With
+ * more, entries are read into memory and deflated concurrently by a shared pool, then written to the bundle, already
+ * deflated, in their original order. How much is read ahead is bounded, both in number of entries and in bytes, and
+ * entries too big to be buffered are still deflated while written.
+ * <p>
+ * The digest of every entry written is kept, for the bundle index. Given the previous bundle generated from the same
+ * source, entries whose content didn't change are copied from it as they are, along with their precompressed copy,
+ * instead of being compressed again.
+ */
+public class EntryCompressor {
+  public static final int DEFAULT_PARALLELISM = 1;
+
+  public enum Policy {
+    /**
+     * Every entry is deflated with the default level.
+     */
+    DEFLATE,
+
+    /**
+     * Entries of already compressed formats (images, fonts, archives...) are stored, everything else is deflated
+     * with the fastest level.
+     */
+    ADAPTIVE,
+
+    /**
+     * Every entry is stored.
+     */
+    STORED
+  }
+
+  // formats worth serving precompressed
+  private static final Set<String> PRECOMPRESSIBLE_EXTENSIONS = new HashSet<>( Arrays.asList(
+      "js", "mjs", "css", "html", "htm", "json", "map", "svg", "txt", "xml" ) );
+
+  static final String PRECOMPRESSED_EXTENSION = ".gz";
+
+  // smaller than this, the headers take more than what compression saves
+  static final int MIN_PRECOMPRESSED_SIZE = 1024;
+
+  // formats that don't get any smaller when deflated
+  private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>( Arrays.asList(
+      "png", "jpg", "jpeg", "gif", "webp", "ico",
+      "woff", "woff2", "eot",
+      "gz", "br", "zip", "jar", "tgz",
+      "mp3", "mp4", "ogg", "webm" ) );
+
+  // entries bigger than this are not worth holding in memory
+  static final int MAX_BUFFERED_ENTRY_SIZE = 4 * 1024 * 1024;
+
+  // how much uncompressed data each transformation may have waiting to be deflated
+  static final long MAX_IN_FLIGHT_BYTES = 32 * 1024 * 1024;
+  static final int IN_FLIGHT_ENTRIES_PER_THREAD = 4;
+
+  private static final String THREAD_NAME_PREFIX = "pentaho-web-package-deflater-";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  private int parallelism = DEFAULT_PARALLELISM;
+  private Settings settings = new Settings( Policy.DEFLATE, false );
+  private ExecutorService executorService;
+
+  /**
+   * Changes how many entries are deflated at the same time and how. Transformations already running keep the
+   * previous settings.
+   */
+  public synchronized void configure( int parallelism, Policy policy, boolean precompress ) {
+    if ( parallelism < 1 ) {
+      throw new IllegalArgumentException( "The parallelism must be at least 1: " + parallelism );
+    }
+
+    this.settings = new Settings( policy, precompress );
+
+    if ( parallelism == this.parallelism ) {
+      return;
+    }
+
+    if ( this.executorService != null ) {
+      this.executorService.shutdown();
+      this.executorService = null;
+    }
+
+    this.parallelism = parallelism;
+
+    if ( parallelism > 1 ) {
+      ThreadFactory threadFactory = r -> {
+        Thread thread = Executors.defaultThreadFactory().newThread( r );
+        thread.setDaemon( true );
+        thread.setName( THREAD_NAME_PREFIX + this.threadCount.incrementAndGet() );
+        return thread;
+      };
+
+      this.executorService = Executors.newFixedThreadPool( parallelism, threadFactory );
+    }
+  }
+
+  public synchronized int getParallelism() {
+    return this.parallelism;
+  }
+
+  public synchronized Policy getPolicy() {
+    return this.settings.policy;
+  }
+
+  public synchronized boolean isPrecompress() {
+    return this.settings.precompress;
+  }
+
+  /**
+   * The settings that change the generated bundles, for a transformation to use from start to end.
+   */
+  synchronized Settings getSettings() {
+    return this.settings;
+  }
+
+  static int getMethod( Policy policy, String name ) {
+    switch ( policy ) {
+      case STORED:
+        return ZipEntry.STORED;
+      case ADAPTIVE:
+        String extension = FilenameUtils.getExtension( name ).toLowerCase( Locale.ROOT );
+        return COMPRESSED_EXTENSIONS.contains( extension ) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+      default:
+        return ZipEntry.DEFLATED;
+    }
+  }
+
+  static int getLevel( Policy policy ) {
+    return policy == Policy.DEFLATE ? Deflater.DEFAULT_COMPRESSION : Deflater.BEST_SPEED;
+  }
+
+  static boolean isPrecompressible( String name ) {
+    return PRECOMPRESSIBLE_EXTENSIONS.contains( FilenameUtils.getExtension( name ).toLowerCase( Locale.ROOT ) );
+  }
+
+  public synchronized void shutdown() {
+    if ( this.executorService != null ) {
+      this.executorService.shutdown();
+      this.executorService = null;
+    }
+  }
+
+  /**
+   * Creates the writer used by a single transformation.
+   */
+  synchronized Writer createWriter( ZipArchiveOutputStream zipOutputStream, Settings settings ) {
+    return new Writer( zipOutputStream, settings, this.executorService,
+        this.parallelism * IN_FLIGHT_ENTRIES_PER_THREAD );
+  }
+
+  static CompressedEntry store( byte[] data, int length ) {
+    CRC32 crc = new CRC32();
+    crc.update( data, 0, length );
+
+    return new CompressedEntry( ZipEntry.STORED, crc.getValue(), length, data, length );
+  }
+
+  static CompressedEntry gzip( byte[] data, int length ) throws IOException {
+    // served many times, so it is worth compressing as much as possible
+    GzipParameters parameters = new GzipParameters();
+    parameters.setCompressionLevel( Deflater.BEST_COMPRESSION );
+
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream( Math.max( 64, length / 3 ) );
+    try ( GzipCompressorOutputStream gzipOutputStream = new GzipCompressorOutputStream( gzipped, parameters ) ) {
+      gzipOutputStream.write( data, 0, length );
+    }
+
+    // already compressed, so stored in the bundle
+    return store( gzipped.toByteArray(), gzipped.size() );
+  }
+
+  static CompressedEntry deflate( byte[] data, int length, int level ) {
+    CRC32 crc = new CRC32();
+    crc.update( data, 0, length );
+
+    Deflater deflater = new Deflater( level, true );
+    try {
+      deflater.setInput( data, 0, length );
+      deflater.finish();
+
+      byte[] compressed = new byte[ Math.max( 64, length / 2 ) ];
+      int compressedLength = 0;
+      while ( !deflater.finished() ) {
+        if ( compressedLength == compressed.length ) {
+          compressed = Arrays.copyOf( compressed, compressed.length * 2 );
+        }
+
+        compressedLength += deflater.deflate( compressed, compressedLength, compressed.length - compressedLength );
+      }
+
+      return new CompressedEntry( ZipEntry.DEFLATED, crc.getValue(), length, compressed, compressedLength );
+    } finally {
+      deflater.end();
+    }
+  }
+
+  static final class Settings {
+    final Policy policy;
+    final boolean precompress;
+
+    Settings( Policy policy, boolean precompress ) {
+      this.policy = policy;
+      this.precompress = precompress;
+    }
+
+    /**
+     * Identifies bundles generated with these settings, to be part of their cache key.
+     */
+    String getVariant() {
+      return this.policy.name().toLowerCase( Locale.ROOT ) + ( this.precompress ? "-precompressed" : "" );
+    }
+  }
+
+  static final class CompressedEntry {
+    final int method;
+    final long crc;
+    final long size;
+    final byte[] compressed;
+    final int compressedLength;
+
+    CompressedEntry( int method, long crc, long size, byte[] compressed, int compressedLength ) {
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.compressed = compressed;
+      this.compressedLength = compressedLength;
+    }
+  }
+
+  /**
+   * Writes the entries of one bundle, keeping the order they are given in.
+   */
+  static final class Writer {
+    private final ZipArchiveOutputStream zipOutputStream;
+    private final Policy policy;
+    private final boolean precompress;
+    private final ExecutorService executorService;
+    private final int maxInFlightEntries;
+
+    private final Deque<PendingEntry> pending = new ArrayDeque<>();
+    private long pendingBytes;
+
+    private final byte[] buffer = new byte[ BUFFER_SIZE ];
+
+    // entry name -> hex digest of the content
+    private final Map<String, String> digests = new LinkedHashMap<>();
+
+    private ZipFile previousBundle;
+    private Map<String, String> previousDigests;
+    private int reusedCount;
+
+    Writer( ZipArchiveOutputStream zipOutputStream, Settings settings, ExecutorService executorService, int maxInFlightEntries ) {
+      this.zipOutputStream = zipOutputStream;
+      this.policy = settings.policy;
+      this.precompress = settings.precompress;
+      this.executorService = executorService;
+      this.maxInFlightEntries = maxInFlightEntries;
+    }
+
+    /**
+     * Copies the entries that didn't change from the previous bundle, given the digests in its index, instead of
+     * compressing them again. The previous bundle must have been generated with the same settings.
+     */
+    void reuse( ZipFile previousBundle, Map<String, String> previousDigests ) {
+      this.previousBundle = previousBundle;
+      this.previousDigests = previousDigests;
+    }
+
+    /**
+     * The digests of the entries written so far, by entry name. Entries written with
+     * {@link #writeRaw(ZipArchiveEntry, InputStream)} aren't included, their content isn't known.
+     */
+    Map<String, String> getDigests() {
+      return this.digests;
+    }
+
+    /**
+     * How many entries were copied from the previous bundle.
+     */
+    int getReusedCount() {
+      return this.reusedCount;
+    }
+
+    /**
+     * Writes an entry that still needs to be compressed.
+     */
+    void write( ZipArchiveEntry entry, InputStream inputStream ) throws IOException {
+      write( entry, inputStream, false );
+    }
+
+    /**
+     * The name of the precompressed copy of the given entry, or {@code null} if it isn't precompressed.
+     */
+    String getPrecompressedName( String name ) {
+      return this.precompress && isPrecompressible( name ) ? name + PRECOMPRESSED_EXTENSION : null;
+    }
+
+    /**
+     * Writes an entry that still needs to be compressed, optionally followed by its precompressed copy.
+     *
+     * @return if the precompressed copy was written; it isn't for entries too small or too big.
+     */
+    boolean write( ZipArchiveEntry entry, InputStream inputStream, boolean precompressed ) throws IOException {
+      final int method = getMethod( this.policy, entry.getName() );
+      final int level = getLevel( this.policy );
+
+      // to be reused, the content must be known before anything is written
+      if ( method == ZipEntry.DEFLATED && this.executorService == null && !precompressed && this.previousBundle == null ) {
+        writeStreaming( entry, level, inputStream, null, 0 );
+        return false;
+      }
+
+      byte[] data = new byte[ BUFFER_SIZE ];
+      int length = 0;
+      int bytesIn;
+      while ( ( bytesIn = inputStream.read( data, length, data.length - length ) ) != -1 ) {
+        length += bytesIn;
+
+        if ( length == data.length ) {
+          if ( data.length >= MAX_BUFFERED_ENTRY_SIZE ) {
+            // too big, the rest of it goes straight to the bundle
+            writeStreaming( entry, level, inputStream, data, length );
+            return false;
+          }
+
+          data = Arrays.copyOf( data, data.length * 2 );
+        }
+      }
+
+      final byte[] entryData = data;
+      final int entryLength = length;
+
+      String digest = WebPackageDigests.digest( entryData, 0, entryLength );
+      this.digests.put( entry.getName(), digest );
+
+      if ( reusePrevious( entry.getName(), digest ) ) {
+        if ( !precompressed || entryLength < MIN_PRECOMPRESSED_SIZE ) {
+          return false;
+        }
+
+        // the copy was made from the same content, with the same settings; the previous bundle may have none though
+        String precompressedName = entry.getName() + PRECOMPRESSED_EXTENSION;
+        if ( !reusePrevious( precompressedName, this.previousDigests.get( precompressedName ) ) ) {
+          addPrecompressed( entry, entryData, entryLength );
+        }
+
+        return true;
+      }
+
+      Future<CompressedEntry> compressed;
+      if ( method == ZipEntry.STORED ) {
+        compressed = CompletableFuture.completedFuture( store( entryData, entryLength ) );
+      } else if ( this.executorService == null ) {
+        compressed = CompletableFuture.completedFuture( deflate( entryData, entryLength, level ) );
+      } else {
+        try {
+          compressed = this.executorService.submit( () -> deflate( entryData, entryLength, level ) );
+        } catch ( RejectedExecutionException e ) {
+          // the pool was reconfigured meanwhile
+          writeStreaming( entry, level, new ByteArrayInputStream( entryData, 0, entryLength ), null, 0 );
+          return false;
+        }
+      }
+
+      addPending( entry, compressed, entryLength );
+
+      if ( !precompressed || entryLength < MIN_PRECOMPRESSED_SIZE ) {
+        return false;
+      }
+
+      addPrecompressed( entry, entryData, entryLength );
+
+      return true;
+    }
+
+    private void addPrecompressed( ZipArchiveEntry entry, byte[] entryData, int entryLength ) throws IOException {
+      ZipArchiveEntry precompressedEntry = new ZipArchiveEntry( entry.getName() + PRECOMPRESSED_EXTENSION );
+      precompressedEntry.setTime( entry.getTime() );
+
+      Future<CompressedEntry> gzipped = null;
+      if ( this.executorService != null ) {
+        try {
+          gzipped = this.executorService.submit( () -> gzip( entryData, entryLength ) );
+        } catch ( RejectedExecutionException e ) {
+          // the pool was reconfigured meanwhile
+        }
+      }
+
+      if ( gzipped == null ) {
+        gzipped = CompletableFuture.completedFuture( gzip( entryData, entryLength ) );
+      }
+
+      addPending( precompressedEntry, gzipped, entryLength );
+    }
+
+    /**
+     * Copies the entry from the previous bundle if it has the same digest there.
+     */
+    private boolean reusePrevious( String name, String digest ) throws IOException {
+      if ( this.previousBundle == null || digest == null || !digest.equals( this.previousDigests.get( name ) ) ) {
+        return false;
+      }
+
+      ZipArchiveEntry previousEntry = this.previousBundle.getEntry( name );
+      if ( previousEntry == null || !canCopyRaw( previousEntry.getMethod() ) ) {
+        return false;
+      }
+
+      byte[] raw;
+      try ( InputStream rawInputStream = this.previousBundle.getRawInputStream( previousEntry ) ) {
+        raw = IOUtils.toByteArray( rawInputStream );
+      }
+
+      ZipArchiveEntry entry = new ZipArchiveEntry( name );
+      entry.setTime( previousEntry.getTime() );
+
+      this.digests.put( name, digest );
+      this.reusedCount++;
+
+      // queued like any other entry, so those still being compressed keep their order
+      addPending( entry, CompletableFuture.completedFuture( new CompressedEntry( previousEntry.getMethod(),
+          previousEntry.getCrc(), previousEntry.getSize(), raw, raw.length ) ), raw.length );
+
+      return true;
+    }
+
+    private static boolean canCopyRaw( int method ) {
+      return method == ZipEntry.STORED || method == ZipEntry.DEFLATED;
+    }
+
+    private void addPending( ZipArchiveEntry entry, Future<CompressedEntry> compressed, long size ) throws IOException {
+      this.pending.add( new PendingEntry( entry, compressed, size ) );
+      this.pendingBytes += size;
+
+      while ( this.pending.size() > this.maxInFlightEntries || this.pendingBytes > MAX_IN_FLIGHT_BYTES ) {
+        writeNextPending();
+      }
+    }
+
+    /**
+     * Tells if an entry already compressed with the given method can be copied to the bundle as it is. Deflated
+     * entries that the policy wants stored must go through {@link #write(ZipArchiveEntry, InputStream)}.
+     */
+    boolean canCopyRaw( String name, int method ) {
+      return method == ZipEntry.STORED || getMethod( this.policy, name ) != ZipEntry.STORED;
+    }
+
+    /**
+     * Writes an entry whose data is already in its final form.
+     */
+    void writeRaw( ZipArchiveEntry entry, InputStream rawInputStream ) throws IOException {
+      flush();
+
+      this.zipOutputStream.addRawArchiveEntry( entry, rawInputStream );
+    }
+
+    /**
+     * Writes every entry still being compressed.
+     */
+    void flush() throws IOException {
+      while ( !this.pending.isEmpty() ) {
+        writeNextPending();
+      }
+    }
+
+    /**
+     * Drops the entries still being compressed, when the transformation is not going to finish.
+     */
+    void abort() {
+      for ( PendingEntry pendingEntry : this.pending ) {
+        pendingEntry.compressed.cancel( false );
+      }
+
+      this.pending.clear();
+      this.pendingBytes = 0;
+    }
+
+    private void writeStreaming( ZipArchiveEntry entry, int level, InputStream inputStream, byte[] prefix, int prefixLength ) throws IOException {
+      flush();
+
+      MessageDigest messageDigest = WebPackageDigests.newMessageDigest();
+
+      entry.setMethod( ZipEntry.DEFLATED );
+      this.zipOutputStream.setLevel( level );
+      this.zipOutputStream.putArchiveEntry( entry );
+
+      if ( prefix != null ) {
+        messageDigest.update( prefix, 0, prefixLength );
+        this.zipOutputStream.write( prefix, 0, prefixLength );
+      }
+
+      int bytesIn;
+      while ( ( bytesIn = inputStream.read( this.buffer ) ) != -1 ) {
+        messageDigest.update( this.buffer, 0, bytesIn );
+        this.zipOutputStream.write( this.buffer, 0, bytesIn );
+      }
+
+      this.zipOutputStream.closeArchiveEntry();
+
+      this.digests.put( entry.getName(), WebPackageDigests.toHex( messageDigest.digest() ) );
+    }
+
+    private void writeNextPending() throws IOException {
+      PendingEntry pendingEntry = this.pending.poll();
+      this.pendingBytes -= pendingEntry.size;
+
+      CompressedEntry compressedEntry;
+      try {
+        compressedEntry = pendingEntry.compressed.get();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        abort();
+
+        throw new InterruptedIOException( "Interrupted while deflating " + pendingEntry.entry.getName() );
+      } catch ( ExecutionException e ) {
+        abort();
+
+        throw new IOException( "Error deflating " + pendingEntry.entry.getName(), e.getCause() );
+      }
+
+      ZipArchiveEntry entry = pendingEntry.entry;
+
+      // the precompressed copies, whose content is only known now
+      if ( compressedEntry.method == ZipEntry.STORED && !this.digests.containsKey( entry.getName() ) ) {
+        this.digests.put( entry.getName(),
+            WebPackageDigests.digest( compressedEntry.compressed, 0, compressedEntry.compressedLength ) );
+      }
+
+      entry.setMethod( compressedEntry.method );
+      entry.setCrc( compressedEntry.crc );
+      entry.setSize( compressedEntry.size );
+      entry.setCompressedSize( compressedEntry.compressedLength );
+
+      this.zipOutputStream.addRawArchiveEntry( entry,
+          new ByteArrayInputStream( compressedEntry.compressed, 0, compressedEntry.compressedLength ) );
+    }
+  }
+
+  private static final class PendingEntry {
+    final ZipArchiveEntry entry;
+    final Future<CompressedEntry> compressed;
+    final long size;
+
+    PendingEntry( ZipArchiveEntry entry, Future<CompressedEntry> compressed, long size ) {
+      this.entry = entry;
+      this.compressed = compressed;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out, for each package of a bundle, which of its modules its entry module depends on, directly or not, so
+ * they can be preloaded along with it.
+ * <p>
+ * The dependencies are found statically, in the string literal dependency arrays of the AMD {@code define} and
+ * {@code require} calls of each script. Only the dependencies inside the same package are followed: relative ones
+ * ({@code ./a}, {@code ../b}) and those prefixed with the package name. Other packages, loader plugins
+ * ({@code text!a.html}) and dependencies computed at runtime are left for the loader to find.
+ * <p>
+ * The scripts are either all scanned as they go by, or, when they can be read at any time, only those reachable
+ * from the entry modules, once everything else is done.
+ */
+final class ModulePreloads {
+  /**
+   * The most modules preloaded for each package, the closest ones first; more than that and the headers get too
+   * big, the combo endpoint is the better fit.
+   */
+  static final int MAX_PRELOADS = 32;
+
+  // bigger scripts are most likely already bundled, not worth keeping in memory to scan
+  static final int MAX_SCANNED_SIZE = 1024 * 1024;
+
+  private static final String SCRIPT_EXTENSION = ".js";
+
+  private static final Set<String> SPECIAL_DEPENDENCIES = new HashSet<>( Arrays.asList( "require", "exports", "module" ) );
+
+  // package root entry name -> package
+  private final Map<String, Package> packages = new LinkedHashMap<>();
+
+  // script entry name -> dependency ids, or null if it couldn't be read
+  private final Map<String, List<String>> dependencies = new HashMap<>();
+
+  /**
+   * Adds a package, given the entry name of its root folder and its package.json {@code name} and {@code main}.
+   */
+  void addPackage( String root, String name, String main ) {
+    if ( name == null ) {
+      return;
+    }
+
+    this.packages.put( root, new Package( root, name, getMainEntryName( root, main ) ) );
+  }
+
+  /**
+   * Tells if the given entry must be given to {@link #scan(String, byte[], int)}.
+   */
+  boolean isScanned( String entryName ) {
+    return !this.packages.isEmpty() && entryName.endsWith( SCRIPT_EXTENSION );
+  }
+
+  void scan( String entryName, byte[] data, int length ) {
+    this.dependencies.put( entryName, getDependencies( data, length ) );
+  }
+
+  /**
+   * The modules each package entry module depends on, by entry name, for the packages whose entry module has any.
+   */
+  Map<String, List<String>> getPreloads() {
+    return getPreloads( null );
+  }
+
+  /**
+   * Same as {@link #getPreloads()}, reading the scripts that weren't scanned with the given reader.
+   */
+  Map<String, List<String>> getPreloads( ScriptReader scriptReader ) {
+    Map<String, List<String>> preloads = new LinkedHashMap<>();
+
+    for ( Package pkg : this.packages.values() ) {
+      List<String> closure = getClosure( pkg, scriptReader );
+      if ( !closure.isEmpty() ) {
+        preloads.put( pkg.main, closure );
+      }
+    }
+
+    return preloads;
+  }
+
+  private List<String> getClosure( Package pkg, ScriptReader scriptReader ) {
+    if ( getModuleDependencies( pkg.main, scriptReader ) == null ) {
+      return Collections.emptyList();
+    }
+
+    // breadth first, so the closest ones make it if there are too many
+    Set<String> closure = new LinkedHashSet<>();
+    Deque<String> queue = new ArrayDeque<>();
+    queue.add( pkg.main );
+
+    while ( !queue.isEmpty() ) {
+      String entryName = queue.poll();
+
+      for ( String dependency : this.dependencies.get( entryName ) ) {
+        String dependencyEntryName = resolve( pkg, entryName, dependency );
+
+        if ( dependencyEntryName != null && !dependencyEntryName.equals( pkg.main )
+            && getModuleDependencies( dependencyEntryName, scriptReader ) != null && closure.add( dependencyEntryName ) ) {
+          if ( closure.size() == MAX_PRELOADS ) {
+            return new ArrayList<>( closure );
+          }
+
+          queue.add( dependencyEntryName );
+        }
+      }
+    }
+
+    return new ArrayList<>( closure );
+  }
+
+  /**
+   * The dependencies of a script, or {@code null} if there is no such script.
+   */
+  private List<String> getModuleDependencies( String entryName, ScriptReader scriptReader ) {
+    if ( scriptReader != null && !this.dependencies.containsKey( entryName ) ) {
+      byte[] data;
+      try {
+        data = scriptReader.read( entryName );
+      } catch ( IOException e ) {
+        // just not preloaded
+        data = null;
+      }
+
+      this.dependencies.put( entryName, data != null ? getDependencies( data, data.length ) : null );
+    }
+
+    return this.dependencies.get( entryName );
+  }
+
+  /**
+   * The entry name of a dependency of a module of the package, or {@code null} if it isn't one of its modules.
+   */
+  static String resolve( Package pkg, String entryName, String dependency ) {
+    if ( SPECIAL_DEPENDENCIES.contains( dependency ) || dependency.indexOf( '!' ) != -1
+        || dependency.indexOf( '?' ) != -1 || dependency.indexOf( ':' ) != -1 || dependency.endsWith( SCRIPT_EXTENSION )
+        || dependency.endsWith( "/" ) ) {
+      // plugins and urls
+      return null;
+    }
+
+    String path;
+    if ( dependency.startsWith( "./" ) || dependency.startsWith( "../" ) ) {
+      path = entryName.substring( 0, entryName.lastIndexOf( '/' ) + 1 ) + dependency;
+    } else if ( dependency.equals( pkg.name ) ) {
+      return pkg.main;
+    } else if ( dependency.startsWith( pkg.name + "/" ) ) {
+      path = pkg.root + dependency.substring( pkg.name.length() );
+    } else {
+      return null;
+    }
+
+    path = FilenameUtils.normalize( path, true );
+
+    return path != null && path.startsWith( pkg.root + "/" ) ? path + SCRIPT_EXTENSION : null;
+  }
+
+  private static String getMainEntryName( String root, String main ) {
+    String path = main != null && !main.isEmpty() ? main : "index";
+    if ( path.endsWith( "/" ) ) {
+      path += "index";
+    }
+
+    if ( !path.endsWith( SCRIPT_EXTENSION ) ) {
+      path += SCRIPT_EXTENSION;
+    }
+
+    String entryName = FilenameUtils.normalize( root + "/" + path, true );
+
+    return entryName != null ? entryName : root + "/index" + SCRIPT_EXTENSION;
+  }
+
+  /**
+   * The string literal dependencies of the {@code define} and {@code require} calls of an UTF-8 encoded script.
+   */
+  static List<String> getDependencies( byte[] data, int length ) {
+    List<String> dependencies = new ArrayList<>();
+
+    Scanner scanner = new Scanner( data, length );
+    while ( scanner.nextCall() ) {
+      scanner.readDependencies( dependencies );
+    }
+
+    return dependencies;
+  }
+
+  /**
+   * Reads the scripts that weren't scanned, when they turn out to be needed.
+   */
+  @FunctionalInterface
+  interface ScriptReader {
+    /**
+     * The content of a script, or {@code null} if there is no such script or it is too big to be scanned.
+     */
+    byte[] read( String entryName ) throws IOException;
+  }
+
+  static final class Package {
+    final String root;
+    final String name;
+    final String main;
+
+    Package( String root, String name, String main ) {
+      this.root = root;
+      this.name = name;
+      this.main = main;
+    }
+  }
+
+  /**
+   * Just enough of a JavaScript tokenizer to find {@code define( ["a", ...] } and {@code require( ["a", ...] }.
+   * <p>
+   * The script is read as ISO-8859-1, a plain copy of its bytes that {@link String#indexOf(String, int)} goes through
+   * much faster than any loop here would: everything looked for is ASCII, which UTF-8 never uses inside other
+   * characters, so only the dependencies found need to be decoded.
+   */
+  private static final class Scanner {
+    private final String script;
+    private int position;
+
+    private boolean isDefine;
+
+    private int nextDefine;
+    private int nextRequire;
+
+    private Scanner( byte[] data, int length ) {
+      this.script = new String( data, 0, length, StandardCharsets.ISO_8859_1 );
+
+      this.nextDefine = this.script.indexOf( "define" );
+      this.nextRequire = this.script.indexOf( "require" );
+    }
+
+    /**
+     * Moves to right after the opening parenthesis of the next call.
+     */
+    boolean nextCall() {
+      while ( this.position < this.script.length() ) {
+        // each search only done again once passed, or long scripts would be searched over and over
+        if ( this.nextDefine != -1 && this.nextDefine < this.position ) {
+          this.nextDefine = this.script.indexOf( "define", this.position );
+        }
+
+        if ( this.nextRequire != -1 && this.nextRequire < this.position ) {
+          this.nextRequire = this.script.indexOf( "require", this.position );
+        }
+
+        int start;
+        if ( this.nextDefine == -1 && this.nextRequire == -1 ) {
+          this.position = this.script.length();
+          return false;
+        } else if ( this.nextRequire == -1 || ( this.nextDefine != -1 && this.nextDefine < this.nextRequire ) ) {
+          start = this.nextDefine;
+          this.isDefine = true;
+          this.position = start + "define".length();
+        } else {
+          start = this.nextRequire;
+          this.isDefine = false;
+          this.position = start + "require".length();
+        }
+
+        // a whole identifier, and not a property of something else
+        if ( ( start > 0 && ( isIdentifierPart( this.script.charAt( start - 1 ) ) || this.script.charAt( start - 1 ) == '.' ) )
+            || ( this.position < this.script.length() && isIdentifierPart( this.script.charAt( this.position ) ) ) ) {
+          continue;
+        }
+
+        skipWhitespace();
+        if ( peek() == '(' ) {
+          this.position++;
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    void readDependencies( List<String> dependencies ) {
+      skipWhitespace();
+
+      if ( this.isDefine && ( peek() == '"' || peek() == '\'' ) ) {
+        // the module name
+        if ( readString() == null ) {
+          return;
+        }
+
+        skipWhitespace();
+        if ( peek() != ',' ) {
+          return;
+        }
+
+        this.position++;
+        skipWhitespace();
+      }
+
+      if ( peek() != '[' ) {
+        return;
+      }
+
+      this.position++;
+
+      while ( true ) {
+        skipWhitespace();
+
+        char c = peek();
+        if ( c == ']' ) {
+          break;
+        }
+
+        String dependency = c == '"' || c == '\'' ? readString() : null;
+        if ( dependency == null ) {
+          // not all literals, what is there is still worth preloading
+          break;
+        }
+
+        dependencies.add( dependency );
+
+        skipWhitespace();
+        if ( peek() == ',' ) {
+          this.position++;
+        }
+      }
+    }
+
+    private static boolean isIdentifierPart( char c ) {
+      // anything not ASCII is part of a character that could be in an identifier
+      return c > 0x7F || Character.isJavaIdentifierPart( c );
+    }
+
+    private char peek() {
+      return this.position < this.script.length() ? this.script.charAt( this.position ) : 0;
+    }
+
+    private String readString() {
+      char quote = this.script.charAt( this.position++ );
+
+      StringBuilder value = new StringBuilder();
+      while ( this.position < this.script.length() ) {
+        char c = this.script.charAt( this.position++ );
+        if ( c == quote ) {
+          return new String( value.toString().getBytes( StandardCharsets.ISO_8859_1 ), StandardCharsets.UTF_8 );
+        } else if ( c == '\\' && this.position < this.script.length() ) {
+          value.append( this.script.charAt( this.position++ ) );
+        } else if ( c == '\n' ) {
+          return null;
+        } else {
+          value.append( c );
+        }
+      }
+
+      return null;
+    }
+
+    private void skipWhitespace() {
+      while ( this.position < this.script.length() ) {
+        char c = this.script.charAt( this.position );
+
+        if ( c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B ) {
+          this.position++;
+        } else if ( this.script.startsWith( "//", this.position ) ) {
+          int end = this.script.indexOf( '\n', this.position );
+          this.position = end != -1 ? end + 1 : this.script.length();
+        } else if ( this.script.startsWith( "/*", this.position ) ) {
+          int end = this.script.indexOf( "*/", this.position + 2 );
+          this.position = end != -1 ? end + 2 : this.script.length();
+        } else {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the web package transformations, keeping track of how busy it is and how long transformations take.
+ * <p>
+ * By default it is a pool of {@value #DEFAULT_POOL_SIZE} platform threads with an unbounded queue. The queue can be
+ * bounded, in which case a full queue either blocks the caller until there is room ({@link RejectionPolicy#BLOCK}) or
+ * fails the transformation ({@link RejectionPolicy#ABORT}). Running the transformation in the caller thread isn't an
+ * option, as the caller is the one reading the transformed bundle.
+ * <p>
+ * On JDK 21+ each transformation can instead run in its own virtual thread; the pool size and queue bound don't
+ * apply in that case.
+ */
+public class TransformExecutor implements TransformExecutorMXBean {
+  public static final int DEFAULT_POOL_SIZE = 5;
+  public static final int UNBOUNDED_QUEUE = 0;
+
+  private static final String THREAD_NAME_PREFIX = "pentaho-web-package-transformer-";
+
+  // how often a caller blocked on a full queue checks whether the executor was shutdown, in milliseconds
+  private static final long BLOCK_RECHECK_INTERVAL = 100;
+
+  // how many of the latest transformation times are used for the statistics
+  private static final int SAMPLES_SIZE = 1024;
+
+  public enum RejectionPolicy {
+    ABORT, BLOCK
+  }
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  private volatile ExecutorService executorService;
+
+  private int poolSize = DEFAULT_POOL_SIZE;
+  private int queueSize = UNBOUNDED_QUEUE;
+  private RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK;
+  // as configured, even if this JVM doesn't have them
+  private boolean virtualThreads = false;
+  // whether the current executor does use them
+  private boolean usingVirtualThreads = false;
+
+  private final AtomicInteger activeCount = new AtomicInteger();
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  private final long[] samples = new long[ SAMPLES_SIZE ];
+  private long samplesCount;
+  private long totalTime;
+
+  public TransformExecutor() {
+    this.executorService = createExecutorService();
+  }
+
+  /**
+   * Changes the executor settings. Transformations already submitted keep running on the previous threads.
+   */
+  public synchronized void configure( int poolSize, int queueSize, RejectionPolicy rejectionPolicy, boolean virtualThreads ) {
+    if ( poolSize < 1 ) {
+      throw new IllegalArgumentException( "The pool size must be at least 1: " + poolSize );
+    }
+
+    if ( poolSize == this.poolSize && queueSize == this.queueSize
+        && rejectionPolicy == this.rejectionPolicy && virtualThreads == this.virtualThreads ) {
+      return;
+    }
+
+    ExecutorService previousExecutorService = this.executorService;
+
+    // virtual threads asked for again would still not be there
+    if ( !this.usingVirtualThreads && ( !virtualThreads || this.virtualThreads ) && queueSize == this.queueSize
+        && previousExecutorService instanceof ThreadPoolExecutor ) {
+      // just resize the pool
+      ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) previousExecutorService;
+      if ( poolSize > threadPoolExecutor.getMaximumPoolSize() ) {
+        threadPoolExecutor.setMaximumPoolSize( poolSize );
+        threadPoolExecutor.setCorePoolSize( poolSize );
+      } else {
+        threadPoolExecutor.setCorePoolSize( poolSize );
+        threadPoolExecutor.setMaximumPoolSize( poolSize );
+      }
+
+      this.poolSize = poolSize;
+      this.rejectionPolicy = rejectionPolicy;
+      this.virtualThreads = virtualThreads;
+      threadPoolExecutor.setRejectedExecutionHandler( createRejectedExecutionHandler() );
+
+      return;
+    }
+
+    this.poolSize = poolSize;
+    this.queueSize = queueSize;
+    this.rejectionPolicy = rejectionPolicy;
+    this.virtualThreads = virtualThreads;
+
+    this.executorService = createExecutorService();
+
+    previousExecutorService.shutdown();
+  }
+
+  /**
+   * Submits a transformation.
+   *
+   * @throws RejectedExecutionException if the queue is full and the rejection policy is {@link RejectionPolicy#ABORT}.
+   */
+  public Future<Void> submit( Callable<Void> transformation ) {
+    return submit( transformation, () -> 0L );
+  }
+
+  /**
+   * Submits a transformation that spends part of its time waiting for someone else, such as the reader of the
+   * transformed bundle; that part, in nanoseconds, doesn't count towards the transformation time.
+   *
+   * @throws RejectedExecutionException if the queue is full and the rejection policy is {@link RejectionPolicy#ABORT}.
+   */
+  public Future<Void> submit( Callable<Void> transformation, LongSupplier waitTime ) {
+    try {
+      return this.executorService.submit( () -> {
+        this.activeCount.incrementAndGet();
+        final long start = System.nanoTime();
+
+        try {
+          transformation.call();
+
+          this.completedCount.incrementAndGet();
+        } catch ( Exception e ) {
+          this.failedCount.incrementAndGet();
+
+          throw e;
+        } finally {
+          addSample( Math.max( System.nanoTime() - start - waitTime.getAsLong(), 0L ) );
+
+          this.activeCount.decrementAndGet();
+        }
+
+        return null;
+      } );
+    } catch ( RejectedExecutionException e ) {
+      this.rejectedCount.incrementAndGet();
+
+      throw e;
+    }
+  }
+
+  public void shutdown() {
+    this.executorService.shutdown();
+  }
+
+  @Override
+  public synchronized int getPoolSize() {
+    return this.poolSize;
+  }
+
+  @Override
+  public synchronized int getQueueSize() {
+    return this.queueSize;
+  }
+
+  @Override
+  public synchronized String getRejectionPolicy() {
+    return this.rejectionPolicy.name();
+  }
+
+  @Override
+  public synchronized boolean isVirtualThreads() {
+    return this.usingVirtualThreads;
+  }
+
+  @Override
+  public int getActiveCount() {
+    return this.activeCount.get();
+  }
+
+  @Override
+  public int getQueuedCount() {
+    ExecutorService current = this.executorService;
+
+    return current instanceof ThreadPoolExecutor ? ( (ThreadPoolExecutor) current ).getQueue().size() : 0;
+  }
+
+  @Override
+  public long getCompletedCount() {
+    return this.completedCount.get();
+  }
+
+  @Override
+  public long getFailedCount() {
+    return this.failedCount.get();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return this.rejectedCount.get();
+  }
+
+  @Override
+  public synchronized double getMeanTransformTime() {
+    return this.samplesCount == 0 ? 0 : this.totalTime / (double) this.samplesCount / 1e6;
+  }
+
+  @Override
+  public double getP99TransformTime() {
+    long[] sortedSamples;
+    synchronized ( this ) {
+      sortedSamples = Arrays.copyOf( this.samples, (int) Math.min( this.samplesCount, SAMPLES_SIZE ) );
+    }
+
+    if ( sortedSamples.length == 0 ) {
+      return 0;
+    }
+
+    Arrays.sort( sortedSamples );
+
+    int index = (int) Math.ceil( sortedSamples.length * 0.99 ) - 1;
+
+    return sortedSamples[ Math.max( index, 0 ) ] / 1e6;
+  }
+
+  private synchronized void addSample( long nanos ) {
+    this.samples[ (int) ( this.samplesCount % SAMPLES_SIZE ) ] = nanos;
+    this.samplesCount++;
+    this.totalTime += nanos;
+  }
+
+  private ExecutorService createExecutorService() {
+    this.usingVirtualThreads = false;
+
+    if ( this.virtualThreads ) {
+      ExecutorService virtualThreadsExecutorService = createVirtualThreadsExecutorService();
+      if ( virtualThreadsExecutorService != null ) {
+        this.usingVirtualThreads = true;
+
+        return virtualThreadsExecutorService;
+      }
+
+      this.logger.warn( "Virtual threads are not available in this JVM, using a pool of platform threads" );
+    }
+
+    BlockingQueue<Runnable> queue = this.queueSize > UNBOUNDED_QUEUE
+        ? new ArrayBlockingQueue<>( this.queueSize )
+        : new LinkedBlockingQueue<>();
+
+    ThreadFactory threadFactory = r -> {
+      Thread thread = Executors.defaultThreadFactory().newThread( r );
+      thread.setDaemon( true );
+      thread.setName( THREAD_NAME_PREFIX + this.threadCount.incrementAndGet() );
+      return thread;
+    };
+
+    return new ThreadPoolExecutor( this.poolSize, this.poolSize, 0L, TimeUnit.MILLISECONDS, queue, threadFactory,
+        createRejectedExecutionHandler() );
+  }
+
+  private RejectedExecutionHandler createRejectedExecutionHandler() {
+    if ( this.rejectionPolicy == RejectionPolicy.ABORT ) {
+      return new ThreadPoolExecutor.AbortPolicy();
+    }
+
+    return ( r, executor ) -> {
+      if ( executor.isShutdown() ) {
+        throw new RejectedExecutionException( "Transform executor was shutdown" );
+      }
+
+      try {
+        // a shutdown meanwhile would otherwise leave the transformation in the queue, and its reader waiting, forever
+        while ( !executor.getQueue().offer( r, BLOCK_RECHECK_INTERVAL, TimeUnit.MILLISECONDS ) ) {
+          if ( executor.isShutdown() ) {
+            throw new RejectedExecutionException( "Transform executor was shutdown" );
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+
+        throw new RejectedExecutionException( "Interrupted while waiting to queue the transformation", e );
+      }
+
+      if ( executor.isShutdown() && executor.remove( r ) ) {
+        throw new RejectedExecutionException( "Transform executor was shutdown" );
+      }
+    };
+  }
+
+  // Thread.ofVirtual() only exists from JDK 21 on, and this is compiled for Java 8
+  private ExecutorService createVirtualThreadsExecutorService() {
+    try {
+      Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+
+      Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+      builder = builderClass.getMethod( "name", String.class, long.class )
+          .invoke( builder, THREAD_NAME_PREFIX + "virtual-", 1L );
+
+      ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod( "factory" ).invoke( builder );
+
+      return (ExecutorService) Executors.class.getMethod( "newThreadPerTaskExecutor", ThreadFactory.class )
+          .invoke( null, threadFactory );
+    } catch ( ReflectiveOperationException | RuntimeException e ) {
+      return null;
+    }
+  }
+}
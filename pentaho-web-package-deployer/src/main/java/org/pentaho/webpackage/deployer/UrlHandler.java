@@ -25,7 +25,21 @@ import java.net.URL;
 import java.net.URLConnection;
 
 public class UrlHandler extends AbstractURLStreamHandlerService {
+  private final TransformExecutor executor;
+  private final EntryCompressor compressor;
+  private final WebPackageCache cache;
+
+  public UrlHandler() {
+    this( null, null, null );
+  }
+
+  public UrlHandler( TransformExecutor executor, EntryCompressor compressor, WebPackageCache cache ) {
+    this.executor = executor;
+    this.compressor = compressor;
+    this.cache = cache;
+  }
+
   @Override public URLConnection openConnection( URL url ) throws IOException {
-    return new WebPackageURLConnection( new URL( url.getPath() ) );
+    return new WebPackageURLConnection( new URL( url.getPath() ), this.executor, this.compressor, this.cache );
   }
 }
@@ -25,35 +25,67 @@ import org.apache.felix.fileinstall.ArtifactUrlTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipFile;
 
 public class UrlTransformer implements ArtifactUrlTransformer {
+  // FileInstall asks about every file in the deploy folder on each poll, so this is only bounded as a safety net
+  private static final int MAX_CACHED_VERDICTS = 10000;
+
   private Logger logger = LoggerFactory.getLogger( UrlTransformer.class );
 
+  private final Map<String, Verdict> verdicts = new ConcurrentHashMap<>();
+
   @Override
   public boolean canHandle( File file ) {
+    final String path = file.getAbsolutePath();
+
     if ( !file.exists() ) {
+      this.verdicts.remove( path );
+
       return false;
     }
 
+    // the archive is only inspected again if it was changed since the last poll
+    final long length = file.length();
+    final long lastModified = file.lastModified();
+
+    Verdict verdict = this.verdicts.get( path );
+    if ( verdict == null || verdict.length != length || verdict.lastModified != lastModified ) {
+      if ( this.verdicts.size() >= MAX_CACHED_VERDICTS ) {
+        this.verdicts.clear();
+      }
+
+      verdict = new Verdict( length, lastModified, inspect( file ) );
+      this.verdicts.put( path, verdict );
+    }
+
+    return verdict.canHandle;
+  }
+
+  boolean inspect( File file ) {
     if ( file.getName().endsWith( ".tgz" ) ) {
       TarArchiveInputStream tarInput = null;
       try {
-        tarInput = new TarArchiveInputStream( new GzipCompressorInputStream( new FileInputStream( file ) ) );
+        tarInput = new TarArchiveInputStream( new GzipCompressorInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) );
+
+        // npm puts package/package.json at the start of the tarball, so usually only the first entry is read
         TarArchiveEntry currentEntry = tarInput.getNextTarEntry();
         while ( currentEntry != null ) {
-          if ( currentEntry.getName().endsWith( "package.json" ) ) {
+          if ( !currentEntry.isDirectory() && WebPackageTransformer.isTopLevelPackageJson( currentEntry.getName() ) ) {
             return true;
           }
 
           currentEntry = tarInput.getNextTarEntry();
         }
       } catch ( IOException e ) {
-        e.printStackTrace();
+        this.logger.debug( file.getName() + ": " + e.getMessage(), e );
       } finally {
         if ( tarInput != null ) {
           try {
@@ -92,4 +124,16 @@ public class UrlTransformer implements ArtifactUrlTransformer {
   public URL transform( URL url ) throws Exception {
     return new URL( "pentaho-web-package", null, url.toExternalForm() );
   }
+
+  private static class Verdict {
+    private final long length;
+    private final long lastModified;
+    private final boolean canHandle;
+
+    Verdict( long length, long lastModified, boolean canHandle ) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.canHandle = canHandle;
+    }
+  }
 }
@@ -0,0 +1,459 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.pentaho.webpackage.common.WebPackageDigests;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * On-disk cache of transformed web package bundles.
+ * <p>
+ * Entries are keyed by the source archive and by {@link WebPackageTransformer#VERSION}, so an archive already
+ * transformed is served without running the transformer again. Local archives are identified by their path, size and
+ * last modified time, which doesn't take reading them; any other is identified by the SHA-256 of its content and file
+ * name (which ends up in the manifest). Entries not used for longer than the maximum age are evicted, and the least
+ * recently used ones go first when the cache grows over its maximum size.
+ * <p>
+ * The cache also remembers the last bundle generated for each package (as named by the archive file, without the
+ * version) and settings, for the transformation of a new version of the same package to reuse whatever didn't change.
+ * Those pointers go away with the bundle they point to.
+ * <p>
+ * In exploded mode, the resources of each cached bundle are also laid out as plain files, next to it, for the
+ * extender to serve them straight from the file system. Those folders count towards the cache size and go away with
+ * their bundle.
+ */
+public class WebPackageCache implements WebPackageCacheMXBean {
+  public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+  public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis( 30 );
+
+  private static final String ENTRY_EXTENSION = ".jar";
+  private static final String TEMPORARY_ENTRY_EXTENSION = ".tmp";
+  private static final String PREVIOUS_EXTENSION = ".previous";
+  private static final String EXPLODED_EXTENSION = ".exploded";
+
+  private static final int BYTES_BUFFER_SIZE = 8192;
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+  private final File directory;
+
+  private volatile long maxSize = DEFAULT_MAX_SIZE;
+  private volatile long maxAge = DEFAULT_MAX_AGE;
+  private volatile boolean exploded;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  public WebPackageCache( File directory ) {
+    this.directory = directory;
+
+    if ( !this.directory.isDirectory() && !this.directory.mkdirs() ) {
+      this.logger.warn( "Unable to create the web package cache folder " + this.directory );
+    }
+
+    // leftovers from transformations interrupted by a shutdown
+    File[] temporaryFiles = this.directory.listFiles( ( dir, name ) -> name.endsWith( TEMPORARY_ENTRY_EXTENSION ) );
+    if ( temporaryFiles != null ) {
+      Arrays.stream( temporaryFiles ).forEach( FileUtils::deleteQuietly );
+    }
+  }
+
+  /**
+   * Computes the cache key of the archive at the given url.
+   */
+  public String getKey( URL url ) throws IOException {
+    return getKey( url, null );
+  }
+
+  /**
+   * Computes the cache key of the archive at the given url, transformed with settings that change the result (the
+   * variant). Only archives that aren't local files are read, whole.
+   */
+  public String getKey( URL url, String variant ) throws IOException {
+    MessageDigest digest = WebPackageDigests.newMessageDigest();
+
+    File file = getFile( url );
+    if ( file != null ) {
+      BasicFileAttributes attributes = Files.readAttributes( file.toPath(), BasicFileAttributes.class );
+
+      // the file key (the inode, where there is one) tells apart a file replaced within the same modification time
+      String identity = file.getAbsolutePath() + '\n' + attributes.size() + '\n'
+          + attributes.lastModifiedTime().to( TimeUnit.NANOSECONDS ) + '\n' + attributes.fileKey();
+
+      digest.update( identity.getBytes( StandardCharsets.UTF_8 ) );
+    } else {
+      digest.update( FilenameUtils.getName( url.getPath() ).getBytes( StandardCharsets.UTF_8 ) );
+
+      try ( InputStream inputStream = url.openStream() ) {
+        byte[] buffer = new byte[ BYTES_BUFFER_SIZE ];
+        int read;
+        while ( ( read = inputStream.read( buffer ) ) != -1 ) {
+          digest.update( buffer, 0, read );
+        }
+      }
+    }
+
+    StringBuilder key = new StringBuilder( WebPackageDigests.toHex( digest.digest() ) );
+
+    key.append( '-' ).append( WebPackageTransformer.VERSION );
+    if ( variant != null ) {
+      key.append( '-' ).append( variant );
+    }
+
+    return key.toString();
+  }
+
+  // the local file of the url, if it is one
+  private static File getFile( URL url ) {
+    if ( !"file".equals( url.getProtocol() ) ) {
+      return null;
+    }
+
+    try {
+      File file = new File( url.toURI() );
+
+      return file.isFile() ? file : null;
+    } catch ( URISyntaxException | IllegalArgumentException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * Opens the cached bundle for the given key, or returns {@code null} if there isn't one.
+   */
+  public InputStream get( String key ) {
+    File entryFile = getEntryFile( key );
+
+    try {
+      InputStream inputStream = new FileInputStream( entryFile );
+
+      // the last modified time is what tracks the entry usage
+      entryFile.setLastModified( System.currentTimeMillis() );
+
+      this.hitCount.incrementAndGet();
+
+      return inputStream;
+    } catch ( FileNotFoundException e ) {
+      this.missCount.incrementAndGet();
+
+      return null;
+    }
+  }
+
+  /**
+   * The last bundle committed for the package of the archive at the given url (any version of it), transformed with
+   * the given variant, or {@code null} if there isn't one anymore. The file is only meant to be read, and may be evicted meanwhile.
+   */
+  public File getPrevious( URL url, String variant ) {
+    File previousFile = getPreviousFile( url, variant );
+
+    try {
+      String key = new String( Files.readAllBytes( previousFile.toPath() ), StandardCharsets.UTF_8 );
+
+      File entryFile = getEntryFile( key );
+      if ( entryFile.isFile() ) {
+        return entryFile;
+      }
+
+      previousFile.delete();
+    } catch ( IOException e ) {
+      // there is none
+    }
+
+    return null;
+  }
+
+  /**
+   * Starts writing a new entry. Nothing is visible in the cache until {@link Entry#commit()} is called.
+   */
+  public Entry put( String key ) throws IOException {
+    return put( key, null, null );
+  }
+
+  /**
+   * Starts writing a new entry, that becomes the {@link #getPrevious(URL, String) previous} bundle of the package of
+   * the given url, and of the variant, once committed.
+   */
+  public Entry put( String key, URL url, String variant ) throws IOException {
+    File temporaryFile = File.createTempFile( key, TEMPORARY_ENTRY_EXTENSION, this.directory );
+
+    return new Entry( key, getEntryFile( key ), temporaryFile, url != null ? getPreviousFile( url, variant ) : null );
+  }
+
+  /**
+   * The folder where the resources of the bundle with the given key are, or will be, laid out.
+   */
+  public File getExplodedDirectory( String key ) {
+    return new File( this.directory, key + EXPLODED_EXTENSION );
+  }
+
+  /**
+   * Lays out the resources of the cached bundle with the given key in its {@link #getExplodedDirectory(String)
+   * exploded folder}, if not there already. The folder only appears once complete.
+   */
+  public void explode( String key ) throws IOException {
+    File explodedDirectory = getExplodedDirectory( key );
+    if ( explodedDirectory.isDirectory() ) {
+      return;
+    }
+
+    File temporaryDirectory = new File( this.directory, key + "-" + UUID.randomUUID() + TEMPORARY_ENTRY_EXTENSION );
+    try {
+      String temporaryDirectoryPath = temporaryDirectory.getCanonicalPath() + File.separator;
+
+      try ( ZipFile zipFile = new ZipFile( getEntryFile( key ) ) ) {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while ( entries.hasMoreElements() ) {
+          ZipEntry entry = entries.nextElement();
+          if ( entry.isDirectory() || entry.getName().startsWith( "META-INF/" ) ) {
+            continue;
+          }
+
+          File file = new File( temporaryDirectory, entry.getName() );
+          if ( !file.getCanonicalPath().startsWith( temporaryDirectoryPath ) ) {
+            continue;
+          }
+
+          Files.createDirectories( file.getParentFile().toPath() );
+          try ( InputStream inputStream = zipFile.getInputStream( entry ) ) {
+            Files.copy( inputStream, file.toPath() );
+          }
+        }
+      }
+
+      Files.move( temporaryDirectory.toPath(), explodedDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE );
+    } catch ( FileAlreadyExistsException | DirectoryNotEmptyException e ) {
+      // exploded meanwhile by someone else (which one depends on the platform)
+    } finally {
+      FileUtils.deleteQuietly( temporaryDirectory );
+    }
+  }
+
+  /**
+   * Removes the entries older than the maximum age, and then the least recently used ones until the cache fits its
+   * maximum size, and the previous bundle pointers left without their bundle.
+   */
+  public synchronized void evict() {
+    File[] entryFiles = this.directory.listFiles( ( dir, name ) -> name.endsWith( ENTRY_EXTENSION ) );
+    if ( entryFiles == null ) {
+      return;
+    }
+
+    Arrays.sort( entryFiles, Comparator.comparingLong( File::lastModified ) );
+
+    final long oldestAllowed = System.currentTimeMillis() - this.maxAge;
+    long size = Arrays.stream( entryFiles ).mapToLong( this::getEntrySize ).sum();
+
+    for ( File entryFile : entryFiles ) {
+      if ( entryFile.lastModified() >= oldestAllowed && size <= this.maxSize ) {
+        break;
+      }
+
+      long length = getEntrySize( entryFile );
+      if ( entryFile.delete() ) {
+        // an extender still serving from it falls back to the bundle
+        FileUtils.deleteQuietly( getExplodedDirectory( entryFile ) );
+
+        size -= length;
+
+        this.evictionCount.incrementAndGet();
+      }
+    }
+
+    File[] previousFiles = this.directory.listFiles( ( dir, name ) -> name.endsWith( PREVIOUS_EXTENSION ) );
+    if ( previousFiles != null ) {
+      for ( File previousFile : previousFiles ) {
+        try {
+          String key = new String( Files.readAllBytes( previousFile.toPath() ), StandardCharsets.UTF_8 );
+          if ( getEntryFile( key ).isFile() ) {
+            continue;
+          }
+        } catch ( IOException e ) {
+          // unreadable, as good as gone
+        }
+
+        previousFile.delete();
+      }
+    }
+  }
+
+  public void setMaxSize( long maxSize ) {
+    this.maxSize = maxSize;
+  }
+
+  public void setMaxAge( long maxAge ) {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * Whether new bundles get an exploded folder.
+   */
+  public void setExploded( boolean exploded ) {
+    this.exploded = exploded;
+  }
+
+  @Override
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long getMaxAge() {
+    return this.maxAge;
+  }
+
+  @Override
+  public boolean isExploded() {
+    return this.exploded;
+  }
+
+  @Override
+  public long getHitCount() {
+    return this.hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return this.missCount.get();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return this.evictionCount.get();
+  }
+
+  @Override
+  public long getSize() {
+    File[] entryFiles = this.directory.listFiles( ( dir, name ) -> name.endsWith( ENTRY_EXTENSION ) );
+
+    return entryFiles != null ? Arrays.stream( entryFiles ).mapToLong( this::getEntrySize ).sum() : 0;
+  }
+
+  private long getEntrySize( File entryFile ) {
+    File explodedDirectory = getExplodedDirectory( entryFile );
+
+    return entryFile.length() + ( explodedDirectory.isDirectory() ? FileUtils.sizeOfDirectory( explodedDirectory ) : 0 );
+  }
+
+  private File getExplodedDirectory( File entryFile ) {
+    String name = entryFile.getName();
+
+    return getExplodedDirectory( name.substring( 0, name.length() - ENTRY_EXTENSION.length() ) );
+  }
+
+  private File getEntryFile( String key ) {
+    return new File( this.directory, key + ENTRY_EXTENSION );
+  }
+
+  private File getPreviousFile( URL url, String variant ) {
+    // by package, so the next version of an archive finds it; and by layout version too, only bundles with the same
+    // one are worth reusing
+    String source = WebPackageTransformer.getPackageName( url ) + '-' + WebPackageTransformer.VERSION
+        + ( variant != null ? '-' + variant : "" );
+
+    byte[] sourceBytes = source.getBytes( StandardCharsets.UTF_8 );
+
+    return new File( this.directory, WebPackageDigests.digest( sourceBytes, 0, sourceBytes.length ) + PREVIOUS_EXTENSION );
+  }
+
+  /**
+   * A cache entry being written.
+   */
+  public class Entry {
+    private final String key;
+    private final File entryFile;
+    private final File temporaryFile;
+    private final File previousFile;
+
+    private final OutputStream outputStream;
+
+    private Entry( String key, File entryFile, File temporaryFile, File previousFile ) throws FileNotFoundException {
+      this.key = key;
+      this.entryFile = entryFile;
+      this.temporaryFile = temporaryFile;
+      this.previousFile = previousFile;
+
+      this.outputStream = new BufferedOutputStream( new FileOutputStream( temporaryFile ) );
+    }
+
+    public OutputStream getOutputStream() {
+      return this.outputStream;
+    }
+
+    /**
+     * Makes the written bundle available in the cache.
+     */
+    public void commit() throws IOException {
+      this.outputStream.close();
+
+      Files.move( this.temporaryFile.toPath(), this.entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+      if ( this.previousFile != null ) {
+        File temporaryPreviousFile = File.createTempFile( this.key, TEMPORARY_ENTRY_EXTENSION, WebPackageCache.this.directory );
+        Files.write( temporaryPreviousFile.toPath(), this.key.getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( temporaryPreviousFile.toPath(), this.previousFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      }
+
+      evict();
+    }
+
+    /**
+     * Drops whatever was written, leaving the cache untouched.
+     */
+    public void discard() {
+      try {
+        this.outputStream.close();
+      } catch ( IOException ignored ) {
+        // ignored
+      }
+
+      this.temporaryFile.delete();
+    }
+  }
+}
@@ -0,0 +1,768 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.pentaho.webpackage.common.PackageJsonReader;
+import org.pentaho.webpackage.common.VersionParser;
+import org.pentaho.webpackage.common.WebPackageDigests;
+import org.pentaho.webpackage.common.WebPackageHeaders;
+import org.pentaho.webpackage.common.WebPackagePreloads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Transforms a web package archive (npm tgz or zip) into an OSGi bundle jar.
+ * <p>
+ * The manifest must be the first entry of the jar (FileInstall reads it with a {@link java.util.jar.JarInputStream}
+ * before installing), but it can only be built after every package.json in the archive is known. So the archive
+ * is read twice: a first pass only parses the package.json entries, and a second pass streams every entry straight
+ * into the jar, without unpacking anything to disk.
+ * <p>
+ * Zip archives in the local file system are instead opened through their central directory: the first pass only
+ * reads the package.json entries and the second one copies the already deflated entries as they are.
+ * <p>
+ * The digests of the entries are written last, to {@link WebPackageDigests#ENTRY_NAME}. When the bundle previously
+ * generated from the same source is given, the entries that didn't change are copied from it instead of being
+ * compressed again; the resources folder name only depends on the package name, so the entry names match.
+ * <p>
+ * When the bundle resources are going to be laid out in an exploded folder, its path goes in the
+ * {@link WebPackageHeaders#EXPLODED_DIRECTORY} manifest header.
+ * <p>
+ * The modules the entry module of each package depends on are written to {@link WebPackagePreloads#ENTRY_NAME}, for
+ * the extender to preload. The scripts are scanned for their AMD dependencies on their way into the jar, except for
+ * those copied as they are from a local zip archive: only the ones reachable from the entry modules are read again.
+ * <p>
+ * The package.json dependencies go in a {@code dependencies} attribute of the package capability, for the extender
+ * to resolve against the registered web packages; the commas, quotes and backslashes of their ranges are escaped as
+ * the OSGi list syntax requires.
+ * <p>
+ * Besides the OSGi {@code version}, the capability has the package.json version as it is, in {@code npmVersion}, and
+ * a {@code hasConfig} attribute telling whether the package.json has a {@code config} block; so the extender can
+ * take both from the capability and only read the package.json of the packages configuring modules.
+ */
+class WebPackageTransformer implements Callable<Void> {
+  /**
+   * Identifies the layout of the generated bundles, bump it whenever it changes so cached bundles aren't reused.
+   */
+  static final String VERSION = "9";
+
+  private static final String DEBUG_MESSAGE_FAILED_WRITING =
+      "Problem transferring Jar content, probably the output stream was already closed.";
+
+  private static final String PACKAGE_JSON = "package.json";
+
+  private static final int SCAN_BUFFER_SIZE = 8192;
+
+  private static final PackageJsonReader packageJsonReader = new PackageJsonReader( "name", "version", "main", "config",
+      "dependencies" );
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+  /* constructor information */
+  private final URL url;
+  private final InputStream inputStream;
+  private final OutputStream outputStream;
+  private final EntryCompressor compressor;
+  private final EntryCompressor.Settings compressionSettings;
+  private final File previousBundle;
+  private final File explodedDirectory;
+
+  //region transformation state
+
+  /* artifact information */
+  private ZipArchiveOutputStream zipOutputStream;
+  private EntryCompressor.Writer entryWriter;
+
+  // modification time of the entries that don't come with one
+  private long timestamp;
+
+  // those are needed until PAXWEB-1099 is in platform, to avoid the "same servlet name" issue
+  private String resourcesFolderName;
+
+  private ModulePreloads preloads;
+
+  // jar entry name -> zip archive entry of the scripts copied without being scanned
+  private final Map<String, ZipArchiveEntry> rawScriptEntries = new HashMap<>();
+
+  // every entry of the archive, as named in the jar, known after the first pass
+  private final Set<String> archiveEntryNames = new HashSet<>();
+
+  private volatile boolean complete;
+
+  //endregion
+
+  WebPackageTransformer( URL url, InputStream inputStream, OutputStream outputStream ) {
+    this( url, inputStream, outputStream, new EntryCompressor(), null );
+  }
+
+  WebPackageTransformer( URL url, InputStream inputStream, OutputStream outputStream,
+                         EntryCompressor compressor, EntryCompressor.Settings compressionSettings ) {
+    this( url, inputStream, outputStream, compressor, compressionSettings, null, null );
+  }
+
+  /**
+   * With the bundle previously generated for the same package, with the same settings, to reuse its unchanged
+   * entries, and the folder where the bundle resources will be laid out, if any.
+   */
+  WebPackageTransformer( URL url, InputStream inputStream, OutputStream outputStream,
+                         EntryCompressor compressor, EntryCompressor.Settings compressionSettings,
+                         File previousBundle, File explodedDirectory ) {
+    this.url = url;
+
+    this.inputStream = inputStream;
+    this.outputStream = outputStream;
+
+    this.compressor = compressor;
+    this.compressionSettings = compressionSettings != null ? compressionSettings : compressor.getSettings();
+    this.previousBundle = previousBundle;
+    this.explodedDirectory = explodedDirectory;
+  }
+
+  @Override
+  public Void call() throws Exception {
+    try {
+      this.transform();
+    } catch ( Exception e ) {
+      this.logger.error( this.url.toString() + ": Error Transforming package", e );
+
+      this.outputStream.close();
+
+      throw e;
+    }
+
+    return null;
+  }
+
+  private void transform() throws IOException {
+    init();
+
+    Manifest manifest = createManifest();
+    List<String> capabilities = new ArrayList<>();
+    List<String> requirements = null; // new ArrayList<>();
+
+    ArchiveEntryProcessor packageJsonProcessor = ( name, entryInputStream ) -> {
+      this.archiveEntryNames.add( this.resourcesFolderName + "/" + name );
+
+      if ( isPackageJson( name ) ) {
+        processPackageJson( entryInputStream, name, capabilities, requirements );
+      }
+    };
+
+    ZipFile zipFile = null;
+    ZipFile previousZipFile = null;
+    try {
+      File localZipFile = getLocalZipFile();
+      if ( localZipFile != null ) {
+        // the central directory lets us go straight to the package.json entries, no need for the stream
+        this.inputStream.close();
+
+        zipFile = new ZipFile( localZipFile );
+        processZipFilePackageJsons( zipFile, packageJsonProcessor );
+      } else {
+        // first pass: only the package.json entries are parsed, everything else is skipped
+        processArchive( this.inputStream, packageJsonProcessor );
+      }
+
+      if ( !capabilities.isEmpty() ) {
+        manifest.getMainAttributes()
+            .put( new Attributes.Name( Constants.PROVIDE_CAPABILITY ), String.join( ", ", capabilities ) );
+      }
+
+//      if ( !requirements.isEmpty() ) {
+//        manifest.getMainAttributes()
+//            .put( new Attributes.Name( Constants.REQUIRE_CAPABILITY ), String.join( ", ", requirements ) );
+//      }
+
+      try {
+        this.zipOutputStream = new ZipArchiveOutputStream( this.outputStream );
+        writeManifest( manifest );
+
+        this.entryWriter = this.compressor.createWriter( this.zipOutputStream, this.compressionSettings );
+
+        previousZipFile = openPreviousBundle();
+
+        // second pass: every entry goes straight from the archive into the jar
+        Set<String> writtenEntries = new HashSet<>();
+        if ( zipFile != null ) {
+          copyZipFileEntries( zipFile, writtenEntries );
+        } else {
+          processArchive( this.url.openStream(), ( name, entryInputStream ) -> {
+            final String jarEntryName = this.resourcesFolderName + "/" + name;
+
+            if ( writtenEntries.add( jarEntryName ) ) {
+              copyToZip( jarEntryName, entryInputStream, writtenEntries );
+            } else {
+              this.logger.debug( this.url.toString() + ": Ignoring duplicated entry " + name );
+            }
+          } );
+        }
+
+        try {
+          this.entryWriter.flush();
+
+          writeDigests( this.entryWriter.getDigests() );
+          writePreloads( zipFile != null ? this.preloads.getPreloads( getScriptReader( zipFile ) )
+              : this.preloads.getPreloads() );
+
+          this.zipOutputStream.close();
+
+          if ( previousZipFile != null ) {
+            this.logger.info( this.url.toString() + ": Reused " + this.entryWriter.getReusedCount() + " of "
+                + this.entryWriter.getDigests().size() + " entries from the previous bundle" );
+          }
+
+          this.complete = true;
+        } catch ( IOException ioexception ) {
+          this.logger.debug( DEBUG_MESSAGE_FAILED_WRITING, ioexception );
+        }
+      } catch ( IOException e ) {
+        this.logger.debug( ": Pipe is closed, no need to continue." );
+      }
+    } finally {
+      if ( this.entryWriter != null && !this.complete ) {
+        this.entryWriter.abort();
+      }
+
+      ZipFile.closeQuietly( zipFile );
+      ZipFile.closeQuietly( previousZipFile );
+    }
+  }
+
+  /**
+   * Opens the previous bundle and hands it to the entry writer, if there is one with a digests index.
+   */
+  private ZipFile openPreviousBundle() {
+    if ( this.previousBundle == null ) {
+      return null;
+    }
+
+    ZipFile previousZipFile = null;
+    try {
+      previousZipFile = new ZipFile( this.previousBundle );
+
+      ZipArchiveEntry digestsEntry = previousZipFile.getEntry( WebPackageDigests.ENTRY_NAME );
+      if ( digestsEntry == null ) {
+        ZipFile.closeQuietly( previousZipFile );
+        return null;
+      }
+
+      Map<String, String> previousDigests;
+      try ( InputStream digestsInputStream = previousZipFile.getInputStream( digestsEntry ) ) {
+        previousDigests = WebPackageDigests.read( digestsInputStream );
+      }
+
+      this.entryWriter.reuse( previousZipFile, previousDigests );
+
+      return previousZipFile;
+    } catch ( IOException e ) {
+      // not essential, everything is compressed again
+      this.logger.debug( this.url.toString() + ": Unable to read the previous bundle " + this.previousBundle, e );
+
+      ZipFile.closeQuietly( previousZipFile );
+      return null;
+    }
+  }
+
+  /**
+   * Tells if the whole bundle was written to the output stream.
+   */
+  boolean isComplete() {
+    return this.complete;
+  }
+
+  /**
+   * Zip archives in the local file system are read through their central directory, which allows copying the
+   * already deflated entries into the jar as they are.
+   */
+  private File getLocalZipFile() {
+    if ( !this.url.getProtocol().equals( "file" ) || !this.url.getPath().endsWith( ".zip" ) ) {
+      return null;
+    }
+
+    try {
+      File file = new File( this.url.toURI() );
+
+      return file.isFile() ? file : null;
+    } catch ( URISyntaxException | IllegalArgumentException e ) {
+      return null;
+    }
+  }
+
+  private void processZipFilePackageJsons( ZipFile zipFile, ArchiveEntryProcessor processor ) throws IOException {
+    Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+    while ( entries.hasMoreElements() ) {
+      ZipArchiveEntry entry = entries.nextElement();
+
+      String name = entry.isDirectory() ? null : normalize( entry.getName() );
+      if ( name != null ) {
+        this.archiveEntryNames.add( this.resourcesFolderName + "/" + name );
+      }
+
+      if ( name != null && isPackageJson( name ) && zipFile.canReadEntryData( entry ) ) {
+        try ( InputStream entryInputStream = zipFile.getInputStream( entry ) ) {
+          processArchiveEntry( entryInputStream, entry.getName(), processor );
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the scripts of the zip archive that were copied as they are, without being scanned.
+   */
+  private ModulePreloads.ScriptReader getScriptReader( ZipFile zipFile ) {
+    return entryName -> {
+      ZipArchiveEntry entry = this.rawScriptEntries.get( entryName );
+      if ( entry == null || entry.getSize() >= ModulePreloads.MAX_SCANNED_SIZE || !zipFile.canReadEntryData( entry ) ) {
+        return null;
+      }
+
+      try ( InputStream entryInputStream = zipFile.getInputStream( entry ) ) {
+        return IOUtils.toByteArray( entryInputStream );
+      }
+    };
+  }
+
+  private void copyZipFileEntries( ZipFile zipFile, Set<String> writtenEntries ) throws IOException {
+    Enumeration<ZipArchiveEntry> entries = zipFile.getEntriesInPhysicalOrder();
+    while ( entries.hasMoreElements() ) {
+      ZipArchiveEntry entry = entries.nextElement();
+      if ( entry.isDirectory() ) {
+        continue;
+      }
+
+      String name = normalizeEntryName( entry.getName() );
+      if ( name == null ) {
+        continue;
+      }
+
+      final String jarEntryName = this.resourcesFolderName + "/" + name;
+      if ( !writtenEntries.add( jarEntryName ) ) {
+        this.logger.debug( this.url.toString() + ": Ignoring duplicated entry " + name );
+        continue;
+      }
+
+      if ( canCopyRaw( entry ) && this.entryWriter.canCopyRaw( name, entry.getMethod() )
+          && !isPrecompressed( jarEntryName ) ) {
+        ZipArchiveEntry rawEntry = new ZipArchiveEntry( jarEntryName );
+        rawEntry.setMethod( entry.getMethod() );
+        rawEntry.setCrc( entry.getCrc() );
+        rawEntry.setSize( entry.getSize() );
+        rawEntry.setCompressedSize( entry.getCompressedSize() );
+        rawEntry.setTime( entry.getTime() );
+
+        if ( this.preloads.isScanned( jarEntryName ) ) {
+          // only read if it turns out to be preloaded, most aren't
+          this.rawScriptEntries.put( jarEntryName, entry );
+        }
+
+        try ( InputStream rawInputStream = zipFile.getRawInputStream( entry ) ) {
+          this.entryWriter.writeRaw( rawEntry, rawInputStream );
+        }
+      } else if ( zipFile.canReadEntryData( entry ) ) {
+        // compressed with something the framework can't read (e.g. bzip2), the policy wants it stored, or its
+        // content is needed for the precompressed copy
+        try ( InputStream entryInputStream = zipFile.getInputStream( entry ) ) {
+          copyToZip( jarEntryName, entryInputStream, writtenEntries );
+        }
+      } else {
+        this.logger.warn( this.url.toString() + ": Ignoring unreadable entry " + entry.getName() );
+      }
+    }
+  }
+
+  private static boolean canCopyRaw( ZipArchiveEntry entry ) {
+    return ( entry.getMethod() == ZipEntry.STORED || entry.getMethod() == ZipEntry.DEFLATED )
+        && !entry.getGeneralPurposeBit().usesEncryption()
+        && entry.getCrc() != -1 && entry.getSize() != -1 && entry.getCompressedSize() != -1;
+  }
+
+  private void processArchive( InputStream archiveInputStream, ArchiveEntryProcessor processor ) throws IOException {
+    if ( this.url.getProtocol().equals( "jardir" ) || this.url.getProtocol().equals( "file" ) && this.url.getPath().endsWith( ".zip" ) ) {
+      processZipArchive( archiveInputStream, processor );
+    } else {
+      processTgzArchive( archiveInputStream, processor );
+    }
+  }
+
+  private void processZipArchive( InputStream archiveInputStream, ArchiveEntryProcessor processor ) throws IOException {
+    ZipInputStream zipInputStream = null;
+
+    try {
+      zipInputStream = new ZipInputStream( archiveInputStream );
+
+      ZipEntry entry;
+      while ( ( entry = zipInputStream.getNextEntry() ) != null ) {
+        if ( !entry.isDirectory() ) {
+          processArchiveEntry( zipInputStream, entry.getName(), processor );
+        }
+
+        zipInputStream.closeEntry();
+      }
+    } finally {
+      try {
+        if ( zipInputStream != null ) {
+          zipInputStream.close();
+        } else {
+          archiveInputStream.close();
+        }
+      } catch ( IOException ioexception ) {
+        this.logger.debug( ": Tried to close JarInputStream, but it was already closed.", ioexception );
+      }
+    }
+  }
+
+  private void processTgzArchive( InputStream archiveInputStream, ArchiveEntryProcessor processor ) throws IOException {
+    TarArchiveInputStream tarGzInputStream = null;
+
+    try {
+      tarGzInputStream = new TarArchiveInputStream( new GzipCompressorInputStream( archiveInputStream ) );
+
+      TarArchiveEntry entry;
+      while ( ( entry = tarGzInputStream.getNextTarEntry() ) != null ) {
+        if ( !entry.isDirectory() ) {
+          processArchiveEntry( tarGzInputStream, entry.getName(), processor );
+        }
+      }
+    } finally {
+      try {
+        if ( tarGzInputStream != null ) {
+          tarGzInputStream.close();
+        } else {
+          archiveInputStream.close();
+        }
+      } catch ( IOException ioexception ) {
+        this.logger.debug( ": Tried to close JarInputStream, but it was already closed.", ioexception );
+      }
+    }
+  }
+
+  private void processArchiveEntry( InputStream entryInputStream, String name, ArchiveEntryProcessor processor ) throws IOException {
+    String normalizedName = normalizeEntryName( name );
+    if ( normalizedName != null ) {
+      processor.process( normalizedName, entryInputStream );
+    }
+  }
+
+  private String normalizeEntryName( String name ) {
+    String normalizedName = normalize( name );
+    if ( normalizedName == null && FilenameUtils.normalize( name, true ) == null ) {
+      this.logger.warn( this.url.toString() + ": Ignoring entry outside of the package root " + name );
+    }
+
+    return normalizedName;
+  }
+
+  // same layout the entries would have if extracted to a folder (no "./" segments, nothing outside the root)
+  private static String normalize( String name ) {
+    String normalizedName = FilenameUtils.normalize( name, true );
+    if ( normalizedName == null ) {
+      return null;
+    }
+
+    while ( normalizedName.startsWith( "/" ) ) {
+      normalizedName = normalizedName.substring( 1 );
+    }
+
+    return normalizedName.isEmpty() ? null : normalizedName;
+  }
+
+  private void processPackageJson( InputStream inputStream, String name, List<String> capabilities, List<String> requirements ) {
+    Map<String, Object> packageJson = parsePackageJson( inputStream );
+
+    String moduleName = (String) packageJson.get( "name" );
+    String npmVersion = (String) packageJson.get( "version" );
+    String moduleVersion = VersionParser.parseVersion( npmVersion ).toString();
+    String root = name.replace( PACKAGE_JSON, "" );
+    if ( root.endsWith( "/" ) ) {
+      root = root.substring( 0, root.length() - 1 );
+    }
+
+    Object main = packageJson.get( "main" );
+    this.preloads.addPackage( root.isEmpty() ? this.resourcesFolderName : this.resourcesFolderName + "/" + root,
+        moduleName, main instanceof String ? (String) main : null );
+
+    String capability = "org.pentaho.webpackage;name=\"" + moduleName + "\";version:Version=\"" + moduleVersion + "\";root=\"/" + this.resourcesFolderName + "/" + root + "\"";
+
+    // the alias is made of the package.json version, which the OSGi one doesn't always keep (1.0 is 1.0.0)
+    if ( npmVersion != null && !npmVersion.contains( "\"" ) && !npmVersion.contains( "\\" ) ) {
+      capability += ";npmVersion=\"" + npmVersion + "\"";
+    }
+
+    capability += ";hasConfig=\"" + ( packageJson.get( "config" ) instanceof Map ) + "\"";
+
+    // only for the extender to resolve against the registered web packages, they can't be requirements (see below)
+    String dependencies = getDependencies( moduleName, packageJson.get( "dependencies" ) );
+    if ( dependencies != null ) {
+      capability += ";dependencies:List<String>=\"" + dependencies + "\"";
+    }
+
+    capabilities.add( capability );
+
+    // we can't use required capabilities until all the platform is using capability based web packages
+//    if ( packageJson.containsKey( "dependencies" ) ) {
+//      HashMap<String, ?> deps = (HashMap<String, ?>) packageJson.get( "dependencies" );
+//
+//      final Set<String> depsKeySet = deps.keySet();
+//      for ( String key : depsKeySet ) {
+//        requirements.add( "org.pentaho.webpackage;filter:=\"(&(name=" + key + ")(version>=" + (String) deps.get( key ) + "))\"" );
+//      }
+//    }
+  }
+
+  /**
+   * The package.json dependencies as a list attribute value, {@code name@range} items separated by commas, or
+   * {@code null} if there are none; those whose range isn't a string are left out.
+   */
+  String getDependencies( String moduleName, Object dependencies ) {
+    if ( !( dependencies instanceof Map ) ) {
+      return null;
+    }
+
+    List<String> items = new ArrayList<>();
+    for ( Map.Entry<?, ?> dependency : ( (Map<?, ?>) dependencies ).entrySet() ) {
+      if ( dependency.getValue() instanceof String ) {
+        items.add( escapeListItem( dependency.getKey() + "@" + dependency.getValue() ) );
+      } else {
+        this.logger.warn( this.url.toString() + ": Ignoring the dependency of " + moduleName + " on "
+            + dependency.getKey() + ", its version range isn't a string" );
+      }
+    }
+
+    return items.isEmpty() ? null : String.join( ",", items );
+  }
+
+  /**
+   * Escapes an item of a quoted list attribute value: its commas, quotes and backslashes are preceded by a backslash.
+   */
+  static String escapeListItem( String item ) {
+    StringBuilder escaped = new StringBuilder( item.length() );
+    for ( int i = 0; i < item.length(); i++ ) {
+      char c = item.charAt( i );
+      if ( c == ',' || c == '"' || c == '\\' ) {
+        escaped.append( '\\' );
+      }
+
+      escaped.append( c );
+    }
+
+    return escaped.toString();
+  }
+
+  public Map<String, Object> parsePackageJson( InputStream inputStream ) {
+    try {
+      // the archive stream is still needed for the next entries, and the reader never closes it
+      return packageJsonReader.read( inputStream );
+    } catch ( Exception e ) {
+      throw new RuntimeException( "Error opening package.json", e );
+    }
+  }
+
+  /**
+   * Whether an archive entry is a package.json, at the root or in a folder of the archive; each one makes a web
+   * package of the folder it is in.
+   */
+  static boolean isPackageJson( String entryName ) {
+    return entryName.equals( PACKAGE_JSON ) || entryName.endsWith( "/" + PACKAGE_JSON );
+  }
+
+  /**
+   * Whether an archive entry is a package.json at the root, or directly under a single top-level folder, as npm packs
+   * them under package/; not one of a package bundled in another.
+   */
+  static boolean isTopLevelPackageJson( String entryName ) {
+    String name = entryName.startsWith( "./" ) ? entryName.substring( 2 ) : entryName;
+
+    return isPackageJson( name ) && name.indexOf( '/' ) == name.lastIndexOf( '/' );
+  }
+
+  /**
+   * The name of the package in the archive at the given url: its file name without the version, if it has one. The
+   * bundle symbolic name is made from it, and every version of the package shares it.
+   */
+  static String getPackageName( URL url ) {
+    String name = FilenameUtils.getBaseName( url.getPath() );
+
+    // not essential, just trying to get a prettier name
+    int i = name.lastIndexOf( '-' );
+    if ( i != -1 ) {
+      String possibleVersion = name.substring( i + 1 );
+      if ( !possibleVersion.isEmpty() && Character.isDigit( possibleVersion.charAt( 0 ) )
+          && !VersionParser.parseVersion( possibleVersion ).equals( VersionParser.DEFAULT ) ) {
+        return name.substring( 0, i );
+      }
+    }
+
+    return name;
+  }
+
+  private void init() {
+    // those are needed until PAXWEB-1099 is in platform, to avoid the "same servlet name" issue; every version of a
+    // package gets the same folder, so a new one can reuse the entries of the previous one
+    String packageName = getPackageName( this.url );
+    this.resourcesFolderName = "pwp-" + UUID.nameUUIDFromBytes( packageName.getBytes( StandardCharsets.UTF_8 ) );
+
+    this.timestamp = System.currentTimeMillis();
+
+    this.preloads = new ModulePreloads();
+  }
+
+  private Manifest createManifest() {
+    String fileName = FilenameUtils.getBaseName( this.url.getPath() );
+    String name = getPackageName( this.url );
+    Version version = name.length() < fileName.length()
+        ? VersionParser.parseVersion( fileName.substring( name.length() + 1 ) ) : VersionParser.DEFAULT;
+
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+
+    manifest.getMainAttributes()
+        .put( new Attributes.Name( Constants.BUNDLE_MANIFESTVERSION ), "2" );
+
+    manifest.getMainAttributes()
+        .put( new Attributes.Name( Constants.BUNDLE_SYMBOLICNAME ), "pentaho-web-package-" + name );
+    manifest.getMainAttributes()
+        .put( new Attributes.Name( Constants.BUNDLE_VERSION ), version.toString() );
+
+    if ( this.explodedDirectory != null ) {
+      manifest.getMainAttributes()
+          .put( new Attributes.Name( WebPackageHeaders.EXPLODED_DIRECTORY ), this.explodedDirectory.getAbsolutePath() );
+    }
+
+    return manifest;
+  }
+
+  private void writeManifest( Manifest manifest ) throws IOException {
+    // where JarInputStream expects to find it
+    this.zipOutputStream.putArchiveEntry( createEntry( "META-INF/" ) );
+    this.zipOutputStream.closeArchiveEntry();
+
+    this.zipOutputStream.putArchiveEntry( createEntry( JarFile.MANIFEST_NAME ) );
+    manifest.write( this.zipOutputStream );
+    this.zipOutputStream.closeArchiveEntry();
+  }
+
+  private void writeDigests( Map<String, String> digests ) throws IOException {
+    this.zipOutputStream.putArchiveEntry( createEntry( WebPackageDigests.ENTRY_NAME ) );
+    WebPackageDigests.write( digests, this.zipOutputStream );
+    this.zipOutputStream.closeArchiveEntry();
+  }
+
+  private void writePreloads( Map<String, List<String>> preloads ) throws IOException {
+    if ( preloads.isEmpty() ) {
+      return;
+    }
+
+    this.zipOutputStream.putArchiveEntry( createEntry( WebPackagePreloads.ENTRY_NAME ) );
+    WebPackagePreloads.write( preloads, this.zipOutputStream );
+    this.zipOutputStream.closeArchiveEntry();
+  }
+
+  private void copyToZip( String entry, InputStream inputStream, Set<String> writtenEntries ) throws IOException {
+    boolean precompress = isPrecompressed( entry );
+
+    if ( this.entryWriter.write( createEntry( entry ), scan( entry, inputStream ), precompress ) ) {
+      writtenEntries.add( this.entryWriter.getPrecompressedName( entry ) );
+    }
+  }
+
+  /**
+   * Scans a script for its dependencies; the stream returned has the same content as the one given.
+   */
+  private InputStream scan( String entry, InputStream inputStream ) throws IOException {
+    if ( !this.preloads.isScanned( entry ) ) {
+      return inputStream;
+    }
+
+    byte[] data = new byte[ SCAN_BUFFER_SIZE ];
+    int length = 0;
+    int bytesIn;
+    while ( ( bytesIn = inputStream.read( data, length, data.length - length ) ) != -1 ) {
+      length += bytesIn;
+
+      if ( length == data.length ) {
+        if ( length >= ModulePreloads.MAX_SCANNED_SIZE ) {
+          // the archive stream must stay open for the next entries
+          return new SequenceInputStream( new ByteArrayInputStream( data, 0, length ),
+              new CloseShieldInputStream( inputStream ) );
+        }
+
+        data = Arrays.copyOf( data, data.length * 2 );
+      }
+    }
+
+    this.preloads.scan( entry, data, length );
+
+    return new ByteArrayInputStream( data, 0, length );
+  }
+
+  // unless the archive has its own precompressed copy, wherever it comes in the archive
+  private boolean isPrecompressed( String entry ) {
+    String precompressedName = this.entryWriter.getPrecompressedName( entry );
+
+    return precompressedName != null && !this.archiveEntryNames.contains( precompressedName );
+  }
+
+  private ZipArchiveEntry createEntry( String name ) {
+    ZipArchiveEntry zipEntry = new ZipArchiveEntry( name );
+    zipEntry.setTime( this.timestamp );
+
+    return zipEntry;
+  }
+
+  @FunctionalInterface
+  private interface ArchiveEntryProcessor {
+    void process( String name, InputStream entryInputStream ) throws IOException;
+  }
+}
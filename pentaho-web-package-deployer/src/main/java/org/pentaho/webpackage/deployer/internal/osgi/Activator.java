@@ -20,35 +20,87 @@ package org.pentaho.webpackage.deployer.internal.osgi;
 import org.apache.felix.fileinstall.ArtifactUrlTransformer;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.url.URLConstants;
 import org.osgi.service.url.URLStreamHandlerService;
+import org.pentaho.webpackage.common.WebPackageHeaders;
+import org.pentaho.webpackage.deployer.EntryCompressor;
+import org.pentaho.webpackage.deployer.TransformExecutor;
 import org.pentaho.webpackage.deployer.UrlHandler;
 import org.pentaho.webpackage.deployer.UrlTransformer;
+import org.pentaho.webpackage.deployer.WebPackageCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.Dictionary;
 import java.util.Hashtable;
 
 public class Activator implements BundleActivator {
+  private static final String EXECUTOR_OBJECT_NAME = "org.pentaho.webpackage.deployer:type=TransformExecutor";
+  private static final String CACHE_OBJECT_NAME = "org.pentaho.webpackage.deployer:type=WebPackageCache";
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
   private UrlTransformer urlTransformer;
   private ServiceRegistration<ArtifactUrlTransformer> urlTransformerRegistration;
 
+  private TransformExecutor executor;
+  private ObjectName executorObjectName;
+
+  private EntryCompressor compressor;
+
+  private WebPackageCache cache;
+  private ObjectName cacheObjectName;
+
   private UrlHandler urlHandler;
   private ServiceRegistration<URLStreamHandlerService> urlHandlerRegistration;
 
+  private ServiceRegistration<ManagedService> managedServiceRegistration;
+
   public void start( BundleContext bundleContext ) {
     this.urlTransformer = new UrlTransformer();
     this.urlTransformerRegistration = bundleContext.registerService( ArtifactUrlTransformer.class, this.urlTransformer, null );
 
-    this.urlHandler = new UrlHandler();
+    this.executor = new TransformExecutor();
+    this.executorObjectName = registerMBean( this.executor, EXECUTOR_OBJECT_NAME );
+
+    this.compressor = new EntryCompressor();
+
+    File cacheDirectory = bundleContext.getDataFile( "cache" );
+    if ( cacheDirectory != null ) {
+      this.cache = new WebPackageCache( cacheDirectory );
+      this.cacheObjectName = registerMBean( this.cache, CACHE_OBJECT_NAME );
+    }
+
+    this.urlHandler = new UrlHandler( this.executor, this.compressor, this.cache );
 
     Dictionary<String, String> props = new Hashtable<>();
     props.put( URLConstants.URL_HANDLER_PROTOCOL, "pentaho-web-package" );
+    if ( this.cache != null ) {
+      // the only place the extender serves exploded bundles from
+      props.put( WebPackageHeaders.EXPLODED_ROOT, cacheDirectory.getAbsolutePath() );
+    }
 
     this.urlHandlerRegistration = bundleContext.registerService( URLStreamHandlerService.class, this.urlHandler, props );
+
+    Dictionary<String, String> managedServiceProps = new Hashtable<>();
+    managedServiceProps.put( Constants.SERVICE_PID, DeployerManagedService.PID );
+
+    this.managedServiceRegistration = bundleContext.registerService( ManagedService.class, new DeployerManagedService( this.executor, this.compressor, this.cache ), managedServiceProps );
   }
 
   public void stop( BundleContext bundleContext ) {
+    if ( this.managedServiceRegistration != null ) {
+      this.managedServiceRegistration.unregister();
+      this.managedServiceRegistration = null;
+    }
+
     if ( this.urlTransformerRegistration != null ) {
       this.urlTransformerRegistration.unregister();
       this.urlTransformerRegistration = null;
@@ -60,5 +112,54 @@ public class Activator implements BundleActivator {
       this.urlHandlerRegistration = null;
       this.urlHandler = null;
     }
+
+    if ( this.cacheObjectName != null ) {
+      unregisterMBean( this.cacheObjectName );
+      this.cacheObjectName = null;
+    }
+
+    this.cache = null;
+
+    if ( this.compressor != null ) {
+      this.compressor.shutdown();
+      this.compressor = null;
+    }
+
+    if ( this.executorObjectName != null ) {
+      unregisterMBean( this.executorObjectName );
+      this.executorObjectName = null;
+    }
+
+    if ( this.executor != null ) {
+      this.executor.shutdown();
+      this.executor = null;
+    }
+  }
+
+  private ObjectName registerMBean( Object mBean, String name ) {
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+      ObjectName objectName = new ObjectName( name );
+      if ( mBeanServer.isRegistered( objectName ) ) {
+        mBeanServer.unregisterMBean( objectName );
+      }
+
+      mBeanServer.registerMBean( mBean, objectName );
+
+      return objectName;
+    } catch ( Exception e ) {
+      this.logger.warn( "Unable to register " + name, e );
+
+      return null;
+    }
+  }
+
+  private void unregisterMBean( ObjectName objectName ) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+    } catch ( Exception e ) {
+      this.logger.debug( "Unable to unregister " + objectName, e );
+    }
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer.internal.osgi;
+
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.pentaho.webpackage.deployer.EntryCompressor;
+import org.pentaho.webpackage.deployer.TransformExecutor;
+import org.pentaho.webpackage.deployer.WebPackageCache;
+
+import java.util.Dictionary;
+import java.util.Locale;
+
+/**
+ * Applies the deployer configuration (PID {@value #PID}) to the running deployer.
+ * <ul>
+ *   <li>{@code executor.poolSize} - number of threads transforming web packages</li>
+ *   <li>{@code executor.queueSize} - maximum number of transformations waiting for a thread, 0 for no limit</li>
+ *   <li>{@code executor.rejectionPolicy} - what happens when the queue is full: {@code block} the caller until there
+ *   is room, or {@code abort} the transformation</li>
+ *   <li>{@code executor.virtualThreads} - run each transformation in its own virtual thread (JDK 21+)</li>
+ *   <li>{@code compression.parallelism} - number of entries of a bundle deflated at the same time</li>
+ *   <li>{@code compression.policy} - how the bundle entries are compressed: {@code deflate} them all, {@code stored}
+ *   (not compressed at all), or {@code adaptive}, storing already compressed formats and deflating the rest with the
+ *   fastest level</li>
+ *   <li>{@code compression.precompress} - add a gzipped copy of each text asset ({@code name.js.gz}) to the bundle,
+ *   for the extender to serve to clients that accept it</li>
+ *   <li>{@code cache.maxSize} - maximum size, in bytes, of the transformed bundles cache</li>
+ *   <li>{@code cache.maxAge} - time, in milliseconds, an unused transformed bundle is kept in the cache</li>
+ *   <li>{@code cache.exploded} - also lay out the resources of the transformed bundles as plain files, in the cache,
+ *   for the extender to serve them from the file system instead of the bundle</li>
+ * </ul>
+ */
+public class DeployerManagedService implements ManagedService {
+  public static final String PID = "org.pentaho.webpackage.deployer";
+
+  static final String EXECUTOR_POOL_SIZE = "executor.poolSize";
+  static final String EXECUTOR_QUEUE_SIZE = "executor.queueSize";
+  static final String EXECUTOR_REJECTION_POLICY = "executor.rejectionPolicy";
+  static final String EXECUTOR_VIRTUAL_THREADS = "executor.virtualThreads";
+
+  static final String COMPRESSION_PARALLELISM = "compression.parallelism";
+  static final String COMPRESSION_POLICY = "compression.policy";
+  static final String COMPRESSION_PRECOMPRESS = "compression.precompress";
+
+  static final String CACHE_MAX_SIZE = "cache.maxSize";
+  static final String CACHE_MAX_AGE = "cache.maxAge";
+  static final String CACHE_EXPLODED = "cache.exploded";
+
+  private final TransformExecutor executor;
+  private final EntryCompressor compressor;
+  private final WebPackageCache cache;
+
+  DeployerManagedService( TransformExecutor executor, EntryCompressor compressor, WebPackageCache cache ) {
+    this.executor = executor;
+    this.compressor = compressor;
+    this.cache = cache;
+  }
+
+  @Override
+  public void updated( Dictionary<String, ?> properties ) throws ConfigurationException {
+    int poolSize = (int) getLong( properties, EXECUTOR_POOL_SIZE, TransformExecutor.DEFAULT_POOL_SIZE );
+    if ( poolSize < 1 ) {
+      throw new ConfigurationException( EXECUTOR_POOL_SIZE, "Must be at least 1: " + poolSize );
+    }
+
+    int queueSize = (int) getLong( properties, EXECUTOR_QUEUE_SIZE, TransformExecutor.UNBOUNDED_QUEUE );
+
+    TransformExecutor.RejectionPolicy rejectionPolicy;
+    String rejectionPolicyName = getString( properties, EXECUTOR_REJECTION_POLICY, TransformExecutor.RejectionPolicy.BLOCK.name() );
+    try {
+      rejectionPolicy = TransformExecutor.RejectionPolicy.valueOf( rejectionPolicyName.toUpperCase( Locale.ROOT ) );
+    } catch ( IllegalArgumentException e ) {
+      throw new ConfigurationException( EXECUTOR_REJECTION_POLICY, "Unknown policy: " + rejectionPolicyName, e );
+    }
+
+    boolean virtualThreads = Boolean.parseBoolean( getString( properties, EXECUTOR_VIRTUAL_THREADS, "false" ) );
+
+    int parallelism = (int) getLong( properties, COMPRESSION_PARALLELISM, EntryCompressor.DEFAULT_PARALLELISM );
+    if ( parallelism < 1 ) {
+      throw new ConfigurationException( COMPRESSION_PARALLELISM, "Must be at least 1: " + parallelism );
+    }
+
+    EntryCompressor.Policy compressionPolicy;
+    String compressionPolicyName = getString( properties, COMPRESSION_POLICY, EntryCompressor.Policy.DEFLATE.name() );
+    try {
+      compressionPolicy = EntryCompressor.Policy.valueOf( compressionPolicyName.toUpperCase( Locale.ROOT ) );
+    } catch ( IllegalArgumentException e ) {
+      throw new ConfigurationException( COMPRESSION_POLICY, "Unknown policy: " + compressionPolicyName, e );
+    }
+
+    boolean precompress = Boolean.parseBoolean( getString( properties, COMPRESSION_PRECOMPRESS, "false" ) );
+
+    long cacheMaxSize = getLong( properties, CACHE_MAX_SIZE, WebPackageCache.DEFAULT_MAX_SIZE );
+    long cacheMaxAge = getLong( properties, CACHE_MAX_AGE, WebPackageCache.DEFAULT_MAX_AGE );
+    boolean exploded = Boolean.parseBoolean( getString( properties, CACHE_EXPLODED, "false" ) );
+
+    // only once everything is known to be valid, so a bad value doesn't leave the configuration half applied
+    this.executor.configure( poolSize, queueSize, rejectionPolicy, virtualThreads );
+
+    this.compressor.configure( parallelism, compressionPolicy, precompress );
+
+    if ( this.cache != null ) {
+      this.cache.setMaxSize( cacheMaxSize );
+      this.cache.setMaxAge( cacheMaxAge );
+      this.cache.setExploded( exploded );
+
+      this.cache.evict();
+    }
+  }
+
+  static String getString( Dictionary<String, ?> properties, String key, String defaultValue ) {
+    Object value = properties != null ? properties.get( key ) : null;
+
+    return value != null ? value.toString().trim() : defaultValue;
+  }
+
+  static long getLong( Dictionary<String, ?> properties, String key, long defaultValue ) throws ConfigurationException {
+    Object value = properties != null ? properties.get( key ) : null;
+    if ( value == null ) {
+      return defaultValue;
+    }
+
+    try {
+      return value instanceof Number ? ( (Number) value ).longValue() : Long.parseLong( value.toString().trim() );
+    } catch ( NumberFormatException e ) {
+      throw new ConfigurationException( key, "Not a number: " + value, e );
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class BufferedPipeTest {
+  @Test
+  public void transfersEverythingAcrossTheRingBoundary() throws Exception {
+    // a small buffer with an odd size, so that reads and writes wrap around the end of the buffer
+    BufferedPipe pipe = new BufferedPipe( 7 );
+
+    byte[] data = new byte[ 100000 ];
+    new Random( 42 ).nextBytes( data );
+
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> written = writer.submit( () -> {
+        OutputStream outputStream = pipe.getOutputStream();
+        for ( int offset = 0; offset < data.length; offset += 13 ) {
+          outputStream.write( data, offset, Math.min( 13, data.length - offset ) );
+        }
+        outputStream.close();
+        return null;
+      } );
+
+      assertArrayEquals( data, IOUtils.toByteArray( pipe.getInputStream() ) );
+      written.get();
+    } finally {
+      writer.shutdown();
+    }
+  }
+
+  @Test
+  public void endOfStreamAfterWriterCloses() throws Exception {
+    BufferedPipe pipe = new BufferedPipe();
+
+    pipe.getOutputStream().write( 42 );
+    pipe.getOutputStream().close();
+
+    InputStream inputStream = pipe.getInputStream();
+    assertEquals( 42, inputStream.read() );
+    assertEquals( -1, inputStream.read() );
+  }
+
+  @Test
+  public void writesFailAfterReaderCloses() throws Exception {
+    BufferedPipe pipe = new BufferedPipe( 4 );
+
+    pipe.getOutputStream().write( new byte[ 4 ] );
+    pipe.getInputStream().close();
+
+    try {
+      pipe.getOutputStream().write( 1 );
+      fail();
+    } catch ( IOException expected ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void failureReachesReader() throws Exception {
+    BufferedPipe pipe = new BufferedPipe();
+
+    pipe.getOutputStream().write( new byte[ 10 ] );
+
+    IOException cause = new IOException( "broken" );
+    pipe.fail( cause );
+
+    try {
+      pipe.getInputStream().read( new byte[ 10 ] );
+      fail();
+    } catch ( IOException expected ) {
+      assertSame( cause, expected.getCause() );
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.pentaho.webpackage.common.WebPackageDigests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntryCompressorTest {
+  private final EntryCompressor compressor = new EntryCompressor();
+
+  @After
+  public void tearDown() throws Exception {
+    this.compressor.shutdown();
+  }
+
+  @Test
+  public void sequential() throws Exception {
+    verifyRoundTrip( 20, EntryCompressor.Policy.DEFLATE, ".js" );
+  }
+
+  @Test
+  public void parallelKeepsEntriesInOrder() throws Exception {
+    this.compressor.configure( 4, EntryCompressor.Policy.DEFLATE, false );
+
+    // more entries than can be in flight, so the writer has to wait for the pool
+    verifyRoundTrip( 4 * EntryCompressor.IN_FLIGHT_ENTRIES_PER_THREAD * 5, EntryCompressor.Policy.DEFLATE, ".js" );
+  }
+
+  @Test
+  public void storedPolicy() throws Exception {
+    verifyRoundTrip( 20, EntryCompressor.Policy.STORED, ".js" );
+  }
+
+  @Test
+  public void adaptivePolicyStoresCompressedFormats() throws Exception {
+    this.compressor.configure( 2, EntryCompressor.Policy.ADAPTIVE, false );
+
+    verifyRoundTrip( 20, EntryCompressor.Policy.ADAPTIVE, ".png" );
+    verifyRoundTrip( 20, EntryCompressor.Policy.ADAPTIVE, ".js" );
+  }
+
+  @Test
+  public void canCopyRaw() throws Exception {
+    EntryCompressor.Writer deflateWriter = this.compressor.createWriter( null, new EntryCompressor.Settings( EntryCompressor.Policy.DEFLATE, false ) );
+    assertTrue( deflateWriter.canCopyRaw( "image.png", ZipEntry.DEFLATED ) );
+
+    EntryCompressor.Writer adaptiveWriter = this.compressor.createWriter( null, new EntryCompressor.Settings( EntryCompressor.Policy.ADAPTIVE, false ) );
+    assertTrue( adaptiveWriter.canCopyRaw( "script.js", ZipEntry.DEFLATED ) );
+    assertFalse( adaptiveWriter.canCopyRaw( "image.PNG", ZipEntry.DEFLATED ) );
+    assertTrue( adaptiveWriter.canCopyRaw( "image.png", ZipEntry.STORED ) );
+
+    EntryCompressor.Writer storedWriter = this.compressor.createWriter( null, new EntryCompressor.Settings( EntryCompressor.Policy.STORED, false ) );
+    assertFalse( storedWriter.canCopyRaw( "script.js", ZipEntry.DEFLATED ) );
+  }
+
+  @Test
+  public void precompressedCopies() throws Exception {
+    verifyPrecompressedCopies();
+  }
+
+  @Test
+  public void parallelPrecompressedCopies() throws Exception {
+    this.compressor.configure( 2, EntryCompressor.Policy.DEFLATE, true );
+
+    verifyPrecompressedCopies();
+  }
+
+  @Test
+  public void reusesUnchangedEntries() throws Exception {
+    StringBuilder script = new StringBuilder();
+    for ( int i = 0; i < 200; i++ ) {
+      script.append( "define(['module-" ).append( i ).append( "'], function() {});\n" );
+    }
+    byte[] scriptData = script.toString().getBytes( "UTF-8" );
+
+    EntryCompressor.Settings settings = new EntryCompressor.Settings( EntryCompressor.Policy.DEFLATE, true );
+
+    File previousBundle = File.createTempFile( "previous", ".jar" );
+    try {
+      Map<String, String> previousDigests;
+      try ( ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( new FileOutputStream( previousBundle ) ) ) {
+        EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, settings );
+
+        writer.write( new ZipArchiveEntry( "script.js" ), new ByteArrayInputStream( scriptData ), true );
+        writer.write( new ZipArchiveEntry( "changed.js" ), new ByteArrayInputStream( scriptData ), true );
+        writer.flush();
+
+        previousDigests = writer.getDigests();
+        assertEquals( 4, previousDigests.size() );
+      }
+
+      byte[] changedData = "define({});".getBytes( "UTF-8" );
+
+      ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+      try ( ZipFile previousZipFile = new ZipFile( previousBundle );
+            ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( bundle ) ) {
+        EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, settings );
+        writer.reuse( previousZipFile, previousDigests );
+
+        assertTrue( writer.write( new ZipArchiveEntry( "script.js" ), new ByteArrayInputStream( scriptData ), true ) );
+        assertFalse( writer.write( new ZipArchiveEntry( "changed.js" ), new ByteArrayInputStream( changedData ), true ) );
+        writer.flush();
+
+        // the script and its precompressed copy
+        assertEquals( 2, writer.getReusedCount() );
+        assertEquals( previousDigests.get( "script.js" ), writer.getDigests().get( "script.js" ) );
+        assertEquals( previousDigests.get( "script.js.gz" ), writer.getDigests().get( "script.js.gz" ) );
+        assertEquals( WebPackageDigests.digest( changedData, 0, changedData.length ), writer.getDigests().get( "changed.js" ) );
+      }
+
+      try ( ZipInputStream zipInputStream = new ZipInputStream( new ByteArrayInputStream( bundle.toByteArray() ) ) ) {
+        assertEquals( "script.js", zipInputStream.getNextEntry().getName() );
+        assertArrayEquals( scriptData, IOUtils.toByteArray( zipInputStream ) );
+
+        assertEquals( "script.js.gz", zipInputStream.getNextEntry().getName() );
+        assertArrayEquals( scriptData, IOUtils.toByteArray( new GZIPInputStream( zipInputStream ) ) );
+
+        assertEquals( "changed.js", zipInputStream.getNextEntry().getName() );
+        assertArrayEquals( changedData, IOUtils.toByteArray( zipInputStream ) );
+
+        assertNull( zipInputStream.getNextEntry() );
+      }
+    } finally {
+      Files.delete( previousBundle.toPath() );
+    }
+  }
+
+  @Test
+  public void precompressesReusedEntriesWithoutCopy() throws Exception {
+    StringBuilder script = new StringBuilder();
+    for ( int i = 0; i < 200; i++ ) {
+      script.append( "define(['module-" ).append( i ).append( "'], function() {});\n" );
+    }
+    byte[] scriptData = script.toString().getBytes( "UTF-8" );
+
+    File previousBundle = File.createTempFile( "previous", ".jar" );
+    try {
+      // the previous bundle was generated without precompressed copies
+      Map<String, String> previousDigests;
+      try ( ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( new FileOutputStream( previousBundle ) ) ) {
+        EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, new EntryCompressor.Settings( EntryCompressor.Policy.DEFLATE, false ) );
+
+        writer.write( new ZipArchiveEntry( "script.js" ), new ByteArrayInputStream( scriptData ), false );
+        writer.flush();
+
+        previousDigests = writer.getDigests();
+      }
+
+      ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+      try ( ZipFile previousZipFile = new ZipFile( previousBundle );
+            ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( bundle ) ) {
+        EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, new EntryCompressor.Settings( EntryCompressor.Policy.DEFLATE, true ) );
+        writer.reuse( previousZipFile, previousDigests );
+
+        assertTrue( writer.write( new ZipArchiveEntry( "script.js" ), new ByteArrayInputStream( scriptData ), true ) );
+        writer.flush();
+
+        assertEquals( 1, writer.getReusedCount() );
+        assertTrue( writer.getDigests().containsKey( "script.js.gz" ) );
+      }
+
+      try ( ZipInputStream zipInputStream = new ZipInputStream( new ByteArrayInputStream( bundle.toByteArray() ) ) ) {
+        assertEquals( "script.js", zipInputStream.getNextEntry().getName() );
+        assertArrayEquals( scriptData, IOUtils.toByteArray( zipInputStream ) );
+
+        assertEquals( "script.js.gz", zipInputStream.getNextEntry().getName() );
+        assertArrayEquals( scriptData, IOUtils.toByteArray( new GZIPInputStream( zipInputStream ) ) );
+
+        assertNull( zipInputStream.getNextEntry() );
+      }
+    } finally {
+      Files.delete( previousBundle.toPath() );
+    }
+  }
+
+  private void verifyPrecompressedCopies() throws Exception {
+    StringBuilder script = new StringBuilder();
+    for ( int i = 0; i < 200; i++ ) {
+      script.append( "define(['module-" ).append( i ).append( "'], function() {});\n" );
+    }
+    byte[] scriptData = script.toString().getBytes( "UTF-8" );
+    byte[] smallScriptData = "define({});".getBytes( "UTF-8" );
+
+    EntryCompressor.Settings settings = new EntryCompressor.Settings( EntryCompressor.Policy.DEFLATE, true );
+
+    ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+    try ( ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( bundle ) ) {
+      EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, settings );
+
+      assertEquals( "script.js.gz", writer.getPrecompressedName( "script.js" ) );
+      assertNull( writer.getPrecompressedName( "image.png" ) );
+
+      assertTrue( writer.write( new ZipArchiveEntry( "script.js" ), new ByteArrayInputStream( scriptData ), true ) );
+      assertFalse( writer.write( new ZipArchiveEntry( "small.js" ), new ByteArrayInputStream( smallScriptData ), true ) );
+
+      writer.flush();
+    }
+
+    try ( ZipInputStream zipInputStream = new ZipInputStream( new ByteArrayInputStream( bundle.toByteArray() ) ) ) {
+      assertEquals( "script.js", zipInputStream.getNextEntry().getName() );
+      assertArrayEquals( scriptData, IOUtils.toByteArray( zipInputStream ) );
+
+      ZipEntry precompressedEntry = zipInputStream.getNextEntry();
+      assertEquals( "script.js.gz", precompressedEntry.getName() );
+      assertEquals( ZipEntry.STORED, precompressedEntry.getMethod() );
+      assertArrayEquals( scriptData, IOUtils.toByteArray( new GZIPInputStream( zipInputStream ) ) );
+
+      assertEquals( "small.js", zipInputStream.getNextEntry().getName() );
+      assertNull( zipInputStream.getNextEntry() );
+    }
+  }
+
+  private void verifyRoundTrip( int entryCount, EntryCompressor.Policy policy, String extension ) throws Exception {
+    List<byte[]> contents = new ArrayList<>();
+    for ( int i = 0; i < entryCount; i++ ) {
+      StringBuilder content = new StringBuilder();
+      for ( int j = 0; j < i * 100; j++ ) {
+        content.append( "define(['module-" ).append( j % 13 ).append( "'], function() {});\n" );
+      }
+      contents.add( content.toString().getBytes( "UTF-8" ) );
+    }
+
+    // one entry too big to be held in memory
+    contents.add( new byte[ EntryCompressor.MAX_BUFFERED_ENTRY_SIZE + 1000 ] );
+
+    ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+    try ( ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream( bundle ) ) {
+      EntryCompressor.Writer writer = this.compressor.createWriter( zipOutputStream, new EntryCompressor.Settings( policy, false ) );
+
+      for ( int i = 0; i < contents.size(); i++ ) {
+        writer.write( new ZipArchiveEntry( "entry-" + i + extension ), new ByteArrayInputStream( contents.get( i ) ) );
+      }
+
+      writer.flush();
+    }
+
+    try ( ZipInputStream zipInputStream = new ZipInputStream( new ByteArrayInputStream( bundle.toByteArray() ) ) ) {
+      for ( int i = 0; i < contents.size(); i++ ) {
+        ZipEntry entry = zipInputStream.getNextEntry();
+
+        assertEquals( "entry-" + i + extension, entry.getName() );
+
+        // too big to be held in memory, so it can't be stored
+        boolean tooBig = contents.get( i ).length > EntryCompressor.MAX_BUFFERED_ENTRY_SIZE;
+        assertEquals( tooBig ? ZipEntry.DEFLATED : EntryCompressor.getMethod( policy, entry.getName() ), entry.getMethod() );
+        assertArrayEquals( contents.get( i ), IOUtils.toByteArray( zipInputStream ) );
+      }
+
+      assertNull( zipInputStream.getNextEntry() );
+    }
+  }
+}
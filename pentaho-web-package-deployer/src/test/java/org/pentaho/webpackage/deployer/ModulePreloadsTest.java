@@ -0,0 +1,114 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ModulePreloadsTest {
+  @Test
+  public void getDependencies() {
+    assertEquals( Arrays.asList( "a", "./b" ), getDependencies( "define([\"a\", './b'], function(a, b) {});" ) );
+    assertEquals( Arrays.asList( "c" ), getDependencies( "define( \"name\" , /* deps */ [ // c\n \"c\" ], f );" ) );
+    assertEquals( Arrays.asList( "d" ), getDependencies( "require([\"d\"]);" ) );
+    assertEquals( Arrays.asList( "e", "f" ), getDependencies( "define(['e']);\ndefine('x', ['f']);" ) );
+
+    // the literals before whatever is computed
+    assertEquals( Arrays.asList( "g" ), getDependencies( "define(['g', prefix + 'h'], f);" ) );
+
+    assertEquals( Collections.emptyList(), getDependencies( "define(function(require) { require('i'); });" ) );
+    assertEquals( Collections.emptyList(), getDependencies( "x.define(['j']); undefined(['k']); requirejs.config({});" ) );
+    assertEquals( Collections.emptyList(), getDependencies( "define(['unterminated" ) );
+    assertEquals( Collections.emptyList(), getDependencies( "define(/* unterminated" ) );
+
+    assertEquals( Arrays.asList( "é/\"l\"" ), getDependencies( "define(['é/\\\"l\\\"']);" ) );
+  }
+
+  @Test
+  public void resolve() {
+    ModulePreloads.Package pkg = new ModulePreloads.Package( "pwp-1/package", "pkg", "pwp-1/package/main.js" );
+
+    assertEquals( "pwp-1/package/a.js", ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "./a" ) );
+    assertEquals( "pwp-1/package/a.js", ModulePreloads.resolve( pkg, "pwp-1/package/lib/b.js", "../a" ) );
+    assertEquals( "pwp-1/package/lib/b.js", ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "pkg/lib/b" ) );
+    assertEquals( "pwp-1/package/main.js", ModulePreloads.resolve( pkg, "pwp-1/package/a.js", "pkg" ) );
+
+    assertNull( ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "../outside" ) );
+    assertNull( ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "other/a" ) );
+    assertNull( ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "pkgother/a" ) );
+    assertNull( ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "text!./a.html" ) );
+    assertNull( ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "exports" ) );
+    assertNull( ModulePreloads.resolve( pkg, "pwp-1/package/main.js", "./a.js" ) );
+  }
+
+  @Test
+  public void getPreloadsKeepsTheClosestModules() {
+    ModulePreloads preloads = new ModulePreloads();
+    preloads.addPackage( "pwp-1/package", "pkg", null );
+
+    StringBuilder main = new StringBuilder( "define([" );
+    for ( int i = 0; i < ModulePreloads.MAX_PRELOADS + 10; i++ ) {
+      main.append( i > 0 ? "," : "" ).append( "'./m" ).append( i ).append( "'" );
+      scan( preloads, "pwp-1/package/m" + i + ".js", "define(['./deep" + i + "']);" );
+      scan( preloads, "pwp-1/package/deep" + i + ".js", "define([]);" );
+    }
+    main.append( "]);" );
+
+    scan( preloads, "pwp-1/package/index.js", main.toString() );
+
+    Map<String, List<String>> result = preloads.getPreloads();
+
+    List<String> closure = result.get( "pwp-1/package/index.js" );
+    assertEquals( ModulePreloads.MAX_PRELOADS, closure.size() );
+    assertEquals( "pwp-1/package/m0.js", closure.get( 0 ) );
+    for ( String entryName : closure ) {
+      assertTrue( entryName, entryName.startsWith( "pwp-1/package/m" ) );
+    }
+  }
+
+  @Test
+  public void getPreloadsSkipsModulesNotInTheBundle() {
+    ModulePreloads preloads = new ModulePreloads();
+    preloads.addPackage( "pwp-1/package", "pkg", "./lib/" );
+
+    scan( preloads, "pwp-1/package/lib/index.js", "define(['./missing']);" );
+
+    assertTrue( preloads.getPreloads().isEmpty() );
+  }
+
+  private static List<String> getDependencies( String script ) {
+    byte[] data = script.getBytes( StandardCharsets.UTF_8 );
+
+    return ModulePreloads.getDependencies( data, data.length );
+  }
+
+  private static void scan( ModulePreloads preloads, String entryName, String script ) {
+    byte[] data = script.getBytes( StandardCharsets.UTF_8 );
+
+    preloads.scan( entryName, data, data.length );
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+public class TransformExecutorTest {
+  private TransformExecutor executor;
+
+  @Before
+  public void setUp() throws Exception {
+    this.executor = new TransformExecutor();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.executor.shutdown();
+  }
+
+  @Test
+  public void countsTransformations() throws Exception {
+    this.executor.submit( () -> null ).get();
+    Future<Void> failed = this.executor.submit( () -> {
+      throw new IllegalStateException();
+    } );
+
+    try {
+      failed.get();
+      fail();
+    } catch ( ExecutionException expected ) {
+      // expected
+    }
+
+    assertEquals( 1, this.executor.getCompletedCount() );
+    assertEquals( 1, this.executor.getFailedCount() );
+    assertEquals( 0, this.executor.getActiveCount() );
+    assertTrue( this.executor.getP99TransformTime() >= this.executor.getMeanTransformTime() );
+  }
+
+  @Test
+  public void abortsWhenQueueIsFull() throws Exception {
+    this.executor.configure( 1, 1, TransformExecutor.RejectionPolicy.ABORT, false );
+
+    CountDownLatch release = new CountDownLatch( 1 );
+    CountDownLatch started = new CountDownLatch( 1 );
+
+    Future<Void> running = this.executor.submit( () -> {
+      started.countDown();
+      release.await();
+      return null;
+    } );
+    started.await();
+
+    Future<Void> queued = this.executor.submit( () -> null );
+    assertEquals( 1, this.executor.getQueuedCount() );
+
+    try {
+      this.executor.submit( () -> null );
+      fail();
+    } catch ( RejectedExecutionException expected ) {
+      assertEquals( 1, this.executor.getRejectedCount() );
+    }
+
+    release.countDown();
+    running.get();
+    queued.get();
+  }
+
+  @Test
+  public void rejectsBlockedCallerOnShutdown() throws Exception {
+    this.executor.configure( 1, 1, TransformExecutor.RejectionPolicy.BLOCK, false );
+
+    CountDownLatch release = new CountDownLatch( 1 );
+    this.executor.submit( () -> {
+      release.await();
+      return null;
+    } );
+    this.executor.submit( () -> null );
+
+    ExecutorService caller = Executors.newSingleThreadExecutor();
+    try {
+      // the queue is full, so this one waits for room
+      Future<?> blocked = caller.submit( () -> this.executor.submit( () -> null ) );
+
+      Thread.sleep( 200 );
+      this.executor.shutdown();
+
+      try {
+        blocked.get( 5, TimeUnit.SECONDS );
+        fail();
+      } catch ( ExecutionException expected ) {
+        assertTrue( expected.getCause() instanceof RejectedExecutionException );
+      }
+    } finally {
+      release.countDown();
+      caller.shutdownNow();
+    }
+  }
+
+  @Test
+  public void leavesWaitsOutOfTransformTime() throws Exception {
+    this.executor.submit( () -> {
+      Thread.sleep( 200 );
+      return null;
+    }, () -> TimeUnit.MILLISECONDS.toNanos( 200 ) ).get();
+
+    assertTrue( this.executor.getMeanTransformTime() < 100 );
+  }
+
+  @Test
+  public void resizesPool() throws Exception {
+    this.executor.configure( 2, TransformExecutor.UNBOUNDED_QUEUE, TransformExecutor.RejectionPolicy.BLOCK, false );
+
+    CountDownLatch bothRunning = new CountDownLatch( 2 );
+    Future<Void> first = this.executor.submit( () -> {
+      bothRunning.countDown();
+      bothRunning.await();
+      return null;
+    } );
+    Future<Void> second = this.executor.submit( () -> {
+      bothRunning.countDown();
+      bothRunning.await();
+      return null;
+    } );
+
+    first.get();
+    second.get();
+
+    assertEquals( 2, this.executor.getPoolSize() );
+    assertEquals( 2, this.executor.getCompletedCount() );
+  }
+
+  @Test
+  public void virtualThreadsFallBackWhenUnavailable() throws Exception {
+    this.executor.configure( 1, TransformExecutor.UNBOUNDED_QUEUE, TransformExecutor.RejectionPolicy.BLOCK, true );
+
+    this.executor.submit( () -> null ).get();
+
+    assertEquals( 1, this.executor.getCompletedCount() );
+  }
+
+  @Test
+  public void unchangedSettingsKeepTheFallbackPool() throws Exception {
+    this.executor.configure( 1, TransformExecutor.UNBOUNDED_QUEUE, TransformExecutor.RejectionPolicy.BLOCK, true );
+    assumeFalse( this.executor.isVirtualThreads() );
+
+    String[] threadNames = new String[ 2 ];
+    this.executor.submit( () -> {
+      threadNames[ 0 ] = Thread.currentThread().getName();
+      return null;
+    } ).get();
+
+    // the same settings again, as Config Admin does on any update
+    this.executor.configure( 1, TransformExecutor.UNBOUNDED_QUEUE, TransformExecutor.RejectionPolicy.BLOCK, true );
+
+    this.executor.submit( () -> {
+      threadNames[ 1 ] = Thread.currentThread().getName();
+      return null;
+    } ).get();
+
+    assertEquals( threadNames[ 0 ], threadNames[ 1 ] );
+    assertFalse( this.executor.isVirtualThreads() );
+  }
+}
@@ -17,13 +17,22 @@
  */
 package org.pentaho.webpackage.deployer;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class UrlTransformerTest {
   UrlTransformer transformer;
@@ -88,6 +97,99 @@ public class UrlTransformerTest {
     assertFalse( this.transformer.canHandle( new File( "src/test/resources/invalid.zip" ) ) );
   }
 
+  @Test
+  public void canHandleChangedFile() throws Exception {
+    File file = File.createTempFile( "UrlTransformerTest", ".tgz" );
+    file.deleteOnExit();
+
+    FileUtils.copyFile( new File( "src/test/resources/no-package-json.tgz" ), file );
+    file.setLastModified( 1000L );
+
+    assertFalse( this.transformer.canHandle( file ) );
+    assertFalse( this.transformer.canHandle( file ) );
+
+    FileUtils.copyFile( new File( "src/test/resources/my-simple-module-1.4.0.tgz" ), file );
+    file.setLastModified( 2000L );
+
+    assertTrue( this.transformer.canHandle( file ) );
+
+    file.delete();
+
+    assertFalse( this.transformer.canHandle( file ) );
+  }
+
+  @Test
+  public void inspectsOnlyChangedFiles() throws Exception {
+    UrlTransformer transformer = spy( new UrlTransformer() );
+
+    File file = File.createTempFile( "UrlTransformerTest", ".tgz" );
+    file.deleteOnExit();
+
+    FileUtils.copyFile( new File( "src/test/resources/my-simple-module-1.4.0.tgz" ), file );
+    file.setLastModified( 1000L );
+
+    assertTrue( transformer.canHandle( file ) );
+    assertTrue( transformer.canHandle( file ) );
+    verify( transformer, times( 1 ) ).inspect( file );
+
+    // same size, touched
+    file.setLastModified( 2000L );
+    assertTrue( transformer.canHandle( file ) );
+    verify( transformer, times( 2 ) ).inspect( file );
+
+    // same modification time, other size
+    FileUtils.copyFile( new File( "src/test/resources/no-package-json.tgz" ), file );
+    file.setLastModified( 2000L );
+    assertFalse( transformer.canHandle( file ) );
+    verify( transformer, times( 3 ) ).inspect( file );
+
+    assertFalse( transformer.canHandle( file ) );
+    verify( transformer, times( 3 ) ).inspect( file );
+
+    file.delete();
+  }
+
+  @Test
+  public void canHandleTgzFileWithOtherTopLevelFolder() throws Exception {
+    File file = File.createTempFile( "UrlTransformerTest", ".tgz" );
+    file.deleteOnExit();
+
+    // as @types packages and hand packed tarballs have them
+    try ( TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream( new GzipCompressorOutputStream( new FileOutputStream( file ) ) ) ) {
+      byte[] content = "{\"name\": \"@types/x\", \"version\": \"1.0.0\"}".getBytes( StandardCharsets.UTF_8 );
+
+      TarArchiveEntry entry = new TarArchiveEntry( "x/package.json" );
+      entry.setSize( content.length );
+      tarOutputStream.putArchiveEntry( entry );
+      tarOutputStream.write( content );
+      tarOutputStream.closeArchiveEntry();
+    }
+
+    assertTrue( this.transformer.canHandle( file ) );
+
+    file.delete();
+  }
+
+  @Test
+  public void onlyTheTopLevelPackageJsonCounts() {
+    assertTrue( WebPackageTransformer.isTopLevelPackageJson( "package/package.json" ) );
+    assertTrue( WebPackageTransformer.isTopLevelPackageJson( "./package/package.json" ) );
+    assertTrue( WebPackageTransformer.isTopLevelPackageJson( "x/package.json" ) );
+    assertTrue( WebPackageTransformer.isTopLevelPackageJson( "package.json" ) );
+
+    assertFalse( WebPackageTransformer.isTopLevelPackageJson( "package/node_modules/x/package.json" ) );
+    assertFalse( WebPackageTransformer.isTopLevelPackageJson( "package/foopackage.json" ) );
+    assertFalse( WebPackageTransformer.isTopLevelPackageJson( "foopackage.json" ) );
+  }
+
+  @Test
+  public void anyPackageJsonMakesAPackage() {
+    assertTrue( WebPackageTransformer.isPackageJson( "package/node_modules/x/package.json" ) );
+    assertTrue( WebPackageTransformer.isPackageJson( "package.json" ) );
+
+    assertFalse( WebPackageTransformer.isPackageJson( "package/foopackage.json" ) );
+  }
+
   @Test
   public void transform() throws Exception {
     // invalid unit test, as it changes permanently the URL's stream handler factory
@@ -0,0 +1,241 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.webpackage.common.WebPackageHeaders;
+
+import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WebPackageCacheTest {
+  private File cacheDirectory;
+  private WebPackageCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    this.cacheDirectory = Files.createTempDirectory( "WebPackageCacheTest" ).toFile();
+    this.cache = new WebPackageCache( this.cacheDirectory );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory( this.cacheDirectory );
+  }
+
+  @Test
+  public void sameArchiveSameKey() throws Exception {
+    URL url = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+
+    assertEquals( this.cache.getKey( url ), this.cache.getKey( url ) );
+  }
+
+  @Test
+  public void differentArchiveDifferentKey() throws Exception {
+    URL tgzUrl = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+    URL zipUrl = new File( "src/test/resources/my-simple-module-1.4.0.zip" ).toURI().toURL();
+
+    assertNotEquals( this.cache.getKey( tgzUrl ), this.cache.getKey( zipUrl ) );
+  }
+
+  @Test
+  public void changedArchiveDifferentKey() throws Exception {
+    File archive = new File( this.cacheDirectory, "my-simple-module-1.4.0.tgz" );
+    FileUtils.copyFile( new File( "src/test/resources/my-simple-module-1.4.0.tgz" ), archive );
+    archive.setLastModified( 1000000000000L );
+
+    URL url = archive.toURI().toURL();
+    String key = this.cache.getKey( url );
+
+    archive.setLastModified( 1000000060000L );
+    assertNotEquals( key, this.cache.getKey( url ) );
+
+    archive.setLastModified( 1000000000000L );
+    assertEquals( key, this.cache.getKey( url ) );
+
+    FileUtils.copyFile( new File( "src/test/resources/my-simple-module-1.4.0.zip" ), archive );
+    archive.setLastModified( 1000000000000L );
+    assertNotEquals( key, this.cache.getKey( url ) );
+  }
+
+  @Test
+  public void missThenHit() throws Exception {
+    assertNull( this.cache.get( "key" ) );
+
+    WebPackageCache.Entry entry = this.cache.put( "key" );
+    entry.getOutputStream().write( new byte[] { 1, 2, 3 } );
+    entry.commit();
+
+    try ( InputStream inputStream = this.cache.get( "key" ) ) {
+      assertNotNull( inputStream );
+      assertArrayEquals( new byte[] { 1, 2, 3 }, IOUtils.toByteArray( inputStream ) );
+    }
+
+    assertEquals( 1, this.cache.getMissCount() );
+    assertEquals( 1, this.cache.getHitCount() );
+  }
+
+  @Test
+  public void discardedEntryIsNotCached() throws Exception {
+    WebPackageCache.Entry entry = this.cache.put( "key" );
+    entry.getOutputStream().write( new byte[] { 1, 2, 3 } );
+    entry.discard();
+
+    assertNull( this.cache.get( "key" ) );
+    assertEquals( 0, this.cache.getSize() );
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedOverMaxSize() throws Exception {
+    this.cache.setMaxSize( 10 );
+
+    putEntry( "first", 6 );
+    new File( this.cacheDirectory, "first.jar" ).setLastModified( System.currentTimeMillis() - 60000 );
+
+    putEntry( "second", 6 );
+
+    assertNull( this.cache.get( "first" ) );
+    assertNotNull( this.cache.get( "second" ) );
+    assertEquals( 1, this.cache.getEvictionCount() );
+  }
+
+  @Test
+  public void evictsOlderThanMaxAge() throws Exception {
+    this.cache.setMaxAge( 1000 );
+
+    putEntry( "old", 1 );
+    new File( this.cacheDirectory, "old.jar" ).setLastModified( System.currentTimeMillis() - 60000 );
+
+    this.cache.evict();
+
+    assertNull( this.cache.get( "old" ) );
+  }
+
+  @Test
+  public void cachedTransformation() throws Exception {
+    URL url = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+
+    WebPackageURLConnection connection = new WebPackageURLConnection( url, this.cache );
+    byte[] transformed = IOUtils.toByteArray( connection.getInputStream() );
+    connection.transform_thread.get();
+
+    WebPackageURLConnection cachedConnection = new WebPackageURLConnection( url, this.cache );
+    byte[] cached = IOUtils.toByteArray( cachedConnection.getInputStream() );
+
+    assertNull( cachedConnection.transform_thread );
+    assertArrayEquals( transformed, cached );
+    assertEquals( 1, this.cache.getHitCount() );
+  }
+
+  @Test
+  public void previousBundle() throws Exception {
+    URL url = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+
+    assertNull( this.cache.getPrevious( url, "deflate" ) );
+
+    WebPackageCache.Entry entry = this.cache.put( "first", url, "deflate" );
+    entry.getOutputStream().write( new byte[] { 1, 2, 3 } );
+    entry.commit();
+
+    assertEquals( new File( this.cacheDirectory, "first.jar" ), this.cache.getPrevious( url, "deflate" ) );
+    assertNull( this.cache.getPrevious( url, "stored" ) );
+
+    // any version of the same package finds it
+    URL nextUrl = new File( "src/test/resources/my-simple-module-1.4.1.tgz" ).toURI().toURL();
+    assertEquals( new File( this.cacheDirectory, "first.jar" ), this.cache.getPrevious( nextUrl, "deflate" ) );
+    assertNull( this.cache.getPrevious( new File( "src/test/resources/other-module-1.4.0.tgz" ).toURI().toURL(), "deflate" ) );
+
+    new File( this.cacheDirectory, "first.jar" ).delete();
+
+    assertNull( this.cache.getPrevious( url, "deflate" ) );
+  }
+
+  @Test
+  public void evictionRemovesPreviousBundlePointers() throws Exception {
+    this.cache.setMaxAge( 1000 );
+
+    URL url = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+    URL otherUrl = new File( "src/test/resources/other-module-1.4.0.tgz" ).toURI().toURL();
+
+    WebPackageCache.Entry entry = this.cache.put( "old", url, "deflate" );
+    entry.getOutputStream().write( new byte[] { 1, 2, 3 } );
+    entry.commit();
+    new File( this.cacheDirectory, "old.jar" ).setLastModified( System.currentTimeMillis() - 60000 );
+
+    WebPackageCache.Entry otherEntry = this.cache.put( "new", otherUrl, "deflate" );
+    otherEntry.getOutputStream().write( new byte[] { 1, 2, 3 } );
+    otherEntry.commit();
+
+    File[] previousFiles = this.cacheDirectory.listFiles( ( dir, name ) -> name.endsWith( ".previous" ) );
+    assertEquals( 1, previousFiles.length );
+    assertEquals( "new", new String( Files.readAllBytes( previousFiles[ 0 ].toPath() ), StandardCharsets.UTF_8 ) );
+  }
+
+  @Test
+  public void explodedBundles() throws Exception {
+    this.cache.setExploded( true );
+
+    URL url = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+
+    WebPackageURLConnection connection = new WebPackageURLConnection( url, this.cache );
+    byte[] transformed = IOUtils.toByteArray( connection.getInputStream() );
+    connection.transform_thread.get();
+
+    String explodedPath;
+    try ( JarInputStream jarInputStream = new JarInputStream( new ByteArrayInputStream( transformed ) ) ) {
+      explodedPath = jarInputStream.getManifest().getMainAttributes().getValue( WebPackageHeaders.EXPLODED_DIRECTORY );
+    }
+
+    File explodedDirectory = new File( explodedPath );
+    File[] resourcesFolders = explodedDirectory.listFiles();
+
+    assertNotNull( resourcesFolders );
+    assertEquals( 1, resourcesFolders.length );
+    assertTrue( resourcesFolders[ 0 ].getName().startsWith( "pwp-" ) );
+    assertTrue( new File( resourcesFolders[ 0 ], "package/info.txt" ).isFile() );
+    assertTrue( this.cache.getSize() > transformed.length );
+
+    this.cache.setMaxSize( 0 );
+    this.cache.evict();
+
+    assertFalse( explodedDirectory.exists() );
+  }
+
+  private void putEntry( String key, int size ) throws Exception {
+    WebPackageCache.Entry entry = this.cache.put( key );
+    entry.getOutputStream().write( new byte[ size ] );
+    entry.commit();
+  }
+}
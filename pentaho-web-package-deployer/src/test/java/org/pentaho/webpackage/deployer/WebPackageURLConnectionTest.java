@@ -17,20 +17,42 @@
  */
 package org.pentaho.webpackage.deployer;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.osgi.framework.Constants;
+import org.pentaho.webpackage.common.WebPackageDigests;
+import org.pentaho.webpackage.common.WebPackagePreloads;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -57,6 +79,227 @@ public class WebPackageURLConnectionTest {
     verifyManifest( manifest );
   }
 
+  @Test
+  public void testTgzFileEntries() throws Exception {
+    JarFile jarFile = getDeployedJar( new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL() );
+
+    verifyEntries( jarFile, "package/package.json", "package/info.txt" );
+  }
+
+  @Test
+  public void testZipFileEntries() throws Exception {
+    JarFile jarFile = getDeployedJar( new File( "src/test/resources/my-simple-module-1.4.0.zip" ).toURI().toURL() );
+
+    verifyEntries( jarFile, "package.json", "info.txt" );
+  }
+
+  @Test
+  public void testZipFileEntriesCopiedAsTheyAre() throws Exception {
+    File zip = new File( "src/test/resources/my-simple-module-1.4.0.zip" );
+    JarFile jarFile = getDeployedJar( zip.toURI().toURL() );
+
+    String resourcesFolder = getResourcesFolder( jarFile );
+
+    try ( ZipFile source = new ZipFile( zip ) ) {
+      for ( String name : new String[] { "package.json", "info.txt" } ) {
+        ZipEntry sourceEntry = source.getEntry( name );
+        ZipEntry jarEntry = jarFile.getEntry( resourcesFolder + "/" + name );
+
+        assertEquals( sourceEntry.getMethod(), jarEntry.getMethod() );
+        assertEquals( sourceEntry.getCompressedSize(), jarEntry.getCompressedSize() );
+        assertEquals( sourceEntry.getCrc(), jarEntry.getCrc() );
+        assertArrayEquals( IOUtils.toByteArray( source.getInputStream( sourceEntry ) ),
+            IOUtils.toByteArray( jarFile.getInputStream( jarEntry ) ) );
+      }
+    }
+  }
+
+  @Test
+  public void testTgzFileDigests() throws Exception {
+    URL url = new File( "src/test/resources/my-simple-module-1.4.0.tgz" ).toURI().toURL();
+    JarFile jarFile = getDeployedJar( url );
+
+    String resourcesFolder = getResourcesFolder( jarFile );
+
+    // the next version of the same package can reuse this one
+    assertEquals( resourcesFolder, getResourcesFolder( getDeployedJar( url ) ) );
+
+    File nextVersion = new File( Files.createTempDirectory( "webpackage_test" ).toFile(), "my-simple-module-1.4.1.tgz" );
+    Files.copy( new File( url.toURI() ).toPath(), nextVersion.toPath() );
+    assertEquals( resourcesFolder, getResourcesFolder( getDeployedJar( nextVersion.toURI().toURL() ) ) );
+
+    Map<String, String> digests;
+    try ( InputStream inputStream = jarFile.getInputStream( jarFile.getEntry( WebPackageDigests.ENTRY_NAME ) ) ) {
+      digests = WebPackageDigests.read( inputStream );
+    }
+
+    assertEquals( 2, digests.size() );
+    for ( String name : new String[] { "package/package.json", "package/info.txt" } ) {
+      byte[] content = IOUtils.toByteArray( jarFile.getInputStream( jarFile.getEntry( resourcesFolder + "/" + name ) ) );
+
+      assertEquals( WebPackageDigests.digest( content, 0, content.length ), digests.get( resourcesFolder + "/" + name ) );
+    }
+  }
+
+  @Test
+  public void testTgzFilePreloads() throws Exception {
+    File tgz = File.createTempFile( "amd-module-1.0.0", ".tgz" );
+
+    try ( TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream( new GzipCompressorOutputStream( new FileOutputStream( tgz ) ) ) ) {
+      for ( Map.Entry<String, String> entry : getAmdPackageEntries().entrySet() ) {
+        byte[] content = entry.getValue().getBytes( StandardCharsets.UTF_8 );
+
+        TarArchiveEntry tarEntry = new TarArchiveEntry( entry.getKey() );
+        tarEntry.setSize( content.length );
+
+        tarOutputStream.putArchiveEntry( tarEntry );
+        tarOutputStream.write( content );
+        tarOutputStream.closeArchiveEntry();
+      }
+    }
+
+    verifyPreloads( getDeployedJar( tgz.toURI().toURL() ) );
+  }
+
+  @Test
+  public void testZipFilePreloads() throws Exception {
+    File zip = File.createTempFile( "amd-module-1.0.0", ".zip" );
+
+    try ( ZipOutputStream zipOutputStream = new ZipOutputStream( new FileOutputStream( zip ) ) ) {
+      for ( Map.Entry<String, String> entry : getAmdPackageEntries().entrySet() ) {
+        zipOutputStream.putNextEntry( new ZipEntry( entry.getKey() ) );
+        zipOutputStream.write( entry.getValue().getBytes( StandardCharsets.UTF_8 ) );
+        zipOutputStream.closeEntry();
+      }
+    }
+
+    JarFile jarFile = getDeployedJar( zip.toURI().toURL() );
+    verifyPreloads( jarFile );
+
+    // scanning doesn't get in the way of copying the entries
+    String resourcesFolder = getResourcesFolder( jarFile );
+    assertEquals( getAmdPackageEntries().get( "package/main.js" ),
+        IOUtils.toString( jarFile.getInputStream( jarFile.getEntry( resourcesFolder + "/package/main.js" ) ), "UTF-8" ) );
+  }
+
+  @Test
+  public void testShippedPrecompressedCopyAfterItsEntry() throws Exception {
+    File tgz = File.createTempFile( "precompressed-module-1.0.0", ".tgz" );
+
+    Map<String, byte[]> entries = new LinkedHashMap<>();
+    entries.put( "package/package.json", "{\"name\": \"precompressed-module\", \"version\": \"1.0.0\"}".getBytes( StandardCharsets.UTF_8 ) );
+    // big enough to get a precompressed copy
+    StringBuilder script = new StringBuilder();
+    while ( script.length() < EntryCompressor.MIN_PRECOMPRESSED_SIZE ) {
+      script.append( "var shipped = true;\n" );
+    }
+    entries.put( "package/main.js", script.toString().getBytes( StandardCharsets.UTF_8 ) );
+    // the shipped copy comes after its entry
+    entries.put( "package/main.js.gz", "not really gzipped".getBytes( StandardCharsets.UTF_8 ) );
+
+    try ( TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream( new GzipCompressorOutputStream( new FileOutputStream( tgz ) ) ) ) {
+      for ( Map.Entry<String, byte[]> entry : entries.entrySet() ) {
+        TarArchiveEntry tarEntry = new TarArchiveEntry( entry.getKey() );
+        tarEntry.setSize( entry.getValue().length );
+
+        tarOutputStream.putArchiveEntry( tarEntry );
+        tarOutputStream.write( entry.getValue() );
+        tarOutputStream.closeArchiveEntry();
+      }
+    }
+
+    File jar = File.createTempFile( "precompressed-module-1.0.0", ".jar" );
+    EntryCompressor compressor = new EntryCompressor();
+    try ( OutputStream outputStream = new FileOutputStream( jar ) ) {
+      new WebPackageTransformer( tgz.toURI().toURL(), new FileInputStream( tgz ), outputStream, compressor,
+          new EntryCompressor.Settings( EntryCompressor.Policy.DEFLATE, true ) ).call();
+    } finally {
+      compressor.shutdown();
+    }
+
+    int precompressedCount = 0;
+    try ( JarInputStream jarInputStream = new JarInputStream( new FileInputStream( jar ) ) ) {
+      JarEntry entry;
+      while ( ( entry = jarInputStream.getNextJarEntry() ) != null ) {
+        if ( entry.getName().endsWith( "/package/main.js.gz" ) ) {
+          precompressedCount++;
+          assertEquals( "not really gzipped", IOUtils.toString( jarInputStream, "UTF-8" ) );
+        }
+      }
+    }
+
+    assertEquals( 1, precompressedCount );
+  }
+
+  @Test
+  public void testCapabilityNpmVersionAndConfig() throws Exception {
+    File zip = File.createTempFile( "configured-module-1.0", ".zip" );
+
+    try ( ZipOutputStream zipOutputStream = new ZipOutputStream( new FileOutputStream( zip ) ) ) {
+      zipOutputStream.putNextEntry( new ZipEntry( "package/package.json" ) );
+      zipOutputStream.write( "{\"name\": \"configured-module\", \"version\": \"1.0-beta\", \"config\": {\"a\": 1}}"
+          .getBytes( StandardCharsets.UTF_8 ) );
+      zipOutputStream.closeEntry();
+    }
+
+    String capability = getDeployedJar( zip.toURI().toURL() ).getManifest().getMainAttributes().getValue( Constants.PROVIDE_CAPABILITY );
+
+    assertTrue( capability, capability.contains( ";version:Version=\"1.0.0.beta\";" ) );
+    assertTrue( capability, capability.contains( ";npmVersion=\"1.0-beta\";hasConfig=\"true\"" ) );
+
+    try ( ZipOutputStream zipOutputStream = new ZipOutputStream( new FileOutputStream( zip ) ) ) {
+      zipOutputStream.putNextEntry( new ZipEntry( "package/package.json" ) );
+      zipOutputStream.write( "{\"name\": \"configured-module\", \"version\": \"1.0\"}".getBytes( StandardCharsets.UTF_8 ) );
+      zipOutputStream.closeEntry();
+    }
+
+    capability = getDeployedJar( zip.toURI().toURL() ).getManifest().getMainAttributes().getValue( Constants.PROVIDE_CAPABILITY );
+
+    assertTrue( capability, capability.contains( ";npmVersion=\"1.0\";hasConfig=\"false\"" ) );
+  }
+
+  @Test
+  public void testCapabilityDependencies() throws Exception {
+    File zip = File.createTempFile( "dependent-module-1.0.0", ".zip" );
+
+    try ( ZipOutputStream zipOutputStream = new ZipOutputStream( new FileOutputStream( zip ) ) ) {
+      zipOutputStream.putNextEntry( new ZipEntry( "package/package.json" ) );
+      zipOutputStream.write( ( "{\"name\": \"dependent-module\", \"version\": \"1.0.0\", \"dependencies\": "
+          + "{\"amd-module\": \"^1.0.0\", \"@scope/other\": \"~1.2 || >=2\", \"quoted\": \"\\\"1\\\"\", \"listed\": \"1,2\", \"invalid\": 1}}" )
+          .getBytes( StandardCharsets.UTF_8 ) );
+      zipOutputStream.closeEntry();
+    }
+
+    String capability = getDeployedJar( zip.toURI().toURL() ).getManifest().getMainAttributes().getValue( Constants.PROVIDE_CAPABILITY );
+
+    assertTrue( capability, capability.endsWith(
+        ";dependencies:List<String>=\"amd-module@^1.0.0,@scope/other@~1.2 || >=2,quoted@\\\"1\\\",listed@1\\,2\"" ) );
+  }
+
+  private Map<String, String> getAmdPackageEntries() {
+    Map<String, String> entries = new LinkedHashMap<>();
+    entries.put( "package/package.json", "{\"name\": \"amd-module\", \"version\": \"1.0.0\", \"main\": \"main\"}" );
+    entries.put( "package/main.js", "define( [ \"./a\", \"amd-module/lib/b\", \"other/x\", \"text!./t.html\" ], function() {} );" );
+    entries.put( "package/a.js", "define( [ \"./lib/b\", \"require\" ], function() {} );" );
+    entries.put( "package/lib/b.js", "define( [ \"../a\", \"./c\" ], function() {} );" );
+    entries.put( "package/lib/c.js", "define( function() {} );" );
+
+    return entries;
+  }
+
+  private void verifyPreloads( JarFile jarFile ) throws IOException {
+    String resourcesFolder = getResourcesFolder( jarFile );
+
+    Map<String, List<String>> preloads;
+    try ( InputStream inputStream = jarFile.getInputStream( jarFile.getEntry( WebPackagePreloads.ENTRY_NAME ) ) ) {
+      preloads = WebPackagePreloads.read( inputStream );
+    }
+
+    assertEquals( 1, preloads.size() );
+    assertEquals( Arrays.asList( resourcesFolder + "/package/a.js", resourcesFolder + "/package/lib/b.js", resourcesFolder + "/package/lib/c.js" ),
+        preloads.get( resourcesFolder + "/package/main.js" ) );
+  }
+
   @Test
   public void testClosingStream() throws IOException {
     WebPackageURLConnection connection = new WebPackageURLConnection( new File( "src/test/resources/my-simple-module-1.4.0.zip" ).toURI().toURL() );
@@ -87,6 +330,23 @@ public class WebPackageURLConnectionTest {
     assertTrue( manifest.getMainAttributes().getValue( Constants.PROVIDE_CAPABILITY ).startsWith( "org.pentaho.webpackage;name=\"my-simple-module\";version:Version=\"1.4.0\";root=\"/pwp-" ) );
   }
 
+  private void verifyEntries( JarFile jarFile, String... expectedEntries ) throws IOException {
+    String resourcesFolder = getResourcesFolder( jarFile );
+
+    for ( String expectedEntry : expectedEntries ) {
+      assertNotNull( "Missing entry " + expectedEntry, jarFile.getEntry( resourcesFolder + "/" + expectedEntry ) );
+    }
+  }
+
+  private String getResourcesFolder( JarFile jarFile ) throws IOException {
+    String capability = jarFile.getManifest().getMainAttributes().getValue( Constants.PROVIDE_CAPABILITY );
+
+    Matcher matcher = Pattern.compile( "root=\"/(pwp-[^/\"]+)" ).matcher( capability );
+    assertTrue( matcher.find() );
+
+    return matcher.group( 1 );
+  }
+
   private JarFile getDeployedJar( URL url ) throws IOException {
     WebPackageURLConnection connection = new WebPackageURLConnection( url );
     connection.connect();
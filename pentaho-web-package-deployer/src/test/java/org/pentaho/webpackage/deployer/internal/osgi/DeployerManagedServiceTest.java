@@ -0,0 +1,81 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.deployer.internal.osgi;
+
+import org.junit.Test;
+import org.osgi.service.cm.ConfigurationException;
+import org.pentaho.webpackage.deployer.EntryCompressor;
+import org.pentaho.webpackage.deployer.TransformExecutor;
+import org.pentaho.webpackage.deployer.WebPackageCache;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class DeployerManagedServiceTest {
+  @Test
+  public void appliesTheConfiguration() throws Exception {
+    TransformExecutor executor = mock( TransformExecutor.class );
+    EntryCompressor compressor = mock( EntryCompressor.class );
+    WebPackageCache cache = mock( WebPackageCache.class );
+
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put( DeployerManagedService.EXECUTOR_POOL_SIZE, "3" );
+    properties.put( DeployerManagedService.COMPRESSION_POLICY, "adaptive" );
+    properties.put( DeployerManagedService.CACHE_MAX_AGE, 1000L );
+
+    new DeployerManagedService( executor, compressor, cache ).updated( properties );
+
+    verify( executor ).configure( 3, TransformExecutor.UNBOUNDED_QUEUE, TransformExecutor.RejectionPolicy.BLOCK, false );
+    verify( compressor ).configure( EntryCompressor.DEFAULT_PARALLELISM, EntryCompressor.Policy.ADAPTIVE, false );
+    verify( cache ).setMaxAge( 1000L );
+  }
+
+  @Test
+  public void appliesNothingWhenSomethingIsInvalid() throws Exception {
+    TransformExecutor executor = mock( TransformExecutor.class );
+    EntryCompressor compressor = mock( EntryCompressor.class );
+    WebPackageCache cache = mock( WebPackageCache.class );
+
+    String[][] invalidProperties = {
+        { DeployerManagedService.COMPRESSION_POLICY, "zstd" },
+        { DeployerManagedService.COMPRESSION_PARALLELISM, "0" },
+        { DeployerManagedService.CACHE_MAX_SIZE, "big" }
+    };
+
+    for ( String[] invalidProperty : invalidProperties ) {
+      Dictionary<String, Object> properties = new Hashtable<>();
+      properties.put( DeployerManagedService.EXECUTOR_POOL_SIZE, "3" );
+      properties.put( invalidProperty[ 0 ], invalidProperty[ 1 ] );
+
+      try {
+        new DeployerManagedService( executor, compressor, cache ).updated( properties );
+        fail( invalidProperty[ 0 ] );
+      } catch ( ConfigurationException e ) {
+        assertEquals( invalidProperty[ 0 ], e.getProperty() );
+      }
+    }
+
+    verifyZeroInteractions( executor, compressor, cache );
+  }
+}
@@ -18,12 +18,25 @@
 
 package org.pentaho.webpackage;
 
+import java.util.Map;
+
 public interface PentahoWebPackage {
   String getName();
   String getVersion();
 
   String getResourceRootPath();
 
+  /**
+   * The client configuration of the package modules, by module id: the {@code config} block of its package.json.
+   */
+  Map<String, Object> getConfig();
+
+  /**
+   * The npm version ranges of the packages this one depends on, by package name: the {@code dependencies} block of
+   * its package.json.
+   */
+  Map<String, String> getDependencies();
+
   void init();
 
   void destroy();
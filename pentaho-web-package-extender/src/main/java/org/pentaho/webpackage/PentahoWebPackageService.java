@@ -19,10 +19,51 @@ package org.pentaho.webpackage;
 
 import org.osgi.framework.Bundle;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 public interface PentahoWebPackageService {
   String CAPABILITY_NAMESPACE = "org.pentaho.webpackage";
 
   void addBundle( Bundle bundle );
 
   void removeBundle( Bundle bundle );
+
+  /**
+   * Waits until the bundle events already received are handled, returning {@code false} if the timeout elapsed
+   * first. Bundle events may be handled asynchronously, so this is what tells the web packages are all registered.
+   */
+  boolean awaitExtensions( long timeout, TimeUnit unit ) throws InterruptedException;
+
+  /**
+   * The web packages currently registered.
+   */
+  Collection<PentahoWebPackage> getWebPackages();
+
+  /**
+   * The registered versions of the named web package, lowest first.
+   */
+  List<PentahoWebPackage> getWebPackages( String name );
+
+  /**
+   * The highest registered version of the named web package satisfying the given npm version range
+   * ({@code ^1.2.0}, {@code ~1.2 || >=2}, ...), or {@code null} if there is none.
+   *
+   * @throws IllegalArgumentException if the range isn't a valid npm version range
+   */
+  PentahoWebPackage getWebPackage( String name, String versionRange );
+
+  /**
+   * The web packages the given one depends on, directly or not, nearest first: for each package.json dependency, the
+   * highest registered version satisfying its range.
+   */
+  List<PentahoWebPackage> getResolvedDependencies( PentahoWebPackage webPackage );
+
+  /**
+   * The dependencies of the given web package, direct or not, that no registered version satisfies, ranges by
+   * package name.
+   */
+  Map<String, String> getMissingDependencies( PentahoWebPackage webPackage );
 }
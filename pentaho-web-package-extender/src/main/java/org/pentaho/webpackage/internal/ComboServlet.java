@@ -0,0 +1,381 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.pentaho.webpackage.PentahoWebPackage;
+import org.pentaho.webpackage.common.WebPackageDigests;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves several web package resources in a single response, one after the other, so a page needing hundreds of
+ * modules doesn't make hundreds of requests: {@code /pentaho-web-package/combo?/a/1.0/x.js&/b/2.1/y.js}.
+ * <p>
+ * The resources are given by their path under the alias of their package and must all be scripts or all style
+ * sheets. They are concatenated in the order given, which matters for style sheets and for scripts that aren't AMD
+ * modules; AMD modules must be named, as anonymous ones can't be told apart once concatenated. If any of them is
+ * missing, nothing is served.
+ * <p>
+ * The resources are taken from the exploded folder of their package when there is one, as the resource filter
+ * does, but their precompressed copies aren't used: a combination is always served identity encoded.
+ * <p>
+ * The ETag of a combination is made of the digests of its resources. If the deployer listed all of them, the
+ * combination is content addressed and as immutable as its resources; otherwise its resources may change under the
+ * same name and version, so it must be revalidated on every use. The resource filter does the same with each of them.
+ * <p>
+ * Combinations that fit the resource cache are kept there, by their list of paths, until a web package comes or goes.
+ */
+public class ComboServlet extends HttpServlet implements WebPackageRegistry.Listener {
+  public static final String ALIAS = "/pentaho-web-package/combo";
+
+  static final int MAX_PATHS = 500;
+
+  static final String SCRIPT_CONTENT_TYPE = "application/javascript; charset=UTF-8";
+  static final String STYLE_SHEET_CONTENT_TYPE = "text/css; charset=UTF-8";
+
+  // a script without a trailing newline or semicolon must not run into the next one
+  private static final byte[] SCRIPT_SEPARATOR = "\n;\n".getBytes( StandardCharsets.US_ASCII );
+  private static final byte[] STYLE_SHEET_SEPARATOR = "\n".getBytes( StandardCharsets.US_ASCII );
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // the query strings are up to the clients, so the validators kept are bounded
+  private static final int MAX_CACHED_VALIDATORS = 10000;
+
+  private final WebPackageRegistry registry;
+  private final ResourceCache resourceCache;
+
+  // replaced as a whole when a web package comes or goes, so a validator computed meanwhile isn't kept
+  private volatile Map<String, Validator> validators = new ConcurrentHashMap<>();
+
+  public ComboServlet( WebPackageRegistry registry, ResourceCache resourceCache ) {
+    this.registry = registry;
+    this.resourceCache = resourceCache;
+  }
+
+  @Override
+  protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+    List<String> paths = getPaths( request.getQueryString() );
+    if ( paths == null ) {
+      response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+      return;
+    }
+
+    String contentType = getContentType( paths );
+    if ( contentType == null ) {
+      response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+      return;
+    }
+
+    byte[] separator = contentType.equals( SCRIPT_CONTENT_TYPE ) ? SCRIPT_SEPARATOR : STYLE_SHEET_SEPARATOR;
+    String key = String.join( "&", paths );
+
+    Map<String, Validator> validators = this.validators;
+
+    ByteBuffer content = this.resourceCache != null ? this.resourceCache.get( this, key ) : null;
+    Validator validator = validators.get( key );
+
+    List<Resource> resources = null;
+    if ( content == null || validator == null ) {
+      resources = resolve( paths );
+      if ( resources == null ) {
+        response.sendError( HttpServletResponse.SC_NOT_FOUND );
+        return;
+      }
+
+      if ( validator == null ) {
+        validator = getValidator( resources );
+
+        if ( validators.size() >= MAX_CACHED_VALIDATORS ) {
+          validators.clear();
+        }
+
+        validators.put( key, validator );
+      }
+    }
+
+    response.setContentType( contentType );
+    response.setHeader( "Cache-Control", WebPackageResourceFilter.getCacheControl( validator.immutable ) );
+    response.setHeader( "ETag", validator.eTag );
+
+    if ( WebPackageResourceFilter.matches( request.getHeader( "If-None-Match" ), validator.eTag ) ) {
+      response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+      return;
+    }
+
+    List<URLConnection> urlConnections = null;
+    if ( content == null ) {
+      urlConnections = openConnections( resources );
+
+      long contentLength = getContentLength( urlConnections, separator );
+      if ( this.resourceCache != null && this.resourceCache.isCacheable( contentLength ) ) {
+        content = this.resourceCache.put( this, key, readFully( urlConnections, separator, (int) contentLength ) );
+      }
+    }
+
+    if ( content != null ) {
+      response.setContentLength( content.remaining() );
+
+      WebPackageResourceFilter.write( content, response.getOutputStream() );
+
+      return;
+    }
+
+    long contentLength = getContentLength( urlConnections, separator );
+    if ( contentLength >= 0 && contentLength <= Integer.MAX_VALUE ) {
+      response.setContentLength( (int) contentLength );
+    }
+
+    copy( urlConnections, separator, response.getOutputStream() );
+  }
+
+  @Override
+  public void added( PentahoWebPackage pentahoWebPackage ) {
+    // it may take the alias of another package
+    invalidate();
+  }
+
+  @Override
+  public void removed( PentahoWebPackage pentahoWebPackage ) {
+    invalidate();
+  }
+
+  private void invalidate() {
+    this.validators = new ConcurrentHashMap<>();
+
+    if ( this.resourceCache != null ) {
+      this.resourceCache.invalidate( this );
+    }
+  }
+
+  /**
+   * The paths in the query string, or {@code null} if there are none, too many or an invalid one.
+   */
+  static List<String> getPaths( String queryString ) {
+    if ( queryString == null || queryString.isEmpty() ) {
+      return null;
+    }
+
+    String[] parts = queryString.split( "&" );
+    if ( parts.length > MAX_PATHS ) {
+      return null;
+    }
+
+    List<String> paths = new ArrayList<>( parts.length );
+    for ( String part : parts ) {
+      String path;
+      try {
+        path = URLDecoder.decode( part, "UTF-8" );
+      } catch ( UnsupportedEncodingException | IllegalArgumentException e ) {
+        return null;
+      }
+
+      if ( !path.startsWith( "/" ) || path.endsWith( "/" ) || path.contains( "\\" ) || path.contains( "/../" )
+          || path.contains( "/./" ) || path.contains( "//" ) ) {
+        return null;
+      }
+
+      paths.add( path );
+    }
+
+    return paths;
+  }
+
+  /**
+   * The content type of the combination, or {@code null} if the resources aren't all scripts or all style sheets.
+   */
+  static String getContentType( List<String> paths ) {
+    String contentType = null;
+    for ( String path : paths ) {
+      String pathContentType = path.endsWith( ".js" ) ? SCRIPT_CONTENT_TYPE
+          : path.endsWith( ".css" ) ? STYLE_SHEET_CONTENT_TYPE
+          : null;
+
+      if ( pathContentType == null || ( contentType != null && !contentType.equals( pathContentType ) ) ) {
+        return null;
+      }
+
+      contentType = pathContentType;
+    }
+
+    return contentType;
+  }
+
+  /**
+   * The resources, or {@code null} if any of them doesn't exist.
+   */
+  private List<Resource> resolve( List<String> paths ) {
+    List<Resource> resources = new ArrayList<>( paths.size() );
+
+    for ( String path : paths ) {
+      Resource resource = getResource( path );
+      if ( resource == null ) {
+        return null;
+      }
+
+      resources.add( resource );
+    }
+
+    return resources;
+  }
+
+  private Resource getResource( String path ) {
+    // /<name>/<version>/<resource path>, where scoped names have a slash of their own
+    int nameEnd = path.indexOf( '/', 1 );
+    if ( nameEnd != -1 && path.charAt( 1 ) == '@' ) {
+      nameEnd = path.indexOf( '/', nameEnd + 1 );
+    }
+
+    int versionEnd = nameEnd != -1 ? path.indexOf( '/', nameEnd + 1 ) : -1;
+    if ( versionEnd == -1 ) {
+      return null;
+    }
+
+    PentahoWebPackageImpl pentahoWebPackage = this.registry.get( path.substring( 0, versionEnd ) );
+    if ( pentahoWebPackage == null ) {
+      return null;
+    }
+
+    String resourcePath = path.substring( versionEnd );
+
+    URL url = pentahoWebPackage.getResource( resourcePath );
+
+    return url != null ? new Resource( url, pentahoWebPackage.getDigest( resourcePath ) ) : null;
+  }
+
+  /**
+   * The validator of a combination, given by the digests of its resources; the ones the deployer didn't list are
+   * read to compute theirs.
+   */
+  private static Validator getValidator( List<Resource> resources ) throws IOException {
+    boolean immutable = true;
+
+    StringBuilder digests = new StringBuilder();
+    for ( Resource resource : resources ) {
+      if ( resource.digest != null ) {
+        digests.append( resource.digest );
+      } else {
+        immutable = false;
+        digests.append( WebPackageResourceFilter.computeETag( resource.url ) );
+      }
+
+      digests.append( '\n' );
+    }
+
+    byte[] data = digests.toString().getBytes( StandardCharsets.US_ASCII );
+
+    return new Validator( WebPackageResourceFilter.toETag( WebPackageDigests.digest( data, 0, data.length ) ),
+        immutable );
+  }
+
+  private static List<URLConnection> openConnections( List<Resource> resources ) throws IOException {
+    List<URLConnection> urlConnections = new ArrayList<>( resources.size() );
+    for ( Resource resource : resources ) {
+      urlConnections.add( resource.url.openConnection() );
+    }
+
+    return urlConnections;
+  }
+
+  /**
+   * The length of the combination, or -1 if the length of a resource is unknown.
+   */
+  private static long getContentLength( List<URLConnection> urlConnections, byte[] separator ) {
+    long contentLength = (long) separator.length * ( urlConnections.size() - 1 );
+
+    for ( URLConnection urlConnection : urlConnections ) {
+      long length = urlConnection.getContentLengthLong();
+      if ( length < 0 ) {
+        return -1;
+      }
+
+      contentLength += length;
+    }
+
+    return contentLength;
+  }
+
+  private static byte[] readFully( List<URLConnection> urlConnections, byte[] separator, int contentLength )
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream( contentLength );
+    copy( urlConnections, separator, outputStream );
+
+    // a resource changed meanwhile: better not keep it
+    if ( outputStream.size() != contentLength ) {
+      throw new IOException( "Expected " + contentLength + " bytes, got " + outputStream.size() );
+    }
+
+    return outputStream.toByteArray();
+  }
+
+  private static void copy( List<URLConnection> urlConnections, byte[] separator, OutputStream outputStream )
+      throws IOException {
+    byte[] buffer = new byte[ BUFFER_SIZE ];
+
+    for ( int i = 0; i < urlConnections.size(); i++ ) {
+      if ( i > 0 ) {
+        outputStream.write( separator );
+      }
+
+      try ( InputStream inputStream = urlConnections.get( i ).getInputStream() ) {
+        int read;
+        while ( ( read = inputStream.read( buffer ) ) != -1 ) {
+          outputStream.write( buffer, 0, read );
+        }
+      }
+    }
+  }
+
+  private static final class Resource {
+    private final URL url;
+    // null if the deployer didn't list it
+    private final String digest;
+
+    private Resource( URL url, String digest ) {
+      this.url = url;
+      this.digest = digest;
+    }
+  }
+
+  private static final class Validator {
+    private final String eTag;
+    private final boolean immutable;
+
+    private Validator( String eTag, boolean immutable ) {
+      this.eTag = eTag;
+      this.immutable = immutable;
+    }
+  }
+}
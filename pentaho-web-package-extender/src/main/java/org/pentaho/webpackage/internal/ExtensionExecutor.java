@@ -0,0 +1,220 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the extension of web package bundles, out of the framework event thread if configured to.
+ * <p>
+ * With no threads (the default) each task runs right away in the caller thread. Otherwise the tasks go to a set of
+ * single thread executors, always the same one for the same bundle: the events of a bundle are handled in the order
+ * they were fired (a bundle is never removed before it is added), while different bundles are extended in parallel.
+ */
+public class ExtensionExecutor {
+  public static final int SYNCHRONOUS = 0;
+
+  private static final String THREAD_NAME_PREFIX = "pentaho-web-package-extender-";
+
+  // how long the tasks of the replaced threads are waited for
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  // guarded by this
+  private ExecutorService[] stripes = new ExecutorService[ 0 ];
+  // the stripes replaced by the last reconfiguration, possibly still finishing their tasks; guarded by this
+  private ExecutorService[] previousStripes = new ExecutorService[ 0 ];
+
+  private final Object pendingLock = new Object();
+  // guarded by pendingLock
+  private int pendingCount;
+
+  /**
+   * Changes the number of threads. The tasks already submitted finish before any new one starts, so the order of the
+   * events of each bundle is kept, but the caller doesn't wait for them: the new threads do.
+   */
+  public void configure( int threads ) {
+    if ( threads < 0 ) {
+      throw new IllegalArgumentException( "Number of threads must not be negative: " + threads );
+    }
+
+    synchronized ( this ) {
+      if ( threads == this.stripes.length ) {
+        return;
+      }
+
+      ExecutorService[] replaced = this.stripes;
+      for ( ExecutorService stripe : replaced ) {
+        stripe.shutdown();
+      }
+
+      ExecutorService[] stripes = new ExecutorService[ threads ];
+      for ( int i = 0; i < threads; i++ ) {
+        stripes[ i ] = Executors.newSingleThreadExecutor( runnable -> {
+          Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + this.threadCount.incrementAndGet() );
+          thread.setDaemon( true );
+
+          return thread;
+        } );
+
+        // holds back the new tasks of the stripe until the replaced ones are done
+        stripes[ i ].execute( () -> awaitTermination( replaced ) );
+      }
+
+      this.stripes = stripes;
+      this.previousStripes = replaced;
+    }
+  }
+
+  public synchronized int getThreads() {
+    return this.stripes.length;
+  }
+
+  /**
+   * Runs the task for the given bundle, in the caller thread if there are no threads configured.
+   */
+  public void execute( long bundleId, Runnable task ) {
+    ExecutorService[] previous;
+
+    synchronized ( this ) {
+      if ( this.stripes.length > 0 ) {
+        submit( this.stripes[ (int) ( bundleId % this.stripes.length ) ], task );
+        return;
+      }
+
+      previous = this.previousStripes;
+    }
+
+    // the tasks left from the threads configured before go first
+    awaitTermination( previous );
+
+    task.run();
+  }
+
+  /**
+   * The number of tasks submitted and not yet finished.
+   */
+  public int getPendingCount() {
+    synchronized ( this.pendingLock ) {
+      return this.pendingCount;
+    }
+  }
+
+  /**
+   * Waits until all the submitted tasks are finished, returning {@code false} if the timeout elapsed first.
+   */
+  public boolean awaitPending( long timeout, TimeUnit unit ) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos( timeout );
+
+    synchronized ( this.pendingLock ) {
+      while ( this.pendingCount > 0 ) {
+        long remaining = deadline - System.nanoTime();
+        if ( remaining <= 0 ) {
+          return false;
+        }
+
+        TimeUnit.NANOSECONDS.timedWait( this.pendingLock, remaining );
+      }
+
+      return true;
+    }
+  }
+
+  public void shutdown() {
+    ExecutorService[] stripes;
+
+    synchronized ( this ) {
+      stripes = this.stripes;
+      for ( ExecutorService stripe : stripes ) {
+        stripe.shutdown();
+      }
+
+      this.stripes = new ExecutorService[ 0 ];
+      this.previousStripes = stripes;
+    }
+
+    awaitTermination( stripes );
+  }
+
+  // called holding the lock
+  private void submit( ExecutorService stripe, Runnable task ) {
+    incrementPending();
+
+    try {
+      stripe.execute( () -> {
+        try {
+          run( task );
+        } finally {
+          decrementPending();
+        }
+      } );
+    } catch ( RuntimeException e ) {
+      decrementPending();
+
+      throw e;
+    }
+  }
+
+  // never called holding the lock; each stripe waits for the ones it replaced, so this covers all the older ones
+  private void awaitTermination( ExecutorService[] stripes ) {
+    try {
+      for ( ExecutorService stripe : stripes ) {
+        if ( !stripe.awaitTermination( SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS ) ) {
+          this.logger.warn( "Gave up waiting for the pending web package extensions" );
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run( Runnable task ) {
+    try {
+      task.run();
+    } catch ( RuntimeException e ) {
+      // one bundle must not take the others down with it
+      this.logger.error( "Unable to handle web package bundle event", e );
+    }
+  }
+
+  private void incrementPending() {
+    synchronized ( this.pendingLock ) {
+      this.pendingCount++;
+    }
+  }
+
+  private void decrementPending() {
+    synchronized ( this.pendingLock ) {
+      this.pendingCount--;
+
+      if ( this.pendingCount == 0 ) {
+        this.pendingLock.notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends files to a response without reading them into the heap.
+ * <p>
+ * Files are memory-mapped and the mapping is handed to the container as it is, when its output stream can take a
+ * buffer ({@code sendContent(ByteBuffer)}, as Jetty's does): the content then goes from the page cache to the socket
+ * without being copied around. Other output streams get the mapped content in chunks. Small files aren't worth the
+ * cost of a mapping and are just copied.
+ */
+final class MappedFileSender {
+  static final long MIN_MAPPED_SIZE = 64 * 1024;
+
+  // mappings can't be bigger than this
+  private static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+  // output stream class -> its sendContent(ByteBuffer), if any
+  private static final Map<Class<?>, Optional<Method>> sendContentMethods = new ConcurrentHashMap<>();
+
+  private MappedFileSender() {
+  }
+
+  static void send( File file, OutputStream outputStream ) throws IOException {
+    try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+      long size = channel.size();
+      if ( size < MIN_MAPPED_SIZE ) {
+        Files.copy( file.toPath(), outputStream );
+        return;
+      }
+
+      for ( long position = 0; position < size; position += MAX_MAPPING_SIZE ) {
+        MappedByteBuffer mapping = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( MAX_MAPPING_SIZE, size - position ) );
+
+        write( mapping, outputStream );
+      }
+    }
+  }
+
+  private static void write( ByteBuffer content, OutputStream outputStream ) throws IOException {
+    Method sendContent = getSendContentMethod( outputStream.getClass() );
+    if ( sendContent != null ) {
+      try {
+        sendContent.invoke( outputStream, content );
+        return;
+      } catch ( InvocationTargetException e ) {
+        if ( e.getCause() instanceof IOException ) {
+          throw (IOException) e.getCause();
+        }
+
+        throw new IOException( "Error sending the file content", e.getCause() );
+      } catch ( IllegalAccessException e ) {
+        sendContentMethods.put( outputStream.getClass(), Optional.empty() );
+      }
+    }
+
+    WritableByteChannel channel = Channels.newChannel( outputStream );
+    while ( content.hasRemaining() ) {
+      channel.write( content );
+    }
+  }
+
+  private static Method getSendContentMethod( Class<?> outputStreamClass ) {
+    return sendContentMethods.computeIfAbsent( outputStreamClass, MappedFileSender::findSendContentMethod ).orElse( null );
+  }
+
+  private static Optional<Method> findSendContentMethod( Class<?> outputStreamClass ) {
+    try {
+      Method method = outputStreamClass.getMethod( "sendContent", ByteBuffer.class );
+      method.setAccessible( true );
+
+      return Optional.of( method );
+    } catch ( NoSuchMethodException | RuntimeException e ) {
+      return Optional.empty();
+    }
+  }
+}
@@ -20,15 +20,31 @@ package org.pentaho.webpackage.internal;
 
 import org.pentaho.webpackage.PentahoWebPackage;
 
+import java.util.Collections;
+import java.util.Map;
+
 public abstract class PentahoWebPackageAbstract implements PentahoWebPackage {
   private final String name;
   private final String version;
   private final String resourceRootPath;
+  private final Map<String, Object> config;
+  private final Map<String, String> dependencies;
 
   PentahoWebPackageAbstract( String name, String version, String resourceRootPath ) {
+    this( name, version, resourceRootPath, null );
+  }
+
+  PentahoWebPackageAbstract( String name, String version, String resourceRootPath, Map<String, Object> config ) {
+    this( name, version, resourceRootPath, config, null );
+  }
+
+  PentahoWebPackageAbstract( String name, String version, String resourceRootPath, Map<String, Object> config,
+                             Map<String, String> dependencies ) {
     this.name = name;
     this.version = version;
     this.resourceRootPath = resourceRootPath;
+    this.config = config != null ? Collections.unmodifiableMap( config ) : Collections.emptyMap();
+    this.dependencies = dependencies != null ? Collections.unmodifiableMap( dependencies ) : Collections.emptyMap();
   }
 
   public String getName() {
@@ -42,4 +58,12 @@ public abstract class PentahoWebPackageAbstract implements PentahoWebPackage {
   public String getResourceRootPath() {
     return this.resourceRootPath;
   }
+
+  public Map<String, Object> getConfig() {
+    return this.config;
+  }
+
+  public Map<String, String> getDependencies() {
+    return this.dependencies;
+  }
 }
@@ -18,84 +18,277 @@
 
 package org.pentaho.webpackage.internal;
 
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleWiring;
 import org.pentaho.webpackage.PentahoWebPackage;
 import org.pentaho.webpackage.PentahoWebPackageBundle;
 import org.pentaho.webpackage.PentahoWebPackageService;
+import org.pentaho.webpackage.common.PackageJsonReader;
+import org.pentaho.webpackage.common.WebPackageDigests;
+import org.pentaho.webpackage.common.WebPackageHeaders;
+import org.pentaho.webpackage.common.WebPackagePreloads;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class PentahoWebPackageBundleImpl implements PentahoWebPackageBundle {
-  private static final JSONParser parser = new JSONParser();
+  private static final PackageJsonReader packageJsonReader = new PackageJsonReader( "name", "version", "config",
+      "dependencies" );
 
   private final Bundle bundle;
+  private final ResourceCache resourceCache;
+  private final boolean capabilityMetadata;
+  private final WebPackageRegistry registry;
+  private final File explodedRoot;
 
   private ArrayList<PentahoWebPackage> pentahoWebPackages;
 
-  PentahoWebPackageBundleImpl( Bundle bundle ) {
+  // guarded by this: a bundle destroyed while (or before) being initialized ends up with nothing registered
+  private boolean initialized;
+  private boolean destroyed;
+
+  PentahoWebPackageBundleImpl( Bundle bundle, ResourceCache resourceCache ) {
+    this( bundle, resourceCache, false );
+  }
+
+  PentahoWebPackageBundleImpl( Bundle bundle, ResourceCache resourceCache, boolean capabilityMetadata ) {
+    this( bundle, resourceCache, capabilityMetadata, null );
+  }
+
+  /**
+   * With {@code capabilityMetadata}, the name, version and dependencies of the web packages come from the capability
+   * attributes the deployer writes. The package.json is still read for the module configuration of the packages the
+   * capability says have one (or doesn't say), and for everything of the capabilities missing the name or the
+   * package.json version.
+   */
+  PentahoWebPackageBundleImpl( Bundle bundle, ResourceCache resourceCache, boolean capabilityMetadata,
+                               WebPackageRegistry registry ) {
+    this( bundle, resourceCache, capabilityMetadata, registry, null );
+  }
+
+  /**
+   * The resources are only served from an exploded folder under {@code explodedRoot}, where the deployer lays them
+   * out; with none, always from the bundle.
+   */
+  PentahoWebPackageBundleImpl( Bundle bundle, ResourceCache resourceCache, boolean capabilityMetadata,
+                               WebPackageRegistry registry, File explodedRoot ) {
     this.bundle = bundle;
+    this.resourceCache = resourceCache;
+    this.capabilityMetadata = capabilityMetadata;
+    this.registry = registry;
+    this.explodedRoot = explodedRoot;
 
     this.pentahoWebPackages = new ArrayList<>();
   }
 
-  private static Map<String, Object> parsePackageJson( URL resourceUrl ) throws IOException, ParseException {
+  private static Map<String, Object> parsePackageJson( URL resourceUrl ) throws IOException {
     URLConnection urlConnection = resourceUrl.openConnection();
-    InputStream inputStream = urlConnection.getInputStream();
-
-    InputStreamReader inputStreamReader = null;
-    BufferedReader bufferedReader = null;
-
-    try {
-      inputStreamReader = new InputStreamReader( inputStream );
-      bufferedReader = new BufferedReader( inputStreamReader );
 
-      return (Map<String, Object>) parser.parse( bufferedReader );
-    } catch ( Exception ignored ) {
+    try ( InputStream inputStream = urlConnection.getInputStream() ) {
+      return packageJsonReader.read( inputStream );
+    } catch ( IOException ignored ) {
       // ignored
     }
 
     return null;
   }
 
+  @SuppressWarnings( "unchecked" )
+  private static Map<String, Object> getConfig( Map<String, Object> packageJson ) {
+    Object config = packageJson.get( "config" );
+
+    return config instanceof Map ? (Map<String, Object>) config : null;
+  }
+
+  private static Map<String, String> getDependencies( Map<String, Object> packageJson ) {
+    Object dependencies = packageJson.get( "dependencies" );
+    if ( !( dependencies instanceof Map ) ) {
+      return null;
+    }
+
+    Map<String, String> ranges = new LinkedHashMap<>();
+    ( (Map<?, ?>) dependencies ).forEach( ( name, range ) -> {
+      if ( range instanceof String ) {
+        ranges.put( name.toString(), (String) range );
+      }
+    } );
+
+    return ranges;
+  }
+
+  /**
+   * The dependencies the deployer wrote to the capability, as {@code name@range} items. The framework gives them as a
+   * list, unless the attribute wasn't typed: then they are still in the OSGi list syntax, with escaped commas.
+   */
+  static Map<String, String> getCapabilityDependencies( Object dependencies ) {
+    if ( dependencies == null ) {
+      return null;
+    }
+
+    Iterable<?> items = dependencies instanceof Iterable ? (Iterable<?>) dependencies
+        : splitList( dependencies.toString() );
+
+    Map<String, String> ranges = new LinkedHashMap<>();
+    for ( Object item : items ) {
+      // the name of a scoped package starts with an @ too
+      String dependency = item.toString().trim();
+      int separator = dependency.indexOf( '@', 1 );
+      if ( separator != -1 ) {
+        ranges.put( dependency.substring( 0, separator ), dependency.substring( separator + 1 ) );
+      }
+    }
+
+    return ranges;
+  }
+
+  // the items of a list attribute value, split at the commas that aren't escaped by a backslash
+  private static List<String> splitList( String value ) {
+    List<String> items = new ArrayList<>();
+
+    StringBuilder item = new StringBuilder();
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      if ( c == '\\' && i + 1 < value.length() ) {
+        item.append( value.charAt( ++i ) );
+      } else if ( c == ',' ) {
+        items.add( item.toString() );
+        item.setLength( 0 );
+      } else {
+        item.append( c );
+      }
+    }
+
+    items.add( item.toString() );
+
+    return items;
+  }
+
+  /**
+   * The digests of the bundle entries, if it was generated by the deployer.
+   */
+  private Map<String, String> readDigests() {
+    URL digestsUrl = this.bundle.getEntry( WebPackageDigests.ENTRY_NAME );
+    if ( digestsUrl == null ) {
+      return Collections.emptyMap();
+    }
+
+    try ( InputStream inputStream = digestsUrl.openStream() ) {
+      return WebPackageDigests.read( inputStream );
+    } catch ( IOException ignored ) {
+      // the resources are still served, just hashed on demand
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * The preload manifest of the bundle, if it was generated by the deployer.
+   */
+  private Map<String, List<String>> readPreloads() {
+    URL preloadsUrl = this.bundle.getEntry( WebPackagePreloads.ENTRY_NAME );
+    if ( preloadsUrl == null ) {
+      return Collections.emptyMap();
+    }
+
+    try ( InputStream inputStream = preloadsUrl.openStream() ) {
+      return WebPackagePreloads.read( inputStream );
+    } catch ( IOException ignored ) {
+      // the modules are still loaded, one round trip at a time
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * The folder where the deployer laid out the bundle resources, if it did.
+   */
+  private File getExplodedDirectory() {
+    Dictionary<String, String> headers = this.bundle.getHeaders();
+    String explodedDirectory = headers != null ? headers.get( WebPackageHeaders.EXPLODED_DIRECTORY ) : null;
+
+    if ( explodedDirectory == null || this.explodedRoot == null ) {
+      return null;
+    }
+
+    // any bundle can declare the header, files are only served from where the deployer puts them
+    File directory = new File( explodedDirectory );
+    try {
+      String rootPath = this.explodedRoot.getCanonicalPath() + File.separator;
+
+      return directory.isAbsolute() && directory.getCanonicalPath().startsWith( rootPath ) ? directory : null;
+    } catch ( IOException e ) {
+      return null;
+    }
+  }
+
   @Override
-  public void init() {
+  public synchronized void init() {
+    if ( this.initialized || this.destroyed ) {
+      return;
+    }
+
+    this.initialized = true;
+
+    // a bundle stopping meanwhile has no context to register the packages with
+    if ( this.bundle.getBundleContext() == null ) {
+      return;
+    }
+
     BundleWiring wiring = this.bundle.adapt( BundleWiring.class );
 
     if ( wiring != null ) {
+      Map<String, String> digests = readDigests();
+      Map<String, List<String>> preloads = readPreloads();
+      File explodedDirectory = getExplodedDirectory();
+
       List<BundleCapability> capabilities = wiring.getCapabilities( PentahoWebPackageService.CAPABILITY_NAMESPACE );
       capabilities.forEach( bundleCapability -> {
         Map<String, Object> attributes = bundleCapability.getAttributes();
 
-        // for now using only the package.json information - so only the `root` attribute is mandatory
-//        String name = (String) attributes.get( "name" );
-//        Version version = (Version) attributes.get( "version" );
+        // by default using only the package.json information - so only the `root` attribute is mandatory
         String root = (String) attributes.getOrDefault( "root", "" );
 
-        try {
-          URL capabilityPackageJsonUrl = this.bundle.getResource( root + "/package.json" );
-          if ( capabilityPackageJsonUrl != null ) {
-            Map<String, Object> packageJson = parsePackageJson( capabilityPackageJsonUrl );
-
-            String name = (String) packageJson.get( "name" );
-            String version = (String) packageJson.get( "version" );
+        String name = null;
+        String version = null;
+        Map<String, Object> config = null;
+        Map<String, String> dependencies = null;
+        boolean readConfig = true;
+        if ( this.capabilityMetadata && attributes.get( "name" ) != null && attributes.get( "npmVersion" ) != null ) {
+          // not the OSGi version attribute: the alias is made of the package.json one (1.0, not 1.0.0)
+          name = attributes.get( "name" ).toString();
+          version = attributes.get( "npmVersion" ).toString();
+          dependencies = getCapabilityDependencies( attributes.get( "dependencies" ) );
+          readConfig = !"false".equals( attributes.get( "hasConfig" ) );
+        }
 
-            if ( name != null && version != null ) {
-              this.pentahoWebPackages.add( new PentahoWebPackageImpl( this.bundle, name, version, root ) );
+        try {
+          if ( name == null || readConfig ) {
+            URL capabilityPackageJsonUrl = this.bundle.getResource( root + "/package.json" );
+            Map<String, Object> packageJson = capabilityPackageJsonUrl != null
+                ? parsePackageJson( capabilityPackageJsonUrl ) : null;
+            if ( packageJson != null ) {
+              config = getConfig( packageJson );
+              if ( name == null ) {
+                name = (String) packageJson.get( "name" );
+                version = (String) packageJson.get( "version" );
+                dependencies = getDependencies( packageJson );
+              }
             }
           }
-        } catch ( RuntimeException | ParseException | IOException ignored ) {
+
+          if ( name != null && version != null ) {
+            this.pentahoWebPackages.add( new PentahoWebPackageImpl( this.bundle, name, version, root, config,
+                dependencies, this.resourceCache, digests, preloads, explodedDirectory, this.registry ) );
+          }
+        } catch ( RuntimeException | IOException ignored ) {
           // throwing will make everything fail
           // what damage control should we do?
           // **don't register this capability?** <-- this is what we're doing now
@@ -106,12 +299,39 @@ public class PentahoWebPackageBundleImpl implements PentahoWebPackageBundle {
         }
       } );
 
-      this.pentahoWebPackages.forEach( PentahoWebPackage::init );
+      // all or nothing: a bundle with some of its packages registered would be destroyed by halves
+      List<PentahoWebPackage> registered = new ArrayList<>();
+      try {
+        for ( PentahoWebPackage pentahoWebPackage : this.pentahoWebPackages ) {
+          registered.add( pentahoWebPackage );
+
+          pentahoWebPackage.init();
+        }
+      } catch ( RuntimeException e ) {
+        registered.forEach( this::destroyQuietly );
+        this.pentahoWebPackages.clear();
+
+        throw e;
+      }
+    }
+  }
+
+  private void destroyQuietly( PentahoWebPackage pentahoWebPackage ) {
+    try {
+      pentahoWebPackage.destroy();
+    } catch ( RuntimeException ignored ) {
+      // the bundle context may be gone already, taking the registrations with it
     }
   }
 
   @Override
-  public void destroy() {
+  public synchronized void destroy() {
+    if ( this.destroyed ) {
+      return;
+    }
+
+    this.destroyed = true;
+
     this.pentahoWebPackages.forEach( PentahoWebPackage::destroy );
   }
 
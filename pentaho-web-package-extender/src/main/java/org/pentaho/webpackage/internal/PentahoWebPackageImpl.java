@@ -18,36 +18,131 @@
 
 package org.pentaho.webpackage.internal;
 
+import org.ops4j.pax.web.extender.whiteboard.FilterMapping;
 import org.ops4j.pax.web.extender.whiteboard.ResourceMapping;
+import org.ops4j.pax.web.extender.whiteboard.runtime.DefaultFilterMapping;
 import org.ops4j.pax.web.extender.whiteboard.runtime.DefaultResourceMapping;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.pentaho.webpackage.PentahoWebPackage;
 
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
 public class PentahoWebPackageImpl extends PentahoWebPackageAbstract {
+  private final Bundle bundle;
   private final BundleContext bundleContext;
+  private final ResourceCache resourceCache;
+  private final Map<String, String> digests;
+  private final Map<String, List<String>> preloads;
+  private final File explodedDirectory;
+  private final WebPackageRegistry registry;
+
+  private WebPackageResourceFilter filter;
 
   private ServiceRegistration<?> serviceReference;
+  private ServiceRegistration<?> filterServiceReference;
 
-  PentahoWebPackageImpl( Bundle bundle, String name, String version, String resourceRootPath ) {
-    super( name, version, resourceRootPath );
+  PentahoWebPackageImpl( Bundle bundle, String name, String version, String resourceRootPath,
+                         Map<String, Object> config, Map<String, String> dependencies, ResourceCache resourceCache,
+                         Map<String, String> digests, Map<String, List<String>> preloads, File explodedDirectory,
+                         WebPackageRegistry registry ) {
+    super( name, version, resourceRootPath, config, dependencies );
 
+    this.bundle = bundle;
     this.bundleContext = bundle.getBundleContext();
+    this.resourceCache = resourceCache;
+    this.digests = digests;
+    this.preloads = preloads;
+    this.explodedDirectory = explodedDirectory;
+    this.registry = registry;
+  }
+
+  String getAlias() {
+    return "/" + this.getName() + "/" + this.getVersion();
+  }
+
+  /**
+   * A resource of the package, from the exploded folder when it is there, as the resource filter does, or
+   * {@code null} if there is none.
+   */
+  URL getResource( String path ) {
+    if ( this.explodedDirectory != null ) {
+      File file = new File( this.explodedDirectory, this.getResourceRootPath() + path );
+      if ( file.isFile() ) {
+        try {
+          return file.toURI().toURL();
+        } catch ( MalformedURLException e ) {
+          // falls back to the bundle entry
+        }
+      }
+    }
+
+    return this.bundle.getEntry( this.getResourceRootPath() + path );
+  }
+
+  /**
+   * The digest of a resource of the package, as listed by the deployer, or {@code null} if it isn't listed.
+   */
+  String getDigest( String path ) {
+    String entryName = this.getResourceRootPath() + path;
+    while ( entryName.startsWith( "/" ) ) {
+      entryName = entryName.substring( 1 );
+    }
+
+    return this.digests != null ? this.digests.get( entryName ) : null;
   }
 
   @Override
   public void init() {
+    final String alias = getAlias();
+
     // Register resource mapping in httpService whiteboard
     DefaultResourceMapping resourceMapping = new DefaultResourceMapping();
-    resourceMapping.setAlias( "/" + this.getName() + "/" + this.getVersion() );
+    resourceMapping.setAlias( alias );
     resourceMapping.setPath( this.getResourceRootPath() );
 
     this.serviceReference = this.bundleContext.registerService( ResourceMapping.class.getName(), resourceMapping, null );
+
+    // and in front of it, in the same (default) http context, the filter serving the resources with caching headers
+    this.filter = new WebPackageResourceFilter( this.bundle, alias, this.getResourceRootPath(), this.resourceCache,
+        this.digests, this.explodedDirectory, this.preloads );
+
+    DefaultFilterMapping filterMapping = new DefaultFilterMapping();
+    filterMapping.setFilter( this.filter );
+    filterMapping.setUrlPatterns( alias + "/*" );
+
+    this.filterServiceReference = this.bundleContext.registerService( FilterMapping.class.getName(), filterMapping, null );
+
+    if ( this.registry != null ) {
+      this.registry.add( this );
+    }
   }
 
   @Override
   public void destroy() {
-    this.serviceReference.unregister();
+    if ( this.registry != null ) {
+      this.registry.remove( this );
+    }
+
+    if ( this.filterServiceReference != null ) {
+      this.filterServiceReference.unregister();
+      this.filterServiceReference = null;
+    }
+
+    if ( this.serviceReference != null ) {
+      this.serviceReference.unregister();
+      this.serviceReference = null;
+    }
+
+    // the cached resources must not outlive the package, except those identified by their digest
+    if ( this.filter != null ) {
+      this.filter.invalidate();
+      this.filter = null;
+    }
   }
 }
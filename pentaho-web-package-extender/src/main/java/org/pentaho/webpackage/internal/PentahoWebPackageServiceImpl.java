@@ -21,31 +21,167 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.pentaho.webpackage.PentahoWebPackage;
 import org.pentaho.webpackage.PentahoWebPackageBundle;
 import org.pentaho.webpackage.PentahoWebPackageService;
+import org.pentaho.webpackage.common.NpmVersionRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Dictionary;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Implementation of the WebContainer service.
  */
-public class PentahoWebPackageServiceImpl implements PentahoWebPackageService, BundleListener {
-  private final Map<Long, PentahoWebPackageBundle> pentahoWebPackageBundles = new HashMap<>();
+public class PentahoWebPackageServiceImpl implements PentahoWebPackageService, BundleListener, PentahoWebPackageServiceMXBean {
+  private static final String SCAN_THREAD_NAME_PREFIX = "pentaho-web-package-scanner-";
+
+  private static final int BUNDLE_LOCK_COUNT = 64;
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+  private final ConcurrentMap<Long, PentahoWebPackageBundle> pentahoWebPackageBundles = new ConcurrentHashMap<>();
+
+  // adding and removing a bundle hold the lock of its id, so the initial scan can't race the bundle listener
+  private final Object[] bundleLocks = new Object[ BUNDLE_LOCK_COUNT ];
+
+  private final ResourceCache resourceCache;
+  private final ExtensionExecutor extensionExecutor;
+  private final WebPackageRegistry registry;
+  private final WebPackageDependencyGraph dependencyGraph;
+
+  private volatile boolean capabilityMetadata;
+  private volatile File explodedRoot;
+
+  private volatile int initialScanBundleCount;
+  private volatile long initialScanTime;
+
+  public PentahoWebPackageServiceImpl() {
+    this( null, new ExtensionExecutor() );
+  }
+
+  public PentahoWebPackageServiceImpl( ResourceCache resourceCache, ExtensionExecutor extensionExecutor ) {
+    this( resourceCache, extensionExecutor, new WebPackageRegistry() );
+  }
+
+  public PentahoWebPackageServiceImpl( ResourceCache resourceCache, ExtensionExecutor extensionExecutor,
+                                       WebPackageRegistry registry ) {
+    this.resourceCache = resourceCache;
+    this.extensionExecutor = extensionExecutor;
+    this.registry = registry;
+
+    this.dependencyGraph = new WebPackageDependencyGraph( registry );
+    registry.addListener( this.dependencyGraph );
+
+    for ( int i = 0; i < BUNDLE_LOCK_COUNT; i++ ) {
+      this.bundleLocks[ i ] = new Object();
+    }
+  }
 
   @Override
   public void bundleChanged( BundleEvent bundleEvent ) {
     final Bundle bundle = bundleEvent.getBundle();
 
+    final long bundleId = bundle != null ? bundle.getBundleId() : 0;
+
     final int bundleEventType = bundleEvent.getType();
     if ( bundleEventType == BundleEvent.STARTED ) {
-      addBundle( bundle );
+      this.extensionExecutor.execute( bundleId, () -> addBundle( bundle ) );
     } else if ( bundleEventType == BundleEvent.UNINSTALLED
         || bundleEventType == BundleEvent.UNRESOLVED
         || bundleEventType == BundleEvent.STOPPED ) {
-      removeBundle( bundle );
+      this.extensionExecutor.execute( bundleId, () -> removeBundle( bundle ) );
+    }
+  }
+
+  /**
+   * Extends the web package bundles among the given ones that are already started, such as those started before the
+   * extender, several at a time.
+   */
+  public void addStartedBundles( Bundle[] bundles ) {
+    addStartedBundles( bundles, Runtime.getRuntime().availableProcessors() );
+  }
+
+  void addStartedBundles( Bundle[] bundles, int threads ) {
+    if ( bundles == null ) {
+      return;
+    }
+
+    final long start = System.nanoTime();
+
+    List<Bundle> startedBundles = new ArrayList<>();
+    for ( Bundle bundle : bundles ) {
+      if ( bundle != null && bundle.getState() == Bundle.ACTIVE ) {
+        startedBundles.add( bundle );
+      }
     }
+
+    // a bundle stopped meanwhile (and so removed by the listener) must not be added back: the state is checked
+    // under the same lock the removal takes
+    Consumer<Bundle> addIfStarted = bundle -> {
+      synchronized ( getBundleLock( bundle ) ) {
+        if ( bundle.getState() == Bundle.ACTIVE && bundle.getBundleContext() != null ) {
+          addBundle( bundle );
+        }
+      }
+    };
+
+    threads = Math.min( threads, startedBundles.size() );
+    if ( threads <= 1 ) {
+      startedBundles.forEach( addIfStarted );
+    } else {
+      AtomicInteger threadCount = new AtomicInteger();
+      ExecutorService executorService = Executors.newFixedThreadPool( threads, runnable -> {
+        Thread thread = new Thread( runnable, SCAN_THREAD_NAME_PREFIX + threadCount.incrementAndGet() );
+        thread.setDaemon( true );
+
+        return thread;
+      } );
+
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        startedBundles.forEach( bundle -> futures.add( executorService.submit( () -> addIfStarted.accept( bundle ) ) ) );
+
+        for ( Future<?> future : futures ) {
+          try {
+            future.get();
+          } catch ( ExecutionException e ) {
+            this.logger.error( "Unable to extend web package bundle", e.getCause() );
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      } finally {
+        executorService.shutdownNow();
+      }
+    }
+
+    int extendedCount = 0;
+    for ( Bundle bundle : startedBundles ) {
+      if ( this.pentahoWebPackageBundles.containsKey( bundle.getBundleId() ) ) {
+        extendedCount++;
+      }
+    }
+
+    this.initialScanBundleCount = extendedCount;
+    this.initialScanTime = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+    this.logger.info( "Extended " + extendedCount + " web package bundles out of " + startedBundles.size()
+        + " already started in " + this.initialScanTime + " ms" );
   }
 
   @Override
@@ -53,13 +189,19 @@ public class PentahoWebPackageServiceImpl implements PentahoWebPackageService, B
     PentahoWebPackageBundle extendedBundle = extendBundle( bundle );
 
     if ( extendedBundle != null ) {
-      synchronized ( this.pentahoWebPackageBundles ) {
+      synchronized ( getBundleLock( bundle ) ) {
         if ( this.pentahoWebPackageBundles.putIfAbsent( bundle.getBundleId(), extendedBundle ) != null ) {
           return;
         }
-      }
 
-      extendedBundle.init();
+        try {
+          extendedBundle.init();
+        } catch ( RuntimeException e ) {
+          this.pentahoWebPackageBundles.remove( bundle.getBundleId(), extendedBundle );
+
+          throw e;
+        }
+      }
     }
   }
 
@@ -69,12 +211,87 @@ public class PentahoWebPackageServiceImpl implements PentahoWebPackageService, B
       return;
     }
 
-    PentahoWebPackageBundle pwpc = this.pentahoWebPackageBundles.remove( bundle.getBundleId() );
-    if ( pwpc != null ) {
-      pwpc.destroy();
+    synchronized ( getBundleLock( bundle ) ) {
+      PentahoWebPackageBundle pwpc = this.pentahoWebPackageBundles.remove( bundle.getBundleId() );
+      if ( pwpc != null ) {
+        pwpc.destroy();
+      }
     }
   }
 
+  /**
+   * Whether the name and version of the web packages bundles extended from now on come from the capability
+   * attributes, instead of the package.json.
+   */
+  public void setCapabilityMetadata( boolean capabilityMetadata ) {
+    this.capabilityMetadata = capabilityMetadata;
+  }
+
+  public boolean isCapabilityMetadata() {
+    return this.capabilityMetadata;
+  }
+
+  /**
+   * The folder the web package bundles extended from now on may have their exploded folder in, or {@code null} to
+   * always serve their resources from the bundles.
+   */
+  public void setExplodedRoot( File explodedRoot ) {
+    this.explodedRoot = explodedRoot;
+  }
+
+  public File getExplodedRoot() {
+    return this.explodedRoot;
+  }
+
+  @Override
+  public boolean awaitExtensions( long timeout, TimeUnit unit ) throws InterruptedException {
+    return this.extensionExecutor.awaitPending( timeout, unit );
+  }
+
+  @Override
+  public Collection<PentahoWebPackage> getWebPackages() {
+    return this.registry.getWebPackages();
+  }
+
+  @Override
+  public List<PentahoWebPackage> getWebPackages( String name ) {
+    return this.registry.getWebPackages( name );
+  }
+
+  @Override
+  public PentahoWebPackage getWebPackage( String name, String versionRange ) {
+    return this.registry.resolve( name, NpmVersionRange.parse( versionRange ) );
+  }
+
+  @Override
+  public List<PentahoWebPackage> getResolvedDependencies( PentahoWebPackage webPackage ) {
+    return this.dependencyGraph.resolve( webPackage ).getDependencies();
+  }
+
+  @Override
+  public Map<String, String> getMissingDependencies( PentahoWebPackage webPackage ) {
+    return this.dependencyGraph.resolve( webPackage ).getMissingDependencies();
+  }
+
+  @Override
+  public int getExtendedBundleCount() {
+    return this.pentahoWebPackageBundles.size();
+  }
+
+  @Override
+  public int getInitialScanBundleCount() {
+    return this.initialScanBundleCount;
+  }
+
+  @Override
+  public long getInitialScanTime() {
+    return this.initialScanTime;
+  }
+
+  private Object getBundleLock( Bundle bundle ) {
+    return this.bundleLocks[ (int) ( bundle.getBundleId() % BUNDLE_LOCK_COUNT ) ];
+  }
+
   private PentahoWebPackageBundleImpl extendBundle( final Bundle bundle ) {
     if ( bundle == null ) {
       return null;
@@ -86,7 +303,8 @@ public class PentahoWebPackageServiceImpl implements PentahoWebPackageService, B
       return null;
     }
 
-    return new PentahoWebPackageBundleImpl( bundle );
+    return new PentahoWebPackageBundleImpl( bundle, this.resourceCache, this.capabilityMetadata,
+        this.registry, this.explodedRoot );
   }
 
   private String getHeader( final Bundle bundle, String... keys ) {
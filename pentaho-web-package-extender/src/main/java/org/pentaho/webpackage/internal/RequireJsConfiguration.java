@@ -0,0 +1,255 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.pentaho.webpackage.PentahoWebPackage;
+import org.pentaho.webpackage.common.JsonWriter;
+import org.pentaho.webpackage.common.VersionParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The RequireJS module configuration of all the web packages, merged: a single request gives the client what the
+ * {@code config} blocks of every package.json have.
+ * <p>
+ * When several packages configure the same module, their configurations are deep merged, ordered by package name
+ * and version, so the newest version of a package has the last word. Adding or removing a package only merges again
+ * the modules it configures; the script is put together (and gzipped) once per change, when it is first asked for,
+ * and identified by a generation number.
+ */
+public class RequireJsConfiguration implements WebPackageRegistry.Listener {
+  private static final Comparator<PentahoWebPackage> PACKAGE_ORDER = Comparator
+      .comparing( PentahoWebPackage::getName )
+      .thenComparing( pentahoWebPackage -> VersionParser.parseVersion( pentahoWebPackage.getVersion() ) )
+      .thenComparing( PentahoWebPackage::getVersion );
+
+  // packages with the same name and version (from different bundles) are told apart by the order they were added in,
+  // so neither replaces the other; guarded by this, like the maps using it
+  private final Comparator<PentahoWebPackage> packageOrder = PACKAGE_ORDER.thenComparingLong( this::getSequence );
+
+  // distinguishes the generations of this instance from those of the previous ones
+  private final String instanceId = Long.toString( System.currentTimeMillis(), 36 );
+
+  // guarded by this: module id -> configuration of the module by each package
+  private final Map<String, SortedMap<PentahoWebPackage, Object>> contributions = new HashMap<>();
+
+  // guarded by this: package -> the order it was added in
+  private final Map<PentahoWebPackage, Long> sequences = new IdentityHashMap<>();
+  private long nextSequence;
+
+  // guarded by this: module id -> merged configuration of the module, as JSON
+  private final SortedMap<String, String> modules = new TreeMap<>();
+
+  // guarded by this
+  private long generation;
+
+  private volatile Snapshot snapshot;
+
+  /**
+   * Adds the configuration of the package modules, if it has any.
+   */
+  @Override
+  public void added( PentahoWebPackage pentahoWebPackage ) {
+    Map<String, Object> config = pentahoWebPackage.getConfig();
+    if ( config.isEmpty() ) {
+      return;
+    }
+
+    synchronized ( this ) {
+      this.sequences.computeIfAbsent( pentahoWebPackage, p -> this.nextSequence++ );
+
+      config.forEach( ( moduleId, moduleConfig ) -> {
+        this.contributions.computeIfAbsent( moduleId, id -> new TreeMap<>( this.packageOrder ) )
+            .put( pentahoWebPackage, moduleConfig );
+
+        merge( moduleId );
+      } );
+
+      changed();
+    }
+  }
+
+  /**
+   * Removes the configuration of the package modules, if it has any.
+   */
+  @Override
+  public void removed( PentahoWebPackage pentahoWebPackage ) {
+    Map<String, Object> config = pentahoWebPackage.getConfig();
+    if ( config.isEmpty() ) {
+      return;
+    }
+
+    synchronized ( this ) {
+      boolean removed = false;
+
+      for ( String moduleId : config.keySet() ) {
+        SortedMap<PentahoWebPackage, Object> moduleContributions = this.contributions.get( moduleId );
+        if ( moduleContributions == null || moduleContributions.remove( pentahoWebPackage ) == null ) {
+          continue;
+        }
+
+        removed = true;
+
+        if ( moduleContributions.isEmpty() ) {
+          this.contributions.remove( moduleId );
+          this.modules.remove( moduleId );
+        } else {
+          merge( moduleId );
+        }
+      }
+
+      this.sequences.remove( pentahoWebPackage );
+
+      if ( removed ) {
+        changed();
+      }
+    }
+  }
+
+  // called holding the lock
+  private long getSequence( PentahoWebPackage pentahoWebPackage ) {
+    return this.sequences.getOrDefault( pentahoWebPackage, -1L );
+  }
+
+  /**
+   * The current configuration script.
+   */
+  public Snapshot getSnapshot() {
+    Snapshot current = this.snapshot;
+    if ( current != null ) {
+      return current;
+    }
+
+    synchronized ( this ) {
+      if ( this.snapshot == null ) {
+        this.snapshot = createSnapshot();
+      }
+
+      return this.snapshot;
+    }
+  }
+
+  public synchronized long getGeneration() {
+    return this.generation;
+  }
+
+  public synchronized int getModuleCount() {
+    return this.modules.size();
+  }
+
+  // guarded by this
+  private void merge( String moduleId ) {
+    Object merged = null;
+    for ( Object moduleConfig : this.contributions.get( moduleId ).values() ) {
+      merged = merge( merged, moduleConfig );
+    }
+
+    this.modules.put( moduleId, JsonWriter.toJson( merged ) );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static Object merge( Object target, Object source ) {
+    if ( !( source instanceof Map ) ) {
+      return source;
+    }
+
+    Map<String, Object> merged = target instanceof Map
+        ? (Map<String, Object>) target
+        : new LinkedHashMap<>();
+
+    ( (Map<String, Object>) source ).forEach( ( key, value ) -> merged.put( key, merge( merged.get( key ), value ) ) );
+
+    return merged;
+  }
+
+  // guarded by this
+  private void changed() {
+    this.generation++;
+    this.snapshot = null;
+  }
+
+  // guarded by this
+  private Snapshot createSnapshot() {
+    StringBuilder script = new StringBuilder( "require.config({\"config\":{" );
+
+    boolean first = true;
+    for ( Map.Entry<String, String> module : this.modules.entrySet() ) {
+      if ( !first ) {
+        script.append( ',' );
+      }
+      first = false;
+
+      JsonWriter.write( module.getKey(), script );
+      script.append( ':' ).append( module.getValue() );
+    }
+
+    script.append( "}});\n" );
+
+    byte[] content = script.toString().getBytes( StandardCharsets.UTF_8 );
+
+    return new Snapshot( "\"" + this.instanceId + "-" + this.generation, content, gzip( content ) );
+  }
+
+  private static byte[] gzip( byte[] content ) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream( content.length / 4 + 64 );
+
+    try ( GZIPOutputStream gzipOutputStream = new GZIPOutputStream( outputStream ) ) {
+      gzipOutputStream.write( content );
+    } catch ( IOException e ) {
+      // not going to happen in memory
+      throw new UncheckedIOException( e );
+    }
+
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * The configuration script of a generation, ready to be sent as is or gzipped.
+   */
+  public static final class Snapshot {
+    private final String eTagPrefix;
+    private final byte[] content;
+    private final byte[] gzippedContent;
+
+    Snapshot( String eTagPrefix, byte[] content, byte[] gzippedContent ) {
+      this.eTagPrefix = eTagPrefix;
+      this.content = content;
+      this.gzippedContent = gzippedContent;
+    }
+
+    public String getETag( boolean gzipped ) {
+      return this.eTagPrefix + ( gzipped ? "-gzip\"" : "\"" );
+    }
+
+    public byte[] getContent( boolean gzipped ) {
+      return gzipped ? this.gzippedContent : this.content;
+    }
+  }
+}
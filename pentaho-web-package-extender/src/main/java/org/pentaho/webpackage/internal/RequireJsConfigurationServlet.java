@@ -0,0 +1,77 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the {@link RequireJsConfiguration} script.
+ * <p>
+ * Browsers must check with the server every time, because the script changes whenever a web package comes or goes.
+ * Most of the time the answer is a 304, and otherwise the script is already serialized and gzipped.
+ */
+public class RequireJsConfigurationServlet extends HttpServlet {
+  public static final String ALIAS = "/pentaho-web-package/requirejs-config.js";
+
+  static final String CACHE_CONTROL = "no-cache";
+  static final String CONTENT_TYPE = "application/javascript; charset=UTF-8";
+
+  private final RequireJsConfiguration requireJsConfiguration;
+
+  public RequireJsConfigurationServlet( RequireJsConfiguration requireJsConfiguration ) {
+    this.requireJsConfiguration = requireJsConfiguration;
+  }
+
+  @Override
+  protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+    RequireJsConfiguration.Snapshot snapshot = this.requireJsConfiguration.getSnapshot();
+
+    boolean gzipped = WebPackageResourceFilter.isAccepted( request.getHeader( "Accept-Encoding" ), "gzip" );
+    String eTag = snapshot.getETag( gzipped );
+
+    response.setHeader( "Cache-Control", CACHE_CONTROL );
+    response.addHeader( "Vary", "Accept-Encoding" );
+    response.setHeader( "ETag", eTag );
+
+    if ( WebPackageResourceFilter.matches( request.getHeader( "If-None-Match" ), eTag ) ) {
+      response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+      return;
+    }
+
+    byte[] content = snapshot.getContent( gzipped );
+
+    response.setContentType( CONTENT_TYPE );
+    if ( gzipped ) {
+      response.setHeader( "Content-Encoding", "gzip" );
+    }
+    response.setContentLength( content.length );
+
+    if ( !"HEAD".equals( request.getMethod() ) ) {
+      response.getOutputStream().write( content );
+    }
+  }
+
+  @Override
+  protected void doHead( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+    doGet( request, response );
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of the content of web package resources, shared by all the web packages.
+ * <p>
+ * Serving a resource from a bundle means finding and inflating its entry in the bundle archive again on every
+ * request, while a few hundred modules usually account for most of the traffic. Those are kept here, up to a
+ * maximum total size, evicting the least recently used ones first. Resources bigger than the maximum entry size are
+ * never cached, so a single huge file can't flush everything else.
+ * <p>
+ * The content can be kept outside of the heap, in direct buffers, so a large cache doesn't add to the garbage
+ * collection work. Each web package owns its entries and drops them all when it goes away, but those keyed by a
+ * digest of their content belong to {@link #SHARED}: they can't go stale, so they are still there for the next version
+ * of the package, if the resource didn't change.
+ */
+public class ResourceCache implements ResourceCacheMXBean {
+  public static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+  public static final long DEFAULT_MAX_ENTRY_SIZE = 1024L * 1024;
+
+  /**
+   * The owner of the entries keyed by a digest of their content, which are never invalidated.
+   */
+  public static final Object SHARED = new Object();
+
+  // guarded by this
+  private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>( 256, 0.75f, true );
+  private long size;
+
+  private volatile long maxSize = DEFAULT_MAX_SIZE;
+  private volatile long maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+  private volatile boolean direct;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * Changes the cache limits, evicting whatever doesn't fit them anymore. Changing where the content is kept empties
+   * the cache.
+   */
+  public synchronized void configure( long maxSize, long maxEntrySize, boolean direct ) {
+    this.maxSize = maxSize;
+    this.maxEntrySize = maxEntrySize;
+
+    if ( this.direct != direct ) {
+      this.direct = direct;
+
+      clear();
+    }
+
+    evict();
+  }
+
+  /**
+   * Whether content of the given length would be kept in the cache.
+   */
+  public boolean isCacheable( long length ) {
+    return length >= 0 && length <= this.maxEntrySize && length <= this.maxSize;
+  }
+
+  /**
+   * The cached content of a resource, or {@code null} if it isn't in the cache. The buffer is a view shared with
+   * other readers, which must not change it.
+   */
+  public synchronized ByteBuffer get( Object owner, String path ) {
+    ByteBuffer content = this.entries.get( new Key( owner, path ) );
+    if ( content == null ) {
+      this.missCount.incrementAndGet();
+
+      return null;
+    }
+
+    this.hitCount.incrementAndGet();
+
+    return content.duplicate();
+  }
+
+  /**
+   * Keeps the content of a resource, if it is cacheable. Returns a buffer with the content either way.
+   */
+  public ByteBuffer put( Object owner, String path, byte[] content ) {
+    if ( !isCacheable( content.length ) ) {
+      return ByteBuffer.wrap( content );
+    }
+
+    ByteBuffer buffer;
+    if ( this.direct ) {
+      buffer = ByteBuffer.allocateDirect( content.length );
+      buffer.put( content );
+
+      // through Buffer, as ByteBuffer.flip() only exists from JDK 9 on and this must also run on Java 8
+      ( (Buffer) buffer ).flip();
+    } else {
+      buffer = ByteBuffer.wrap( content );
+    }
+
+    synchronized ( this ) {
+      ByteBuffer previous = this.entries.put( new Key( owner, path ), buffer );
+      if ( previous != null ) {
+        this.size -= previous.capacity();
+      }
+
+      this.size += buffer.capacity();
+
+      evict();
+    }
+
+    return buffer.duplicate();
+  }
+
+  /**
+   * Drops all the entries of the given owner.
+   */
+  public synchronized void invalidate( Object owner ) {
+    Iterator<Map.Entry<Key, ByteBuffer>> iterator = this.entries.entrySet().iterator();
+    while ( iterator.hasNext() ) {
+      Map.Entry<Key, ByteBuffer> entry = iterator.next();
+      if ( entry.getKey().owner == owner ) {
+        this.size -= entry.getValue().capacity();
+
+        iterator.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    this.entries.clear();
+    this.size = 0;
+  }
+
+  // called holding the lock
+  private void evict() {
+    Iterator<ByteBuffer> iterator = this.entries.values().iterator();
+    while ( this.size > this.maxSize && iterator.hasNext() ) {
+      this.size -= iterator.next().capacity();
+
+      iterator.remove();
+
+      this.evictionCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long getMaxEntrySize() {
+    return this.maxEntrySize;
+  }
+
+  @Override
+  public boolean isDirect() {
+    return this.direct;
+  }
+
+  @Override
+  public synchronized long getSize() {
+    return this.size;
+  }
+
+  @Override
+  public synchronized int getEntryCount() {
+    return this.entries.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return this.hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return this.missCount.get();
+  }
+
+  @Override
+  public double getHitRate() {
+    long hits = this.hitCount.get();
+    long requests = hits + this.missCount.get();
+
+    return requests > 0 ? (double) hits / requests : 0;
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return this.evictionCount.get();
+  }
+
+  private static final class Key {
+    private final Object owner;
+    private final String path;
+
+    private Key( Object owner, String path ) {
+      this.owner = owner;
+      this.path = path;
+    }
+
+    @Override
+    public boolean equals( Object other ) {
+      if ( !( other instanceof Key ) ) {
+        return false;
+      }
+
+      Key key = (Key) other;
+
+      return this.owner == key.owner && this.path.equals( key.path );
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode( this.owner ) + this.path.hashCode();
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.pentaho.webpackage.PentahoWebPackage;
+import org.pentaho.webpackage.common.NpmVersionRange;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The package.json dependencies of the registered web packages, resolved transitively: each dependency is the
+ * highest registered version of the package satisfying its range.
+ * <p>
+ * Resolutions are kept until a package named in them, found or not, comes or goes; a reverse index from each package
+ * name to the resolutions that looked it up tells which ones to drop, so registering a package doesn't resolve
+ * everything again. A resolution also reuses the ones kept for its dependencies instead of walking their dependencies
+ * again.
+ */
+public class WebPackageDependencyGraph implements WebPackageRegistry.Listener {
+  /**
+   * The transitive dependencies of a web package.
+   */
+  static final class Resolution {
+    private final List<PentahoWebPackage> dependencies;
+    private final Map<String, String> missingDependencies;
+
+    // every package name looked up to get here
+    private final Set<String> names;
+
+    private Resolution( List<PentahoWebPackage> dependencies, Map<String, String> missingDependencies,
+                        Set<String> names ) {
+      this.dependencies = Collections.unmodifiableList( dependencies );
+      this.missingDependencies = Collections.unmodifiableMap( missingDependencies );
+      this.names = names;
+    }
+
+    /**
+     * The web packages depended upon, directly or not, nearest first.
+     */
+    List<PentahoWebPackage> getDependencies() {
+      return this.dependencies;
+    }
+
+    /**
+     * The version ranges no registered version satisfies, or that aren't ranges (tags, urls), by package name.
+     */
+    Map<String, String> getMissingDependencies() {
+      return this.missingDependencies;
+    }
+  }
+
+  private final WebPackageRegistry registry;
+
+  // guarded by this
+  private final Map<PentahoWebPackage, Resolution> resolutions = new IdentityHashMap<>();
+  private final Map<String, Set<PentahoWebPackage>> dependents = new HashMap<>();
+
+  public WebPackageDependencyGraph( WebPackageRegistry registry ) {
+    this.registry = registry;
+  }
+
+  /**
+   * Resolves the dependencies of a web package, which are kept while it is registered.
+   */
+  synchronized Resolution resolve( PentahoWebPackage webPackage ) {
+    Resolution resolution = this.resolutions.get( webPackage );
+    if ( resolution != null ) {
+      return resolution;
+    }
+
+    List<PentahoWebPackage> dependencies = new ArrayList<>();
+    Set<PentahoWebPackage> visited = Collections.newSetFromMap( new IdentityHashMap<>() );
+    Map<String, String> missingDependencies = new LinkedHashMap<>();
+    Set<String> names = new HashSet<>();
+
+    visited.add( webPackage );
+
+    Deque<PentahoWebPackage> pending = new ArrayDeque<>();
+    pending.add( webPackage );
+
+    while ( !pending.isEmpty() ) {
+      for ( Map.Entry<String, String> dependency : pending.poll().getDependencies().entrySet() ) {
+        names.add( dependency.getKey() );
+
+        PentahoWebPackage resolved = resolve( dependency.getKey(), dependency.getValue() );
+        if ( resolved == null ) {
+          missingDependencies.putIfAbsent( dependency.getKey(), dependency.getValue() );
+        } else if ( visited.add( resolved ) ) {
+          dependencies.add( resolved );
+
+          Resolution resolvedResolution = this.resolutions.get( resolved );
+          if ( resolvedResolution == null ) {
+            pending.add( resolved );
+          } else {
+            // everything past it is already known
+            for ( PentahoWebPackage transitive : resolvedResolution.dependencies ) {
+              if ( visited.add( transitive ) ) {
+                dependencies.add( transitive );
+              }
+            }
+
+            resolvedResolution.missingDependencies.forEach( missingDependencies::putIfAbsent );
+            names.addAll( resolvedResolution.names );
+          }
+        }
+      }
+    }
+
+    resolution = new Resolution( dependencies, missingDependencies, names );
+
+    // one no longer (or never) registered would never be dropped
+    if ( isRegistered( webPackage ) ) {
+      this.resolutions.put( webPackage, resolution );
+
+      for ( String name : names ) {
+        this.dependents.computeIfAbsent( name, key -> Collections.newSetFromMap( new IdentityHashMap<>() ) )
+            .add( webPackage );
+      }
+    }
+
+    return resolution;
+  }
+
+  synchronized int size() {
+    return this.resolutions.size();
+  }
+
+  @Override
+  public synchronized void added( PentahoWebPackage pentahoWebPackage ) {
+    invalidate( pentahoWebPackage.getName() );
+  }
+
+  @Override
+  public synchronized void removed( PentahoWebPackage pentahoWebPackage ) {
+    invalidate( pentahoWebPackage.getName() );
+
+    forget( pentahoWebPackage );
+  }
+
+  private PentahoWebPackage resolve( String name, String versionRange ) {
+    try {
+      return this.registry.resolve( name, NpmVersionRange.parse( versionRange ) );
+    } catch ( IllegalArgumentException e ) {
+      return null;
+    }
+  }
+
+  private boolean isRegistered( PentahoWebPackage webPackage ) {
+    return webPackage instanceof PentahoWebPackageImpl
+        && this.registry.get( ( (PentahoWebPackageImpl) webPackage ).getAlias() ) == webPackage;
+  }
+
+  private void invalidate( String name ) {
+    Set<PentahoWebPackage> nameDependents = this.dependents.remove( name );
+    if ( nameDependents != null ) {
+      nameDependents.forEach( this::forget );
+    }
+  }
+
+  private void forget( PentahoWebPackage webPackage ) {
+    Resolution resolution = this.resolutions.remove( webPackage );
+    if ( resolution == null ) {
+      return;
+    }
+
+    for ( String name : resolution.names ) {
+      Set<PentahoWebPackage> nameDependents = this.dependents.get( name );
+      if ( nameDependents != null ) {
+        nameDependents.remove( webPackage );
+
+        if ( nameDependents.isEmpty() ) {
+          this.dependents.remove( name );
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.osgi.framework.Version;
+import org.pentaho.webpackage.PentahoWebPackage;
+import org.pentaho.webpackage.common.NpmVersionRange;
+import org.pentaho.webpackage.common.VersionParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The web packages currently registered, by the alias they are served under ({@code /<name>/<version>}), and the
+ * parties interested in them coming and going.
+ * <p>
+ * They are also indexed by name, each name with its versions sorted in npm order, so that resolving a version range
+ * takes a few O(log n) lookups instead of a walk over every package.
+ */
+public class WebPackageRegistry {
+  /**
+   * Told about every web package registered and unregistered, in the thread doing it.
+   */
+  public interface Listener {
+    void added( PentahoWebPackage pentahoWebPackage );
+
+    void removed( PentahoWebPackage pentahoWebPackage );
+  }
+
+  private final ConcurrentMap<String, PentahoWebPackageImpl> webPackages = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, ConcurrentNavigableMap<Version, PentahoWebPackageImpl>> versions =
+      new ConcurrentHashMap<>();
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  public void addListener( Listener listener ) {
+    this.listeners.add( listener );
+  }
+
+  public void removeListener( Listener listener ) {
+    this.listeners.remove( listener );
+  }
+
+  /**
+   * The web package served under the given alias, or {@code null} if there is none.
+   */
+  public PentahoWebPackageImpl get( String alias ) {
+    return this.webPackages.get( alias );
+  }
+
+  public int size() {
+    return this.webPackages.size();
+  }
+
+  public Collection<PentahoWebPackage> getWebPackages() {
+    return Collections.unmodifiableCollection( new ArrayList<>( this.webPackages.values() ) );
+  }
+
+  /**
+   * The versions of the named web package, lowest first.
+   */
+  public List<PentahoWebPackage> getWebPackages( String name ) {
+    Map<Version, PentahoWebPackageImpl> packageVersions = this.versions.get( name );
+
+    return packageVersions != null ? Collections.unmodifiableList( new ArrayList<>( packageVersions.values() ) )
+        : Collections.emptyList();
+  }
+
+  /**
+   * The highest version of the named web package in the given range, or {@code null} if there is none.
+   */
+  public PentahoWebPackage resolve( String name, NpmVersionRange range ) {
+    ConcurrentNavigableMap<Version, PentahoWebPackageImpl> packageVersions = this.versions.get( name );
+    if ( packageVersions == null ) {
+      return null;
+    }
+
+    Map.Entry<Version, PentahoWebPackageImpl> highest = range.getHighest( packageVersions );
+
+    return highest != null ? highest.getValue() : null;
+  }
+
+  void add( PentahoWebPackageImpl pentahoWebPackage ) {
+    // a second package with the same alias takes the place of the first, whose removal then leaves it alone
+    this.webPackages.put( pentahoWebPackage.getAlias(), pentahoWebPackage );
+
+    // versions equal in npm order (1.0 and 1.0.0) share an entry too
+    this.versions.compute( pentahoWebPackage.getName(), ( name, packageVersions ) -> {
+      if ( packageVersions == null ) {
+        packageVersions = new ConcurrentSkipListMap<>( NpmVersionRange.ORDER );
+      }
+
+      packageVersions.put( getVersion( pentahoWebPackage ), pentahoWebPackage );
+
+      return packageVersions;
+    } );
+
+    this.listeners.forEach( listener -> listener.added( pentahoWebPackage ) );
+  }
+
+  void remove( PentahoWebPackageImpl pentahoWebPackage ) {
+    this.webPackages.remove( pentahoWebPackage.getAlias(), pentahoWebPackage );
+
+    this.versions.computeIfPresent( pentahoWebPackage.getName(), ( name, packageVersions ) -> {
+      packageVersions.remove( getVersion( pentahoWebPackage ), pentahoWebPackage );
+
+      return packageVersions.isEmpty() ? null : packageVersions;
+    } );
+
+    this.listeners.forEach( listener -> listener.removed( pentahoWebPackage ) );
+  }
+
+  private static Version getVersion( PentahoWebPackage pentahoWebPackage ) {
+    return VersionParser.parseVersion( pentahoWebPackage.getVersion() );
+  }
+}
@@ -0,0 +1,570 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal;
+
+import org.osgi.framework.Bundle;
+import org.pentaho.webpackage.common.WebPackageDigests;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sits in front of a web package resource mapping, serving its resources.
+ * <p>
+ * The precompressed copies of the resources ({@code name.js.br} or {@code name.js.gz}, next to {@code name.js}) are
+ * served to clients that accept them. The gzipped copies are generated by the deployer when it is configured to,
+ * brotli ones can only come with the package itself.
+ * <p>
+ * Resources are served with a strong ETag, a hash of their content computed once per resource. The package version
+ * is part of the alias, but a bundle not built by the deployer may still change its resources under the same name and
+ * version, so only the resources listed in the bundle digests index, whose content is known, are served to be cached
+ * forever; the others must be revalidated on every use. The {@link ComboServlet} follows the same rule.
+ * <p>
+ * Range requests and resources that don't exist go on to the resource mapping. The content of the resources served
+ * may be kept in a {@link ResourceCache}, shared with the other web packages.
+ * <p>
+ * Resources listed in the bundle digests index are identified by their digest instead: their ETag is taken from it,
+ * and their cached content is kept across versions of the package, as long as it doesn't change. Any bundle can list
+ * any digest, so the content is checked against it before it is shared with the other packages; a resource that
+ * doesn't match is from then on treated as not listed.
+ * <p>
+ * When the deployer laid the bundle resources out in an exploded folder, they are looked up and read there instead
+ * of in the bundle, and those too big to be cached are sent by the {@link MappedFileSender}.
+ * <p>
+ * The entry modules listed in the bundle preload manifest are served with {@code Link: rel=preload} headers for the
+ * modules they depend on, so the browser fetches them all at once instead of discovering them one at a time.
+ */
+public class WebPackageResourceFilter implements Filter {
+  // in order of preference
+  private static final String[] ENCODINGS = { "br", "gzip" };
+  private static final String[] ENCODING_EXTENSIONS = { ".br", ".gz" };
+
+  static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+  static final String REVALIDATE_CACHE_CONTROL = "no-cache";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+  private final Bundle bundle;
+  private final String alias;
+  private final String resourceRootPath;
+
+  private final ResourceCache resourceCache;
+
+  // bundle entry name -> hex digest of its content
+  private final Map<String, String> digests;
+
+  private final File explodedDirectory;
+
+  // resource path -> Link header of the modules it depends on
+  private final Map<String, String> links;
+
+  private ServletContext servletContext;
+
+  // resource path (plus encoding extension) -> ETag
+  private final Map<String, String> eTags = new ConcurrentHashMap<>();
+
+  // resource paths (plus encoding extension) whose content turned out not to match the digest listed
+  private final Set<String> mismatchedDigests = ConcurrentHashMap.newKeySet();
+
+  WebPackageResourceFilter( Bundle bundle, String alias, String resourceRootPath ) {
+    this( bundle, alias, resourceRootPath, null );
+  }
+
+  WebPackageResourceFilter( Bundle bundle, String alias, String resourceRootPath, ResourceCache resourceCache ) {
+    this( bundle, alias, resourceRootPath, resourceCache, null, null );
+  }
+
+  WebPackageResourceFilter( Bundle bundle, String alias, String resourceRootPath, ResourceCache resourceCache,
+                            Map<String, String> digests, File explodedDirectory ) {
+    this( bundle, alias, resourceRootPath, resourceCache, digests, explodedDirectory, null );
+  }
+
+  WebPackageResourceFilter( Bundle bundle, String alias, String resourceRootPath, ResourceCache resourceCache,
+                            Map<String, String> digests, File explodedDirectory, Map<String, List<String>> preloads ) {
+    this.bundle = bundle;
+    this.alias = alias;
+    this.resourceRootPath = resourceRootPath;
+    this.resourceCache = resourceCache;
+    this.digests = digests != null ? digests : Collections.emptyMap();
+    this.explodedDirectory = explodedDirectory;
+    this.links = preloads != null ? getLinks( preloads ) : Collections.emptyMap();
+  }
+
+  @Override
+  public void init( FilterConfig filterConfig ) {
+    this.servletContext = filterConfig.getServletContext();
+  }
+
+  @Override
+  public void doFilter( ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain )
+      throws IOException, ServletException {
+    if ( !( servletRequest instanceof HttpServletRequest ) || !( servletResponse instanceof HttpServletResponse ) ) {
+      chain.doFilter( servletRequest, servletResponse );
+      return;
+    }
+
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+    String path = getResourcePath( request );
+
+    File resourceFile = null;
+    URL resourceUrl = null;
+    if ( path != null && ( "GET".equals( request.getMethod() ) || "HEAD".equals( request.getMethod() ) ) ) {
+      // the exploded folder first, no need to ask the bundle for what is there
+      resourceFile = getExplodedFile( path );
+      resourceUrl = getResource( path, resourceFile );
+    }
+
+    if ( resourceUrl == null ) {
+      chain.doFilter( request, response );
+      return;
+    }
+
+    String acceptEncoding = request.getHeader( "Accept-Encoding" );
+
+    URL representationUrl = resourceUrl;
+    File explodedFile = resourceFile;
+    String encoding = null;
+    String encodingExtension = "";
+
+    boolean hasPrecompressedCopies = false;
+    for ( int i = 0; i < ENCODINGS.length; i++ ) {
+      File precompressedFile = getExplodedFile( path + ENCODING_EXTENSIONS[ i ] );
+      URL precompressedUrl = getResource( path + ENCODING_EXTENSIONS[ i ], precompressedFile );
+      if ( precompressedUrl == null ) {
+        continue;
+      }
+
+      hasPrecompressedCopies = true;
+
+      if ( encoding == null && isAccepted( acceptEncoding, ENCODINGS[ i ] ) ) {
+        representationUrl = precompressedUrl;
+        explodedFile = precompressedFile;
+        encoding = ENCODINGS[ i ];
+        encodingExtension = ENCODING_EXTENSIONS[ i ];
+      }
+    }
+
+    // ranges of the encoded content aren't worth the trouble, the resource mapping handles them unencoded
+    boolean range = request.getHeader( "Range" ) != null;
+
+    String digest = getDigest( range ? path : path + encodingExtension );
+
+    response.setHeader( "Cache-Control", getCacheControl( digest != null ) );
+    if ( hasPrecompressedCopies ) {
+      // the response depends on the encodings accepted, even when it isn't encoded
+      response.addHeader( "Vary", "Accept-Encoding" );
+    }
+
+    if ( range ) {
+      chain.doFilter( request, response );
+      return;
+    }
+
+    String eTag = digest != null ? toETag( digest ) : getETag( path + encodingExtension, representationUrl );
+    response.setHeader( "ETag", eTag );
+
+    if ( matches( request.getHeader( "If-None-Match" ), eTag ) ) {
+      response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+      return;
+    }
+
+    String links = this.links.get( path );
+    if ( links != null ) {
+      response.setHeader( "Link", links );
+    }
+
+    serve( request, response, path, path + encodingExtension, digest, representationUrl, explodedFile, encoding );
+  }
+
+  @Override
+  public void destroy() {
+    this.servletContext = null;
+
+    invalidate();
+  }
+
+  /**
+   * Forgets everything known about the package resources.
+   */
+  void invalidate() {
+    this.eTags.clear();
+    this.mismatchedDigests.clear();
+
+    if ( this.resourceCache != null ) {
+      this.resourceCache.invalidate( this );
+    }
+  }
+
+  /**
+   * The path of the requested resource inside the package root, or {@code null} if it isn't one this filter should
+   * handle.
+   */
+  String getResourcePath( HttpServletRequest request ) {
+    String servletPath = request.getServletPath() != null ? request.getServletPath() : "";
+    String pathInfo = request.getPathInfo() != null ? request.getPathInfo() : "";
+
+    String requestPath = servletPath + pathInfo;
+    if ( !requestPath.startsWith( this.alias + "/" ) ) {
+      return null;
+    }
+
+    String path = requestPath.substring( this.alias.length() );
+    if ( path.endsWith( "/" ) || path.contains( "\\" ) || path.contains( "/../" ) || path.endsWith( "/.." ) ) {
+      return null;
+    }
+
+    return path;
+  }
+
+  private File getExplodedFile( String path ) {
+    if ( this.explodedDirectory == null ) {
+      return null;
+    }
+
+    File file = new File( this.explodedDirectory, this.resourceRootPath + path );
+
+    // not laid out yet, or already evicted from the deployer cache
+    return file.isFile() ? file : null;
+  }
+
+  // the file, if laid out, and otherwise the bundle entry
+  private URL getResource( String path, File explodedFile ) throws MalformedURLException {
+    return explodedFile != null ? explodedFile.toURI().toURL() : this.bundle.getEntry( this.resourceRootPath + path );
+  }
+
+  private String getDigest( String path ) {
+    return !this.mismatchedDigests.contains( path ) ? this.digests.get( getEntryName( path ) ) : null;
+  }
+
+  private String getEntryName( String path ) {
+    String entryName = this.resourceRootPath + path;
+    while ( entryName.startsWith( "/" ) ) {
+      entryName = entryName.substring( 1 );
+    }
+
+    return entryName;
+  }
+
+  /**
+   * The Link headers of the entry modules of this package, given the preload manifest of the bundle.
+   */
+  private Map<String, String> getLinks( Map<String, List<String>> preloads ) {
+    String root = getEntryName( "/" );
+
+    Map<String, String> links = new HashMap<>();
+    for ( Map.Entry<String, List<String>> preload : preloads.entrySet() ) {
+      if ( !preload.getKey().startsWith( root ) ) {
+        // from another package of the bundle
+        continue;
+      }
+
+      StringBuilder link = new StringBuilder();
+      for ( String entryName : preload.getValue() ) {
+        if ( !entryName.startsWith( root ) ) {
+          continue;
+        }
+
+        try {
+          String url = new URI( null, null, this.alias + "/" + entryName.substring( root.length() ), null )
+              .toASCIIString();
+
+          link.append( link.length() > 0 ? ", " : "" ).append( '<' ).append( url ).append( ">; rel=preload; as=script" );
+        } catch ( URISyntaxException ignored ) {
+          // not worth failing the whole package over
+        }
+      }
+
+      if ( link.length() > 0 ) {
+        links.put( "/" + preload.getKey().substring( root.length() ), link.toString() );
+      }
+    }
+
+    return links;
+  }
+
+  private String getETag( String key, URL url ) throws IOException {
+    String eTag = this.eTags.get( key );
+    if ( eTag == null ) {
+      eTag = computeETag( url );
+
+      this.eTags.put( key, eTag );
+    }
+
+    return eTag;
+  }
+
+  /**
+   * Content known to the digests index can be cached forever, anything else may change under the same name and
+   * version.
+   */
+  static String getCacheControl( boolean contentAddressed ) {
+    return contentAddressed ? CACHE_CONTROL : REVALIDATE_CACHE_CONTROL;
+  }
+
+  static String computeETag( URL url ) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IOException( "SHA-256 is not available", e );
+    }
+
+    try ( InputStream inputStream = url.openStream() ) {
+      byte[] buffer = new byte[ BUFFER_SIZE ];
+      int read;
+      while ( ( read = inputStream.read( buffer ) ) != -1 ) {
+        digest.update( buffer, 0, read );
+      }
+    }
+
+    return toETag( WebPackageDigests.toHex( digest.digest() ) );
+  }
+
+  static String toETag( String hexDigest ) {
+    // half of the hash is more than enough to tell versions of the same resource apart
+    return "\"" + hexDigest.substring( 0, hexDigest.length() / 2 ) + "\"";
+  }
+
+  /**
+   * If-None-Match uses the weak comparison: the W/ prefix is ignored.
+   */
+  static boolean matches( String ifNoneMatch, String eTag ) {
+    if ( ifNoneMatch == null ) {
+      return false;
+    }
+
+    for ( String candidate : ifNoneMatch.split( "," ) ) {
+      candidate = candidate.trim();
+
+      if ( candidate.equals( "*" ) ) {
+        return true;
+      }
+
+      if ( candidate.startsWith( "W/" ) ) {
+        candidate = candidate.substring( 2 );
+      }
+
+      if ( candidate.equals( eTag ) ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  static boolean isAccepted( String acceptEncoding, String encoding ) {
+    if ( acceptEncoding == null ) {
+      return false;
+    }
+
+    // an explicit mention of the encoding takes precedence over the wildcard
+    Double wildcardQuality = null;
+    for ( String coding : acceptEncoding.split( "," ) ) {
+      String[] parameters = coding.split( ";" );
+
+      String name = parameters[ 0 ].trim().toLowerCase( Locale.ROOT );
+      if ( name.equals( encoding ) ) {
+        return getQuality( parameters ) > 0;
+      }
+
+      if ( name.equals( "*" ) ) {
+        wildcardQuality = getQuality( parameters );
+      }
+    }
+
+    return wildcardQuality != null && wildcardQuality > 0;
+  }
+
+  private static double getQuality( String[] parameters ) {
+    for ( int i = 1; i < parameters.length; i++ ) {
+      String parameter = parameters[ i ].trim();
+      if ( parameter.startsWith( "q=" ) ) {
+        try {
+          return Double.parseDouble( parameter.substring( 2 ) );
+        } catch ( NumberFormatException e ) {
+          return 0;
+        }
+      }
+    }
+
+    return 1;
+  }
+
+  /**
+   * Serves the resource content, from the cache if it is there. The key is the resource path plus its encoding
+   * extension; resources with a digest are cached by it instead, shared with the other packages.
+   */
+  private void serve( HttpServletRequest request, HttpServletResponse response, String path, String key,
+                      String digest, URL url, File file, String encoding ) throws IOException {
+    ByteBuffer content = this.resourceCache != null
+        ? this.resourceCache.get( digest != null ? ResourceCache.SHARED : this, digest != null ? digest : key )
+        : null;
+
+    long fileLength = file != null ? file.length() : -1;
+    boolean sendFile = content == null && file != null
+        && !( this.resourceCache != null && this.resourceCache.isCacheable( fileLength ) );
+
+    URLConnection urlConnection = null;
+    if ( content == null && !sendFile ) {
+      urlConnection = url.openConnection();
+
+      long contentLength = urlConnection.getContentLengthLong();
+      if ( this.resourceCache != null && this.resourceCache.isCacheable( contentLength ) ) {
+        byte[] data = readFully( urlConnection, (int) contentLength );
+
+        if ( digest != null && digest.equals( WebPackageDigests.digest( data, 0, data.length ) ) ) {
+          content = this.resourceCache.put( ResourceCache.SHARED, digest, data );
+        } else {
+          if ( digest != null ) {
+            this.logger.warn( "{} of bundle {} doesn't match the digest listed for it, it won't be shared", key,
+                this.bundle.getSymbolicName() );
+
+            this.mismatchedDigests.add( key );
+          }
+
+          content = this.resourceCache.put( this, key, data );
+        }
+      }
+    }
+
+    if ( encoding != null ) {
+      response.setHeader( "Content-Encoding", encoding );
+    }
+
+    ServletContext context = this.servletContext != null ? this.servletContext : request.getServletContext();
+    String mimeType = context != null ? context.getMimeType( path ) : null;
+    if ( mimeType != null ) {
+      response.setContentType( mimeType );
+    }
+
+    if ( content != null ) {
+      response.setContentLength( content.remaining() );
+
+      if ( !"HEAD".equals( request.getMethod() ) ) {
+        write( content, response.getOutputStream() );
+      }
+
+      return;
+    }
+
+    if ( sendFile ) {
+      setContentLength( response, fileLength );
+
+      if ( !"HEAD".equals( request.getMethod() ) ) {
+        MappedFileSender.send( file, response.getOutputStream() );
+      }
+
+      return;
+    }
+
+    long contentLength = urlConnection.getContentLengthLong();
+    if ( contentLength >= 0 && contentLength <= Integer.MAX_VALUE ) {
+      response.setContentLength( (int) contentLength );
+    }
+
+    try ( InputStream inputStream = urlConnection.getInputStream() ) {
+      if ( "HEAD".equals( request.getMethod() ) ) {
+        return;
+      }
+
+      OutputStream outputStream = response.getOutputStream();
+
+      byte[] buffer = new byte[ BUFFER_SIZE ];
+      int read;
+      while ( ( read = inputStream.read( buffer ) ) != -1 ) {
+        outputStream.write( buffer, 0, read );
+      }
+    }
+  }
+
+  private static void setContentLength( HttpServletResponse response, long contentLength ) {
+    if ( contentLength <= Integer.MAX_VALUE ) {
+      response.setContentLength( (int) contentLength );
+    } else {
+      response.setHeader( "Content-Length", Long.toString( contentLength ) );
+    }
+  }
+
+  private static byte[] readFully( URLConnection urlConnection, int contentLength ) throws IOException {
+    byte[] content = new byte[ contentLength ];
+
+    try ( InputStream inputStream = urlConnection.getInputStream() ) {
+      int offset = 0;
+      while ( offset < contentLength ) {
+        int read = inputStream.read( content, offset, contentLength - offset );
+        if ( read == -1 ) {
+          throw new EOFException( urlConnection.getURL() + ": expected " + contentLength + " bytes, got " + offset );
+        }
+
+        offset += read;
+      }
+    }
+
+    return content;
+  }
+
+  static void write( ByteBuffer content, OutputStream outputStream ) throws IOException {
+    if ( content.hasArray() ) {
+      outputStream.write( content.array(), content.arrayOffset() + content.position(), content.remaining() );
+      return;
+    }
+
+    // direct buffers go out in chunks
+    byte[] buffer = new byte[ Math.min( BUFFER_SIZE, content.remaining() ) ];
+    while ( content.hasRemaining() ) {
+      int length = Math.min( buffer.length, content.remaining() );
+      content.get( buffer, 0, length );
+
+      outputStream.write( buffer, 0, length );
+    }
+  }
+}
@@ -17,21 +17,113 @@
  */
 package org.pentaho.webpackage.internal.osgi;
 
+import org.ops4j.pax.web.extender.whiteboard.ServletMapping;
+import org.ops4j.pax.web.extender.whiteboard.runtime.DefaultServletMapping;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ManagedService;
 import org.pentaho.webpackage.PentahoWebPackageService;
+import org.pentaho.webpackage.common.WebPackageHeaders;
+import org.pentaho.webpackage.internal.ComboServlet;
+import org.pentaho.webpackage.internal.ExtensionExecutor;
 import org.pentaho.webpackage.internal.PentahoWebPackageServiceImpl;
+import org.pentaho.webpackage.internal.RequireJsConfiguration;
+import org.pentaho.webpackage.internal.RequireJsConfigurationServlet;
+import org.pentaho.webpackage.internal.ResourceCache;
+import org.pentaho.webpackage.internal.WebPackageRegistry;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Dictionary;
+import java.util.Hashtable;
 
 public class Activator implements BundleActivator {
+  private static final String SERVICE_OBJECT_NAME = "org.pentaho.webpackage:type=PentahoWebPackageService";
+  private static final String RESOURCE_CACHE_OBJECT_NAME = "org.pentaho.webpackage:type=ResourceCache";
+
+  // the deployer url handler, telling where the exploded bundles are
+  private static final String EXPLODED_ROOT_FILTER = "(" + WebPackageHeaders.EXPLODED_ROOT + "=*)";
+
+  private final Logger logger = LoggerFactory.getLogger( getClass() );
+
   private PentahoWebPackageServiceImpl pentahoWebPackageService;
   private ServiceRegistration<PentahoWebPackageService> serviceReference;
+  private ObjectName serviceObjectName;
+
+  private ExtensionExecutor extensionExecutor;
+
+  private ResourceCache resourceCache;
+  private ObjectName resourceCacheObjectName;
+
+  private ServiceRegistration<ManagedService> managedServiceRegistration;
+
+  private ServiceRegistration<?> requireJsConfigurationRegistration;
+
+  private ServiceRegistration<?> comboRegistration;
+
+  private ServiceListener explodedRootListener;
 
   public void start( BundleContext bundleContext ) {
-    this.pentahoWebPackageService = new PentahoWebPackageServiceImpl();
+    this.extensionExecutor = new ExtensionExecutor();
+
+    this.resourceCache = new ResourceCache();
+    this.resourceCacheObjectName = registerMBean( this.resourceCache, RESOURCE_CACHE_OBJECT_NAME );
+
+    WebPackageRegistry registry = new WebPackageRegistry();
+
+    RequireJsConfiguration requireJsConfiguration = new RequireJsConfiguration();
+    registry.addListener( requireJsConfiguration );
+
+    DefaultServletMapping requireJsConfigurationMapping = new DefaultServletMapping();
+    requireJsConfigurationMapping.setServlet( new RequireJsConfigurationServlet( requireJsConfiguration ) );
+    requireJsConfigurationMapping.setAlias( RequireJsConfigurationServlet.ALIAS );
+
+    this.requireJsConfigurationRegistration = bundleContext.registerService( ServletMapping.class.getName(), requireJsConfigurationMapping, null );
+
+    ComboServlet comboServlet = new ComboServlet( registry, this.resourceCache );
+    registry.addListener( comboServlet );
+
+    DefaultServletMapping comboMapping = new DefaultServletMapping();
+    comboMapping.setServlet( comboServlet );
+    comboMapping.setAlias( ComboServlet.ALIAS );
+
+    this.comboRegistration = bundleContext.registerService( ServletMapping.class.getName(), comboMapping, null );
+
+    this.pentahoWebPackageService = new PentahoWebPackageServiceImpl( this.resourceCache, this.extensionExecutor,
+        registry );
+
+    Dictionary<String, String> managedServiceProps = new Hashtable<>();
+    managedServiceProps.put( Constants.SERVICE_PID, ExtenderManagedService.PID );
+
+    this.managedServiceRegistration = bundleContext.registerService( ManagedService.class, new ExtenderManagedService( this.pentahoWebPackageService, this.extensionExecutor, this.resourceCache ), managedServiceProps );
+
+    // before any bundle is extended, so the ones already generated by the deployer are served exploded
+    this.explodedRootListener = event -> updateExplodedRoot( bundleContext,
+        event.getType() == ServiceEvent.UNREGISTERING ? event.getServiceReference() : null );
+    try {
+      bundleContext.addServiceListener( this.explodedRootListener, EXPLODED_ROOT_FILTER );
+    } catch ( InvalidSyntaxException e ) {
+      throw new IllegalStateException( e );
+    }
+    updateExplodedRoot( bundleContext, null );
 
     bundleContext.addBundleListener( this.pentahoWebPackageService );
 
+    // the bundles started before the extender, only after the listener is there so none is missed
+    this.pentahoWebPackageService.addStartedBundles( bundleContext.getBundles() );
+
+    this.serviceObjectName = registerMBean( this.pentahoWebPackageService, SERVICE_OBJECT_NAME );
+
     this.serviceReference = bundleContext.registerService( PentahoWebPackageService.class, this.pentahoWebPackageService, null );
   }
 
@@ -43,5 +135,98 @@ public class Activator implements BundleActivator {
 
       this.pentahoWebPackageService = null;
     }
+
+    if ( this.explodedRootListener != null ) {
+      bundleContext.removeServiceListener( this.explodedRootListener );
+      this.explodedRootListener = null;
+    }
+
+    if ( this.serviceObjectName != null ) {
+      unregisterMBean( this.serviceObjectName );
+      this.serviceObjectName = null;
+    }
+
+    if ( this.managedServiceRegistration != null ) {
+      this.managedServiceRegistration.unregister();
+      this.managedServiceRegistration = null;
+    }
+
+    if ( this.requireJsConfigurationRegistration != null ) {
+      this.requireJsConfigurationRegistration.unregister();
+      this.requireJsConfigurationRegistration = null;
+    }
+
+    if ( this.comboRegistration != null ) {
+      this.comboRegistration.unregister();
+      this.comboRegistration = null;
+    }
+
+    // lets the extensions already started finish
+    if ( this.extensionExecutor != null ) {
+      this.extensionExecutor.shutdown();
+      this.extensionExecutor = null;
+    }
+
+    if ( this.resourceCacheObjectName != null ) {
+      unregisterMBean( this.resourceCacheObjectName );
+      this.resourceCacheObjectName = null;
+    }
+
+    if ( this.resourceCache != null ) {
+      this.resourceCache.clear();
+      this.resourceCache = null;
+    }
+  }
+
+  private void updateExplodedRoot( BundleContext bundleContext, ServiceReference<?> unregistering ) {
+    PentahoWebPackageServiceImpl service = this.pentahoWebPackageService;
+    if ( service == null ) {
+      return;
+    }
+
+    File explodedRoot = null;
+    try {
+      ServiceReference<?>[] references = bundleContext.getServiceReferences( (String) null, EXPLODED_ROOT_FILTER );
+      if ( references != null ) {
+        for ( ServiceReference<?> reference : references ) {
+          Object path = reference.getProperty( WebPackageHeaders.EXPLODED_ROOT );
+          if ( !reference.equals( unregistering ) && path != null ) {
+            explodedRoot = new File( path.toString() );
+            break;
+          }
+        }
+      }
+    } catch ( InvalidSyntaxException e ) {
+      throw new IllegalStateException( e );
+    }
+
+    service.setExplodedRoot( explodedRoot );
+  }
+
+  private ObjectName registerMBean( Object mBean, String name ) {
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+      ObjectName objectName = new ObjectName( name );
+      if ( mBeanServer.isRegistered( objectName ) ) {
+        mBeanServer.unregisterMBean( objectName );
+      }
+
+      mBeanServer.registerMBean( mBean, objectName );
+
+      return objectName;
+    } catch ( Exception e ) {
+      this.logger.warn( "Unable to register " + name, e );
+
+      return null;
+    }
+  }
+
+  private void unregisterMBean( ObjectName objectName ) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+    } catch ( Exception e ) {
+      this.logger.debug( "Unable to unregister " + objectName, e );
+    }
   }
 }
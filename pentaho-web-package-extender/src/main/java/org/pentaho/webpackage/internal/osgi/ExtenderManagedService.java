@@ -0,0 +1,120 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+
+package org.pentaho.webpackage.internal.osgi;
+
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.pentaho.webpackage.internal.ExtensionExecutor;
+import org.pentaho.webpackage.internal.PentahoWebPackageServiceImpl;
+import org.pentaho.webpackage.internal.ResourceCache;
+
+import java.util.Dictionary;
+
+/**
+ * Applies the extender configuration (PID {@value #PID}) to the running extender.
+ * <ul>
+ *   <li>{@code extension.threads} - number of threads extending the web package bundles, out of the framework event
+ *   thread, or 0 to extend them as the bundle events arrive</li>
+ *   <li>{@code metadata.source} - where the name and version of the web packages come from: the {@code packageJson}
+ *   of each package, or the {@code capability} attributes written by the deployer, which spares reading and parsing
+ *   the package.json (and gives OSGi versions, {@code 1.0.0.beta} instead of {@code 1.0.0-beta}), but leaves the
+ *   package modules out of the RequireJS configuration. Only applies to the bundles extended after the change.</li>
+ *   <li>{@code cache.maxSize} - maximum size, in bytes, of the web package resources kept in memory, 0 to disable
+ *   the cache</li>
+ *   <li>{@code cache.maxEntrySize} - size, in bytes, of the biggest resource kept in memory</li>
+ *   <li>{@code cache.direct} - keep the resources in direct buffers, outside of the heap</li>
+ * </ul>
+ */
+public class ExtenderManagedService implements ManagedService {
+  public static final String PID = "org.pentaho.webpackage";
+
+  static final String EXTENSION_THREADS = "extension.threads";
+
+  static final String METADATA_SOURCE = "metadata.source";
+
+  static final String METADATA_SOURCE_PACKAGE_JSON = "packageJson";
+  static final String METADATA_SOURCE_CAPABILITY = "capability";
+
+  static final String CACHE_MAX_SIZE = "cache.maxSize";
+  static final String CACHE_MAX_ENTRY_SIZE = "cache.maxEntrySize";
+  static final String CACHE_DIRECT = "cache.direct";
+
+  private final PentahoWebPackageServiceImpl service;
+  private final ExtensionExecutor extensionExecutor;
+  private final ResourceCache resourceCache;
+
+  ExtenderManagedService( PentahoWebPackageServiceImpl service, ExtensionExecutor extensionExecutor,
+                          ResourceCache resourceCache ) {
+    this.service = service;
+    this.extensionExecutor = extensionExecutor;
+    this.resourceCache = resourceCache;
+  }
+
+  @Override
+  public void updated( Dictionary<String, ?> properties ) throws ConfigurationException {
+    int threads = (int) getLong( properties, EXTENSION_THREADS, ExtensionExecutor.SYNCHRONOUS );
+    if ( threads < 0 ) {
+      throw new ConfigurationException( EXTENSION_THREADS, "Must not be negative: " + threads );
+    }
+
+    this.extensionExecutor.configure( threads );
+
+    String metadataSource = getString( properties, METADATA_SOURCE, METADATA_SOURCE_PACKAGE_JSON );
+    if ( metadataSource.equalsIgnoreCase( METADATA_SOURCE_CAPABILITY ) ) {
+      this.service.setCapabilityMetadata( true );
+    } else if ( metadataSource.equalsIgnoreCase( METADATA_SOURCE_PACKAGE_JSON ) ) {
+      this.service.setCapabilityMetadata( false );
+    } else {
+      throw new ConfigurationException( METADATA_SOURCE, "Unknown source: " + metadataSource );
+    }
+
+    long maxSize = getLong( properties, CACHE_MAX_SIZE, ResourceCache.DEFAULT_MAX_SIZE );
+    if ( maxSize < 0 ) {
+      throw new ConfigurationException( CACHE_MAX_SIZE, "Must not be negative: " + maxSize );
+    }
+
+    long maxEntrySize = getLong( properties, CACHE_MAX_ENTRY_SIZE, ResourceCache.DEFAULT_MAX_ENTRY_SIZE );
+    if ( maxEntrySize < 0 || maxEntrySize > Integer.MAX_VALUE ) {
+      throw new ConfigurationException( CACHE_MAX_ENTRY_SIZE, "Must be between 0 and " + Integer.MAX_VALUE + ": " + maxEntrySize );
+    }
+
+    boolean direct = Boolean.parseBoolean( getString( properties, CACHE_DIRECT, "false" ) );
+
+    this.resourceCache.configure( maxSize, maxEntrySize, direct );
+  }
+
+  static String getString( Dictionary<String, ?> properties, String key, String defaultValue ) {
+    Object value = properties != null ? properties.get( key ) : null;
+
+    return value != null ? value.toString().trim() : defaultValue;
+  }
+
+  static long getLong( Dictionary<String, ?> properties, String key, long defaultValue ) throws ConfigurationException {
+    Object value = properties != null ? properties.get( key ) : null;
+    if ( value == null ) {
+      return defaultValue;
+    }
+
+    try {
+      return value instanceof Number ? ( (Number) value ).longValue() : Long.parseLong( value.toString().trim() );
+    } catch ( NumberFormatException e ) {
+      throw new ConfigurationException( key, "Not a number: " + value, e );
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Bundle;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ComboServletTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private WebPackageRegistry registry;
+  private ResourceCache resourceCache;
+  private ComboServlet servlet;
+
+  private PentahoWebPackageImpl pentahoWebPackage;
+
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private ByteArrayOutputStream responseBody;
+
+  @Before
+  public void setUp() throws Exception {
+    this.registry = new WebPackageRegistry();
+    this.resourceCache = new ResourceCache();
+
+    this.servlet = new ComboServlet( this.registry, this.resourceCache );
+    this.registry.addListener( this.servlet );
+
+    this.pentahoWebPackage = createWebPackage( "a", "/a" );
+    this.registry.add( this.pentahoWebPackage );
+    this.registry.add( createWebPackage( "@scope/b", "/b" ) );
+
+    this.request = mock( HttpServletRequest.class );
+
+    this.responseBody = new ByteArrayOutputStream();
+    this.response = mock( HttpServletResponse.class );
+    when( this.response.getOutputStream() ).thenReturn( new ServletOutputStream() {
+      @Override
+      public void write( int b ) throws IOException {
+        ComboServletTest.this.responseBody.write( b );
+      }
+    } );
+  }
+
+  private PentahoWebPackageImpl createWebPackage( String name, String root ) throws IOException {
+    return createWebPackage( name, root, Collections.<String, String>emptyMap() );
+  }
+
+  private PentahoWebPackageImpl createWebPackage( String name, String root, Map<String, String> digests )
+      throws IOException {
+    File directory = new File( this.folder.getRoot(), root );
+    directory.mkdirs();
+
+    Files.write( new File( directory, "x.js" ).toPath(), ( "define(\"" + name + "/x\",1)" ).getBytes( StandardCharsets.UTF_8 ) );
+    Files.write( new File( directory, "y.js" ).toPath(), ( "define(\"" + name + "/y\",2);" ).getBytes( StandardCharsets.UTF_8 ) );
+    Files.write( new File( directory, "z.css" ).toPath(), "p{}".getBytes( StandardCharsets.UTF_8 ) );
+
+    Bundle bundle = mock( Bundle.class );
+    when( bundle.getEntry( anyString() ) ).thenReturn( null );
+
+    return new PentahoWebPackageImpl( bundle, name, "1.0.0", root, null, null, this.resourceCache,
+        digests, null, this.folder.getRoot(), this.registry );
+  }
+
+  @Test
+  public void servesTheResourcesInTheRequestedOrder() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/@scope/b/1.0.0/y.js&/a/1.0.0/x.js" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    String content = "define(\"@scope/b/y\",2);\n;\ndefine(\"a/x\",1)";
+    assertEquals( content, this.responseBody.toString( "UTF-8" ) );
+
+    verify( this.response ).setContentType( ComboServlet.SCRIPT_CONTENT_TYPE );
+    verify( this.response ).setContentLength( content.length() );
+  }
+
+  @Test
+  public void combinationsOfListedResourcesAreImmutable() throws Exception {
+    Map<String, String> digests = new HashMap<>();
+    digests.put( "c/x.js", "0123456789abcdef0123456789abcdef" );
+    digests.put( "c/y.js", "fedcba9876543210fedcba9876543210" );
+    this.registry.add( createWebPackage( "c", "/c", digests ) );
+
+    when( this.request.getQueryString() ).thenReturn( "/c/1.0.0/x.js&/c/1.0.0/y.js" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).setHeader( "Cache-Control", WebPackageResourceFilter.CACHE_CONTROL );
+    verify( this.response ).setHeader( eq( "ETag" ), anyString() );
+  }
+
+  @Test
+  public void combinationsOfUnlistedResourcesAreRevalidated() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/a/1.0.0/x.js&/a/1.0.0/y.js" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).setHeader( "Cache-Control", WebPackageResourceFilter.REVALIDATE_CACHE_CONTROL );
+    verify( this.response, never() ).setHeader( "Cache-Control", WebPackageResourceFilter.CACHE_CONTROL );
+
+    String eTag = getETag();
+
+    // the package is updated in place, under the same name and version
+    PentahoWebPackageImpl updatedWebPackage = createWebPackage( "a", "/a" );
+    Files.write( new File( this.folder.getRoot(), "a/y.js" ).toPath(), "define(\"a/y\",3);".getBytes( StandardCharsets.UTF_8 ) );
+    this.registry.remove( this.pentahoWebPackage );
+    this.registry.add( updatedWebPackage );
+
+    this.servlet.doGet( this.request, this.response );
+
+    assertNotEquals( eTag, getETag() );
+  }
+
+  @Test
+  public void matchingCombinationsAreNotModified() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/a/1.0.0/x.js&/a/1.0.0/y.js" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    String eTag = getETag();
+    when( this.request.getHeader( "If-None-Match" ) ).thenReturn( eTag );
+    this.responseBody.reset();
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    assertEquals( 0, this.responseBody.size() );
+  }
+
+  private String getETag() {
+    ArgumentCaptor<String> eTag = ArgumentCaptor.forClass( String.class );
+    verify( this.response, atLeastOnce() ).setHeader( eq( "ETag" ), eTag.capture() );
+
+    return eTag.getValue();
+  }
+
+  @Test
+  public void servesCachedCombinationsUntilAPackageGoesAway() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/a/1.0.0/x.js&/a/1.0.0/y.js" );
+
+    this.servlet.doGet( this.request, this.response );
+    this.servlet.doGet( this.request, this.response );
+
+    assertEquals( 1, this.resourceCache.getEntryCount() );
+    assertEquals( 1, this.resourceCache.getHitCount() );
+
+    this.registry.remove( this.pentahoWebPackage );
+
+    assertEquals( 0, this.resourceCache.getEntryCount() );
+  }
+
+  @Test
+  public void missingResourcesAreNotFound() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/a/1.0.0/x.js&/a/1.0.0/w.js" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).sendError( HttpServletResponse.SC_NOT_FOUND );
+    verify( this.response, never() ).getOutputStream();
+  }
+
+  @Test
+  public void missingPackagesAreNotFound() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/c/1.0.0/x.js" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).sendError( HttpServletResponse.SC_NOT_FOUND );
+  }
+
+  @Test
+  public void mixedContentTypesAreRejected() throws Exception {
+    when( this.request.getQueryString() ).thenReturn( "/a/1.0.0/x.js&/a/1.0.0/z.css" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).sendError( HttpServletResponse.SC_BAD_REQUEST );
+  }
+
+  @Test
+  public void getPaths() throws Exception {
+    assertEquals( Arrays.asList( "/a/1.0.0/x.js", "/@s/b/1.0.0/y z.js" ),
+        ComboServlet.getPaths( "/a/1.0.0/x.js&%2F%40s%2Fb/1.0.0/y%20z.js" ) );
+
+    assertNull( ComboServlet.getPaths( null ) );
+    assertNull( ComboServlet.getPaths( "" ) );
+    assertNull( ComboServlet.getPaths( "a/1.0.0/x.js" ) );
+    assertNull( ComboServlet.getPaths( "/a/1.0.0/../../x.js" ) );
+    assertNull( ComboServlet.getPaths( "/a/1.0.0/x\\y.js" ) );
+    assertNull( ComboServlet.getPaths( "/a/1.0.0/%" ) );
+
+    StringBuilder queryString = new StringBuilder( "/a/1.0.0/x.js" );
+    for ( int i = 0; i < ComboServlet.MAX_PATHS; i++ ) {
+      queryString.append( "&/a/1.0.0/x.js" );
+    }
+
+    assertNull( ComboServlet.getPaths( queryString.toString() ) );
+  }
+}
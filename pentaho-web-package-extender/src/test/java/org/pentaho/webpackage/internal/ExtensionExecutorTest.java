@@ -0,0 +1,182 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExtensionExecutorTest {
+  private ExtensionExecutor executor;
+
+  @Before
+  public void setUp() throws Exception {
+    this.executor = new ExtensionExecutor();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.executor.shutdown();
+  }
+
+  @Test
+  public void synchronousByDefault() throws Exception {
+    Thread[] thread = new Thread[ 1 ];
+
+    this.executor.execute( 1, () -> thread[ 0 ] = Thread.currentThread() );
+
+    assertEquals( Thread.currentThread(), thread[ 0 ] );
+    assertEquals( 0, this.executor.getPendingCount() );
+  }
+
+  @Test
+  public void keepsTheOrderOfEachBundle() throws Exception {
+    this.executor.configure( 4 );
+
+    List<String> events = Collections.synchronizedList( new ArrayList<>() );
+    for ( int i = 0; i < 1000; i++ ) {
+      final int event = i;
+      this.executor.execute( i % 8, () -> events.add( ( event % 8 ) + ":" + event ) );
+    }
+
+    assertTrue( this.executor.awaitPending( 10, TimeUnit.SECONDS ) );
+    assertEquals( 1000, events.size() );
+
+    int[] last = new int[ 8 ];
+    Arrays.fill( last, -1 );
+    for ( String event : events ) {
+      String[] parts = event.split( ":" );
+      int bundle = Integer.parseInt( parts[ 0 ] );
+      int sequence = Integer.parseInt( parts[ 1 ] );
+
+      assertTrue( sequence > last[ bundle ] );
+      last[ bundle ] = sequence;
+    }
+  }
+
+  @Test
+  public void runsOutOfTheCallerThread() throws Exception {
+    this.executor.configure( 1 );
+
+    Thread[] thread = new Thread[ 1 ];
+    this.executor.execute( 1, () -> thread[ 0 ] = Thread.currentThread() );
+
+    assertTrue( this.executor.awaitPending( 10, TimeUnit.SECONDS ) );
+    assertNotEquals( Thread.currentThread(), thread[ 0 ] );
+  }
+
+  @Test
+  public void awaitTimesOut() throws Exception {
+    this.executor.configure( 1 );
+
+    CountDownLatch release = new CountDownLatch( 1 );
+    this.executor.execute( 1, () -> {
+      try {
+        release.await();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    } );
+
+    assertFalse( this.executor.awaitPending( 10, TimeUnit.MILLISECONDS ) );
+    assertEquals( 1, this.executor.getPendingCount() );
+
+    release.countDown();
+
+    assertTrue( this.executor.awaitPending( 10, TimeUnit.SECONDS ) );
+  }
+
+  @Test
+  public void failuresDoNotStopTheOthers() throws Exception {
+    this.executor.configure( 1 );
+
+    boolean[] ran = new boolean[ 1 ];
+    this.executor.execute( 1, () -> {
+      throw new IllegalStateException( "expected" );
+    } );
+    this.executor.execute( 1, () -> ran[ 0 ] = true );
+
+    assertTrue( this.executor.awaitPending( 10, TimeUnit.SECONDS ) );
+    assertTrue( ran[ 0 ] );
+  }
+
+  @Test
+  public void reconfiguringDoesNotWaitForTheRunningTasks() throws Exception {
+    this.executor.configure( 1 );
+
+    CountDownLatch release = new CountDownLatch( 1 );
+    List<String> events = Collections.synchronizedList( new ArrayList<>() );
+    this.executor.execute( 1, () -> {
+      try {
+        release.await();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+
+      events.add( "first" );
+    } );
+
+    this.executor.configure( 2 );
+    this.executor.execute( 1, () -> events.add( "second" ) );
+
+    assertEquals( 2, this.executor.getThreads() );
+    assertTrue( events.isEmpty() );
+
+    release.countDown();
+
+    assertTrue( this.executor.awaitPending( 10, TimeUnit.SECONDS ) );
+    assertEquals( Arrays.asList( "first", "second" ), events );
+  }
+
+  @Test
+  public void synchronousTasksWaitForTheReplacedThreads() throws Exception {
+    this.executor.configure( 1 );
+
+    CountDownLatch started = new CountDownLatch( 1 );
+    List<String> events = Collections.synchronizedList( new ArrayList<>() );
+    this.executor.execute( 1, () -> {
+      started.countDown();
+
+      try {
+        Thread.sleep( 100 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+
+      events.add( "first" );
+    } );
+
+    assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+    this.executor.configure( ExtensionExecutor.SYNCHRONOUS );
+    this.executor.execute( 1, () -> events.add( "second" ) );
+
+    assertEquals( Arrays.asList( "first", "second" ), events );
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFileSenderTest {
+  private File file;
+  private byte[] content;
+
+  @Before
+  public void setUp() throws Exception {
+    this.content = new byte[ (int) MappedFileSender.MIN_MAPPED_SIZE * 3 + 17 ];
+    new Random( 1 ).nextBytes( this.content );
+
+    this.file = File.createTempFile( "mapped", ".js" );
+    Files.write( this.file.toPath(), this.content );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.delete( this.file.toPath() );
+  }
+
+  @Test
+  public void writesToAnyOutputStream() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    MappedFileSender.send( this.file, outputStream );
+
+    assertArrayEquals( this.content, outputStream.toByteArray() );
+  }
+
+  @Test
+  public void handsTheMappingToTheContainer() throws Exception {
+    SendContentOutputStream outputStream = new SendContentOutputStream();
+
+    MappedFileSender.send( this.file, outputStream );
+
+    assertTrue( outputStream.sentContent );
+    assertArrayEquals( this.content, outputStream.toByteArray() );
+  }
+
+  @Test
+  public void copiesSmallFiles() throws Exception {
+    byte[] small = { 1, 2, 3 };
+    Files.write( this.file.toPath(), small );
+
+    SendContentOutputStream outputStream = new SendContentOutputStream();
+
+    MappedFileSender.send( this.file, outputStream );
+
+    assertArrayEquals( small, outputStream.toByteArray() );
+    assertTrue( !outputStream.sentContent );
+  }
+
+  // like Jetty's HttpOutput
+  public static class SendContentOutputStream extends ByteArrayOutputStream {
+    boolean sentContent;
+
+    public void sendContent( ByteBuffer content ) throws IOException {
+      assertTrue( content.isDirect() );
+
+      this.sentContent = true;
+
+      byte[] bytes = new byte[ content.remaining() ];
+      content.get( bytes );
+      write( bytes );
+    }
+  }
+}
@@ -22,6 +22,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.ops4j.pax.web.extender.whiteboard.FilterMapping;
 import org.ops4j.pax.web.extender.whiteboard.ResourceMapping;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -30,18 +31,44 @@ import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.Version;
 import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleWiring;
+import org.pentaho.webpackage.PentahoWebPackage;
 import org.pentaho.webpackage.PentahoWebPackageService;
-
+import org.pentaho.webpackage.common.VersionParser;
+import org.pentaho.webpackage.common.WebPackageHeaders;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
@@ -60,7 +87,7 @@ public class PentahoWebPackageServiceImplTest {
     this.mockBundleCounter = 1L;
 
     this.service = new PentahoWebPackageServiceImpl();
-    this.serviceRegistrationMap = new HashMap<>();
+    this.serviceRegistrationMap = new ConcurrentHashMap<>();
   }
 
   @Test
@@ -127,6 +154,161 @@ public class PentahoWebPackageServiceImplTest {
     verify( spyed, times( 1 ) ).removeBundle( bundle );
   }
 
+  @Test
+  public void asynchronousBundleEvents() throws Exception {
+    ExtensionExecutor extensionExecutor = new ExtensionExecutor();
+    extensionExecutor.configure( 2 );
+
+    this.service = new PentahoWebPackageServiceImpl( null, extensionExecutor );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    try {
+      this.service.bundleChanged( this.createMockBundleEvent( bundle, BundleEvent.STARTED ) );
+      this.service.bundleChanged( this.createMockBundleEvent( bundle, BundleEvent.STOPPED ) );
+
+      assertTrue( this.service.awaitExtensions( 10, TimeUnit.SECONDS ) );
+
+      // added, and only then removed
+      verify( bundle.getBundleContext(), times( 1 ) ).registerService( eq( ResourceMapping.class.getName() ), any( ResourceMapping.class ), any() );
+      verify( this.serviceRegistrationMap.get( "/pentaho-web-package-1a" ), times( 1 ) ).unregister();
+    } finally {
+      extensionExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void addStartedBundles() {
+    List<Bundle> bundles = new ArrayList<>();
+    for ( String suffix : new String[] { "1a", "1b", "1c" } ) {
+      List<BundleCapability> capabilities = new ArrayList<>();
+      capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-" + suffix ) );
+
+      bundles.add( this.createMockWebPackageBundle( capabilities, "pentaho-web-package-" + suffix, "1.0", Bundle.ACTIVE ) );
+    }
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-2" ) );
+    Bundle resolvedBundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-2", "1.0", Bundle.RESOLVED );
+    bundles.add( resolvedBundle );
+
+    bundles.add( this.createMockBundle( "mock-1", "1.0", Bundle.ACTIVE ) );
+
+    this.service.addStartedBundles( bundles.toArray( new Bundle[ 0 ] ), 4 );
+
+    for ( int i = 0; i < 3; i++ ) {
+      verify( bundles.get( i ).getBundleContext(), times( 1 ) ).registerService( eq( ResourceMapping.class.getName() ), any( ResourceMapping.class ), any() );
+    }
+    verify( resolvedBundle.getBundleContext(), times( 0 ) ).registerService( eq( ResourceMapping.class.getName() ), any( ResourceMapping.class ), any() );
+
+    assertEquals( 3, this.service.getInitialScanBundleCount() );
+    assertEquals( 3, this.service.getExtendedBundleCount() );
+    assertTrue( this.service.getInitialScanTime() >= 0 );
+  }
+
+  @Test
+  public void addStartedBundlesSkipsStoppingBundles() {
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    // still active, but already without a context
+    when( bundle.getBundleContext() ).thenReturn( null );
+
+    this.service.addStartedBundles( new Bundle[] { bundle }, 1 );
+
+    assertEquals( 0, this.service.getExtendedBundleCount() );
+  }
+
+  @Test
+  public void addStartedBundlesWithoutBundles() {
+    this.service.addStartedBundles( null );
+
+    // nothing to test, it just shouldn't fail
+  }
+
+  @Test
+  public void concurrentBundleEvents() throws Exception {
+    final String[] roots = { "1a", "1b", "1c", "2a", "2b", "2c" };
+
+    AtomicInteger registered = new AtomicInteger();
+    AtomicInteger unregistered = new AtomicInteger();
+
+    List<Bundle> bundles = new ArrayList<>();
+    for ( int i = 0; i < 12; i++ ) {
+      List<BundleCapability> capabilities = new ArrayList<>();
+      capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-" + roots[ i % roots.length ] ) );
+
+      Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-" + i, "1.0", Bundle.ACTIVE );
+      when( bundle.getBundleContext().registerService( any( String.class ), any(), any() ) ).thenAnswer( invocation -> {
+        registered.incrementAndGet();
+
+        ServiceRegistration mockServiceRegistration = mock( ServiceRegistration.class );
+        doAnswer( unregisterInvocation -> unregistered.incrementAndGet() ).when( mockServiceRegistration ).unregister();
+
+        return mockServiceRegistration;
+      } );
+
+      bundles.add( bundle );
+    }
+
+    final int threads = 8;
+    final int eventsPerThread = 500;
+
+    CountDownLatch start = new CountDownLatch( 1 );
+    ExecutorService executorService = Executors.newFixedThreadPool( threads );
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for ( int t = 0; t < threads; t++ ) {
+        final Random random = new Random( t );
+
+        futures.add( executorService.submit( () -> {
+          start.await();
+
+          for ( int i = 0; i < eventsPerThread; i++ ) {
+            Bundle bundle = bundles.get( random.nextInt( bundles.size() ) );
+            int type = random.nextBoolean() ? BundleEvent.STARTED : BundleEvent.STOPPED;
+
+            this.service.bundleChanged( this.createMockBundleEvent( bundle, type ) );
+          }
+
+          return null;
+        } ) );
+      }
+
+      start.countDown();
+
+      for ( Future<?> future : futures ) {
+        future.get( 60, TimeUnit.SECONDS );
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    bundles.forEach( bundle -> this.service.bundleChanged( this.createMockBundleEvent( bundle, BundleEvent.STOPPED ) ) );
+
+    // whatever the interleaving, everything registered was unregistered exactly once
+    assertTrue( registered.get() > 0 );
+    assertEquals( 0, this.service.getExtendedBundleCount() );
+    assertEquals( registered.get(), unregistered.get() );
+  }
+
+  @Test
+  public void bundleDestroyedBeforeInit() {
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    // what happens when a removal gets between an addition and the initialization
+    PentahoWebPackageBundleImpl extendedBundle = new PentahoWebPackageBundleImpl( bundle, null );
+    extendedBundle.destroy();
+    extendedBundle.init();
+
+    verify( bundle.getBundleContext(), times( 0 ) ).registerService( eq( ResourceMapping.class.getName() ), any( ResourceMapping.class ), any() );
+  }
+
   @Test
   public void addWebPackageBundle() {
     List<BundleCapability> capabilities = new ArrayList<>();
@@ -148,6 +330,222 @@ public class PentahoWebPackageServiceImplTest {
     assertResourceMappingExists( capturedResourceMappings, "/pentaho-web-package-1c", "/package-name-1c/1.2" );
   }
 
+  @Test
+  public void failedInitLeavesNothingRegistered() {
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1b" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    AtomicInteger filterCount = new AtomicInteger();
+    when( bundle.getBundleContext().registerService( eq( FilterMapping.class.getName() ), any( FilterMapping.class ), any() ) ).thenAnswer( invocation -> {
+      if ( filterCount.incrementAndGet() > 1 ) {
+        throw new IllegalStateException( "expected" );
+      }
+
+      return mock( ServiceRegistration.class );
+    } );
+
+    try {
+      this.service.addBundle( bundle );
+      fail( "The failure should reach the caller" );
+    } catch ( IllegalStateException expected ) {
+      // the first package was registered, and the second halfway
+    }
+
+    verify( this.serviceRegistrationMap.get( "/pentaho-web-package-1a" ), times( 1 ) ).unregister();
+    verify( this.serviceRegistrationMap.get( "/pentaho-web-package-1b" ), times( 1 ) ).unregister();
+    assertEquals( 0, this.service.getExtendedBundleCount() );
+    assertTrue( this.service.getWebPackages().isEmpty() );
+  }
+
+  @Test
+  public void explodedFoldersOnlyUnderTheRoot() throws Exception {
+    Path explodedRoot = Files.createTempDirectory( "exploded" );
+    Path elsewhere = Files.createTempDirectory( "elsewhere" );
+    try {
+      for ( Path directory : new Path[] { explodedRoot.resolve( "bundle.exploded" ), elsewhere } ) {
+        Path resourcesFolder = Files.createDirectories( directory.resolve( "pentaho-web-package-1a" ) );
+        Files.write( resourcesFolder.resolve( "script.js" ), new byte[] { 1 } );
+      }
+
+      this.service.setExplodedRoot( explodedRoot.toFile() );
+
+      assertNotNull( getExplodedResource( explodedRoot.resolve( "bundle.exploded" ).toString() ) );
+      assertNull( getExplodedResource( elsewhere.toString() ) );
+      assertNull( getExplodedResource( explodedRoot.resolve( "bundle.exploded/../../" + elsewhere.getFileName() ).toString() ) );
+
+      this.service.setExplodedRoot( null );
+
+      assertNull( getExplodedResource( explodedRoot.resolve( "bundle.exploded" ).toString() ) );
+    } finally {
+      for ( Path directory : new Path[] { explodedRoot, elsewhere } ) {
+        try ( Stream<Path> paths = Files.walk( directory ) ) {
+          paths.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+        }
+      }
+    }
+  }
+
+  private URL getExplodedResource( String explodedDirectory ) {
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+    bundle.getHeaders().put( WebPackageHeaders.EXPLODED_DIRECTORY, explodedDirectory );
+
+    this.service.addBundle( bundle );
+    try {
+      // the bundle itself has no such entry
+      return ( (PentahoWebPackageImpl) this.service.getWebPackage( "package-name-1a", "1.0" ) ).getResource( "/script.js" );
+    } finally {
+      this.service.removeBundle( bundle );
+    }
+  }
+
+  @Test
+  public void addWebPackageBundleRegistersFilters() {
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1b" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    ArgumentCaptor<FilterMapping> filterMappingCaptor = ArgumentCaptor.forClass( FilterMapping.class );
+
+    this.service.addBundle( bundle );
+
+    verify( bundle.getBundleContext(), times( 2 ) ).registerService( eq( FilterMapping.class.getName() ), filterMappingCaptor.capture(), any() );
+
+    List<String> urlPatterns = new ArrayList<>();
+    filterMappingCaptor.getAllValues().forEach( filterMapping -> urlPatterns.addAll( Arrays.asList( filterMapping.getUrlPatterns() ) ) );
+
+    assertTrue( urlPatterns.contains( "/package-name-1a/1.0/*" ) );
+    assertTrue( urlPatterns.contains( "/package-name-1b/1.1/*" ) );
+
+    this.service.removeBundle( bundle );
+  }
+
+  @Test
+  public void addWebPackageBundleRegistersPackages() {
+    RequireJsConfiguration requireJsConfiguration = new RequireJsConfiguration();
+
+    WebPackageRegistry registry = new WebPackageRegistry();
+    registry.addListener( requireJsConfiguration );
+
+    this.service = new PentahoWebPackageServiceImpl( null, new ExtensionExecutor(), registry );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1b" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    this.service.addBundle( bundle );
+
+    assertEquals( 2, registry.size() );
+    assertEquals( "/pentaho-web-package-1b", registry.get( "/package-name-1b/1.1" ).getResourceRootPath() );
+
+    String script = new String( requireJsConfiguration.getSnapshot().getContent( false ), StandardCharsets.UTF_8 );
+    assertEquals( "require.config({\"config\":{\"pentaho/service\":{\"package-name-1a/service\":\"pentaho/type/a\","
+        + "\"package-name-1b/service\":\"pentaho/type/b\"}}});\n", script );
+
+    this.service.removeBundle( bundle );
+
+    assertEquals( 0, registry.size() );
+    assertEquals( 0, requireJsConfiguration.getModuleCount() );
+  }
+
+  @Test
+  public void getWebPackagesByNameAndVersionRange() {
+    this.service.setCapabilityMetadata( true );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    for ( String version : new String[] { "2.0.0", "1.0.0", "2.1.0", "2.0.0-beta", "1.2.0" } ) {
+      capabilities.add( createMockWebPackageCapability( "/missing-package-json", "capability-name", version ) );
+    }
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    this.service.addBundle( bundle );
+
+    assertEquals( 6, this.service.getWebPackages().size() );
+
+    List<String> versions = new ArrayList<>();
+    this.service.getWebPackages( "capability-name" ).forEach( webPackage -> versions.add( webPackage.getVersion() ) );
+    assertEquals( Arrays.asList( "1.0.0", "1.2.0", "2.0.0-beta", "2.0.0", "2.1.0" ), versions );
+
+    assertEquals( "1.2.0", this.service.getWebPackage( "capability-name", "^1.0.0" ).getVersion() );
+    assertEquals( "2.1.0", this.service.getWebPackage( "capability-name", "*" ).getVersion() );
+    assertEquals( "2.0.0-beta", this.service.getWebPackage( "capability-name", ">=2.0.0-beta <2.0.0" ).getVersion() );
+    assertEquals( "1.0", this.service.getWebPackage( "package-name-1a", "1" ).getVersion() );
+    assertNull( this.service.getWebPackage( "capability-name", "^3" ) );
+    assertNull( this.service.getWebPackage( "unknown-name", "*" ) );
+    assertTrue( this.service.getWebPackages( "unknown-name" ).isEmpty() );
+
+    this.service.removeBundle( bundle );
+
+    assertTrue( this.service.getWebPackages().isEmpty() );
+    assertTrue( this.service.getWebPackages( "capability-name" ).isEmpty() );
+  }
+
+  @Test
+  public void getDependenciesFromPackageJson() {
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-2a" ) );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-2b" ) );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-2", "1.0", Bundle.ACTIVE );
+
+    this.service.addBundle( bundle );
+
+    PentahoWebPackage webPackage = this.service.getWebPackage( "package-name-2a", "*" );
+
+    List<String> names = new ArrayList<>();
+    this.service.getResolvedDependencies( webPackage ).forEach( dependency -> names.add( dependency.getName() ) );
+    assertEquals( Arrays.asList( "package-name-2b", "package-name-1a" ), names );
+
+    assertEquals( Collections.singletonMap( "missing-name", "~1.2" ), this.service.getMissingDependencies( webPackage ) );
+
+    this.service.removeBundle( bundle );
+  }
+
+  @Test
+  public void getDependenciesFromCapability() {
+    this.service.setCapabilityMetadata( true );
+
+    BundleCapability capability = createMockWebPackageCapability( "/missing-package-json", "capability-name", "1.0.0" );
+    capability.getAttributes().put( "dependencies", Arrays.asList( "package-name-1a@^1.0.0", "@scope/missing@~1.2 || >=2" ) );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( capability );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    this.service.addBundle( bundle );
+
+    PentahoWebPackage webPackage = this.service.getWebPackage( "capability-name", "1.0.0" );
+
+    assertEquals( 1, this.service.getResolvedDependencies( webPackage ).size() );
+    assertEquals( "package-name-1a", this.service.getResolvedDependencies( webPackage ).get( 0 ).getName() );
+    assertEquals( Collections.singletonMap( "@scope/missing", "~1.2 || >=2" ), this.service.getMissingDependencies( webPackage ) );
+
+    this.service.removeBundle( bundle );
+  }
+
+  @Test
+  public void getDependenciesFromUntypedCapabilityAttribute() {
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put( "a", "^1.0.0" );
+    expected.put( "@scope/b", "1,2" );
+    expected.put( "c", "\"1\\" );
+
+    assertEquals( expected,
+        PentahoWebPackageBundleImpl.getCapabilityDependencies( "a@^1.0.0,@scope/b@1\\,2, c@\\\"1\\\\" ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void getWebPackageWithInvalidVersionRange() {
+    this.service.getWebPackage( "package-name-1a", "latest" );
+  }
+
   @Test
   public void addSameWebPackageBundle() {
     List<BundleCapability> capabilities = new ArrayList<>();
@@ -167,6 +565,63 @@ public class PentahoWebPackageServiceImplTest {
     verify( bundle.getBundleContext(), times( 0 ) ).registerService( eq( ResourceMapping.class.getName() ), resourceMappingCaptor.capture(), any() );
   }
 
+  @Test
+  public void addWebPackageBundleWithCapabilityMetadata() {
+    this.service.setCapabilityMetadata( true );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( createMockWebPackageCapability( "/missing-package-json", "capability-name", "2.0.0-beta" ) );
+    // falls back to the package.json
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1a" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    ArgumentCaptor<ResourceMapping> resourceMappingCaptor = ArgumentCaptor.forClass( ResourceMapping.class );
+
+    this.service.addBundle( bundle );
+
+    verify( bundle.getBundleContext(), times( 2 ) ).registerService( eq( ResourceMapping.class.getName() ), resourceMappingCaptor.capture(), any() );
+    verify( bundle, times( 0 ) ).getResource( "/missing-package-json/package.json" );
+
+    List<ResourceMapping> capturedResourceMappings = resourceMappingCaptor.getAllValues();
+
+    assertResourceMappingExists( capturedResourceMappings, "/missing-package-json", "/capability-name/2.0.0-beta" );
+    assertResourceMappingExists( capturedResourceMappings, "/pentaho-web-package-1a", "/package-name-1a/1.0" );
+  }
+
+  @Test
+  public void capabilityMetadataKeepsThePackageJsonVersionAndConfig() {
+    this.service.setCapabilityMetadata( true );
+
+    BundleCapability configured = createMockWebPackageCapability( "/pentaho-web-package-1a", "package-name-1a", "1.0" );
+    configured.getAttributes().put( "hasConfig", "true" );
+    // written by an older deployer
+    BundleCapability withoutNpmVersion = createMockWebPackageCapability( "/pentaho-web-package-1b", "package-name-1b", "1.1" );
+    withoutNpmVersion.getAttributes().remove( "npmVersion" );
+
+    List<BundleCapability> capabilities = new ArrayList<>();
+    capabilities.add( configured );
+    capabilities.add( withoutNpmVersion );
+    capabilities.add( createMockWebPackageCapability( "/pentaho-web-package-1c", "package-name-1c", "1.2" ) );
+    Bundle bundle = this.createMockWebPackageBundle( capabilities, "pentaho-web-package-1", "1.0", Bundle.ACTIVE );
+
+    this.service.addBundle( bundle );
+
+    // not 1.0.0, 1.1.0 and 1.2.0
+    PentahoWebPackage webPackage1a = this.service.getWebPackage( "package-name-1a", "1.0" );
+    assertEquals( "1.0", webPackage1a.getVersion() );
+    assertEquals( "1.1", this.service.getWebPackage( "package-name-1b", "1.1" ).getVersion() );
+    assertEquals( "1.2", this.service.getWebPackage( "package-name-1c", "1.2" ).getVersion() );
+
+    assertEquals( Collections.singletonMap( "package-name-1a/service", "pentaho/type/a" ),
+        webPackage1a.getConfig().get( "pentaho/service" ) );
+
+    verify( bundle ).getResource( "/pentaho-web-package-1a/package.json" );
+    verify( bundle ).getResource( "/pentaho-web-package-1b/package.json" );
+    verify( bundle, times( 0 ) ).getResource( "/pentaho-web-package-1c/package.json" );
+
+    this.service.removeBundle( bundle );
+  }
+
   @Test
   public void addWebPackageBundleWithMissingPackageJson() {
     List<BundleCapability> capabilities = new ArrayList<>();
@@ -338,8 +793,19 @@ public class PentahoWebPackageServiceImplTest {
   }
 
   private BundleCapability createMockWebPackageCapability( String root ) {
+    return createMockWebPackageCapability( root, null, null );
+  }
+
+  // the attributes the deployer writes, for a package.json without a config block
+  private BundleCapability createMockWebPackageCapability( String root, String name, String npmVersion ) {
     Map<String, Object> attributes = new HashMap<>();
     attributes.put( "root", root );
+    if ( name != null ) {
+      attributes.put( "name", name );
+      attributes.put( "version", VersionParser.parseVersion( npmVersion ) );
+      attributes.put( "npmVersion", npmVersion );
+      attributes.put( "hasConfig", "false" );
+    }
 
     BundleCapability bundleCapability = mock( BundleCapability.class );
     when( bundleCapability.getAttributes() ).thenReturn( attributes );
@@ -0,0 +1,137 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.webpackage.PentahoWebPackage;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RequireJsConfigurationServletTest {
+  private RequireJsConfiguration requireJsConfiguration;
+  private RequireJsConfigurationServlet servlet;
+
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private ByteArrayOutputStream responseBody;
+
+  @Before
+  public void setUp() throws Exception {
+    this.requireJsConfiguration = new RequireJsConfiguration();
+
+    PentahoWebPackage pentahoWebPackage = new PentahoWebPackageAbstract( "a", "1.0.0", "/a",
+        Collections.singletonMap( "module", Collections.singletonMap( "x", "1" ) ) ) {
+      @Override
+      public void init() {
+      }
+
+      @Override
+      public void destroy() {
+      }
+    };
+    this.requireJsConfiguration.added( pentahoWebPackage );
+
+    this.servlet = new RequireJsConfigurationServlet( this.requireJsConfiguration );
+
+    this.request = mock( HttpServletRequest.class );
+    when( this.request.getMethod() ).thenReturn( "GET" );
+
+    this.responseBody = new ByteArrayOutputStream();
+    this.response = mock( HttpServletResponse.class );
+    when( this.response.getOutputStream() ).thenReturn( new ServletOutputStream() {
+      @Override
+      public void write( int b ) throws IOException {
+        RequireJsConfigurationServletTest.this.responseBody.write( b );
+      }
+    } );
+  }
+
+  @Test
+  public void servesTheScript() throws Exception {
+    this.servlet.doGet( this.request, this.response );
+
+    RequireJsConfiguration.Snapshot snapshot = this.requireJsConfiguration.getSnapshot();
+
+    verify( this.response ).setHeader( "Cache-Control", RequireJsConfigurationServlet.CACHE_CONTROL );
+    verify( this.response ).setHeader( "ETag", snapshot.getETag( false ) );
+    verify( this.response ).setContentType( RequireJsConfigurationServlet.CONTENT_TYPE );
+    verify( this.response, never() ).setHeader( "Content-Encoding", "gzip" );
+    assertArrayEquals( snapshot.getContent( false ), this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void servesTheGzippedScript() throws Exception {
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip, deflate" );
+
+    this.servlet.doGet( this.request, this.response );
+
+    RequireJsConfiguration.Snapshot snapshot = this.requireJsConfiguration.getSnapshot();
+
+    verify( this.response ).setHeader( "ETag", snapshot.getETag( true ) );
+    verify( this.response ).setHeader( "Content-Encoding", "gzip" );
+    verify( this.response ).setContentLength( snapshot.getContent( true ).length );
+    assertArrayEquals( snapshot.getContent( true ), this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void notModified() throws Exception {
+    when( this.request.getHeader( "If-None-Match" ) ).thenReturn( this.requireJsConfiguration.getSnapshot().getETag( false ) );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    verify( this.response, never() ).setContentType( anyString() );
+    assertEquals( 0, this.responseBody.size() );
+  }
+
+  @Test
+  public void modifiedWhenPackagesChange() throws Exception {
+    String eTag = this.requireJsConfiguration.getSnapshot().getETag( false );
+    when( this.request.getHeader( "If-None-Match" ) ).thenReturn( eTag );
+
+    this.requireJsConfiguration.added( new PentahoWebPackageAbstract( "b", "1.0.0", "/b",
+        Collections.singletonMap( "module", Collections.singletonMap( "y", "2" ) ) ) {
+      @Override
+      public void init() {
+      }
+
+      @Override
+      public void destroy() {
+      }
+    } );
+
+    this.servlet.doGet( this.request, this.response );
+
+    verify( this.response, never() ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    assertArrayEquals( this.requireJsConfiguration.getSnapshot().getContent( false ), this.responseBody.toByteArray() );
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.webpackage.PentahoWebPackage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class RequireJsConfigurationTest {
+  private RequireJsConfiguration requireJsConfiguration;
+
+  @Before
+  public void setUp() {
+    this.requireJsConfiguration = new RequireJsConfiguration();
+  }
+
+  @Test
+  public void emptyConfiguration() {
+    assertEquals( "require.config({\"config\":{}});\n", getScript() );
+  }
+
+  @Test
+  public void mergesModuleConfigurations() {
+    PentahoWebPackage newer = createPackage( "b", "1.10.0", "pentaho/service", map( "shared", "newer", "b", "2" ) );
+    PentahoWebPackage older = createPackage( "b", "1.9.0", "pentaho/service", map( "shared", "older", "a", "1" ) );
+    PentahoWebPackage other = createPackage( "a", "1.0.0", "other/module", map( "nested", map( "x", 1L ) ) );
+
+    // the order of the packages, not the one they come in, says which configuration wins
+    this.requireJsConfiguration.added( newer );
+    this.requireJsConfiguration.added( older );
+    this.requireJsConfiguration.added( other );
+
+    assertEquals( "require.config({\"config\":{\"other/module\":{\"nested\":{\"x\":1}},"
+        + "\"pentaho/service\":{\"shared\":\"newer\",\"a\":\"1\",\"b\":\"2\"}}});\n", getScript() );
+
+    this.requireJsConfiguration.removed( newer );
+
+    assertEquals( "require.config({\"config\":{\"other/module\":{\"nested\":{\"x\":1}},"
+        + "\"pentaho/service\":{\"shared\":\"older\",\"a\":\"1\"}}});\n", getScript() );
+
+    this.requireJsConfiguration.removed( older );
+    this.requireJsConfiguration.removed( other );
+
+    assertEquals( 0, this.requireJsConfiguration.getModuleCount() );
+    assertEquals( "require.config({\"config\":{}});\n", getScript() );
+  }
+
+  @Test
+  public void mergesNestedObjects() {
+    this.requireJsConfiguration.added( createPackage( "a", "1.0.0", "module", map( "types", map( "x", "1", "y", "1" ) ) ) );
+    this.requireJsConfiguration.added( createPackage( "b", "1.0.0", "module", map( "types", map( "y", "2" ) ) ) );
+
+    assertEquals( "require.config({\"config\":{\"module\":{\"types\":{\"x\":\"1\",\"y\":\"2\"}}}});\n", getScript() );
+  }
+
+  @Test
+  public void keepsPackagesWithTheSameNameAndVersion() {
+    PentahoWebPackage first = createPackage( "a", "1.0.0", "module", map( "x", "1" ) );
+    PentahoWebPackage second = createPackage( "a", "1.0.0", "module", map( "y", "2" ) );
+
+    this.requireJsConfiguration.added( first );
+    this.requireJsConfiguration.added( second );
+
+    assertEquals( "require.config({\"config\":{\"module\":{\"x\":\"1\",\"y\":\"2\"}}});\n", getScript() );
+
+    this.requireJsConfiguration.removed( first );
+
+    assertEquals( "require.config({\"config\":{\"module\":{\"y\":\"2\"}}});\n", getScript() );
+  }
+
+  @Test
+  public void newGenerationOnlyWhenChanged() {
+    RequireJsConfiguration.Snapshot first = this.requireJsConfiguration.getSnapshot();
+
+    this.requireJsConfiguration.added( createPackage( "a", "1.0.0", null, null ) );
+    this.requireJsConfiguration.removed( createPackage( "b", "1.0.0", "module", map( "x", "1" ) ) );
+
+    assertEquals( 0, this.requireJsConfiguration.getGeneration() );
+    assertSame( first, this.requireJsConfiguration.getSnapshot() );
+
+    this.requireJsConfiguration.added( createPackage( "c", "1.0.0", "module", map( "x", "1" ) ) );
+
+    RequireJsConfiguration.Snapshot second = this.requireJsConfiguration.getSnapshot();
+
+    assertEquals( 1, this.requireJsConfiguration.getGeneration() );
+    assertNotEquals( first.getETag( false ), second.getETag( false ) );
+    assertNotEquals( second.getETag( false ), second.getETag( true ) );
+    assertSame( second, this.requireJsConfiguration.getSnapshot() );
+  }
+
+  @Test
+  public void gzipsTheScript() throws Exception {
+    this.requireJsConfiguration.added( createPackage( "a", "1.0.0", "module", map( "x", "1" ) ) );
+
+    RequireJsConfiguration.Snapshot snapshot = this.requireJsConfiguration.getSnapshot();
+
+    byte[] gunzipped = new byte[ snapshot.getContent( false ).length ];
+    try ( GZIPInputStream inputStream = new GZIPInputStream( new ByteArrayInputStream( snapshot.getContent( true ) ) ) ) {
+      int offset = 0;
+      int read;
+      while ( offset < gunzipped.length && ( read = inputStream.read( gunzipped, offset, gunzipped.length - offset ) ) != -1 ) {
+        offset += read;
+      }
+    }
+
+    assertArrayEquals( snapshot.getContent( false ), gunzipped );
+  }
+
+  private String getScript() {
+    return new String( this.requireJsConfiguration.getSnapshot().getContent( false ), StandardCharsets.UTF_8 );
+  }
+
+  private static PentahoWebPackage createPackage( String name, String version, String moduleId, Object moduleConfig ) {
+    Map<String, Object> config = moduleId != null ? Collections.singletonMap( moduleId, moduleConfig ) : null;
+
+    return new PentahoWebPackageAbstract( name, version, "/" + name, config ) {
+      @Override
+      public void init() {
+      }
+
+      @Override
+      public void destroy() {
+      }
+    };
+  }
+
+  private static Map<String, Object> map( Object... keysAndValues ) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for ( int i = 0; i < keysAndValues.length; i += 2 ) {
+      map.put( (String) keysAndValues[ i ], keysAndValues[ i + 1 ] );
+    }
+
+    return map;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceCacheTest {
+  private final Object owner = new Object();
+
+  private ResourceCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    this.cache = new ResourceCache();
+    this.cache.configure( 10, 4, false );
+  }
+
+  @Test
+  public void countsHitsAndMisses() throws Exception {
+    assertNull( this.cache.get( this.owner, "/a.js" ) );
+
+    this.cache.put( this.owner, "/a.js", new byte[] { 1, 2, 3 } );
+
+    ByteBuffer content = this.cache.get( this.owner, "/a.js" );
+    assertEquals( 3, content.remaining() );
+    assertEquals( 2, content.get( 1 ) );
+
+    assertEquals( 1, this.cache.getHitCount() );
+    assertEquals( 1, this.cache.getMissCount() );
+    assertEquals( 0.5, this.cache.getHitRate(), 0 );
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+    this.cache.put( this.owner, "/a.js", new byte[ 4 ] );
+    this.cache.put( this.owner, "/b.js", new byte[ 4 ] );
+    this.cache.get( this.owner, "/a.js" );
+
+    this.cache.put( this.owner, "/c.js", new byte[ 4 ] );
+
+    assertNotNull( this.cache.get( this.owner, "/a.js" ) );
+    assertNull( this.cache.get( this.owner, "/b.js" ) );
+    assertNotNull( this.cache.get( this.owner, "/c.js" ) );
+    assertEquals( 8, this.cache.getSize() );
+    assertEquals( 1, this.cache.getEvictionCount() );
+  }
+
+  @Test
+  public void skipsBigResources() throws Exception {
+    assertFalse( this.cache.isCacheable( 5 ) );
+    assertFalse( this.cache.isCacheable( -1 ) );
+    assertTrue( this.cache.isCacheable( 4 ) );
+
+    ByteBuffer content = this.cache.put( this.owner, "/big.js", new byte[ 5 ] );
+
+    assertEquals( 5, content.remaining() );
+    assertNull( this.cache.get( this.owner, "/big.js" ) );
+    assertEquals( 0, this.cache.getSize() );
+  }
+
+  @Test
+  public void invalidatesByOwner() throws Exception {
+    Object otherOwner = new Object();
+
+    this.cache.put( this.owner, "/a.js", new byte[ 2 ] );
+    this.cache.put( otherOwner, "/a.js", new byte[ 3 ] );
+
+    this.cache.invalidate( this.owner );
+
+    assertNull( this.cache.get( this.owner, "/a.js" ) );
+    assertEquals( 3, this.cache.get( otherOwner, "/a.js" ).remaining() );
+    assertEquals( 3, this.cache.getSize() );
+    assertEquals( 1, this.cache.getEntryCount() );
+  }
+
+  @Test
+  public void directBuffers() throws Exception {
+    this.cache.put( this.owner, "/a.js", new byte[ 2 ] );
+
+    this.cache.configure( 10, 4, true );
+    assertEquals( 0, this.cache.getEntryCount() );
+
+    this.cache.put( this.owner, "/a.js", new byte[] { 7, 8 } );
+
+    ByteBuffer content = this.cache.get( this.owner, "/a.js" );
+    assertTrue( content.isDirect() );
+    assertEquals( 8, content.get( 1 ) );
+  }
+
+  @Test
+  public void shrinking() throws Exception {
+    this.cache.put( this.owner, "/a.js", new byte[ 4 ] );
+    this.cache.put( this.owner, "/b.js", new byte[ 4 ] );
+
+    this.cache.configure( 0, 4, false );
+
+    assertEquals( 0, this.cache.getSize() );
+    assertFalse( this.cache.isCacheable( 1 ) );
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.pentaho.webpackage.PentahoWebPackage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class WebPackageDependencyGraphTest {
+  private WebPackageRegistry registry;
+  private WebPackageDependencyGraph graph;
+
+  @Before
+  public void setUp() {
+    this.registry = new WebPackageRegistry();
+
+    this.graph = new WebPackageDependencyGraph( this.registry );
+    this.registry.addListener( this.graph );
+  }
+
+  @Test
+  public void resolvesTransitiveDependencies() {
+    PentahoWebPackageImpl a = add( "a", "1.0.0", "b", "^1.0.0", "c", "~2.0", "x", "git+https://example.com/x.git" );
+    add( "b", "1.0.0" );
+    PentahoWebPackageImpl b15 = add( "b", "1.5.0", "d", "*" );
+    add( "b", "2.0.0" );
+    add( "c", "2.1.0" );
+    // back to the first one
+    PentahoWebPackageImpl d = add( "d", "1.0.0", "a", "1", "b", "1.5" );
+
+    WebPackageDependencyGraph.Resolution resolution = this.graph.resolve( a );
+
+    assertEquals( Arrays.<PentahoWebPackage>asList( b15, d ), resolution.getDependencies() );
+
+    Map<String, String> missingDependencies = new HashMap<>();
+    missingDependencies.put( "c", "~2.0" );
+    missingDependencies.put( "x", "git+https://example.com/x.git" );
+    assertEquals( missingDependencies, resolution.getMissingDependencies() );
+  }
+
+  @Test
+  public void keepsResolutionsUntilAPackageLookedUpChanges() {
+    PentahoWebPackageImpl a = add( "a", "1.0.0", "b", "^1.0.0", "c", "~2.0" );
+    add( "b", "1.0.0", "d", "*" );
+
+    WebPackageDependencyGraph.Resolution resolution = this.graph.resolve( a );
+    assertSame( resolution, this.graph.resolve( a ) );
+
+    add( "unrelated", "1.0.0" );
+    assertSame( resolution, this.graph.resolve( a ) );
+
+    // missing, and then found
+    PentahoWebPackageImpl c = add( "c", "2.0.5" );
+    WebPackageDependencyGraph.Resolution withC = this.graph.resolve( a );
+    assertNotSame( resolution, withC );
+    assertTrue( withC.getDependencies().contains( c ) );
+    assertTrue( withC.getMissingDependencies().containsKey( "d" ) );
+
+    // a dependency of a dependency
+    PentahoWebPackageImpl d = add( "d", "3.0.0" );
+    WebPackageDependencyGraph.Resolution withD = this.graph.resolve( a );
+    assertNotSame( withC, withD );
+    assertTrue( withD.getDependencies().contains( d ) );
+    assertTrue( withD.getMissingDependencies().isEmpty() );
+
+    this.registry.remove( d );
+    assertEquals( Collections.singletonMap( "d", "*" ), this.graph.resolve( a ).getMissingDependencies() );
+  }
+
+  @Test
+  public void reusesTheResolutionsOfDependencies() {
+    PentahoWebPackageImpl a = add( "a", "1.0.0", "b", "*" );
+    PentahoWebPackageImpl b = add( "b", "1.0.0", "c", "*" );
+    PentahoWebPackageImpl c = add( "c", "1.0.0" );
+
+    assertEquals( Collections.<PentahoWebPackage>singletonList( c ), this.graph.resolve( b ).getDependencies() );
+    assertEquals( Arrays.<PentahoWebPackage>asList( b, c ), this.graph.resolve( a ).getDependencies() );
+
+    // the resolution of a took the names looked up for b along
+    PentahoWebPackageImpl c2 = add( "c", "2.0.0" );
+    assertEquals( Arrays.<PentahoWebPackage>asList( b, c2 ), this.graph.resolve( a ).getDependencies() );
+  }
+
+  @Test
+  public void forgetsUnregisteredPackages() {
+    PentahoWebPackageImpl a = add( "a", "1.0.0", "b", "*" );
+    PentahoWebPackageImpl b = add( "b", "1.0.0" );
+
+    this.graph.resolve( a );
+    this.graph.resolve( b );
+    assertEquals( 2, this.graph.size() );
+
+    this.registry.remove( a );
+    assertEquals( 1, this.graph.size() );
+
+    // resolved, but not kept
+    this.graph.resolve( a );
+    assertEquals( 1, this.graph.size() );
+
+    this.registry.remove( b );
+    assertEquals( 0, this.graph.size() );
+  }
+
+  private PentahoWebPackageImpl add( String name, String version, String... dependencies ) {
+    Map<String, String> ranges = new HashMap<>();
+    for ( int i = 0; i < dependencies.length; i += 2 ) {
+      ranges.put( dependencies[ i ], dependencies[ i + 1 ] );
+    }
+
+    PentahoWebPackageImpl webPackage = new PentahoWebPackageImpl( mock( Bundle.class ), name, version, "/" + name,
+        null, ranges, null, Collections.<String, String>emptyMap(), null, null, null );
+    this.registry.add( webPackage );
+
+    return webPackage;
+  }
+}
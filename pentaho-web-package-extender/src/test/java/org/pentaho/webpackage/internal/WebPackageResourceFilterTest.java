@@ -0,0 +1,456 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ *
+ * Copyright 2002 - 2017 Pentaho Corporation. All rights reserved.
+ */
+package org.pentaho.webpackage.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.pentaho.webpackage.common.WebPackageDigests;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WebPackageResourceFilterTest {
+  private static final String ALIAS = "/my-module/1.0.0";
+  private static final String ROOT = "/pwp-1234/package";
+
+  private File root;
+  private byte[] gzipped;
+
+  private Bundle bundle;
+  private ResourceCache resourceCache;
+  private WebPackageResourceFilter filter;
+
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private FilterChain chain;
+  private ByteArrayOutputStream responseBody;
+
+  @Before
+  public void setUp() throws Exception {
+    this.root = Files.createTempDirectory( "webpackage" ).toFile();
+
+    File script = new File( this.root, "script.js" );
+    Files.write( script.toPath(), "define({});".getBytes( StandardCharsets.UTF_8 ) );
+
+    try ( GZIPOutputStream gzipOutputStream = new GZIPOutputStream( new FileOutputStream( new File( this.root, "script.js.gz" ) ) ) ) {
+      gzipOutputStream.write( "define({});".getBytes( StandardCharsets.UTF_8 ) );
+    }
+    this.gzipped = Files.readAllBytes( new File( this.root, "script.js.gz" ).toPath() );
+
+    Files.write( new File( this.root, "image.png" ).toPath(), new byte[] { 1, 2, 3 } );
+
+    this.bundle = mock( Bundle.class );
+    when( this.bundle.getEntry( anyString() ) ).thenAnswer( invocation -> {
+      String path = (String) invocation.getArguments()[ 0 ];
+      File file = new File( this.root, path.substring( ROOT.length() ) );
+
+      return path.startsWith( ROOT + "/" ) && file.isFile() ? file.toURI().toURL() : null;
+    } );
+
+    ServletContext servletContext = mock( ServletContext.class );
+    when( servletContext.getMimeType( "/script.js" ) ).thenReturn( "application/javascript" );
+
+    FilterConfig filterConfig = mock( FilterConfig.class );
+    when( filterConfig.getServletContext() ).thenReturn( servletContext );
+
+    this.resourceCache = new ResourceCache();
+
+    this.filter = new WebPackageResourceFilter( this.bundle, ALIAS, ROOT, this.resourceCache );
+    this.filter.init( filterConfig );
+
+    this.request = mock( HttpServletRequest.class );
+    when( this.request.getMethod() ).thenReturn( "GET" );
+    when( this.request.getServletPath() ).thenReturn( ALIAS );
+
+    this.responseBody = new ByteArrayOutputStream();
+    this.response = mock( HttpServletResponse.class );
+    when( this.response.getOutputStream() ).thenReturn( new ServletOutputStream() {
+      @Override
+      public void write( int b ) throws IOException {
+        WebPackageResourceFilterTest.this.responseBody.write( b );
+      }
+    } );
+
+    this.chain = mock( FilterChain.class );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    File[] files = this.root.listFiles();
+    if ( files != null ) {
+      for ( File file : files ) {
+        Files.delete( file.toPath() );
+      }
+    }
+
+    Files.delete( this.root.toPath() );
+  }
+
+  @Test
+  public void servesGzippedCopy() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip, deflate, br" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.chain, never() ).doFilter( this.request, this.response );
+    verify( this.response ).setHeader( "Content-Encoding", "gzip" );
+    verify( this.response ).addHeader( "Vary", "Accept-Encoding" );
+    verify( this.response ).setContentType( "application/javascript" );
+    verify( this.response ).setContentLength( this.gzipped.length );
+    assertArrayEquals( this.gzipped, this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void servesResourceWhenGzipNotAccepted() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "identity" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.chain, never() ).doFilter( this.request, this.response );
+    verify( this.response ).addHeader( "Vary", "Accept-Encoding" );
+    verify( this.response, never() ).setHeader( eq( "Content-Encoding" ), anyString() );
+    assertArrayEquals( "define({});".getBytes( StandardCharsets.UTF_8 ), this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void servesResourceWithoutPrecompressedCopy() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.chain, never() ).doFilter( this.request, this.response );
+    verify( this.response, never() ).addHeader( "Vary", "Accept-Encoding" );
+    assertArrayEquals( new byte[] { 1, 2, 3 }, this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void fallsThroughForMissingResources() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/missing.js" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.chain ).doFilter( this.request, this.response );
+    verify( this.response, never() ).setHeader( eq( "Cache-Control" ), anyString() );
+  }
+
+  @Test
+  public void revalidatesResourcesWithoutDigest() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response ).setHeader( "Cache-Control", WebPackageResourceFilter.REVALIDATE_CACHE_CONTROL );
+    verify( this.response ).setHeader( "ETag", WebPackageResourceFilter.computeETag( new File( this.root, "image.png" ).toURI().toURL() ) );
+  }
+
+  @Test
+  public void cachesResourcesWithDigestForever() throws Exception {
+    Map<String, String> digests = Collections.singletonMap( ROOT.substring( 1 ) + "/script.js.gz",
+        WebPackageDigests.digest( this.gzipped, 0, this.gzipped.length ) );
+    WebPackageResourceFilter digestsFilter = new WebPackageResourceFilter( this.bundle, ALIAS, ROOT, this.resourceCache, digests, null );
+
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip" );
+
+    digestsFilter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response ).setHeader( "Cache-Control", WebPackageResourceFilter.CACHE_CONTROL );
+
+    // the plain copy isn't listed
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "identity" );
+
+    digestsFilter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response ).setHeader( "Cache-Control", WebPackageResourceFilter.REVALIDATE_CACHE_CONTROL );
+  }
+
+  @Test
+  public void notModified() throws Exception {
+    String eTag = WebPackageResourceFilter.computeETag( new File( this.root, "script.js.gz" ).toURI().toURL() );
+
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip" );
+    when( this.request.getHeader( "If-None-Match" ) ).thenReturn( "\"other\", " + eTag );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.chain, never() ).doFilter( this.request, this.response );
+    verify( this.response ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    verify( this.response ).setHeader( "ETag", eTag );
+    verify( this.response, never() ).getOutputStream();
+  }
+
+  @Test
+  public void eTagsDependOnTheEncoding() throws Exception {
+    String identityETag = WebPackageResourceFilter.computeETag( new File( this.root, "script.js" ).toURI().toURL() );
+    String gzipETag = WebPackageResourceFilter.computeETag( new File( this.root, "script.js.gz" ).toURI().toURL() );
+    assertNotEquals( identityETag, gzipETag );
+
+    // the browser has the gzipped copy, but now asks for the plain one
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+    when( this.request.getHeader( "If-None-Match" ) ).thenReturn( gzipETag );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response, never() ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    verify( this.response ).setHeader( "ETag", identityETag );
+  }
+
+  @Test
+  public void ifNoneMatch() {
+    assertTrue( WebPackageResourceFilter.matches( "\"abc\"", "\"abc\"" ) );
+    assertTrue( WebPackageResourceFilter.matches( "W/\"abc\"", "\"abc\"" ) );
+    assertTrue( WebPackageResourceFilter.matches( "\"def\" , \"abc\"", "\"abc\"" ) );
+    assertTrue( WebPackageResourceFilter.matches( "*", "\"abc\"" ) );
+    assertFalse( WebPackageResourceFilter.matches( "\"def\"", "\"abc\"" ) );
+    assertFalse( WebPackageResourceFilter.matches( null, "\"abc\"" ) );
+  }
+
+  @Test
+  public void fallsThroughForRanges() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+    when( this.request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip" );
+    when( this.request.getHeader( "Range" ) ).thenReturn( "bytes=0-1" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.chain ).doFilter( this.request, this.response );
+  }
+
+  @Test
+  public void servesFromTheCache() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    // the bundle is immutable, this is only to tell where the content comes from
+    Files.write( new File( this.root, "image.png" ).toPath(), new byte[] { 4, 5, 6 } );
+
+    this.responseBody.reset();
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    assertArrayEquals( new byte[] { 1, 2, 3 }, this.responseBody.toByteArray() );
+    assertEquals( 1, this.resourceCache.getHitCount() );
+
+    this.filter.invalidate();
+
+    this.responseBody.reset();
+    this.filter.doFilter( this.request, this.response, this.chain );
+
+    assertArrayEquals( new byte[] { 4, 5, 6 }, this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void digestsIdentifyResources() throws Exception {
+    byte[] image = { 1, 2, 3 };
+    String digest = WebPackageDigests.digest( image, 0, image.length );
+
+    Map<String, String> digests = Collections.singletonMap( ROOT.substring( 1 ) + "/image.png", digest );
+    WebPackageResourceFilter digestsFilter = new WebPackageResourceFilter( this.bundle, ALIAS, ROOT, this.resourceCache, digests, null );
+
+    when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+
+    digestsFilter.doFilter( this.request, this.response, this.chain );
+
+    // the same ETag the content would get without the index
+    String eTag = WebPackageResourceFilter.computeETag( new File( this.root, "image.png" ).toURI().toURL() );
+    assertEquals( eTag, WebPackageResourceFilter.toETag( digest ) );
+    verify( this.response ).setHeader( "ETag", eTag );
+
+    // the next version of the package, with the same image
+    digestsFilter.invalidate();
+    Files.write( new File( this.root, "image.png" ).toPath(), new byte[] { 4, 5, 6 } );
+
+    WebPackageResourceFilter nextFilter = new WebPackageResourceFilter( this.bundle, "/my-module/1.0.1", ROOT, this.resourceCache, digests, null );
+    when( this.request.getServletPath() ).thenReturn( "/my-module/1.0.1" );
+
+    this.responseBody.reset();
+    nextFilter.doFilter( this.request, this.response, this.chain );
+
+    assertArrayEquals( image, this.responseBody.toByteArray() );
+    assertEquals( 1, this.resourceCache.getHitCount() );
+  }
+
+  @Test
+  public void digestsAreCheckedBeforeSharing() throws Exception {
+    byte[] image = { 1, 2, 3 };
+    String digest = WebPackageDigests.digest( image, 0, image.length );
+
+    // a bundle claiming its script is the image of another
+    Map<String, String> claims = Collections.singletonMap( ROOT.substring( 1 ) + "/script.js", digest );
+    WebPackageResourceFilter claimsFilter = new WebPackageResourceFilter( this.bundle, "/other/1.0.0", ROOT, this.resourceCache, claims, null );
+
+    when( this.request.getServletPath() ).thenReturn( "/other/1.0.0" );
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+
+    claimsFilter.doFilter( this.request, this.response, this.chain );
+
+    assertArrayEquals( "define({});".getBytes( StandardCharsets.UTF_8 ), this.responseBody.toByteArray() );
+
+    // from then on the claim is ignored
+    this.responseBody.reset();
+    claimsFilter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response ).setHeader( "Cache-Control", WebPackageResourceFilter.REVALIDATE_CACHE_CONTROL );
+    assertArrayEquals( "define({});".getBytes( StandardCharsets.UTF_8 ), this.responseBody.toByteArray() );
+
+    // the image is still served as it is
+    Map<String, String> digests = Collections.singletonMap( ROOT.substring( 1 ) + "/image.png", digest );
+    WebPackageResourceFilter digestsFilter = new WebPackageResourceFilter( this.bundle, ALIAS, ROOT, this.resourceCache, digests, null );
+
+    when( this.request.getServletPath() ).thenReturn( ALIAS );
+    when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+
+    this.responseBody.reset();
+    digestsFilter.doFilter( this.request, this.response, this.chain );
+
+    assertArrayEquals( image, this.responseBody.toByteArray() );
+  }
+
+  @Test
+  public void entryModulesLinkTheirDependencies() throws Exception {
+    String root = ROOT.substring( 1 );
+
+    Map<String, List<String>> preloads = Collections.singletonMap( root + "/script.js",
+        Arrays.asList( root + "/a.js", root + "/lib/b c.js", "pwp-1234/other/d.js" ) );
+    WebPackageResourceFilter preloadsFilter = new WebPackageResourceFilter( this.bundle, ALIAS, ROOT,
+        this.resourceCache, null, null, preloads );
+
+    when( this.request.getPathInfo() ).thenReturn( "/script.js" );
+
+    preloadsFilter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response ).setHeader( "Link", "</my-module/1.0.0/a.js>; rel=preload; as=script, "
+        + "</my-module/1.0.0/lib/b%20c.js>; rel=preload; as=script" );
+
+    // nothing to preload for the other resources
+    when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+
+    preloadsFilter.doFilter( this.request, this.response, this.chain );
+
+    verify( this.response ).setHeader( eq( "Link" ), startsWith( "<" ) );
+  }
+
+  @Test
+  public void servesExplodedFiles() throws Exception {
+    byte[] big = new byte[ (int) MappedFileSender.MIN_MAPPED_SIZE * 2 ];
+    Arrays.fill( big, (byte) 'x' );
+    Files.write( new File( this.root, "big.js" ).toPath(), big );
+
+    // bigger than what the cache takes
+    this.resourceCache.configure( ResourceCache.DEFAULT_MAX_SIZE, big.length - 1, false );
+
+    Path explodedDirectory = Files.createTempDirectory( "exploded" );
+    try {
+      Path explodedRoot = Files.createDirectories( explodedDirectory.resolve( ROOT.substring( 1 ) ) );
+      Files.write( explodedRoot.resolve( "image.png" ), new byte[] { 7, 8, 9 } );
+
+      big[ 0 ] = 'y';
+      Files.write( explodedRoot.resolve( "big.js" ), big );
+
+      WebPackageResourceFilter explodedFilter = new WebPackageResourceFilter( this.bundle, ALIAS, ROOT,
+          this.resourceCache, null, explodedDirectory.toFile() );
+
+      when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+      explodedFilter.doFilter( this.request, this.response, this.chain );
+
+      assertArrayEquals( new byte[] { 7, 8, 9 }, this.responseBody.toByteArray() );
+      // laid out, so the bundle isn't even asked
+      verify( this.bundle, never() ).getEntry( ROOT + "/image.png" );
+
+      when( this.request.getPathInfo() ).thenReturn( "/big.js" );
+      this.responseBody.reset();
+      explodedFilter.doFilter( this.request, this.response, this.chain );
+
+      verify( this.response ).setContentLength( big.length );
+      assertArrayEquals( big, this.responseBody.toByteArray() );
+      assertEquals( 1, this.resourceCache.getEntryCount() );
+
+      // gone from the deployer cache, back to the bundle
+      Files.delete( explodedRoot.resolve( "image.png" ) );
+      explodedFilter.invalidate();
+
+      when( this.request.getPathInfo() ).thenReturn( "/image.png" );
+      this.responseBody.reset();
+      explodedFilter.doFilter( this.request, this.response, this.chain );
+
+      assertArrayEquals( new byte[] { 1, 2, 3 }, this.responseBody.toByteArray() );
+    } finally {
+      try ( Stream<Path> paths = Files.walk( explodedDirectory ) ) {
+        paths.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+      }
+    }
+  }
+
+  @Test
+  public void ignoresPathsOutsideOfThePackage() throws Exception {
+    when( this.request.getPathInfo() ).thenReturn( "/../../other/script.js" );
+    assertNull( this.filter.getResourcePath( this.request ) );
+
+    when( this.request.getPathInfo() ).thenReturn( "/" );
+    assertNull( this.filter.getResourcePath( this.request ) );
+  }
+
+  @Test
+  public void acceptEncoding() {
+    assertTrue( WebPackageResourceFilter.isAccepted( "gzip", "gzip" ) );
+    assertTrue( WebPackageResourceFilter.isAccepted( "deflate, GZIP;q=0.5", "gzip" ) );
+    assertTrue( WebPackageResourceFilter.isAccepted( "*", "br" ) );
+    assertFalse( WebPackageResourceFilter.isAccepted( "gzip;q=0", "gzip" ) );
+    assertFalse( WebPackageResourceFilter.isAccepted( "*, gzip;q=0", "gzip" ) );
+    assertFalse( WebPackageResourceFilter.isAccepted( "deflate", "gzip" ) );
+    assertFalse( WebPackageResourceFilter.isAccepted( null, "gzip" ) );
+  }
+}
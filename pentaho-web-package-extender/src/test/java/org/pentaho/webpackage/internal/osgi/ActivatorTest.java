@@ -21,10 +21,14 @@ package org.pentaho.webpackage.internal.osgi;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.ops4j.pax.web.extender.whiteboard.ServletMapping;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ManagedService;
 import org.pentaho.webpackage.PentahoWebPackageService;
+import org.pentaho.webpackage.common.WebPackageHeaders;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -51,6 +55,10 @@ public class ActivatorTest {
 
     verify( mockBundleContext, times( 1 ) ).registerService( eq( PentahoWebPackageService.class ), any( PentahoWebPackageService.class ), any() );
     verify( mockBundleContext, times( 1 ) ).addBundleListener( any( BundleListener.class ) );
+    verify( mockBundleContext, times( 1 ) ).registerService( eq( ManagedService.class ), any( ExtenderManagedService.class ), any() );
+    verify( mockBundleContext, times( 2 ) ).registerService( eq( ServletMapping.class.getName() ), any( ServletMapping.class ), any() );
+    verify( mockBundleContext, times( 1 ) ).getBundles();
+    verify( mockBundleContext, times( 1 ) ).addServiceListener( any( ServiceListener.class ), eq( "(" + WebPackageHeaders.EXPLODED_ROOT + "=*)" ) );
   }
 
   @Test
@@ -71,6 +79,7 @@ public class ActivatorTest {
 
     verify( mockServiceRegistration, times( 1 ) ).unregister();
     verify( mockBundleContext, times( 1 ) ).removeBundleListener( same( bundleListenerCaptor.getValue() ) );
+    verify( mockBundleContext, times( 1 ) ).removeServiceListener( any( ServiceListener.class ) );
   }
 
 }